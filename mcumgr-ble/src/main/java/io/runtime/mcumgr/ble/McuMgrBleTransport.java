@@ -26,6 +26,7 @@ import java.lang.reflect.Method;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Executor;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -33,10 +34,13 @@ import io.runtime.mcumgr.McuMgrCallback;
 import io.runtime.mcumgr.McuMgrHeader;
 import io.runtime.mcumgr.McuMgrScheme;
 import io.runtime.mcumgr.McuMgrTransport;
-import io.runtime.mcumgr.ble.callback.SmpMerger;
 import io.runtime.mcumgr.ble.callback.SmpProtocolSession;
+import io.runtime.mcumgr.ble.callback.SmpReassembler;
+import io.runtime.mcumgr.ble.callback.SmpResponseDispatcher;
+import io.runtime.mcumgr.ble.callback.SmpTimeouts;
 import io.runtime.mcumgr.ble.callback.SmpTransaction;
 import io.runtime.mcumgr.ble.util.ResultCondition;
+import io.runtime.mcumgr.ble.util.SendPath;
 import io.runtime.mcumgr.exception.InsufficientMtuException;
 import io.runtime.mcumgr.exception.McuMgrException;
 import io.runtime.mcumgr.exception.McuMgrTimeoutException;
@@ -50,7 +54,6 @@ import no.nordicsemi.android.ble.callback.FailCallback;
 import no.nordicsemi.android.ble.callback.MtuCallback;
 import no.nordicsemi.android.ble.callback.SuccessCallback;
 import no.nordicsemi.android.ble.data.Data;
-import no.nordicsemi.android.ble.data.DataMerger;
 import no.nordicsemi.android.ble.error.GattError;
 import no.nordicsemi.android.ble.exception.DeviceDisconnectedException;
 
@@ -62,7 +65,8 @@ import no.nordicsemi.android.ble.exception.DeviceDisconnectedException;
  * to perform your BLE actions by calling {@link BleManager#enqueue(Request)}.
  */
 @SuppressWarnings("unused")
-public class McuMgrBleTransport extends BleManager implements McuMgrTransport {
+public class McuMgrBleTransport extends BleManager implements McuMgrTransport,
+        McuMgrTransport.PacketLengthLimit, McuMgrTransport.CallbackExecutorSupport {
 
     private static final Logger LOG = LoggerFactory.getLogger(McuMgrBleTransport.class);
 
@@ -74,6 +78,9 @@ public class McuMgrBleTransport extends BleManager implements McuMgrTransport {
     final static UUID CLIENT_CHARACTERISTIC_CONFIG_DESCRIPTOR_UUID =
             UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
 
+    /** The maximum number of requests in flight, limited by the 8-bit sequence number. */
+    public final static int MAX_IN_FLIGHT_REQUESTS = 256;
+
     /**
      * Simple Management Protocol service.
      */
@@ -109,9 +116,28 @@ public class McuMgrBleTransport extends BleManager implements McuMgrTransport {
     private final BluetoothDevice mDevice;
 
     /**
-     * An instance of a merger used to merge SMP packets that are split into multiple BLE packets.
+     * Reassembles SMP packets that are split into multiple notifications, or sent many in one
+     * notification, and forwards them to the protocol layer to be matched to a request.
      */
-    private final DataMerger mSMPMerger = new SmpMerger();
+    private final SmpReassembler mReassembler = new SmpReassembler(
+            new SmpReassembler.FrameListener() {
+                @Override
+                public void onFrame(@NonNull byte[] frame) {
+                    if (mLoggingEnabled) {
+                        try {
+                            log(Log.INFO, "Received "
+                                    + McuMgrHeader.fromBytes(frame).toString() + " CBOR "
+                                    + CBOR.toString(frame, McuMgrHeader.HEADER_LENGTH));
+                        } catch (Exception e) {
+                            // Ignore
+                        }
+                    }
+                    final SmpProtocolSession session = mSmpProtocol;
+                    if (session != null) {
+                        session.receive(frame);
+                    }
+                }
+            });
 
     /**
      * The maximum packet length supported by the target device.
@@ -135,15 +161,67 @@ public class McuMgrBleTransport extends BleManager implements McuMgrTransport {
      * initialized. When the device disconnects, the protocol session is closed
      * and this variable is set to null.
      */
-    private SmpProtocolSession mSmpProtocol;
+    private volatile SmpProtocolSession mSmpProtocol;
+
+    /**
+     * Sends requests directly to the protocol session when the device is connected, and
+     * connects to the device first otherwise.
+     */
+    private final SendPath mSendPath = new SendPath(new SendPath.Link() {
+        @Override
+        public boolean isSessionReady() {
+            return isReady() && mSmpProtocol != null;
+        }
+
+        @Override
+        public void connect(@NotNull final SendPath.ConnectCallback callback) {
+            // If the device was already connected, the completion callback will be
+            // called immediately.
+            final boolean wasConnected = isConnected();
+            McuMgrBleTransport.this.connect(mDevice)
+                    .done(new SuccessCallback() {
+                        @Override
+                        public void onRequestCompleted(@NonNull final BluetoothDevice device) {
+                            callback.onConnected(!wasConnected);
+                        }
+                    })
+                    .fail(new FailCallback() {
+                        @Override
+                        public void onRequestFailed(@NonNull final BluetoothDevice device,
+                                                    final int status) {
+                            callback.onFailed(status);
+                        }
+                    })
+                    .retry(3, 100)
+                    .enqueue();
+        }
+    });
+
+    /**
+     * Timeouts of the SMP transactions, shared by all protocol sessions.
+     */
+    private final SmpTimeouts mTimeouts = new SmpTimeouts();
+
+    /**
+     * The maximum number of requests sent and waiting for a response. Requests above the limit
+     * are queued until a response is received or a request times out.
+     */
+    private int mMaxInFlightRequests = MAX_IN_FLIGHT_REQUESTS;
 
     /**
      * The handler used to initialize {@link BleManager} and
-     * {@link SmpProtocolSession}. The protocol session will call callbacks on
+     * {@link SmpProtocolSession}. The protocol session sends transactions on
      * the handler.
      */
     private Handler mHandler;
 
+    /**
+     * Decodes responses on the decode executor and delivers the results to
+     * {@link McuMgrCallback}s on the callback executor.
+     */
+    @NonNull
+    private final SmpResponseDispatcher mDispatcher;
+
     /**
      * Construct a McuMgrBleTransport object.
      *
@@ -164,10 +242,38 @@ public class McuMgrBleTransport extends BleManager implements McuMgrTransport {
      * @param device  the device to connect to and communicate with.
      * @param handler the handler to run the {@link BleManager} and {@link McuMgrCallback}s.
      */
-    public McuMgrBleTransport(@NonNull Context context, @NonNull BluetoothDevice device, @NonNull Handler handler) {
+    public McuMgrBleTransport(@NonNull Context context, @NonNull BluetoothDevice device, @NonNull final Handler handler) {
+        this(context, device, handler, SmpResponseDispatcher.DEFAULT_DECODE_EXECUTOR,
+                new Executor() {
+                    @Override
+                    public void execute(@NonNull Runnable command) {
+                        handler.post(command);
+                    }
+                });
+    }
+
+    /**
+     * Construct a McuMgrBleTransport object with a handler to run the
+     * {@link BleManager}, an executor decoding the responses and an executor
+     * to run the asynchronous callbacks.
+     * <p>
+     * Decoding a response parses its whole CBOR payload, which should not
+     * be done on the main thread. The decode executor should run tasks
+     * in order, one at a time, so that responses are delivered in order.
+     *
+     * @param context          the context used to connect to the device.
+     * @param device           the device to connect to and communicate with.
+     * @param handler          the handler to run the {@link BleManager}.
+     * @param decodeExecutor   the executor decoding responses.
+     * @param callbackExecutor the executor to run the {@link McuMgrCallback}s.
+     */
+    public McuMgrBleTransport(@NonNull Context context, @NonNull BluetoothDevice device,
+                              @NonNull Handler handler, @NonNull Executor decodeExecutor,
+                              @NonNull Executor callbackExecutor) {
         super(context, handler);
         mHandler = handler;
         mDevice = device;
+        mDispatcher = new SmpResponseDispatcher(decodeExecutor, callbackExecutor);
     }
 
     /**
@@ -211,6 +317,50 @@ public class McuMgrBleTransport extends BleManager implements McuMgrTransport {
         mMaxPacketLength = maxLength;
     }
 
+    @Override
+    public int getMaxPacketLength() {
+        // The length is known only once the MTU has been negotiated
+        return isReady() ? mMaxPacketLength : 0;
+    }
+
+    /**
+     * Returns the timeouts of SMP transactions. By default, the timeouts adapt to the round trip
+     * time measured on the connection. The returned object may be used to change the limits of
+     * the estimation or to set a fixed timeout for a command.
+     *
+     * @return The transaction timeouts.
+     */
+    @NonNull
+    public SmpTimeouts getTimeouts() {
+        return mTimeouts;
+    }
+
+    /**
+     * Sets the executor running the {@link McuMgrCallback}s. Responses are decoded on the decode
+     * executor regardless, so e.g. a direct executor calls the callbacks on the decoder thread.
+     *
+     * @param executor the callback executor.
+     */
+    @Override
+    public void setCallbackExecutor(@NonNull Executor executor) {
+        mDispatcher.setCallbackExecutor(executor);
+    }
+
+    /**
+     * Sets the maximum number of requests which may be sent and wait for a response at the same
+     * time. Requests above the limit are not rejected, but queued and sent in order when
+     * responses are received. The limit is applied on the next connection.
+     *
+     * @param maxInFlightRequests the limit, between 1 and {@link #MAX_IN_FLIGHT_REQUESTS}
+     *                            (default).
+     */
+    public void setMaxInFlightRequests(int maxInFlightRequests) {
+        if (maxInFlightRequests < 1 || maxInFlightRequests > MAX_IN_FLIGHT_REQUESTS) {
+            throw new IllegalArgumentException("Invalid limit: " + maxInFlightRequests);
+        }
+        mMaxInFlightRequests = maxInFlightRequests;
+    }
+
     //*******************************************************************************************
     // Logging
     //*******************************************************************************************
@@ -284,26 +434,31 @@ public class McuMgrBleTransport extends BleManager implements McuMgrTransport {
                                                 @NonNull final Class<T> responseType,
                                                 @NonNull final McuMgrCallback<T> callback) {
 
-        // If device is not connected, connect.
-        // If the device was already connected, the completion callback will be called immediately.
-        final boolean wasConnected = isConnected();
-        connect(mDevice)
-                .done(new SuccessCallback() {
+        // If the device is connected, the request is sent directly.
+        // Otherwise, the device is connected first.
+        mSendPath.send(new SendPath.Request() {
             @Override
-            public void onRequestCompleted(@NonNull final BluetoothDevice device) {
-                if (!wasConnected) {
+            public void send(boolean newlyConnected) {
+                if (newlyConnected) {
                     notifyConnected();
                 }
 
                 // Ensure the MTU is sufficient. Packets longer than MTU, but shorter
                 // then few MTU lengths can be split automatically.
                 if (mMaxPacketLength < payload.length) {
-                    callback.onError(new InsufficientMtuException(payload.length, mMaxPacketLength));
+                    mDispatcher.onError(new InsufficientMtuException(payload.length, mMaxPacketLength), callback);
+                    return;
+                }
+
+                // The session may have been closed by a disconnection in the meantime
+                final SmpProtocolSession session = mSmpProtocol;
+                if (session == null) {
+                    mDispatcher.onError(new McuMgrException("Device has disconnected"), callback);
                     return;
                 }
 
                 // Send a new transaction to the protocol layer
-                mSmpProtocol.send(payload, new SmpTransaction() {
+                session.send(payload, new SmpTransaction() {
                     @Override
                     public void send(@NotNull byte[] data) {
 
@@ -317,6 +472,10 @@ public class McuMgrBleTransport extends BleManager implements McuMgrTransport {
                             }
                         }
 
+                        // Android accepts one GATT operation at a time, so the chunks are
+                        // written back to back through the BLE library queue. A write without
+                        // response completes once the stack has buffered the chunk; requests
+                        // overlap by being in flight in the protocol session instead.
                         writeCharacteristic(mSmpCharacteristicWrite, payload).split()
                                 .fail(new FailCallback() {
                                     @Override
@@ -324,16 +483,16 @@ public class McuMgrBleTransport extends BleManager implements McuMgrTransport {
                                                                 int status) {
                                         switch (status) {
                                             case REASON_TIMEOUT:
-                                                callback.onError(new McuMgrException("Request timed out"));
+                                                mDispatcher.onError(new McuMgrException("Request timed out"), callback);
                                                 break;
                                             case REASON_DEVICE_DISCONNECTED:
-                                                callback.onError(new McuMgrException("Device has disconnected"));
+                                                mDispatcher.onError(new McuMgrException("Device has disconnected"), callback);
                                                 break;
                                             case REASON_BLUETOOTH_DISABLED:
-                                                callback.onError(new McuMgrException("Bluetooth adapter disabled"));
+                                                mDispatcher.onError(new McuMgrException("Bluetooth adapter disabled"), callback);
                                                 break;
                                             default:
-                                                callback.onError(new McuMgrException(GattError.parse(status)));
+                                                mDispatcher.onError(new McuMgrException(GattError.parse(status)), callback);
                                                 break;
                                         }
                                     }
@@ -343,55 +502,49 @@ public class McuMgrBleTransport extends BleManager implements McuMgrTransport {
 
                     @Override
                     public void onResponse(@NotNull byte[] data) {
-                        try {
-                            T response = McuMgrResponse.buildResponse(McuMgrScheme.BLE, data, responseType);
-                            callback.onResponse(response);
-                        } catch (final Exception e) {
-                            callback.onError(new McuMgrException(e));
-                        }
+                        // Decoded off the thread which received the response
+                        mDispatcher.onResponse(data, McuMgrScheme.BLE, responseType, callback);
                     }
 
                     @Override
                     public void onFailure(@NotNull Throwable e) {
                         if (e instanceof McuMgrException) {
-                            callback.onError((McuMgrException) e);
+                            mDispatcher.onError((McuMgrException) e, callback);
                         } else {
-                            callback.onError(new McuMgrException(e));
+                            mDispatcher.onError(new McuMgrException(e), callback);
                         }
                     }
                 });
             }
-        }).fail(new FailCallback() {
+
             @Override
-            public void onRequestFailed(@NonNull final BluetoothDevice device, final int status) {
+            public void onConnectionFailed(int status) {
                 switch (status) {
                     case REASON_DEVICE_DISCONNECTED:
-                        callback.onError(new McuMgrException("Device has disconnected"));
+                        mDispatcher.onError(new McuMgrException("Device has disconnected"), callback);
                         break;
                     case REASON_DEVICE_NOT_SUPPORTED:
-                        callback.onError(new McuMgrException("Device does not support SMP Service"));
+                        mDispatcher.onError(new McuMgrException("Device does not support SMP Service"), callback);
                         break;
                     case REASON_REQUEST_FAILED:
                         // This could be thrown only if the manager was requested to connect for
                         // a second time and to a different device than the one that's already
                         // connected. This may not happen here.
-                        callback.onError(new McuMgrException("Other device already connected"));
+                        mDispatcher.onError(new McuMgrException("Other device already connected"), callback);
                         break;
                     case REASON_TIMEOUT:
                         // Called after receiving error 133 after 30 seconds.
-                        callback.onError(new McuMgrTimeoutException());
+                        mDispatcher.onError(new McuMgrTimeoutException(), callback);
                         break;
                     case REASON_BLUETOOTH_DISABLED:
-                        callback.onError(new McuMgrException("Bluetooth adapter disabled"));
+                        mDispatcher.onError(new McuMgrException("Bluetooth adapter disabled"), callback);
                         break;
                     default:
-                        callback.onError(new McuMgrException(GattError.parseConnectionError(status)));
+                        mDispatcher.onError(new McuMgrException(GattError.parseConnectionError(status)), callback);
                         break;
                 }
             }
-        })
-        .retry(3, 100)
-        .enqueue();
+        });
     }
 
     @Override
@@ -548,32 +701,18 @@ public class McuMgrBleTransport extends BleManager implements McuMgrTransport {
                         }
                     }).enqueue();
             enableNotifications(mSmpCharacteristicNotify).enqueue();
-            mSmpProtocol = new SmpProtocolSession(mHandler);
+            mSmpProtocol = new SmpProtocolSession(mHandler, mTimeouts, mMaxInFlightRequests);
             setNotificationCallback(mSmpCharacteristicNotify)
-                    .merge(mSMPMerger)
                     .with(mAsyncNotificationCallback);
         }
 
         // Registered as a callback for all notifications from the SMP characteristic.
-        // Forwards the merged data packets to the protocol layer to be matched to a request.
+        // Passes the notifications to the reassembler.
         private DataReceivedCallback mAsyncNotificationCallback = new DataReceivedCallback() {
 
             @Override
             public void onDataReceived(@NonNull BluetoothDevice device, @NonNull Data data) {
-                byte[] bytes = data.getValue();
-                if (bytes == null) {
-                    return;
-                }
-                if (mLoggingEnabled) {
-                    try {
-                        log(Log.INFO, "Received "
-                                + McuMgrHeader.fromBytes(bytes).toString() + " CBOR "
-                                + CBOR.toString(bytes, McuMgrHeader.HEADER_LENGTH));
-                    } catch (Exception e) {
-                        // Ignore
-                    }
-                }
-                mSmpProtocol.receive(bytes);
+                mReassembler.accept(data.getValue());
             }
         };
 
@@ -582,6 +721,7 @@ public class McuMgrBleTransport extends BleManager implements McuMgrTransport {
         @Override
         protected void onDeviceDisconnected() {
             removeNotificationCallback(mSmpCharacteristicNotify);
+            mReassembler.reset();
             if (mSmpProtocol != null) {
                 mSmpProtocol.close(new DeviceDisconnectedException());
             }
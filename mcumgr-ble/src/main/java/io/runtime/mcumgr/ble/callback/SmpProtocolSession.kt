@@ -2,55 +2,136 @@ package io.runtime.mcumgr.ble.callback
 
 import android.os.Handler
 import io.runtime.mcumgr.McuMgrHeader
-import io.runtime.mcumgr.ble.util.RotatingCounter
+import io.runtime.mcumgr.ble.util.RttEstimator
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.CoroutineExceptionHandler
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.channels.consumeEach
-import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
-import kotlinx.coroutines.sync.Mutex
-import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.withTimeoutOrNull
+import kotlin.coroutines.CoroutineContext
 import kotlin.coroutines.EmptyCoroutineContext
 
 private const val SMP_SEQ_NUM_MAX = 255
+private const val NOT_SAMPLED = -1L
+private const val NO_DEADLINE = Long.MAX_VALUE
 
-internal class SmpProtocolSession(
-    private val handler: Handler? = null
+private fun now(): Long = System.nanoTime() / 1_000_000
+
+/**
+ * The protocol session matches responses to requests using the sequence number.
+ *
+ * The number of transactions in flight, i.e. sent and waiting for a response, is limited to
+ * [maxInFlight], which can't exceed the number of sequence numbers. Each transaction takes a
+ * credit when it's sent and returns it when it completes, fails or times out. Sequence numbers of
+ * transactions in flight are skipped, so a pending transaction is never overwritten. Requests sent while
+ * no credit is available are queued in order and sent as soon as one is returned, so producers
+ * may send as fast as the link allows without throttling themselves.
+ *
+ * Transactions are sent on the [handler], if given. Responses and failures are reported
+ * directly on the session's threads; the transaction is responsible for dispatching them, so
+ * that no work is done on the handler thread just to hand the response over.
+ *
+ * The session's coroutines run in the given [context], and round trip times and deadlines are
+ * measured in milliseconds of the given [clock]. Tests replace both to run in virtual time.
+ */
+internal class SmpProtocolSession @JvmOverloads constructor(
+    private val handler: Handler? = null,
+    private val timeouts: SmpTimeouts = SmpTimeouts(),
+    maxInFlight: Int = SMP_SEQ_NUM_MAX + 1,
+    context: CoroutineContext = EmptyCoroutineContext,
+    private val clock: () -> Long = ::now
 ) {
 
-    private data class Outgoing(val data: ByteArray, val transaction: SmpTransaction)
+    private class Outgoing(
+        val data: ByteArray,
+        val transaction: SmpTransaction,
+        val sent: CompletableDeferred<Unit>? = null
+    )
 
-    private val scope = CoroutineScope(EmptyCoroutineContext)
-    private val txChannel: Channel<Outgoing> = Channel(SMP_SEQ_NUM_MAX + 1)
+    private val scope = CoroutineScope(context)
+    private val txChannel: Channel<Outgoing> = Channel(Channel.UNLIMITED)
     private val rxChannel: Channel<ByteArray> = Channel(SMP_SEQ_NUM_MAX + 1)
-    private val sequenceCounter = RotatingCounter(SMP_SEQ_NUM_MAX)
-    private val transactions: Array<SmpTransaction?> = arrayOfNulls(SMP_SEQ_NUM_MAX + 1)
-    private val transactionsMutex = Mutex()
+    private var nextSequenceNumber = 0
+    private val transactions = SmpTransactionTable(SMP_SEQ_NUM_MAX + 1)
+    private val credits: Semaphore
+    @Volatile
+    private var closeCause: Throwable? = null
+
+    // Round trip time estimation
+    private val rttEstimator = RttEstimator()
+
+    // Timeouts. Instead of a coroutine per transaction, a single timer coroutine waits for the
+    // earliest deadline and fails all expired transactions at once. A deadline is stored with
+    // its transaction and removed with it, so a response cancels the timeout in O(1).
+    private val timerSignal = Channel<Unit>(Channel.CONFLATED)
+    @Volatile
+    private var nextDeadline = NO_DEADLINE
 
     /**
      * Launches the main coroutine and channel consumers.
      */
     init {
+        require(maxInFlight in 1..SMP_SEQ_NUM_MAX + 1) {
+            "The in-flight limit must be between 1 and ${SMP_SEQ_NUM_MAX + 1}"
+        }
+        credits = Semaphore(maxInFlight)
         scope.launch(
             // When the session is closed, fail all remaining transactions.
             // Exception is propagated from close through the channels.
             CoroutineExceptionHandler { _, throwable ->
-                for (transaction in transactions) {
-                    transaction?.onFailure(handler, throwable)
+                for (id in 0 until transactions.size) {
+                    transactions.complete(id)?.transaction?.onFailure(throwable)
+                }
+                // Fail requests which are still queued
+                while (true) {
+                    val outgoing = try {
+                        txChannel.poll()
+                    } catch (e: Throwable) {
+                        null
+                    } ?: break
+                    outgoing.fail(throwable)
                 }
             }
         ) {
-            // Launch the reader and writer
+            // Launch the reader, writer and timer
             launch { reader() }
             launch { writer() }
+            launch { timer() }
         }
     }
 
+    /**
+     * Queues the request and returns immediately. The transaction is sent when a credit is
+     * available, and its callbacks report the result. This method may be called from any thread.
+     */
     fun send(data: ByteArray, transaction: SmpTransaction) {
-        check(txChannel.offer(Outgoing(data, transaction))) {
-            "Cannot send request, transmit channel buffer is full."
+        val outgoing = Outgoing(data, transaction)
+        try {
+            txChannel.offer(outgoing)
+        } catch (e: Exception) {
+            // The session has been closed
+            outgoing.fail(e)
+        }
+    }
+
+    /**
+     * Queues the request and suspends until a credit is available and the transaction has been
+     * sent, or failed before being sent. The callbacks of the transaction report the result.
+     */
+    suspend fun sendSuspending(data: ByteArray, transaction: SmpTransaction) {
+        val sent = CompletableDeferred<Unit>()
+        val outgoing = Outgoing(data, transaction, sent)
+        try {
+            txChannel.send(outgoing)
+        } catch (e: Exception) {
+            // The session has been closed
+            outgoing.fail(e)
         }
+        sent.await()
     }
 
     fun receive(data: ByteArray) {
@@ -60,33 +141,52 @@ internal class SmpProtocolSession(
     }
 
     fun close(e: Exception) {
+        closeCause = e
         txChannel.close(e)
         rxChannel.close(e)
     }
 
     /**
      * Consumes messages off the tx channel until the channel is closed.
+     * Messages remaining in the channel are failed when the session is closed.
      */
     private suspend fun writer() {
 
-        txChannel.consumeEach { outgoing ->
+        for (outgoing in txChannel) {
+
+            // Wait for a credit
+            try {
+                credits.acquire()
+            } catch (e: CancellationException) {
+                outgoing.fail(closeCause ?: e)
+                throw e
+            }
+
+            // Transactions with a fixed timeout are not used for the estimation
+            val fixedTimeout = timeouts.getFixedTimeout(outgoing.data)
+            val timeout = fixedTimeout ?: timeouts.getEstimatedTimeout(outgoing.data, rttEstimator)
+            val now = clock()
+            val sendTime = if (fixedTimeout == null) now else NOT_SAMPLED
+            val deadline = now + timeout
+
+            // Add transaction to store, using the next sequence number which is not in flight.
+            // Holding a credit guarantees that one is free.
+            val entry = SmpTransactionTable.Entry(outgoing.transaction, sendTime, deadline)
+            val sequenceNumber = transactions.claimFree(nextSequenceNumber, entry)
+            check(sequenceNumber >= 0) { "No free sequence number" }
+            nextSequenceNumber = (sequenceNumber + 1) % transactions.size
 
             // Set sequence number in outgoing data
-            val sequenceNumber = sequenceCounter.getAndRotate()
             outgoing.data.setSequenceNumber(sequenceNumber)
 
-            // Add transaction to store. Fail an existing transaction on overwrite
-            val oldTransaction = getAndSetTransaction(sequenceNumber, outgoing.transaction)
-            oldTransaction?.onFailure(handler, TransactionOverwriteException(sequenceNumber))
+            // Wake the timer up if it's waiting for a later deadline
+            if (deadline < nextDeadline) {
+                timerSignal.offer(Unit)
+            }
 
-            // Send the transaction and launch timeout coroutine
+            // Send the transaction
             outgoing.transaction.send(handler, outgoing.data)
-
-            scope.launch {
-                delay(10000)
-                val transaction = getAndSetTransaction(sequenceNumber, null)
-                transaction?.onFailure(handler, TransactionTimeoutException(sequenceNumber))
-            }
+            outgoing.sent?.complete(Unit)
         }
     }
 
@@ -95,24 +195,61 @@ internal class SmpProtocolSession(
      */
     private suspend fun reader() {
         rxChannel.consumeEach { data ->
-            // Parse header to get sequence number
-            val header = McuMgrHeader.fromBytes(data)
-            val sequenceNumber = header.sequenceNum
+            // Read the sequence number from the header in place
+            if (data.size < McuMgrHeader.HEADER_LENGTH) {
+                return@consumeEach
+            }
+            val sequenceNumber = McuMgrHeader.readSequenceNum(data, 0)
 
             // Get the transaction from the store, clear the entry, and call
             // the callback
-            val transaction = getAndSetTransaction(sequenceNumber, null)
-            transaction?.onResponse(handler, data)
+            val entry = transactions.complete(sequenceNumber) ?: return@consumeEach
+            credits.release()
+            if (entry.sendTime != NOT_SAMPLED) {
+                rttEstimator.sample(clock() - entry.sendTime)
+            }
+            entry.transaction.onResponse(data)
         }
     }
 
-    private suspend fun getAndSetTransaction(
-        id: Int,
-        transaction: SmpTransaction?
-    ): SmpTransaction? = transactionsMutex.withLock {
-        val oldTransaction = transactions[id]
-        transactions[id] = transaction
-        return oldTransaction
+    /**
+     * Fails transactions whose deadline has passed until the session is closed.
+     */
+    private suspend fun timer() {
+        while (true) {
+            // Writers sending during the scan must wake the timer up, as the scan may
+            // miss their deadlines
+            nextDeadline = NO_DEADLINE
+
+            // Fail all expired transactions and find the next deadline. An entry is
+            // expired only if it hasn't been completed or overwritten in the meantime.
+            var next = NO_DEADLINE
+            val now = clock()
+            for (id in 0 until transactions.size) {
+                val entry = transactions[id] ?: continue
+                if (entry.deadline <= now) {
+                    if (transactions.expire(id, entry)) {
+                        credits.release()
+                        entry.transaction.onFailure(TransactionTimeoutException(id))
+                    }
+                } else if (entry.deadline < next) {
+                    next = entry.deadline
+                }
+            }
+            nextDeadline = next
+
+            // Wait for the next deadline, or for a new, earlier one
+            if (next == NO_DEADLINE) {
+                timerSignal.receive()
+            } else {
+                withTimeoutOrNull(next - clock()) { timerSignal.receive() }
+            }
+        }
+    }
+
+    private fun Outgoing.fail(e: Throwable) {
+        transaction.onFailure(e)
+        sent?.complete(Unit)
     }
 
     private fun ByteArray.setSequenceNumber(value: Int) {
@@ -126,17 +263,3 @@ private fun SmpTransaction.send(handler: Handler?, data: ByteArray) {
         else -> handler.post { send(data) }
     }
 }
-
-private fun SmpTransaction.onResponse(handler: Handler?, data: ByteArray) {
-    when (handler) {
-        null -> onResponse(data)
-        else -> handler.post { onResponse(data) }
-    }
-}
-
-private fun SmpTransaction.onFailure(handler: Handler?, e: Throwable) {
-    when (handler) {
-        null -> onFailure(e)
-        else -> handler.post { onFailure(e) }
-    }
-}
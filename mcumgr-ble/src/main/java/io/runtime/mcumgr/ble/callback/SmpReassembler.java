@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2018, Nordic Semiconductor
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.runtime.mcumgr.ble.callback;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import io.runtime.mcumgr.McuMgrHeader;
+
+/**
+ * Reassembles SMP frames from notifications.
+ * <p>
+ * A frame may be split across many notifications, and a notification may contain the end of
+ * one frame and the start of the next one, or several complete frames. The frame buffer is
+ * allocated once, with the exact length read from the header, and fragments are copied into it
+ * in place. A notification containing exactly one frame is passed on without copying.
+ * <p>
+ * The header of each frame is validated as soon as it's complete. If it is not a response
+ * header, or the length exceeds the maximum frame length, the frame is dropped together with
+ * the rest of the notification, and reassembly starts again with the next notification.
+ * <p>
+ * This class is not thread safe, notifications must be passed from a single thread.
+ */
+public class SmpReassembler {
+    private final static Logger LOG = LoggerFactory.getLogger(SmpReassembler.class);
+
+    private final static int OP_READ_RSP = 1;
+    private final static int OP_WRITE_RSP = 3;
+
+    /** The maximum length of a frame, limited by the 16-bit length field of the header. */
+    public final static int MAX_FRAME_LENGTH = 0xFFFF + McuMgrHeader.HEADER_LENGTH;
+
+    public interface FrameListener {
+        /**
+         * Called with each complete frame. The frame is owned by the listener.
+         *
+         * @param frame the frame, including the header.
+         */
+        void onFrame(@NonNull byte[] frame);
+    }
+
+    private final int mMaxFrameLength;
+    @NonNull
+    private final FrameListener mListener;
+
+    /** The header of the current frame, if it has not been received completely. */
+    private final byte[] mHeader = new byte[McuMgrHeader.HEADER_LENGTH];
+    private int mHeaderLength;
+    /** The current frame, allocated when its header is complete. */
+    @Nullable
+    private byte[] mFrame;
+    private int mFrameLength;
+
+    public SmpReassembler(@NonNull FrameListener listener) {
+        this(MAX_FRAME_LENGTH, listener);
+    }
+
+    /**
+     * Creates the reassembler.
+     *
+     * @param maxFrameLength the maximum accepted frame length, including the header.
+     * @param listener       the listener called with complete frames.
+     */
+    public SmpReassembler(int maxFrameLength, @NonNull FrameListener listener) {
+        mMaxFrameLength = maxFrameLength;
+        mListener = listener;
+    }
+
+    /**
+     * Drops the frame being reassembled, e.g. after a disconnection.
+     */
+    public void reset() {
+        mHeaderLength = 0;
+        mFrame = null;
+        mFrameLength = 0;
+    }
+
+    /**
+     * Adds the received notification.
+     *
+     * @param data the notification value.
+     */
+    public void accept(@Nullable byte[] data) {
+        if (data == null) {
+            return;
+        }
+        int offset = 0;
+        while (offset < data.length) {
+            if (mFrame == null) {
+                int frameLength;
+                if (mHeaderLength == 0 && data.length - offset >= McuMgrHeader.HEADER_LENGTH) {
+                    // The whole header is in the notification, read it in place
+                    frameLength = readFrameLength(data, offset);
+                    if (frameLength < 0) {
+                        return;
+                    }
+                    // Pass a notification containing exactly one frame on without copying
+                    if (offset == 0 && frameLength == data.length) {
+                        mListener.onFrame(data);
+                        return;
+                    }
+                    mFrame = new byte[frameLength];
+                    mFrameLength = 0;
+                } else {
+                    // Collect the header split between notifications
+                    int n = Math.min(McuMgrHeader.HEADER_LENGTH - mHeaderLength,
+                            data.length - offset);
+                    System.arraycopy(data, offset, mHeader, mHeaderLength, n);
+                    mHeaderLength += n;
+                    offset += n;
+                    if (mHeaderLength < McuMgrHeader.HEADER_LENGTH) {
+                        return;
+                    }
+                    frameLength = readFrameLength(mHeader, 0);
+                    if (frameLength < 0) {
+                        return;
+                    }
+                    mFrame = new byte[frameLength];
+                    System.arraycopy(mHeader, 0, mFrame, 0, McuMgrHeader.HEADER_LENGTH);
+                    mFrameLength = McuMgrHeader.HEADER_LENGTH;
+                    mHeaderLength = 0;
+                }
+            }
+
+            // Copy the fragment in place
+            int n = Math.min(mFrame.length - mFrameLength, data.length - offset);
+            System.arraycopy(data, offset, mFrame, mFrameLength, n);
+            mFrameLength += n;
+            offset += n;
+
+            if (mFrameLength == mFrame.length) {
+                byte[] frame = mFrame;
+                mFrame = null;
+                mFrameLength = 0;
+                mListener.onFrame(frame);
+            }
+        }
+    }
+
+    /*
+     * Validates the header and returns the frame length, or -1 if the header is invalid, in
+     * which case the reassembler is reset.
+     */
+    private int readFrameLength(@NonNull byte[] header, int offset) {
+        // The upper bits of the op byte may carry the protocol version
+        int op = McuMgrHeader.readOp(header, offset) & 0x07;
+        int frameLength = McuMgrHeader.readLen(header, offset) + McuMgrHeader.HEADER_LENGTH;
+        if ((op != OP_READ_RSP && op != OP_WRITE_RSP) || frameLength > mMaxFrameLength) {
+            LOG.warn("Invalid SMP header (op: {}, length: {}), dropping data", op, frameLength);
+            reset();
+            return -1;
+        }
+        return frameLength;
+    }
+}
@@ -0,0 +1,67 @@
+package io.runtime.mcumgr.ble.callback
+
+import io.runtime.mcumgr.McuMgrCallback
+import io.runtime.mcumgr.McuMgrScheme
+import io.runtime.mcumgr.exception.McuMgrException
+import io.runtime.mcumgr.response.McuMgrResponse
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadFactory
+
+/**
+ * Decodes responses and delivers the results to the user callbacks.
+ *
+ * Decoding a response parses its whole CBOR payload, so it runs on the [decodeExecutor] instead
+ * of the thread which received it. Only the decoded response, or the error, is passed to the
+ * [callbackExecutor]. The decode executor should run tasks in order, one at a time, so that
+ * responses are delivered in the order they were received.
+ */
+internal class SmpResponseDispatcher(
+    private val decodeExecutor: Executor,
+    callbackExecutor: Executor
+) {
+
+    /**
+     * The executor running the callbacks. Changing it affects results delivered afterwards.
+     */
+    @Volatile
+    var callbackExecutor: Executor = callbackExecutor
+
+    companion object {
+        /**
+         * The executor decoding responses by default, a single daemon thread shared by all
+         * transports.
+         */
+        @JvmField
+        val DEFAULT_DECODE_EXECUTOR: Executor =
+            Executors.newSingleThreadExecutor(ThreadFactory { runnable ->
+                Thread(runnable, "McuMgrDecoder").apply { isDaemon = true }
+            })
+    }
+
+    /**
+     * Decodes the response on the decode executor and delivers it to the callback.
+     */
+    fun <T : McuMgrResponse> onResponse(
+        data: ByteArray,
+        scheme: McuMgrScheme,
+        responseType: Class<T>,
+        callback: McuMgrCallback<T>
+    ) {
+        decodeExecutor.execute {
+            try {
+                val response = McuMgrResponse.buildResponse(scheme, data, responseType)
+                callbackExecutor.execute { callback.onResponse(response) }
+            } catch (e: Exception) {
+                onError(McuMgrException(e), callback)
+            }
+        }
+    }
+
+    /**
+     * Delivers the error to the callback.
+     */
+    fun onError(error: McuMgrException, callback: McuMgrCallback<*>) {
+        callbackExecutor.execute { callback.onError(error) }
+    }
+}
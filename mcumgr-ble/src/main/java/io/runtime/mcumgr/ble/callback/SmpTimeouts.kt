@@ -0,0 +1,266 @@
+package io.runtime.mcumgr.ble.callback
+
+import io.runtime.mcumgr.McuMgrHeader
+import io.runtime.mcumgr.ble.util.RttEstimator
+import java.util.concurrent.ConcurrentHashMap
+
+private const val OP_WRITE = 2
+private const val GROUP_DEFAULT = 0
+private const val GROUP_IMAGE = 1
+private const val ID_RESET = 5
+private const val ID_IMAGE_UPLOAD = 1
+private const val ID_IMAGE_ERASE = 5
+
+// The "off" key, encoded as a CBOR text string
+private val KEY_OFF = byteArrayOf(0x63, 'o'.toByte(), 'f'.toByte(), 'f'.toByte())
+
+/**
+ * Timeouts of SMP transactions.
+ *
+ * By default, the timeout of a transaction adapts to the link and the device. Each protocol
+ * session estimates the round trip time of the responses it receives and waits
+ * [SRTT + 4 * RTTVAR](https://tools.ietf.org/html/rfc6298) for a response, limited to
+ * [minTimeout] and [maxTimeout]. Before the first response is received, [initialTimeout] is used.
+ * The lower bound is close to the one second of RFC 6298, so that a lost response is detected
+ * after a few round trip times. Image upload requests may make the device erase a flash sector
+ * before writing the chunk, which may take seconds on some MCUs, so their estimated timeout is at
+ * least [uploadMinTimeout].
+ *
+ * Commands whose response time doesn't depend on the link only, like ones erasing flash, should
+ * have a fixed timeout set using [setTimeout]. Their round trip times are not used for the
+ * estimation. By default, a fixed timeout is set for:
+ * * the image upload request with offset 0, which erases the slot before writing,
+ * * the image erase command,
+ * * the reset command, as the device may reboot before responding.
+ *
+ * The settings are read each time a request is sent, so changes apply to the following requests
+ * of existing sessions as well.
+ */
+class SmpTimeouts {
+
+    companion object {
+        const val DEFAULT_INITIAL_TIMEOUT = 10_000L
+        const val DEFAULT_MIN_TIMEOUT = 1_000L
+        const val DEFAULT_UPLOAD_MIN_TIMEOUT = 5_000L
+        const val DEFAULT_MAX_TIMEOUT = 60_000L
+        const val DEFAULT_ERASE_TIMEOUT = 30_000L
+    }
+
+    private val overrides = ConcurrentHashMap<Int, Long>()
+
+    /**
+     * The timeout in milliseconds used before the first round trip time is measured.
+     */
+    @Volatile
+    var initialTimeout = DEFAULT_INITIAL_TIMEOUT
+
+    /**
+     * The lower bound of the estimated timeout in milliseconds.
+     */
+    @Volatile
+    var minTimeout = DEFAULT_MIN_TIMEOUT
+
+    /**
+     * The upper bound of the estimated timeout in milliseconds.
+     */
+    @Volatile
+    var maxTimeout = DEFAULT_MAX_TIMEOUT
+
+    /**
+     * The lower bound of the estimated timeout in milliseconds of image upload requests, which
+     * may make the device erase a flash sector.
+     */
+    @Volatile
+    var uploadMinTimeout = DEFAULT_UPLOAD_MIN_TIMEOUT
+
+    /**
+     * The fixed timeout in milliseconds of the first image upload request (offset 0), which
+     * makes the device erase the slot.
+     */
+    @Volatile
+    var uploadStartTimeout = DEFAULT_ERASE_TIMEOUT
+
+    init {
+        setTimeout(GROUP_IMAGE, ID_IMAGE_ERASE, DEFAULT_ERASE_TIMEOUT)
+        setTimeout(GROUP_DEFAULT, ID_RESET, DEFAULT_INITIAL_TIMEOUT)
+    }
+
+    /**
+     * Sets a fixed timeout for all requests with the given group and command ID.
+     *
+     * @param groupId   the command group ID.
+     * @param commandId the command ID.
+     * @param timeout   the timeout in milliseconds.
+     */
+    fun setTimeout(groupId: Int, commandId: Int, timeout: Long) {
+        require(timeout > 0) { "Timeout must be positive" }
+        overrides[key(groupId, commandId)] = timeout
+    }
+
+    /**
+     * Removes the fixed timeout of the given command, which will use the estimated one.
+     *
+     * @param groupId   the command group ID.
+     * @param commandId the command ID.
+     */
+    fun clearTimeout(groupId: Int, commandId: Int) {
+        overrides.remove(key(groupId, commandId))
+    }
+
+    /**
+     * Returns the fixed timeout for the given packet, or null if the estimated one should be used.
+     * The header and payload are read in place.
+     */
+    internal fun getFixedTimeout(packet: ByteArray): Long? {
+        if (packet.size < McuMgrHeader.HEADER_LENGTH) {
+            return null
+        }
+        val groupId = McuMgrHeader.readGroupId(packet, 0)
+        val commandId = McuMgrHeader.readCommandId(packet, 0)
+        if (isImageUpload(packet) &&
+            packet.readUInt(McuMgrHeader.HEADER_LENGTH, KEY_OFF) == 0L) {
+            return uploadStartTimeout
+        }
+        return overrides[key(groupId, commandId)]
+    }
+
+    /**
+     * Returns the timeout estimated by the given estimator, within the current bounds.
+     */
+    internal fun getEstimatedTimeout(estimator: RttEstimator): Long =
+        estimator.getTimeout(initialTimeout, minTimeout, maxTimeout)
+
+    /**
+     * Returns the timeout estimated by the given estimator for the given packet, within the
+     * current bounds. Image upload requests use [uploadMinTimeout] as the lower bound, if higher.
+     */
+    internal fun getEstimatedTimeout(packet: ByteArray, estimator: RttEstimator): Long {
+        if (!isImageUpload(packet)) {
+            return getEstimatedTimeout(estimator)
+        }
+        val min = maxOf(minTimeout, uploadMinTimeout)
+        return estimator.getTimeout(initialTimeout, min, maxTimeout)
+    }
+
+    private fun isImageUpload(packet: ByteArray): Boolean =
+        packet.size >= McuMgrHeader.HEADER_LENGTH &&
+            McuMgrHeader.readGroupId(packet, 0) == GROUP_IMAGE &&
+            McuMgrHeader.readCommandId(packet, 0) == ID_IMAGE_UPLOAD &&
+            McuMgrHeader.readOp(packet, 0) == OP_WRITE
+
+    private fun key(groupId: Int, commandId: Int): Int = (groupId shl 8) or commandId
+}
+
+/**
+ * Reads the value of an unsigned integer entry of the CBOR map starting at the given position,
+ * without decoding the whole map. Returns null if the entry is not found, the value is not an
+ * unsigned integer, or the map uses indefinite length items.
+ */
+private fun ByteArray.readUInt(position: Int, encodedKey: ByteArray): Long? {
+    if (position >= size || (this[position].toInt() and 0xFF) ushr 5 != 5) {
+        return null
+    }
+    val count = readArgument(position)
+    var pos = position + headLength(position)
+    if (count < 0 || pos < 0) {
+        return null
+    }
+    for (i in 0 until count) {
+        if (pos < 0 || pos >= size) {
+            return null
+        }
+        val isKey = regionMatches(pos, encodedKey)
+        pos = skipItem(pos)
+        if (pos < 0 || pos >= size) {
+            return null
+        }
+        if (isKey) {
+            val isUInt = (this[pos].toInt() and 0xFF) ushr 5 == 0
+            return if (isUInt) readArgument(pos).takeIf { it >= 0 } else null
+        }
+        pos = skipItem(pos)
+    }
+    return null
+}
+
+private fun ByteArray.regionMatches(position: Int, other: ByteArray): Boolean {
+    if (position + other.size > size) {
+        return false
+    }
+    for (i in other.indices) {
+        if (this[position + i] != other[i]) {
+            return false
+        }
+    }
+    return true
+}
+
+/*
+ * Returns the length of the head of the item at the given position, or -1 for indefinite
+ * length items.
+ */
+private fun ByteArray.headLength(position: Int): Int {
+    return when (this[position].toInt() and 0x1F) {
+        in 0..23 -> 1
+        24 -> 2
+        25 -> 3
+        26 -> 5
+        27 -> 9
+        else -> -1
+    }
+}
+
+/*
+ * Returns the argument of the head at the given position, or -1 if it's not supported.
+ */
+private fun ByteArray.readArgument(position: Int): Long {
+    val headLength = headLength(position)
+    if (headLength < 0 || headLength > 5 || position + headLength > size) {
+        return -1
+    }
+    if (headLength == 1) {
+        return (this[position].toInt() and 0x1F).toLong()
+    }
+    var value = 0L
+    for (i in 1 until headLength) {
+        value = (value shl 8) or (this[position + i].toLong() and 0xFF)
+    }
+    return value
+}
+
+/*
+ * Returns the position after the item at the given position, or -1 if it can't be skipped.
+ */
+private fun ByteArray.skipItem(position: Int): Int {
+    if (position < 0 || position >= size) {
+        return -1
+    }
+    val major = (this[position].toInt() and 0xFF) ushr 5
+    val headLength = headLength(position)
+    if (headLength < 0) {
+        return -1
+    }
+    var pos = position + headLength
+    when (major) {
+        0, 1, 7 -> return pos
+        2, 3 -> {
+            val length = readArgument(position)
+            return if (length < 0 || pos + length > size) -1 else pos + length.toInt()
+        }
+        6 -> return skipItem(pos)
+        else -> {
+            val length = readArgument(position)
+            if (length < 0) {
+                return -1
+            }
+            val items = if (major == 5) length * 2 else length
+            for (i in 0 until items) {
+                pos = skipItem(pos)
+                if (pos < 0) {
+                    return -1
+                }
+            }
+            return pos
+        }
+    }
+}
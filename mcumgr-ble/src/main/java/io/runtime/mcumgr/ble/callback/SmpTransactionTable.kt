@@ -0,0 +1,69 @@
+package io.runtime.mcumgr.ble.callback
+
+import java.util.concurrent.atomic.AtomicReferenceArray
+
+/**
+ * Lock-free store of pending transactions, indexed by sequence number.
+ *
+ * Each slot holds an immutable [Entry]. Sending a transaction claims a free slot, and exactly one
+ * of complete or expire then removes the entry, using atomic get-and-set or compare-and-set
+ * operations. None of the operations block or suspend, so the response path never waits for the
+ * writer or the timer. This class is thread safe.
+ */
+internal class SmpTransactionTable(val size: Int) {
+
+    /**
+     * A pending transaction.
+     *
+     * @param transaction the transaction.
+     * @param sendTime    the time the transaction was sent at, in milliseconds, or a negative
+     *                    value if its round trip time should not be sampled.
+     * @param deadline    the time at which the transaction times out, in milliseconds.
+     */
+    class Entry(
+        val transaction: SmpTransaction,
+        val sendTime: Long,
+        val deadline: Long
+    )
+
+    private val entries = AtomicReferenceArray<Entry?>(size)
+
+    /**
+     * Returns the entry in the given slot, without removing it.
+     */
+    operator fun get(id: Int): Entry? = entries.get(id)
+
+    /**
+     * Stores the entry in the given slot, if it's free.
+     *
+     * @return True if the slot was claimed.
+     */
+    fun claim(id: Int, entry: Entry): Boolean = entries.compareAndSet(id, null, entry)
+
+    /**
+     * Stores the entry in the first free slot, searching in rotating order from the given one.
+     *
+     * @return The claimed slot, or -1 if all slots are taken.
+     */
+    fun claimFree(start: Int, entry: Entry): Int {
+        for (i in 0 until size) {
+            val id = (start + i) % size
+            if (claim(id, entry)) {
+                return id
+            }
+        }
+        return -1
+    }
+
+    /**
+     * Removes and returns the entry in the given slot, if any.
+     */
+    fun complete(id: Int): Entry? = entries.getAndSet(id, null)
+
+    /**
+     * Removes the given entry, unless it has been completed in the meantime.
+     *
+     * @return True if the entry was removed by this call.
+     */
+    fun expire(id: Int, entry: Entry): Boolean = entries.compareAndSet(id, entry, null)
+}
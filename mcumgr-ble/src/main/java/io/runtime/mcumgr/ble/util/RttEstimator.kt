@@ -0,0 +1,54 @@
+package io.runtime.mcumgr.ble.util
+
+/**
+ * Estimates the round trip time of a link and calculates the retransmission timeout from it,
+ * using the smoothed round trip time (SRTT) and its variation (RTTVAR) as described in RFC 6298.
+ * The bounds are passed on each call, so that changes to them apply immediately. This class is
+ * thread safe.
+ */
+internal class RttEstimator {
+
+    private var srtt = 0.0
+    private var rttvar = 0.0
+    private var sampled = false
+
+    /**
+     * Returns the current timeout in milliseconds: the initial timeout until the first sample is
+     * taken, then the estimate limited to the given bounds.
+     */
+    @Synchronized
+    fun getTimeout(initialTimeout: Long, minTimeout: Long, maxTimeout: Long): Long {
+        if (!sampled) {
+            return initialTimeout
+        }
+        val rto = srtt + maxOf(CLOCK_GRANULARITY, K * rttvar)
+        // The bounds may be changed independently, so they are not required to be ordered
+        return rto.toLong().coerceAtMost(maxTimeout).coerceAtLeast(minTimeout)
+    }
+
+    /**
+     * Updates the estimate with a measured round trip time in milliseconds.
+     */
+    @Synchronized
+    fun sample(rtt: Long) {
+        if (rtt < 0) {
+            return
+        }
+        val r = rtt.toDouble()
+        if (!sampled) {
+            srtt = r
+            rttvar = r / 2
+            sampled = true
+        } else {
+            rttvar = (1 - BETA) * rttvar + BETA * Math.abs(srtt - r)
+            srtt = (1 - ALPHA) * srtt + ALPHA * r
+        }
+    }
+
+    private companion object {
+        const val ALPHA = 1.0 / 8
+        const val BETA = 1.0 / 4
+        const val K = 4
+        const val CLOCK_GRANULARITY = 1.0
+    }
+}
@@ -0,0 +1,66 @@
+package io.runtime.mcumgr.ble.util
+
+/**
+ * Decides how a request reaches the protocol session.
+ *
+ * When the link is up and the protocol session is ready, the request is passed to the session
+ * directly on the calling thread. Only otherwise a connect request is enqueued, and the request
+ * is sent once the connection is ready. This saves a trip through the BLE request queue and a
+ * handler post for every request sent over an established connection.
+ */
+internal class SendPath(private val link: Link) {
+
+    /**
+     * The connection the requests are sent over.
+     */
+    interface Link {
+        /**
+         * Returns true if the device is connected and the protocol session is ready.
+         */
+        fun isSessionReady(): Boolean
+
+        /**
+         * Enqueues a connect request. The callback must be called exactly once.
+         */
+        fun connect(callback: ConnectCallback)
+    }
+
+    interface ConnectCallback {
+        /**
+         * @param newlyConnected true if the device was not connected before the request.
+         */
+        fun onConnected(newlyConnected: Boolean)
+
+        fun onFailed(status: Int)
+    }
+
+    interface Request {
+        /**
+         * Passes the request to the protocol session.
+         *
+         * @param newlyConnected true if the device has been connected for this request.
+         */
+        fun send(newlyConnected: Boolean)
+
+        fun onConnectionFailed(status: Int)
+    }
+
+    fun send(request: Request) {
+        // Fast path, the connection is up
+        if (link.isSessionReady()) {
+            request.send(false)
+            return
+        }
+
+        // Connect first
+        link.connect(object : ConnectCallback {
+            override fun onConnected(newlyConnected: Boolean) {
+                request.send(newlyConnected)
+            }
+
+            override fun onFailed(status: Int) {
+                request.onConnectionFailed(status)
+            }
+        })
+    }
+}
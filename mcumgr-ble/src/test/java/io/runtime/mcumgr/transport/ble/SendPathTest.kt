@@ -0,0 +1,74 @@
+package io.runtime.mcumgr.transport.ble
+
+import io.runtime.mcumgr.ble.util.SendPath
+import org.junit.Test
+import kotlin.test.assertEquals
+
+class SendPathTest {
+
+    /**
+     * A fake BLE manager counting the operations enqueued in its request queue.
+     */
+    private class FakeBleManager : SendPath.Link {
+        var connected = false
+        var failWith: Int? = null
+        var queueOperations = 0
+
+        override fun isSessionReady() = connected
+
+        override fun connect(callback: SendPath.ConnectCallback) {
+            queueOperations++
+            val status = failWith
+            if (status != null) {
+                callback.onFailed(status)
+                return
+            }
+            val wasConnected = connected
+            connected = true
+            callback.onConnected(!wasConnected)
+        }
+    }
+
+    private class Request : SendPath.Request {
+        val sent = mutableListOf<Boolean>()
+        var failedStatus: Int? = null
+
+        override fun send(newlyConnected: Boolean) {
+            sent.add(newlyConnected)
+        }
+
+        override fun onConnectionFailed(status: Int) {
+            failedStatus = status
+        }
+    }
+
+    @Test
+    fun `connected link sends without queue operations`() {
+        val manager = FakeBleManager().apply { connected = true }
+        val path = SendPath(manager)
+        val request = Request()
+        repeat(100) { path.send(request) }
+        assertEquals(0, manager.queueOperations)
+        assertEquals(List(100) { false }, request.sent)
+    }
+
+    @Test
+    fun `disconnected link connects once, then uses fast path`() {
+        val manager = FakeBleManager()
+        val path = SendPath(manager)
+        val request = Request()
+        repeat(100) { path.send(request) }
+        assertEquals(1, manager.queueOperations)
+        assertEquals(listOf(true) + List(99) { false }, request.sent)
+    }
+
+    @Test
+    fun `connection failure is reported`() {
+        val manager = FakeBleManager().apply { failWith = -1 }
+        val path = SendPath(manager)
+        val request = Request()
+        path.send(request)
+        assertEquals(-1, request.failedStatus)
+        assertEquals(0, request.sent.size)
+    }
+}
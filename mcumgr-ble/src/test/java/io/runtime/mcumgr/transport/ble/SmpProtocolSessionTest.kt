@@ -4,20 +4,26 @@ import io.runtime.mcumgr.McuManager
 import io.runtime.mcumgr.McuMgrHeader
 import io.runtime.mcumgr.McuMgrScheme
 import io.runtime.mcumgr.ble.callback.SmpProtocolSession
+import io.runtime.mcumgr.ble.callback.SmpTimeouts
 import io.runtime.mcumgr.ble.callback.SmpTransaction
 import io.runtime.mcumgr.ble.callback.TransactionTimeoutException
 import io.runtime.mcumgr.response.McuMgrResponse
 import io.runtime.mcumgr.response.dflt.McuMgrEchoResponse
 import io.runtime.mcumgr.util.CBOR
+import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.test.TestCoroutineDispatcher
 import no.nordicsemi.android.ble.exception.DeviceDisconnectedException
 import org.junit.Test
-import java.lang.IllegalStateException
 import kotlin.test.assertEquals
 import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
+import kotlin.test.assertNotEquals
+import kotlin.test.assertNotNull
+import kotlin.test.assertTrue
 
 class SmpProtocolSessionTest {
 
@@ -25,7 +31,8 @@ class SmpProtocolSessionTest {
 
     private abstract class TestTransaction : SmpTransaction {
 
-        val result = Channel<ByteArray>(Channel.RENDEZVOUS)
+        // Buffered, so a response received before the test awaits it is not dropped
+        val result = Channel<ByteArray>(1)
 
         override fun onResponse(data: ByteArray) {
             result.offer(data)
@@ -36,6 +43,19 @@ class SmpProtocolSessionTest {
         }
     }
 
+    // Runs the session in virtual time, advanced only by the test
+    private val dispatcher = TestCoroutineDispatcher()
+
+    private fun virtualTimeSession(
+        timeouts: SmpTimeouts = SmpTimeouts(),
+        maxInFlight: Int = 256
+    ) = SmpProtocolSession(
+        timeouts = timeouts,
+        maxInFlight = maxInFlight,
+        context = dispatcher,
+        clock = { dispatcher.currentTime }
+    )
+
     private val echoTransaction = object : TestTransaction() {
 
         override fun send(data: ByteArray) {
@@ -110,6 +130,22 @@ class SmpProtocolSessionTest {
         }
     }
 
+    @Test
+    fun `send, pending transaction is not overwritten on rollover`() = runBlocking {
+        val request = newEchoRequest("Hello!")
+        val pending = object : TestTransaction() {
+            override fun send(data: ByteArray) {}
+        }
+        session.send(request, pending)
+        repeat(300) {
+            session.send(request, echoTransaction)
+            val responseData = echoTransaction.result.receive()
+            // Sequence number 0 is still in flight and must be skipped
+            assertNotEquals(0, McuMgrHeader.readSequenceNum(responseData, 0))
+        }
+        assertTrue(pending.result.poll() == null && !pending.result.isClosedForReceive)
+    }
+
     @Test
     fun `send, response timeout`() = runBlocking {
         val echo = "Hello!"
@@ -124,6 +160,82 @@ class SmpProtocolSessionTest {
         Unit
     }
 
+    @Test
+    fun `send, response timeout adapts to round trip time`() {
+        val timeouts = SmpTimeouts().apply { minTimeout = 100 }
+        val adaptiveSession = virtualTimeSession(timeouts)
+        val request = newEchoRequest("Hello!")
+        val answered = object : TestTransaction() {
+            override fun send(data: ByteArray) {
+                adaptiveSession.receive(data)
+            }
+        }
+        adaptiveSession.send(request, answered)
+        assertNotNull(answered.result.poll())
+
+        // Answered without delay, so the timeout is now the minimum, not the initial one
+        val lost = object : TestTransaction() {
+            override fun send(data: ByteArray) {}
+        }
+        adaptiveSession.send(request, lost)
+        dispatcher.advanceTimeBy(timeouts.minTimeout - 1)
+        assertFalse(lost.result.isClosedForReceive)
+        dispatcher.advanceTimeBy(1)
+        assertFailsWith(TransactionTimeoutException::class) {
+            lost.result.poll()
+        }
+        adaptiveSession.close(DeviceDisconnectedException())
+    }
+
+    @Test
+    fun `send, lost response fails after three round trip times`() {
+        val adaptiveSession = virtualTimeSession()
+        val request = newEchoRequest("Hello!")
+        val answered = object : TestTransaction() {
+            override fun send(data: ByteArray) {
+                CoroutineScope(dispatcher).launch {
+                    delay(600)
+                    adaptiveSession.receive(data)
+                }
+            }
+        }
+        adaptiveSession.send(request, answered)
+        dispatcher.advanceTimeBy(600)
+        assertNotNull(answered.result.poll())
+
+        // SRTT = 600, RTTVAR = 300 -> RTO = 600 + 4 * 300, above the default minimum
+        val lost = object : TestTransaction() {
+            override fun send(data: ByteArray) {}
+        }
+        adaptiveSession.send(request, lost)
+        dispatcher.advanceTimeBy(3 * 600 - 1)
+        assertFalse(lost.result.isClosedForReceive)
+        dispatcher.advanceTimeBy(1)
+        assertFailsWith(TransactionTimeoutException::class) {
+            lost.result.poll()
+        }
+        adaptiveSession.close(DeviceDisconnectedException())
+    }
+
+    @Test
+    fun `send, expired transactions time out together`() = runBlocking {
+        val timeouts = SmpTimeouts().apply { initialTimeout = 200 }
+        val timedSession = SmpProtocolSession(timeouts = timeouts)
+        val request = newEchoRequest("Hello!")
+        val lost = List(50) {
+            object : TestTransaction() {
+                override fun send(data: ByteArray) {}
+            }
+        }
+        lost.forEach { timedSession.send(request, it) }
+        lost.forEach { transaction ->
+            assertFailsWith(TransactionTimeoutException::class) {
+                transaction.result.receive()
+            }
+        }
+        timedSession.close(DeviceDisconnectedException())
+    }
+
     @Test
     fun `close fails active transactions`() = runBlocking {
         val echo = "Hello!"
@@ -143,27 +255,117 @@ class SmpProtocolSessionTest {
     }
 
     @Test
-    fun `send overflows transmit buffer`() = runBlocking {
-        val echo = "Hello!"
-        val request = newEchoRequest(echo)
+    fun `send beyond transmit buffer capacity is queued`() {
+        val queuedSession = virtualTimeSession()
+        val sent = mutableListOf<ByteArray>()
+        var responses = 0
         val transaction = object : TestTransaction() {
             override fun send(data: ByteArray) {
-                runBlocking { delay (10000) }
+                sent.add(data.copyOf())
             }
+
+            override fun onResponse(data: ByteArray) {
+                responses++
+            }
+        }
+        // Requests are queued, instead of overflowing the channel buffer, until the
+        // session runs
+        dispatcher.pauseDispatcher()
+        repeat(300) {
+            queuedSession.send(newEchoRequest("Hello $it"), transaction)
+        }
+        assertEquals(0, sent.size)
+
+        // One request is sent per sequence number, the others wait for a credit
+        dispatcher.runCurrent()
+        assertEquals(256, sent.size)
+        assertEquals(256, sent.map { McuMgrHeader.readSequenceNum(it, 0) }.toSet().size)
+
+        // Each response returns a credit, until the queue is drained
+        var answered = 0
+        while (answered < sent.size) {
+            sent.subList(answered, sent.size).forEach { queuedSession.receive(it) }
+            answered = sent.size
+            dispatcher.runCurrent()
         }
-        // First request is consumed which blocks the channel, remaining 256
-        // fills the channel buffer to capacity
-        repeat(257) {
-            launch {
-                session.send(request, transaction)
+        assertEquals(300, sent.size)
+        assertEquals(300, responses)
+        queuedSession.close(DeviceDisconnectedException())
+    }
+
+    @Test
+    fun `send waits for a credit when the in-flight limit is reached`() {
+        val timeouts = SmpTimeouts().apply { initialTimeout = 500 }
+        val limitedSession = virtualTimeSession(timeouts, maxInFlight = 1)
+        val request = newEchoRequest("Hello!")
+        val sent = mutableListOf<Long>()
+        val lost = object : TestTransaction() {
+            override fun send(data: ByteArray) {
+                sent.add(dispatcher.currentTime)
             }
         }
-        launch {
-            assertFailsWith(IllegalStateException::class) {
-                session.send(request, transaction)
+        val answered = object : TestTransaction() {
+            override fun send(data: ByteArray) {
+                sent.add(dispatcher.currentTime)
+                limitedSession.receive(data)
+            }
+        }
+        limitedSession.send(request, lost)
+        val job = CoroutineScope(dispatcher).launch {
+            limitedSession.sendSuspending(request, answered)
+        }
+
+        // The second request is sent only after the first one timed out
+        dispatcher.advanceTimeBy(timeouts.initialTimeout - 1)
+        assertFalse(job.isCompleted)
+        assertEquals(listOf(0L), sent)
+        dispatcher.advanceTimeBy(1)
+        assertTrue(job.isCompleted)
+        assertEquals(listOf(0L, timeouts.initialTimeout), sent)
+        assertFailsWith(TransactionTimeoutException::class) {
+            lost.result.poll()
+        }
+        assertNotNull(answered.result.poll())
+        limitedSession.close(DeviceDisconnectedException())
+    }
+
+    @Test
+    fun `close fails queued requests`() = runBlocking {
+        val limitedSession = SmpProtocolSession(maxInFlight = 1)
+        val request = newEchoRequest("Hello!")
+        val transactions = List(3) {
+            object : TestTransaction() {
+                override fun send(data: ByteArray) {}
+            }
+        }
+        transactions.forEach { limitedSession.send(request, it) }
+        delay(100)
+        limitedSession.close(DeviceDisconnectedException())
+        transactions.forEach { transaction ->
+            assertFailsWith(DeviceDisconnectedException::class) {
+                transaction.result.receive()
+            }
+        }
+    }
+
+    @Test
+    fun `send after close fails the request`() = runBlocking {
+        val closedSession = SmpProtocolSession()
+        closedSession.close(DeviceDisconnectedException())
+        val request = newEchoRequest("Hello!")
+        val transactions = List(2) {
+            object : TestTransaction() {
+                override fun send(data: ByteArray) {}
+            }
+        }
+        closedSession.send(request, transactions[0])
+        // Returns, instead of throwing, once the request has failed
+        closedSession.sendSuspending(request, transactions[1])
+        transactions.forEach { transaction ->
+            assertFailsWith(DeviceDisconnectedException::class) {
+                transaction.result.receive()
             }
         }
-        Unit
     }
 }
 
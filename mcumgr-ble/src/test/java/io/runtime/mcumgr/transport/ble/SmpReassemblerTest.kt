@@ -0,0 +1,80 @@
+package io.runtime.mcumgr.transport.ble
+
+import io.runtime.mcumgr.McuMgrHeader
+import io.runtime.mcumgr.ble.callback.SmpReassembler
+import org.junit.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+class SmpReassemblerTest {
+
+    private val frames = mutableListOf<ByteArray>()
+    private val reassembler = SmpReassembler(1000) { frames.add(it) }
+
+    private fun frame(payloadLength: Int, sequenceNumber: Int): ByteArray {
+        val frame = ByteArray(McuMgrHeader.HEADER_LENGTH + payloadLength) {
+            (it + sequenceNumber).toByte()
+        }
+        McuMgrHeader.write(frame, 0, 3, 0, payloadLength, 0, sequenceNumber, 0)
+        return frame
+    }
+
+    @Test
+    fun `single frame is passed without copying`() {
+        val frame = frame(20, 1)
+        reassembler.accept(frame)
+        assertEquals(1, frames.size)
+        assertSame(frame, frames[0])
+    }
+
+    @Test
+    fun `frame split across notifications`() {
+        val frame = frame(100, 1)
+        // The header is split too
+        reassembler.accept(frame.copyOfRange(0, 5))
+        reassembler.accept(frame.copyOfRange(5, 60))
+        assertTrue(frames.isEmpty())
+        reassembler.accept(frame.copyOfRange(60, frame.size))
+        assertEquals(1, frames.size)
+        assertTrue(frame.contentEquals(frames[0]))
+    }
+
+    @Test
+    fun `notification with many frames`() {
+        val first = frame(30, 1)
+        val second = frame(10, 2)
+        val third = frame(40, 3)
+        val stream = first + second + third
+        // The first notification ends with the first 3 bytes of the third frame
+        val split = first.size + second.size + 3
+        reassembler.accept(stream.copyOfRange(0, split))
+        assertEquals(2, frames.size)
+        reassembler.accept(stream.copyOfRange(split, stream.size))
+        assertEquals(3, frames.size)
+        assertTrue(first.contentEquals(frames[0]))
+        assertTrue(second.contentEquals(frames[1]))
+        assertTrue(third.contentEquals(frames[2]))
+    }
+
+    @Test
+    fun `corrupted length is rejected`() {
+        val corrupted = frame(20, 1)
+        McuMgrHeader.write(corrupted, 0, 3, 0, 5000, 0, 1, 0)
+        reassembler.accept(corrupted)
+        assertTrue(frames.isEmpty())
+
+        // Reassembly starts again with the next notification
+        val frame = frame(20, 2)
+        reassembler.accept(frame)
+        assertEquals(1, frames.size)
+    }
+
+    @Test
+    fun `request header is rejected`() {
+        val request = frame(20, 1)
+        McuMgrHeader.write(request, 0, 2, 0, 20, 0, 1, 0)
+        reassembler.accept(request)
+        assertTrue(frames.isEmpty())
+    }
+}
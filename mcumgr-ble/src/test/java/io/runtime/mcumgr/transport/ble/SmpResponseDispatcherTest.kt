@@ -0,0 +1,102 @@
+package io.runtime.mcumgr.transport.ble
+
+import io.runtime.mcumgr.McuManager
+import io.runtime.mcumgr.McuMgrCallback
+import io.runtime.mcumgr.McuMgrScheme
+import io.runtime.mcumgr.ble.callback.SmpResponseDispatcher
+import io.runtime.mcumgr.exception.McuMgrException
+import io.runtime.mcumgr.response.dflt.McuMgrEchoResponse
+import org.junit.Test
+import java.util.LinkedList
+import java.util.concurrent.Executor
+import kotlin.test.assertEquals
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class SmpResponseDispatcherTest {
+
+    /**
+     * Runs tasks when told to, recording the thread of each one.
+     */
+    private class QueueExecutor(val name: String) : Executor {
+        val tasks = LinkedList<Runnable>()
+        var running: String? = null
+
+        override fun execute(command: Runnable) {
+            tasks.add(command)
+        }
+
+        fun runAll() {
+            while (tasks.isNotEmpty()) {
+                running = name
+                tasks.poll().run()
+                running = null
+            }
+        }
+    }
+
+    private val decoder = QueueExecutor("decoder")
+    private val callbacks = QueueExecutor("callbacks")
+    private val dispatcher = SmpResponseDispatcher(decoder, callbacks)
+
+    private class Result : McuMgrCallback<McuMgrEchoResponse> {
+        var response: McuMgrEchoResponse? = null
+        var error: McuMgrException? = null
+        var thread: String? = null
+        lateinit var executor: QueueExecutor
+
+        override fun onResponse(response: McuMgrEchoResponse) {
+            this.response = response
+            thread = executor.running
+        }
+
+        override fun onError(error: McuMgrException) {
+            this.error = error
+            thread = executor.running
+        }
+    }
+
+    private fun newResult() = Result().apply { executor = callbacks }
+
+    @Test
+    fun `response is decoded on the decoder and delivered on the callback executor`() {
+        val data = McuManager.buildPacket(
+            McuMgrScheme.BLE, 3, 0, 0, 1, 0, mapOf("r" to "Hello!")
+        )
+        val result = newResult()
+        dispatcher.onResponse(data, McuMgrScheme.BLE, McuMgrEchoResponse::class.java, result)
+
+        // Nothing is decoded on the calling thread
+        assertTrue(callbacks.tasks.isEmpty())
+        decoder.runAll()
+        assertNull(result.response)
+        callbacks.runAll()
+        assertEquals("Hello!", assertNotNull(result.response).r)
+        assertEquals("callbacks", result.thread)
+    }
+
+    @Test
+    fun `invalid response is delivered as error on the callback executor`() {
+        val result = newResult()
+        dispatcher.onResponse(
+            byteArrayOf(3, 0, 0, 1, 0, 0, 1, 0, 0x7F),
+            McuMgrScheme.BLE, McuMgrEchoResponse::class.java, result
+        )
+        decoder.runAll()
+        callbacks.runAll()
+        assertNull(result.response)
+        assertNotNull(result.error)
+        assertEquals("callbacks", result.thread)
+    }
+
+    @Test
+    fun `error bypasses the decoder`() {
+        val result = newResult()
+        dispatcher.onError(McuMgrException("Device has disconnected"), result)
+        assertTrue(decoder.tasks.isEmpty())
+        callbacks.runAll()
+        assertEquals("Device has disconnected", result.error?.message)
+        assertEquals("callbacks", result.thread)
+    }
+}
@@ -0,0 +1,88 @@
+package io.runtime.mcumgr.transport.ble
+
+import io.runtime.mcumgr.McuManager
+import io.runtime.mcumgr.McuMgrScheme
+import io.runtime.mcumgr.ble.callback.SmpTimeouts
+import io.runtime.mcumgr.ble.util.RttEstimator
+import io.runtime.mcumgr.transfer.UploadEncoder
+import org.junit.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class SmpTimeoutsTest {
+
+    @Test
+    fun `estimator uses initial timeout until sampled`() {
+        val estimator = RttEstimator()
+        assertEquals(10_000, estimator.getTimeout(10_000, 100, 60_000))
+        estimator.sample(50)
+        // SRTT = 50, RTTVAR = 25 -> RTO = 50 + 4 * 25
+        assertEquals(150, estimator.getTimeout(10_000, 100, 60_000))
+    }
+
+    @Test
+    fun `estimator converges to stable round trip time`() {
+        val estimator = RttEstimator()
+        repeat(100) { estimator.sample(40) }
+        val timeout = estimator.getTimeout(10_000, 10, 60_000)
+        assertTrue(timeout in 40..45, "Timeout: $timeout")
+    }
+
+    @Test
+    fun `estimator is clamped`() {
+        val estimator = RttEstimator()
+        estimator.sample(10)
+        assertEquals(1_000, estimator.getTimeout(10_000, 1_000, 5_000))
+        repeat(10) { estimator.sample(20_000) }
+        assertEquals(5_000, estimator.getTimeout(10_000, 1_000, 5_000))
+    }
+
+    @Test
+    fun `bound changes apply to existing estimates`() {
+        val timeouts = SmpTimeouts()
+        val estimator = RttEstimator()
+        assertEquals(SmpTimeouts.DEFAULT_INITIAL_TIMEOUT, timeouts.getEstimatedTimeout(estimator))
+        estimator.sample(10)
+        assertEquals(SmpTimeouts.DEFAULT_MIN_TIMEOUT, timeouts.getEstimatedTimeout(estimator))
+        timeouts.minTimeout = 200
+        assertEquals(200, timeouts.getEstimatedTimeout(estimator))
+    }
+
+    @Test
+    fun `fixed timeout for image upload with offset 0`() {
+        val timeouts = SmpTimeouts()
+        val encoder = UploadEncoder(McuMgrScheme.BLE, 1, 1, null)
+        val image = ByteArray(1000)
+        val first = encoder.encode(image, 0, 100, ByteArray(3))
+        val next = encoder.encode(image, 100, 100, null)
+        assertEquals(timeouts.uploadStartTimeout, timeouts.getFixedTimeout(first))
+        assertNull(timeouts.getFixedTimeout(next))
+    }
+
+    @Test
+    fun `image upload has a higher lower bound`() {
+        val timeouts = SmpTimeouts()
+        val estimator = RttEstimator()
+        estimator.sample(100)
+        val encoder = UploadEncoder(McuMgrScheme.BLE, 1, 1, null)
+        val upload = encoder.encode(ByteArray(1000), 100, 100, null)
+        val echo = McuManager.buildPacket(McuMgrScheme.BLE, 2, 0, 0, 0, 0, mapOf("d" to "a"))
+        assertEquals(SmpTimeouts.DEFAULT_MIN_TIMEOUT, timeouts.getEstimatedTimeout(echo, estimator))
+        assertEquals(timeouts.uploadMinTimeout, timeouts.getEstimatedTimeout(upload, estimator))
+    }
+
+    @Test
+    fun `fixed timeout overrides`() {
+        val timeouts = SmpTimeouts()
+        val reset = McuManager.buildPacket(McuMgrScheme.BLE, 2, 0, 0, 0, 5, null)
+        val echo = McuManager.buildPacket(McuMgrScheme.BLE, 2, 0, 0, 0, 0, mapOf("d" to "a"))
+        assertEquals(SmpTimeouts.DEFAULT_INITIAL_TIMEOUT, timeouts.getFixedTimeout(reset))
+        assertNull(timeouts.getFixedTimeout(echo))
+
+        timeouts.setTimeout(0, 0, 500)
+        assertEquals(500L, timeouts.getFixedTimeout(echo))
+        timeouts.clearTimeout(0, 0)
+        assertNull(timeouts.getFixedTimeout(echo))
+    }
+}
@@ -0,0 +1,134 @@
+package io.runtime.mcumgr.transport.ble
+
+import io.runtime.mcumgr.ble.callback.SmpTransaction
+import io.runtime.mcumgr.ble.callback.SmpTransactionTable
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.yield
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+private const val SLOTS = 256
+private const val TRANSACTIONS = 100_000
+private const val ROUNDS = 5
+
+/** The system property enabling benchmarks, set by running the tests with -Pbenchmark. */
+private const val BENCHMARK_PROPERTY = "mcumgr.benchmark"
+
+/**
+ * Compares the contention of the lock-free transaction table with the mutex guarded array it
+ * replaced. A writer claims slots, a reader completes them and a timer scans the table
+ * concurrently, like in the protocol session.
+ *
+ * The benchmark is skipped unless enabled with `./gradlew :mcumgr-ble:test -Pbenchmark`. It
+ * fails if the lock-free table is slower than the mutex, reporting both times.
+ */
+class SmpTransactionTableBenchmarkTest {
+
+    private interface Table {
+        suspend fun get(id: Int): SmpTransactionTable.Entry?
+        suspend fun claim(id: Int, entry: SmpTransactionTable.Entry): Boolean
+        suspend fun complete(id: Int): SmpTransactionTable.Entry?
+        suspend fun expire(id: Int, entry: SmpTransactionTable.Entry): Boolean
+    }
+
+    private class LockFreeTable : Table {
+        private val table = SmpTransactionTable(SLOTS)
+        override suspend fun get(id: Int) = table[id]
+        override suspend fun claim(id: Int, entry: SmpTransactionTable.Entry) = table.claim(id, entry)
+        override suspend fun complete(id: Int) = table.complete(id)
+        override suspend fun expire(id: Int, entry: SmpTransactionTable.Entry) = table.expire(id, entry)
+    }
+
+    private class MutexTable : Table {
+        private val entries = arrayOfNulls<SmpTransactionTable.Entry>(SLOTS)
+        private val mutex = Mutex()
+        override suspend fun get(id: Int) = mutex.withLock { entries[id] }
+        override suspend fun claim(id: Int, entry: SmpTransactionTable.Entry) = mutex.withLock {
+            if (entries[id] == null) {
+                entries[id] = entry
+                true
+            } else {
+                false
+            }
+        }
+        override suspend fun complete(id: Int) = mutex.withLock {
+            val old = entries[id]
+            entries[id] = null
+            old
+        }
+        override suspend fun expire(id: Int, entry: SmpTransactionTable.Entry) = mutex.withLock {
+            if (entries[id] === entry) {
+                entries[id] = null
+                true
+            } else {
+                false
+            }
+        }
+    }
+
+    private val transaction = object : SmpTransaction {
+        override fun send(data: ByteArray) {}
+        override fun onResponse(data: ByteArray) {}
+        override fun onFailure(e: Throwable) {}
+    }
+
+    @Test
+    fun `lock-free table vs mutex, concurrent send and receive`() {
+        assumeTrue(java.lang.Boolean.getBoolean(BENCHMARK_PROPERTY))
+
+        // Warm up
+        run(MutexTable())
+        run(LockFreeTable())
+
+        val mutex = (1..ROUNDS).map { run(MutexTable()) }.min()!!
+        val lockFree = (1..ROUNDS).map { run(LockFreeTable()) }.min()!!
+        assertTrue(lockFree <= mutex, "Transaction table, $TRANSACTIONS transactions: " +
+                "mutex ${mutex / 1_000_000} ms, lock-free ${lockFree / 1_000_000} ms")
+    }
+
+    /**
+     * Runs the writer, reader and timer concurrently and returns the time in nanoseconds.
+     */
+    private fun run(table: Table): Long = runBlocking(Dispatchers.Default) {
+        val entry = SmpTransactionTable.Entry(transaction, 0, Long.MAX_VALUE)
+        var completed = 0
+        val done = AtomicBoolean()
+        val start = System.nanoTime()
+        val writer = launch {
+            for (i in 0 until TRANSACTIONS) {
+                val id = i % SLOTS
+                while (!table.claim(id, entry)) yield()
+            }
+        }
+        val reader = launch {
+            for (i in 0 until TRANSACTIONS) {
+                val id = i % SLOTS
+                while (table.complete(id) == null) yield()
+                completed++
+            }
+        }
+        val timer = launch {
+            while (!done.get()) {
+                for (id in 0 until SLOTS) {
+                    val e = table.get(id) ?: continue
+                    if (e.deadline <= 0) table.expire(id, e)
+                }
+                yield()
+            }
+        }
+        writer.join()
+        reader.join()
+        val time = System.nanoTime() - start
+        done.set(true)
+        timer.join()
+        assertEquals(TRANSACTIONS, completed)
+        time
+    }
+}
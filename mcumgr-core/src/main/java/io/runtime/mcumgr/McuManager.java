@@ -16,14 +16,19 @@ import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.Executor;
 
+import io.runtime.mcumgr.exception.InsufficientMtuException;
 import io.runtime.mcumgr.exception.McuMgrException;
+import io.runtime.mcumgr.request.McuMgrRequest;
 import io.runtime.mcumgr.response.McuMgrResponse;
+import io.runtime.mcumgr.util.BufferPool;
 import io.runtime.mcumgr.util.CBOR;
+import io.runtime.mcumgr.util.CborWriter;
+import io.runtime.mcumgr.util.PacketOutputStream;
 
 /**
  * TODO
@@ -42,6 +47,7 @@ public abstract class McuManager {
     // CoAP constants
     private final static String COAP_URI = "/omgr";
     private final static String HEADER_KEY = "_h";
+    private final static byte[] HEADER_KEY_ENCODED = CborWriter.encodeText(HEADER_KEY);
 
     // Mcu Manager operation codes
     protected final static int OP_READ = 0;
@@ -77,6 +83,13 @@ public abstract class McuManager {
      */
     protected int mMtu = DEFAULT_MTU;
 
+    /**
+     * The executor running the callbacks of asynchronous requests, or null to run them on the
+     * thread used by the transport.
+     */
+    @Nullable
+    private volatile Executor mCallbackExecutor;
+
     /**
      * Construct a McuManager instance.
      *
@@ -117,6 +130,30 @@ public abstract class McuManager {
         return mTransporter;
     }
 
+    /**
+     * Sets the executor running the callbacks of asynchronous requests sent by this manager.
+     * <p>
+     * By default, callbacks are called on the thread used by the transport. Use
+     * {@link io.runtime.mcumgr.util.CallbackExecutors#mainThread()} to receive them on the main
+     * thread. To avoid dispatching twice, the transport itself may be configured to call
+     * callbacks directly, if it implements {@link McuMgrTransport.CallbackExecutorSupport}.
+     *
+     * @param executor the callback executor, or null to call callbacks on the transport's thread.
+     */
+    public void setCallbackExecutor(@Nullable Executor executor) {
+        mCallbackExecutor = executor;
+    }
+
+    /**
+     * Returns the executor running the callbacks of asynchronous requests.
+     *
+     * @return The callback executor, or null if callbacks are called on the transport's thread.
+     */
+    @Nullable
+    public Executor getCallbackExecutor() {
+        return mCallbackExecutor;
+    }
+
     /**
      * Sets the upload MTU. MTU must be between 20 and 1024.
      * This is transport independent value, so should be equal to the maximum length of a packet
@@ -215,7 +252,7 @@ public abstract class McuManager {
                     commandId, payloadMap);
             send(packet, respType, callback);
         } catch (McuMgrException e) {
-            callback.onError(e);
+            dispatch(callback).onError(e);
         }
     }
 
@@ -246,6 +283,64 @@ public abstract class McuManager {
         return send(packet, respType);
     }
 
+    /**
+     * Send an asynchronous Mcu Manager request.
+     * <p>
+     * The request is encoded directly into a packet of its exact length. If the transport limits
+     * the packet length and the request is too long, the callback is notified with an
+     * {@link InsufficientMtuException} without encoding the request.
+     *
+     * @param request  the request.
+     * @param respType the response type.
+     * @param callback the response callback.
+     * @param <T>      the response type.
+     */
+    public <T extends McuMgrResponse> void send(@NotNull McuMgrRequest request,
+                                                @NotNull Class<T> respType,
+                                                @NotNull McuMgrCallback<T> callback) {
+        try {
+            checkPacketLength(request);
+        } catch (InsufficientMtuException e) {
+            dispatch(callback).onError(e);
+            return;
+        }
+        byte[] packet = request.encode(BufferPool.getDefault(), getScheme(), 0, 0);
+        sendPooled(packet, respType, callback);
+    }
+
+    /**
+     * Send a synchronous Mcu Manager request.
+     * <p>
+     * The request is encoded directly into a packet of its exact length.
+     *
+     * @param request  the request.
+     * @param respType the response type.
+     * @param <T>      the response type.
+     * @return The Mcu Manager response.
+     * @throws InsufficientMtuException if the transport limits the packet length and the request
+     *                                  is too long.
+     * @throws McuMgrException          on transport error. See exception cause for more info.
+     */
+    @NotNull
+    public <T extends McuMgrResponse> T send(@NotNull McuMgrRequest request,
+                                             @NotNull Class<T> respType)
+            throws McuMgrException {
+        checkPacketLength(request);
+        byte[] packet = request.encode(BufferPool.getDefault(), getScheme(), 0, 0);
+        return sendPooled(packet, respType);
+    }
+
+    private void checkPacketLength(@NotNull McuMgrRequest request)
+            throws InsufficientMtuException {
+        if (mTransporter instanceof McuMgrTransport.PacketLengthLimit) {
+            int maxLength = ((McuMgrTransport.PacketLengthLimit) mTransporter).getMaxPacketLength();
+            int length = request.getEncodedSize(getScheme());
+            if (maxLength > 0 && length > maxLength) {
+                throw new InsufficientMtuException(length, maxLength);
+            }
+        }
+    }
+
     /**
      * Send data asynchronously using the transporter.
      *
@@ -256,7 +351,7 @@ public abstract class McuManager {
      */
     public <T extends McuMgrResponse> void send(@NotNull byte[] data, @NotNull Class<T> respType,
                                                 @NotNull McuMgrCallback<T> callback) {
-        mTransporter.send(data, respType, callback);
+        mTransporter.send(data, respType, dispatch(callback));
     }
 
     /**
@@ -274,8 +369,106 @@ public abstract class McuManager {
         return mTransporter.send(data, respType);
     }
 
+    /**
+     * Send a packet acquired from the {@link BufferPool#getDefault() default buffer pool}
+     * asynchronously. The ownership of the packet passes to this method: the packet is returned
+     * to the pool when the response has been received, which implies that the transport has
+     * finished writing it. On error, the packet is discarded instead, as it may still be
+     * referenced by a pending write.
+     *
+     * @param packet   the packet, acquired from the default buffer pool.
+     * @param respType the response type.
+     * @param callback the response callback.
+     * @param <T>      the response type.
+     */
+    public <T extends McuMgrResponse> void sendPooled(@NotNull final byte[] packet,
+                                                      @NotNull Class<T> respType,
+                                                      @NotNull McuMgrCallback<T> callback) {
+        final McuMgrCallback<T> target = dispatch(callback);
+        mTransporter.send(packet, respType, new McuMgrCallback<T>() {
+            @Override
+            public void onResponse(@NotNull T response) {
+                BufferPool.getDefault().release(packet);
+                target.onResponse(response);
+            }
+
+            @Override
+            public void onError(@NotNull McuMgrException error) {
+                BufferPool.getDefault().discard(packet);
+                target.onError(error);
+            }
+        });
+    }
+
+    /**
+     * Returns a callback forwarding the results to the given one on the callback executor, or the
+     * given callback itself if no executor has been set.
+     */
+    @NotNull
+    private <T extends McuMgrResponse> McuMgrCallback<T> dispatch(
+            @NotNull final McuMgrCallback<T> callback) {
+        final Executor executor = mCallbackExecutor;
+        if (executor == null) {
+            return callback;
+        }
+        return new McuMgrCallback<T>() {
+            @Override
+            public void onResponse(@NotNull final T response) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onResponse(response);
+                    }
+                });
+            }
+
+            @Override
+            public void onError(@NotNull final McuMgrException error) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onError(error);
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Send a packet acquired from the {@link BufferPool#getDefault() default buffer pool}
+     * synchronously. The ownership of the packet passes to this method, see
+     * {@link #sendPooled(byte[], Class, McuMgrCallback)}.
+     *
+     * @param packet   the packet, acquired from the default buffer pool.
+     * @param respType the response type.
+     * @param <T>      the response type.
+     * @return The Mcu Manager response.
+     * @throws McuMgrException when an error occurs while sending the data.
+     */
+    @NotNull
+    public <T extends McuMgrResponse> T sendPooled(@NotNull byte[] packet,
+                                                   @NotNull Class<T> respType)
+            throws McuMgrException {
+        T response;
+        try {
+            response = mTransporter.send(packet, respType);
+        } catch (McuMgrException e) {
+            BufferPool.getDefault().discard(packet);
+            throw e;
+        }
+        BufferPool.getDefault().release(packet);
+        return response;
+    }
+
     /**
      * Build a Mcu Manager packet based on the transport scheme.
+     * <p>
+     * The payload is encoded as a definite length CBOR map, in the iteration order of the
+     * payload map, with integers in the shortest possible form. The length of the packet is
+     * calculated before encoding, so the {@link PacketOutputStream} is sized exactly, never
+     * grows, and its buffer is returned as the packet without a final copy. Values not
+     * supported by {@link CborWriter#sizeOfValue(Object)}, for example POJOs, are serialized
+     * using Jackson.
      *
      * @param scheme      the transport scheme.
      * @param op          the operation ({@link McuManager#OP_READ}, {@link McuManager#OP_WRITE}).
@@ -292,42 +485,113 @@ public abstract class McuManager {
                                      int sequenceNum, int commandId,
                                      @Nullable Map<String, Object> payloadMap)
             throws McuMgrException {
-        byte[] packet;
-        try {
-            // If the payload map is null initialize an empty payload map
-            if (payloadMap == null) {
-                payloadMap = new HashMap<>();
+        // Calculate the length of the payload entries. Values which CborWriter does not
+        // support are serialized up front, by their index in the map.
+        Object header = null;
+        byte[][] encoded = null;
+        int entries = 0;
+        int entriesLength = 0;
+        if (payloadMap != null) {
+            int index = 0;
+            for (Map.Entry<String, Object> entry : payloadMap.entrySet()) {
+                Object value = entry.getValue();
+                if (HEADER_KEY.equals(entry.getKey())) {
+                    // The header is never a part of the payload
+                    header = value;
+                } else {
+                    int valueLength = CborWriter.sizeOfValue(value);
+                    if (valueLength < 0) {
+                        if (encoded == null) {
+                            encoded = new byte[payloadMap.size()][];
+                        }
+                        encoded[index] = serialize(value);
+                        valueLength = encoded[index].length;
+                    }
+                    entries++;
+                    entriesLength += CborWriter.sizeOfText(entry.getKey()) + valueLength;
+                }
+                index++;
             }
-
-            // Copy the payload map to remove the header key
-            HashMap<String, Object> payloadMapCopy = new HashMap<>(payloadMap);
-            // Remove the header if present (for CoAP schemes)
-            payloadMapCopy.remove(HEADER_KEY);
-
-            // Get the length
-            int len = CBOR.toBytes(payloadMapCopy).length;
-
-            // Build header
-            byte[] header = McuMgrHeader.build(op, flags, len, groupId, sequenceNum, commandId);
-
-            // Build the packet based on scheme
-            if (scheme.isCoap()) {
-                // CoAP Scheme puts the header as a key-value pair in the payload
-                if (payloadMap.get(HEADER_KEY) == null) {
-                    payloadMap.put(HEADER_KEY, header);
+        }
+        // The length in the header is the length of the payload encoded as a map on its own,
+        // without the CoAP header entry.
+        int payloadLength = CborWriter.sizeOfMapHeader(entries) + entriesLength;
+
+        // CoAP scheme puts the header as a key-value pair in the payload, standard scheme puts
+        // it in front of the CBOR payload. A header given in the payload map is only used with
+        // the CoAP scheme.
+        byte[] encodedHeader = null;
+        int headerEntryLength = 0;
+        int length;
+        if (scheme.isCoap()) {
+            if (header == null) {
+                headerEntryLength = HEADER_KEY_ENCODED.length +
+                        CborWriter.sizeOfBytes(McuMgrHeader.HEADER_LENGTH);
+            } else {
+                int valueLength = CborWriter.sizeOfValue(header);
+                if (valueLength < 0) {
+                    encodedHeader = serialize(header);
+                    valueLength = encodedHeader.length;
                 }
-                packet = CBOR.toBytes(payloadMap);
+                headerEntryLength = HEADER_KEY_ENCODED.length + valueLength;
+            }
+            length = CborWriter.sizeOfMapHeader(entries + 1) + headerEntryLength + entriesLength;
+        } else {
+            length = McuMgrHeader.HEADER_LENGTH + payloadLength;
+        }
+
+        PacketOutputStream out = new PacketOutputStream(length);
+        byte[] buffer;
+        int position;
+        if (scheme.isCoap()) {
+            position = out.reserve(CborWriter.sizeOfMapHeader(entries + 1) + headerEntryLength);
+            buffer = out.getBuffer();
+            position = CborWriter.writeMapHeader(buffer, position, entries + 1);
+            position = CborWriter.writeEncoded(buffer, position, HEADER_KEY_ENCODED);
+            if (header == null) {
+                position = CborWriter.writeHead(buffer, position, CborWriter.MAJOR_TYPE_BYTES,
+                        McuMgrHeader.HEADER_LENGTH);
+                McuMgrHeader.write(buffer, position, op, flags, payloadLength,
+                        groupId, sequenceNum, commandId);
+            } else if (encodedHeader != null) {
+                CborWriter.writeEncoded(buffer, position, encodedHeader);
             } else {
-                // Standard scheme appends the CBOR payload to the header.
-                byte[] cborPayload = CBOR.toBytes(payloadMap);
-                packet = new byte[header.length + cborPayload.length];
-                System.arraycopy(header, 0, packet, 0, header.length);
-                System.arraycopy(cborPayload, 0, packet, header.length, cborPayload.length);
+                CborWriter.writeValue(buffer, position, header);
+            }
+        } else {
+            position = out.reserve(McuMgrHeader.HEADER_LENGTH +
+                    CborWriter.sizeOfMapHeader(entries));
+            buffer = out.getBuffer();
+            McuMgrHeader.write(buffer, position, op, flags, payloadLength,
+                    groupId, sequenceNum, commandId);
+            CborWriter.writeMapHeader(buffer, position + McuMgrHeader.HEADER_LENGTH, entries);
+        }
+        if (payloadMap != null) {
+            position = out.reserve(entriesLength);
+            buffer = out.getBuffer();
+            int index = 0;
+            for (Map.Entry<String, Object> entry : payloadMap.entrySet()) {
+                if (!HEADER_KEY.equals(entry.getKey())) {
+                    position = CborWriter.writeText(buffer, position, entry.getKey());
+                    if (encoded != null && encoded[index] != null) {
+                        position = CborWriter.writeEncoded(buffer, position, encoded[index]);
+                    } else {
+                        position = CborWriter.writeValue(buffer, position, entry.getValue());
+                    }
+                }
+                index++;
             }
+        }
+        return out.toPacket();
+    }
+
+    @NotNull
+    private static byte[] serialize(@Nullable Object value) throws McuMgrException {
+        try {
+            return CBOR.toBytes(value);
         } catch (IOException e) {
             throw new McuMgrException("An error occurred serializing CBOR payload", e);
         }
-        return packet;
     }
 
     //******************************************************************
@@ -10,9 +10,6 @@ package io.runtime.mcumgr;
 
 import org.jetbrains.annotations.NotNull;
 
-import io.runtime.mcumgr.util.ByteUtil;
-import io.runtime.mcumgr.util.Endian;
-
 /**
  * The Mcu Manager header is an 8-byte array which identifies the specific command and provides
  * fields for optional values such as flags and sequence numbers. This class is used to parse
@@ -109,16 +106,60 @@ public class McuMgrHeader {
      */
     @NotNull
     public static McuMgrHeader fromBytes(@NotNull byte[] header) {
-        if (header.length < HEADER_LENGTH) {
-            throw new IllegalArgumentException("Failed to parse mcumgr header from bytes; too short - length=" + header.length);
+        return fromBytes(header, 0);
+    }
+
+    /**
+     * Parse the mcumgr header from a byte array, starting at the given offset.
+     * This function will parse 8 bytes from the offset, discounting any additional bytes.
+     *
+     * @param bytes  the byte array to parse the header from.
+     * @param offset the offset of the header in the array.
+     * @return The parsed mcumgr header.
+     * @throws IllegalArgumentException when there are less than 8 bytes from the offset
+     */
+    @NotNull
+    public static McuMgrHeader fromBytes(@NotNull byte[] bytes, int offset) {
+        if (offset < 0 || bytes.length - offset < HEADER_LENGTH) {
+            throw new IllegalArgumentException("Failed to parse mcumgr header from bytes; too short - length=" + (bytes.length - offset));
         }
-        int op          = ByteUtil.byteArrayToUnsignedInt(header, 0, Endian.BIG, 1);
-        int flags       = ByteUtil.byteArrayToUnsignedInt(header, 1, Endian.BIG, 1);
-        int len         = ByteUtil.byteArrayToUnsignedInt(header, 2, Endian.BIG, 2);
-        int groupId     = ByteUtil.byteArrayToUnsignedInt(header, 4, Endian.BIG, 2);
-        int sequenceNum = ByteUtil.byteArrayToUnsignedInt(header, 6, Endian.BIG, 1);
-        int commandId   = ByteUtil.byteArrayToUnsignedInt(header, 7, Endian.BIG, 1);
-        return new McuMgrHeader(op, flags, len, groupId, sequenceNum, commandId);
+        return new McuMgrHeader(readOp(bytes, offset), readFlags(bytes, offset),
+                readLen(bytes, offset), readGroupId(bytes, offset),
+                readSequenceNum(bytes, offset), readCommandId(bytes, offset));
+    }
+
+    //******************************************************************
+    // Allocation-free accessors
+    //******************************************************************
+
+    /*
+     * The following methods read a single field of the header located at the given offset in
+     * the array, without creating a McuMgrHeader object. The array must contain at least
+     * HEADER_LENGTH bytes from the offset.
+     */
+
+    public static int readOp(@NotNull byte[] bytes, int offset) {
+        return bytes[offset] & 0xFF;
+    }
+
+    public static int readFlags(@NotNull byte[] bytes, int offset) {
+        return bytes[offset + 1] & 0xFF;
+    }
+
+    public static int readLen(@NotNull byte[] bytes, int offset) {
+        return ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+    }
+
+    public static int readGroupId(@NotNull byte[] bytes, int offset) {
+        return ((bytes[offset + 4] & 0xFF) << 8) | (bytes[offset + 5] & 0xFF);
+    }
+
+    public static int readSequenceNum(@NotNull byte[] bytes, int offset) {
+        return bytes[offset + 6] & 0xFF;
+    }
+
+    public static int readCommandId(@NotNull byte[] bytes, int offset) {
+        return bytes[offset + 7] & 0xFF;
     }
 
     /**
@@ -137,12 +178,33 @@ public class McuMgrHeader {
      */
     @NotNull
     public static byte[] build(int op, int flags, int len, int group, int sequence, int id) {
-        return new byte[]{
-                (byte) op,
-                (byte) flags,
-                (byte) (len >>> 8), (byte) len,
-                (byte) (group >>> 8), (byte) group,
-                (byte) sequence,
-                (byte) id};
+        byte[] header = new byte[HEADER_LENGTH];
+        write(header, 0, op, flags, len, group, sequence, id);
+        return header;
+    }
+
+    /**
+     * Writes a manager header into the given buffer at the given offset.
+     *
+     * @param buffer   the buffer to write the header to.
+     * @param offset   the offset at which the header will be written.
+     * @param op       the operation for this packet.
+     * @param flags    newt manager flags.
+     * @param len      the length of the payload following the header.
+     * @param group    the newt manager command group.
+     * @param sequence the newt manager sequence number.
+     * @param id       the sub-command ID.
+     * @see #build(int, int, int, int, int, int)
+     */
+    public static void write(@NotNull byte[] buffer, int offset,
+                             int op, int flags, int len, int group, int sequence, int id) {
+        buffer[offset]     = (byte) op;
+        buffer[offset + 1] = (byte) flags;
+        buffer[offset + 2] = (byte) (len >>> 8);
+        buffer[offset + 3] = (byte) len;
+        buffer[offset + 4] = (byte) (group >>> 8);
+        buffer[offset + 5] = (byte) group;
+        buffer[offset + 6] = (byte) sequence;
+        buffer[offset + 7] = (byte) id;
     }
 }
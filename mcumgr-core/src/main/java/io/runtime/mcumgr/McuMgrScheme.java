@@ -13,11 +13,17 @@ package io.runtime.mcumgr;
  * determines the format of the MCU Manager packet. For example, CoAP schemes put the 8-byte MCU
  * Manager header as a key-value pair in the CBOR payload while non-CoAP schemes simply append the
  * CBOR payload after the 8-byte header.
+ * <p>
+ * {@link McuMgrScheme#UDP} is plain SMP over UDP, which uses the same packet format as
+ * {@link McuMgrScheme#BLE}, one packet per datagram. {@link McuMgrScheme#SERIAL} is plain SMP
+ * over a serial port, with the packets framed by the transport.
  */
 public enum McuMgrScheme {
     BLE,
     COAP_BLE,
-    COAP_UDP;
+    COAP_UDP,
+    UDP,
+    SERIAL;
 
     public boolean isCoap() {
         return this == COAP_BLE || this == COAP_UDP;
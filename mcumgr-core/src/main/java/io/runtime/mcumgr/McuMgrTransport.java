@@ -10,6 +10,8 @@ package io.runtime.mcumgr;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.concurrent.Executor;
+
 import io.runtime.mcumgr.exception.McuMgrException;
 import io.runtime.mcumgr.response.McuMgrResponse;
 
@@ -67,6 +69,35 @@ public interface McuMgrTransport {
         void onError(@NotNull Throwable t);
     }
 
+    /**
+     * May be implemented by transports which limit the length of a packet. Managers use the
+     * limit to reject requests which are too long before encoding them.
+     */
+    interface PacketLengthLimit {
+        /**
+         * Returns the maximum length of a packet which may currently be sent.
+         *
+         * @return The maximum packet length, or 0 if it is not known, e.g. because the transport
+         * is not connected.
+         */
+        int getMaxPacketLength();
+    }
+
+    /**
+     * May be implemented by transports which can deliver the {@link McuMgrCallback}s of
+     * asynchronous requests on a given executor. Internal work of the transport, like decoding
+     * responses, is not affected by the executor.
+     */
+    interface CallbackExecutorSupport {
+        /**
+         * Sets the executor running the callbacks of asynchronous requests.
+         *
+         * @param executor the callback executor, e.g. one of
+         *                 {@link io.runtime.mcumgr.util.CallbackExecutors}.
+         */
+        void setCallbackExecutor(@NotNull Executor executor);
+    }
+
     /**
      * Gets the scheme for this transport (see {@link McuMgrScheme}).
      *
@@ -25,6 +25,7 @@ import io.runtime.mcumgr.response.McuMgrResponse;
 import io.runtime.mcumgr.response.img.McuMgrImageStateResponse;
 import io.runtime.mcumgr.transfer.TransferController;
 import io.runtime.mcumgr.transfer.UploadCallback;
+import io.runtime.mcumgr.util.CallbackExecutors;
 import static io.runtime.mcumgr.transfer.ImageUploaderKt.windowUpload;
 
 // TODO Add retries for each step
@@ -125,9 +126,10 @@ public class FirmwareUpgradeManager implements FirmwareUpgradeController {
     private boolean mPaused = false;
 
     /**
-     * Flag for setting callbacks to run on the main UI thread.
+     * The executor running the callbacks, or null to run them on the main UI thread.
      */
-    private boolean mUiThreadCallbacks = true;
+    @Nullable
+    private volatile Executor mCallbackExecutor;
 
     /**
      * Estimated time required for swapping images, in milliseconds.
@@ -210,7 +212,27 @@ public class FirmwareUpgradeManager implements FirmwareUpgradeController {
      * @param uiThreadCallbacks true if all callbacks should run on the UI thread.
      */
     public void setCallbackOnUiThread(boolean uiThreadCallbacks) {
-        mUiThreadCallbacks = uiThreadCallbacks;
+        mCallbackExecutor = uiThreadCallbacks
+                ? CallbackExecutors.mainThread() : CallbackExecutors.direct();
+    }
+
+    /**
+     * Sets the executor running all callbacks. By default, callbacks run on the UI thread.
+     * <p>
+     * The executor only delivers the callbacks, the upgrade itself never runs on it. Use
+     * {@link CallbackExecutors#direct()} to receive frequent events, like upload progress,
+     * without the cost of dispatching each of them.
+     *
+     * @param executor the callback executor, or null to run callbacks on the UI thread.
+     */
+    public void setCallbackExecutor(@Nullable Executor executor) {
+        mCallbackExecutor = executor;
+    }
+
+    @NotNull
+    private Executor getCallbackExecutor() {
+        Executor executor = mCallbackExecutor;
+        return executor != null ? executor : CallbackExecutors.mainThread();
     }
 
     /**
@@ -869,33 +891,20 @@ public class FirmwareUpgradeManager implements FirmwareUpgradeController {
     //******************************************************************
 
     /**
-     * Internal callback to route callbacks to the UI thread if the flag has been set.
+     * Internal callback to route callbacks to the callback executor.
      */
     private FirmwareUpgradeCallback mInternalCallback = new FirmwareUpgradeCallback() {
-        private MainThreadExecutor mMainThreadExecutor;
-
-        private MainThreadExecutor getMainThreadExecutor() {
-            if (mMainThreadExecutor == null) {
-                mMainThreadExecutor = new MainThreadExecutor();
-            }
-            return mMainThreadExecutor;
-        }
-
         @Override
         public void onUpgradeStarted(final FirmwareUpgradeController controller) {
             if (mCallback == null) {
                 return;
             }
-            if (mUiThreadCallbacks) {
-                getMainThreadExecutor().execute(new Runnable() {
-                    @Override
-                    public void run() {
-                        mCallback.onUpgradeStarted(controller);
-                    }
-                });
-            } else {
-                mCallback.onUpgradeStarted(controller);
-            }
+            getCallbackExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onUpgradeStarted(controller);
+                }
+            });
         }
 
         @Override
@@ -903,16 +912,12 @@ public class FirmwareUpgradeManager implements FirmwareUpgradeController {
             if (mCallback == null) {
                 return;
             }
-            if (mUiThreadCallbacks) {
-                getMainThreadExecutor().execute(new Runnable() {
-                    @Override
-                    public void run() {
-                        mCallback.onStateChanged(prevState, newState);
-                    }
-                });
-            } else {
-                mCallback.onStateChanged(prevState, newState);
-            }
+            getCallbackExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onStateChanged(prevState, newState);
+                }
+            });
         }
 
         @Override
@@ -920,16 +925,12 @@ public class FirmwareUpgradeManager implements FirmwareUpgradeController {
             if (mCallback == null) {
                 return;
             }
-            if (mUiThreadCallbacks) {
-                getMainThreadExecutor().execute(new Runnable() {
-                    @Override
-                    public void run() {
-                        mCallback.onUpgradeCompleted();
-                    }
-                });
-            } else {
-                mCallback.onUpgradeCompleted();
-            }
+            getCallbackExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onUpgradeCompleted();
+                }
+            });
         }
 
         @Override
@@ -937,16 +938,12 @@ public class FirmwareUpgradeManager implements FirmwareUpgradeController {
             if (mCallback == null) {
                 return;
             }
-            if (mUiThreadCallbacks) {
-                getMainThreadExecutor().execute(new Runnable() {
-                    @Override
-                    public void run() {
-                        mCallback.onUpgradeFailed(state, error);
-                    }
-                });
-            } else {
-                mCallback.onUpgradeFailed(state, error);
-            }
+            getCallbackExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onUpgradeFailed(state, error);
+                }
+            });
         }
 
         @Override
@@ -954,16 +951,12 @@ public class FirmwareUpgradeManager implements FirmwareUpgradeController {
             if (mCallback == null) {
                 return;
             }
-            if (mUiThreadCallbacks) {
-                getMainThreadExecutor().execute(new Runnable() {
-                    @Override
-                    public void run() {
-                        mCallback.onUpgradeCanceled(state);
-                    }
-                });
-            } else {
-                mCallback.onUpgradeCanceled(state);
-            }
+            getCallbackExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onUpgradeCanceled(state);
+                }
+            });
         }
 
         @Override
@@ -971,32 +964,12 @@ public class FirmwareUpgradeManager implements FirmwareUpgradeController {
             if (mCallback == null) {
                 return;
             }
-            if (mUiThreadCallbacks) {
-                getMainThreadExecutor().execute(new Runnable() {
-                    @Override
-                    public void run() {
-                        mCallback.onUploadProgressChanged(bytesSent, imageSize, timestamp);
-                    }
-                });
-            } else {
-                mCallback.onUploadProgressChanged(bytesSent, imageSize, timestamp);
-            }
+            getCallbackExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    mCallback.onUploadProgressChanged(bytesSent, imageSize, timestamp);
+                }
+            });
         }
     };
-
-    //******************************************************************
-    // Main Thread Executor
-    //******************************************************************
-
-    /**
-     * Used to execute callbacks on the main UI thread.
-     */
-    private static class MainThreadExecutor implements Executor {
-        private Handler mainThreadHandler = new Handler(Looper.getMainLooper());
-
-        @Override
-        public void execute(@NotNull Runnable command) {
-            mainThreadHandler.post(command);
-        }
-    }
 }
@@ -10,12 +10,12 @@ package io.runtime.mcumgr.managers;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.HashMap;
-
 import io.runtime.mcumgr.McuManager;
 import io.runtime.mcumgr.McuMgrCallback;
 import io.runtime.mcumgr.McuMgrTransport;
 import io.runtime.mcumgr.exception.McuMgrException;
+import io.runtime.mcumgr.request.ConfigReadRequest;
+import io.runtime.mcumgr.request.ConfigWriteRequest;
 import io.runtime.mcumgr.response.McuMgrResponse;
 import io.runtime.mcumgr.response.config.McuMgrConfigReadResponse;
 
@@ -43,9 +43,7 @@ public class ConfigManager extends McuManager {
      */
     public void read(@Nullable String name,
                      @NotNull McuMgrCallback<McuMgrConfigReadResponse> callback) {
-        HashMap<String, Object> payloadMap = new HashMap<>();
-        payloadMap.put("name", name);
-        send(OP_READ, ID_CONFIG, payloadMap, McuMgrConfigReadResponse.class, callback);
+        send(new ConfigReadRequest(name), McuMgrConfigReadResponse.class, callback);
     }
 
     /**
@@ -57,9 +55,7 @@ public class ConfigManager extends McuManager {
      */
     @NotNull
     public McuMgrConfigReadResponse read(@Nullable String name) throws McuMgrException {
-        HashMap<String, Object> payloadMap = new HashMap<>();
-        payloadMap.put("name", name);
-        return send(OP_READ, ID_CONFIG, payloadMap, McuMgrConfigReadResponse.class);
+        return send(new ConfigReadRequest(name), McuMgrConfigReadResponse.class);
     }
 
     /**
@@ -73,11 +69,7 @@ public class ConfigManager extends McuManager {
      */
     public void write(@Nullable String name, @Nullable String value, boolean save,
                       @NotNull McuMgrCallback<McuMgrResponse> callback) {
-        HashMap<String, Object> payloadMap = new HashMap<>();
-        payloadMap.put("name", name);
-        payloadMap.put("val", value);
-        payloadMap.put("save", save);
-        send(OP_WRITE, ID_CONFIG, payloadMap, McuMgrResponse.class, callback);
+        send(new ConfigWriteRequest(name, value, save), McuMgrResponse.class, callback);
     }
 
     /**
@@ -93,10 +85,6 @@ public class ConfigManager extends McuManager {
     @NotNull
     public McuMgrResponse write(@Nullable String name, @Nullable String value, boolean save)
             throws McuMgrException {
-        HashMap<String, Object> payloadMap = new HashMap<>();
-        payloadMap.put("name", name);
-        payloadMap.put("val", value);
-        payloadMap.put("save", save);
-        return send(OP_WRITE, ID_CONFIG, payloadMap, McuMgrResponse.class);
+        return send(new ConfigWriteRequest(name, value, save), McuMgrResponse.class);
     }
 }
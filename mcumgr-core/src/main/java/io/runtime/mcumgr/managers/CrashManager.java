@@ -2,12 +2,11 @@ package io.runtime.mcumgr.managers;
 
 import org.jetbrains.annotations.NotNull;
 
-import java.util.HashMap;
-
 import io.runtime.mcumgr.McuManager;
 import io.runtime.mcumgr.McuMgrCallback;
 import io.runtime.mcumgr.McuMgrTransport;
 import io.runtime.mcumgr.exception.McuMgrException;
+import io.runtime.mcumgr.request.CrashTestRequest;
 import io.runtime.mcumgr.response.McuMgrResponse;
 import io.runtime.mcumgr.response.config.McuMgrConfigReadResponse;
 
@@ -55,9 +54,7 @@ public class CrashManager extends McuManager {
      */
     @NotNull
     public McuMgrResponse test(@NotNull Test test) throws McuMgrException {
-        HashMap<String, Object> payloadMap = new HashMap<>();
-        payloadMap.put("t", test.toString());
-        return send(OP_WRITE, ID_CRASH_TEST, payloadMap, McuMgrConfigReadResponse.class);
+        return send(new CrashTestRequest(test.toString()), McuMgrConfigReadResponse.class);
     }
 
     /**
@@ -66,8 +63,6 @@ public class CrashManager extends McuManager {
      * @param callback The response callback.
      */
     public void test(@NotNull Test test, @NotNull McuMgrCallback<McuMgrResponse> callback) {
-        HashMap<String, Object> payloadMap = new HashMap<>();
-        payloadMap.put("t", test.toString());
-        send(OP_WRITE, ID_CRASH_TEST, payloadMap, McuMgrResponse.class, callback);
+        send(new CrashTestRequest(test.toString()), McuMgrResponse.class, callback);
     }
 }
@@ -11,13 +11,15 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.Date;
-import java.util.HashMap;
 import java.util.TimeZone;
 
 import io.runtime.mcumgr.McuManager;
 import io.runtime.mcumgr.McuMgrCallback;
 import io.runtime.mcumgr.McuMgrTransport;
 import io.runtime.mcumgr.exception.McuMgrException;
+import io.runtime.mcumgr.request.ConsoleEchoControlRequest;
+import io.runtime.mcumgr.request.DateTimeWriteRequest;
+import io.runtime.mcumgr.request.EchoRequest;
 import io.runtime.mcumgr.response.McuMgrResponse;
 import io.runtime.mcumgr.response.dflt.McuMgrEchoResponse;
 import io.runtime.mcumgr.response.dflt.McuMgrMpStatResponse;
@@ -58,9 +60,7 @@ public class DefaultManager extends McuManager {
      * @param callback the asynchronous callback.
      */
     public void echo(@Nullable String echo, @NotNull McuMgrCallback<McuMgrEchoResponse> callback) {
-        HashMap<String, Object> payloadMap = new HashMap<>();
-        payloadMap.put("d", echo);
-        send(OP_WRITE, ID_ECHO, payloadMap, McuMgrEchoResponse.class, callback);
+        send(new EchoRequest(echo), McuMgrEchoResponse.class, callback);
     }
 
     /**
@@ -72,9 +72,7 @@ public class DefaultManager extends McuManager {
      */
     @NotNull
     public McuMgrEchoResponse echo(@Nullable String echo) throws McuMgrException {
-        HashMap<String, Object> payloadMap = new HashMap<>();
-        payloadMap.put("d", echo);
-        return send(OP_WRITE, ID_ECHO, payloadMap, McuMgrEchoResponse.class);
+        return send(new EchoRequest(echo), McuMgrEchoResponse.class);
     }
 
     /**
@@ -84,9 +82,7 @@ public class DefaultManager extends McuManager {
      * @param callback the asynchronous callback.
      */
     public void consoleEcho(boolean echo, @NotNull McuMgrCallback<McuMgrResponse> callback) {
-        HashMap<String, Object> payloadMap = new HashMap<>();
-        payloadMap.put("echo", echo);
-        send(OP_WRITE, ID_CONS_ECHO_CTRL, payloadMap, McuMgrResponse.class, callback);
+        send(new ConsoleEchoControlRequest(echo), McuMgrResponse.class, callback);
     }
 
     /**
@@ -98,9 +94,7 @@ public class DefaultManager extends McuManager {
      */
     @NotNull
     public McuMgrResponse consoleEcho(boolean echo) throws McuMgrException {
-        HashMap<String, Object> payloadMap = new HashMap<>();
-        payloadMap.put("echo", echo);
-        return send(OP_WRITE, ID_CONS_ECHO_CTRL, payloadMap, McuMgrResponse.class);
+        return send(new ConsoleEchoControlRequest(echo), McuMgrResponse.class);
     }
 
     /**
@@ -174,9 +168,8 @@ public class DefaultManager extends McuManager {
      */
     public void writeDatetime(@Nullable Date date, @Nullable TimeZone timeZone,
                               @NotNull McuMgrCallback<McuMgrResponse> callback) {
-        HashMap<String, Object> payloadMap = new HashMap<>();
-        payloadMap.put("datetime", dateToString(date, timeZone));
-        send(OP_WRITE, ID_DATETIME_STR, payloadMap, McuMgrResponse.class, callback);
+        send(new DateTimeWriteRequest(dateToString(date, timeZone)), McuMgrResponse.class,
+                callback);
     }
 
     /**
@@ -192,9 +185,8 @@ public class DefaultManager extends McuManager {
     @NotNull
     public McuMgrResponse writeDatetime(@Nullable Date date, @Nullable TimeZone timeZone)
             throws McuMgrException {
-        HashMap<String, Object> payloadMap = new HashMap<>();
-        payloadMap.put("datetime", dateToString(date, timeZone));
-        return send(OP_WRITE, ID_DATETIME_STR, payloadMap, McuMgrResponse.class);
+        return send(new DateTimeWriteRequest(dateToString(date, timeZone)),
+                McuMgrResponse.class);
     }
 
     /**
@@ -8,29 +8,33 @@
 package io.runtime.mcumgr.managers;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
 import java.util.HashMap;
 
 import io.runtime.mcumgr.McuMgrCallback;
 import io.runtime.mcumgr.McuMgrErrorCode;
+import io.runtime.mcumgr.McuMgrScheme;
 import io.runtime.mcumgr.McuMgrTransport;
 import io.runtime.mcumgr.exception.InsufficientMtuException;
 import io.runtime.mcumgr.exception.McuMgrErrorException;
 import io.runtime.mcumgr.exception.McuMgrException;
+import io.runtime.mcumgr.response.DownloadChunkResponse;
 import io.runtime.mcumgr.response.DownloadResponse;
 import io.runtime.mcumgr.response.UploadResponse;
 import io.runtime.mcumgr.response.fs.McuMgrFsDownloadResponse;
 import io.runtime.mcumgr.response.fs.McuMgrFsUploadResponse;
 import io.runtime.mcumgr.transfer.Download;
 import io.runtime.mcumgr.transfer.DownloadCallback;
+import io.runtime.mcumgr.transfer.PacketSizer;
 import io.runtime.mcumgr.transfer.TransferController;
 import io.runtime.mcumgr.transfer.TransferManager;
 import io.runtime.mcumgr.transfer.Upload;
 import io.runtime.mcumgr.transfer.UploadCallback;
-import io.runtime.mcumgr.util.CBOR;
+import io.runtime.mcumgr.transfer.UploadEncoder;
+import io.runtime.mcumgr.util.BufferPool;
 
 @SuppressWarnings({"WeakerAccess", "unused", "DeprecatedIsStillUsed", "deprecation"})
 public class FsManager extends TransferManager {
@@ -39,6 +43,13 @@ public class FsManager extends TransferManager {
 
     private final static int ID_FILE = 0;
 
+    /**
+     * The encoder of the current upload, kept as long as the file name and scheme don't change,
+     * so that the name is encoded once per upload rather than once per chunk.
+     */
+    @Nullable
+    private volatile UploadEncoder mUploadEncoder;
+
     /**
      * Construct a McuManager instance.
      *
@@ -61,10 +72,8 @@ public class FsManager extends TransferManager {
      */
     public void download(@NotNull String name, int offset,
                          @NotNull McuMgrCallback<McuMgrFsDownloadResponse> callback) {
-        HashMap<String, Object> payloadMap = new HashMap<>();
-        payloadMap.put("name", name);
-        payloadMap.put("off", offset);
-        send(OP_READ, ID_FILE, payloadMap, McuMgrFsDownloadResponse.class, callback);
+        send(OP_READ, ID_FILE, buildDownloadPayload(name, offset),
+                McuMgrFsDownloadResponse.class, callback);
     }
 
     /**
@@ -81,10 +90,16 @@ public class FsManager extends TransferManager {
     @NotNull
     public McuMgrFsDownloadResponse download(@NotNull String name, int offset)
             throws McuMgrException {
+        return send(OP_READ, ID_FILE, buildDownloadPayload(name, offset),
+                McuMgrFsDownloadResponse.class);
+    }
+
+    @NotNull
+    private HashMap<String, Object> buildDownloadPayload(@NotNull String name, int offset) {
         HashMap<String, Object> payloadMap = new HashMap<>();
         payloadMap.put("name", name);
         payloadMap.put("off", offset);
-        return send(OP_READ, ID_FILE, payloadMap, McuMgrFsDownloadResponse.class);
+        return payloadMap;
     }
 
     /**
@@ -105,8 +120,8 @@ public class FsManager extends TransferManager {
      */
     public void upload(@NotNull String name, @NotNull byte[] data, int offset,
                        @NotNull McuMgrCallback<McuMgrFsUploadResponse> callback) {
-        HashMap<String, Object> payloadMap = buildUploadPayload(name, data, offset);
-        send(OP_WRITE, ID_FILE, payloadMap, McuMgrFsUploadResponse.class, callback);
+        byte[] packet = buildUploadPacket(name, data, offset);
+        sendPooled(packet, McuMgrFsUploadResponse.class, callback);
     }
 
     /**
@@ -128,35 +143,40 @@ public class FsManager extends TransferManager {
     @NotNull
     public McuMgrFsUploadResponse upload(@NotNull String name, @NotNull byte[] data, int offset)
             throws McuMgrException {
-        HashMap<String, Object> payloadMap = buildUploadPayload(name, data, offset);
-        return send(OP_WRITE, ID_FILE, payloadMap, McuMgrFsUploadResponse.class);
+        byte[] packet = buildUploadPacket(name, data, offset);
+        return sendPooled(packet, McuMgrFsUploadResponse.class);
     }
 
     /*
-     * Build the upload payload map.
+     * Build the upload packet.
      */
     @NotNull
-    private HashMap<String, Object> buildUploadPayload(@NotNull String name, @NotNull byte[] data, int offset) {
-        // Get the length of data (in bytes) to put into the upload packet. This calculated as:
-        // min(MTU - packetOverhead, imageLength - uploadOffset)
-        int dataLength = Math.min(mMtu - calculatePacketOverhead(name, data, offset),
-                data.length - offset);
+    private byte[] buildUploadPacket(@NotNull String name, @NotNull byte[] data, int offset) {
+        UploadEncoder encoder = getUploadEncoder(name);
 
-        // Copy the data from the image into a buffer.
-        byte[] sendBuffer = new byte[dataLength];
-        System.arraycopy(data, offset, sendBuffer, 0, dataLength);
+        // Get the length of data (in bytes) to put into the upload packet, so that the packet
+        // fits exactly into the MTU
+        int dataLength = encoder.getSizer()
+                .getMaxDataLength(mMtu, data.length, offset, PacketSizer.NO_SHA);
 
-        // Create the map of key-values for the McuManager payload
-        HashMap<String, Object> payloadMap = new HashMap<>();
-        // Put the name, data and offset
-        payloadMap.put("name", name);
-        payloadMap.put("data", sendBuffer);
-        payloadMap.put("off", offset);
-        if (offset == 0) {
-            // Only send the length of the image in the first packet of the upload
-            payloadMap.put("len", data.length);
+        // The chunk is encoded directly from the file data into a pooled packet. The length of
+        // the file is only sent in the first packet of the upload.
+        return encoder.encode(BufferPool.getDefault(), data, offset, dataLength, null);
+    }
+
+    /*
+     * Returns the encoder of the current upload, replacing it when the file name or the scheme
+     * has changed. Encoders are immutable, so the one returned may be used without locking.
+     */
+    @NotNull
+    private UploadEncoder getUploadEncoder(@NotNull String name) {
+        McuMgrScheme scheme = getScheme();
+        UploadEncoder encoder = mUploadEncoder;
+        if (encoder == null || encoder.getScheme() != scheme || !name.equals(encoder.getName())) {
+            encoder = new UploadEncoder(scheme, GROUP_FS, ID_FILE, name);
+            mUploadEncoder = encoder;
         }
-        return payloadMap;
+        return encoder;
     }
 
     //******************************************************************
@@ -255,7 +275,9 @@ public class FsManager extends TransferManager {
 
         @Override
         protected DownloadResponse read(int offset) throws McuMgrException {
-            return download(mName, offset);
+            // The data will be copied directly from the response packet
+            return FsManager.this.send(OP_READ, ID_FILE, buildDownloadPayload(mName, offset),
+                    DownloadChunkResponse.class);
         }
     }
 
@@ -603,33 +625,6 @@ public class FsManager extends TransferManager {
                 }
             };
 
-    // TODO more precise overhead calculations
-    private int calculatePacketOverhead(@NotNull String name, @NotNull byte[] data, int offset) {
-        HashMap<String, Object> overheadTestMap = new HashMap<>();
-        overheadTestMap.put("name", name);
-        overheadTestMap.put("data", new byte[0]);
-        overheadTestMap.put("off", offset);
-        if (offset == 0) {
-            overheadTestMap.put("len", data.length);
-        }
-        try {
-            if (getScheme().isCoap()) {
-                byte[] header = {0, 0, 0, 0, 0, 0, 0, 0};
-                overheadTestMap.put("_h", header);
-                byte[] cborData = CBOR.toBytes(overheadTestMap);
-                // 20 byte estimate of CoAP Header; 5 bytes for good measure
-                return cborData.length + 20 + 5;
-            } else {
-                byte[] cborData = CBOR.toBytes(overheadTestMap);
-                // 8 bytes for McuMgr header; 2 bytes for data length
-                return cborData.length + 8 + 2;
-            }
-        } catch (IOException e) {
-            LOG.error("Error while calculating packet overhead", e);
-        }
-        return -1;
-    }
-
     //******************************************************************
     // File Upload Callback
     //******************************************************************
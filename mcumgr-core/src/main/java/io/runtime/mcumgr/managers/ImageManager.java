@@ -12,7 +12,6 @@ import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
@@ -26,6 +25,7 @@ import io.runtime.mcumgr.dfu.FirmwareUpgradeManager;
 import io.runtime.mcumgr.exception.InsufficientMtuException;
 import io.runtime.mcumgr.exception.McuMgrErrorException;
 import io.runtime.mcumgr.exception.McuMgrException;
+import io.runtime.mcumgr.response.DownloadChunkResponse;
 import io.runtime.mcumgr.response.DownloadResponse;
 import io.runtime.mcumgr.response.McuMgrResponse;
 import io.runtime.mcumgr.response.UploadResponse;
@@ -34,11 +34,13 @@ import io.runtime.mcumgr.response.img.McuMgrImageStateResponse;
 import io.runtime.mcumgr.response.img.McuMgrImageUploadResponse;
 import io.runtime.mcumgr.transfer.Download;
 import io.runtime.mcumgr.transfer.DownloadCallback;
+import io.runtime.mcumgr.transfer.PacketSizer;
 import io.runtime.mcumgr.transfer.TransferController;
 import io.runtime.mcumgr.transfer.TransferManager;
 import io.runtime.mcumgr.transfer.Upload;
 import io.runtime.mcumgr.transfer.UploadCallback;
-import io.runtime.mcumgr.util.CBOR;
+import io.runtime.mcumgr.transfer.UploadEncoder;
+import io.runtime.mcumgr.util.BufferPool;
 
 /**
  * Image command-group manager. This manager can read the image state of a device, test or
@@ -68,6 +70,9 @@ public class ImageManager extends TransferManager {
     private final static int ID_ERASE = 5;
     private final static int ID_ERASE_STATE = 6;
 
+    @NotNull
+    private final UploadEncoder mUploadEncoder;
+
     /**
      * Construct an image manager.
      *
@@ -75,6 +80,7 @@ public class ImageManager extends TransferManager {
      */
     public ImageManager(@NotNull McuMgrTransport transport) {
         super(GROUP_IMAGE, transport);
+        mUploadEncoder = new UploadEncoder(transport.getScheme(), GROUP_IMAGE, ID_UPLOAD, null);
     }
 
     /**
@@ -120,8 +126,8 @@ public class ImageManager extends TransferManager {
      */
     public void upload(@NotNull byte[] data, int offset,
                        @NotNull McuMgrCallback<McuMgrImageUploadResponse> callback) {
-        HashMap<String, Object> payloadMap = buildUploadPayload(data, offset);
-        send(OP_WRITE, ID_UPLOAD, payloadMap, McuMgrImageUploadResponse.class, callback);
+        byte[] packet = buildUploadPacket(data, offset);
+        sendPooled(packet, McuMgrImageUploadResponse.class, callback);
     }
 
     /**
@@ -142,27 +148,24 @@ public class ImageManager extends TransferManager {
      */
     @NotNull
     public McuMgrImageUploadResponse upload(@NotNull byte[] data, int offset) throws McuMgrException {
-        HashMap<String, Object> payloadMap = buildUploadPayload(data, offset);
-        return send(OP_WRITE, ID_UPLOAD, payloadMap, McuMgrImageUploadResponse.class);
+        byte[] packet = buildUploadPacket(data, offset);
+        return sendPooled(packet, McuMgrImageUploadResponse.class);
     }
 
     /*
-     * Build the upload payload.
+     * Build the upload packet.
      */
     @NotNull
-    private HashMap<String, Object> buildUploadPayload(@NotNull byte[] data, int offset) {
-        // Get chunk of image data to send
-        int dataLength = Math.min(mMtu - calculatePacketOverhead(data, offset), data.length - offset);
-        byte[] sendBuffer = new byte[dataLength];
-        System.arraycopy(data, offset, sendBuffer, 0, dataLength);
+    private byte[] buildUploadPacket(@NotNull byte[] data, int offset) {
+        // Get the length of the chunk of image data to send
+        int shaLength = offset == 0 ? TRUNCATED_HASH_LEN : PacketSizer.NO_SHA;
+        int dataLength = mUploadEncoder.getSizer()
+                .getMaxDataLength(mMtu, data.length, offset, shaLength);
 
-        // Create the map of key-values for the McuManager payload
-        HashMap<String, Object> payloadMap = new HashMap<>();
-        payloadMap.put("data", sendBuffer);
-        payloadMap.put("off", offset);
+        byte[] truncatedHash = null;
         if (offset == 0) {
-            // Only send the length of the image in the first packet of the upload
-            payloadMap.put("len", data.length);
+            // Only send the length of the image in the first packet of the upload. The encoder
+            // adds it automatically to the request with offset 0.
 
             /*
              * Feature in Apache Mynewt: Device keeps track of unfinished uploads based on the
@@ -174,13 +177,13 @@ public class ImageManager extends TransferManager {
                 MessageDigest digest = MessageDigest.getInstance("SHA-256");
                 byte[] hash = digest.digest(data);
                 // Truncate the hash to save space.
-                byte[] truncatedHash = Arrays.copyOf(hash, TRUNCATED_HASH_LEN);
-                payloadMap.put("sha", truncatedHash);
+                truncatedHash = Arrays.copyOf(hash, TRUNCATED_HASH_LEN);
             } catch (NoSuchAlgorithmException e) {
                 e.printStackTrace();
             }
         }
-        return payloadMap;
+        // The chunk is encoded directly from the image data into a pooled packet
+        return mUploadEncoder.encode(BufferPool.getDefault(), data, offset, dataLength, truncatedHash);
     }
 
     /**
@@ -332,9 +335,7 @@ public class ImageManager extends TransferManager {
      * @param callback the asynchronous callback.
      */
     public void coreLoad(int offset, @NotNull McuMgrCallback<McuMgrCoreLoadResponse> callback) {
-        HashMap<String, Object> payloadMap = new HashMap<>();
-        payloadMap.put("off", offset);
-        send(OP_READ, ID_CORELOAD, payloadMap, McuMgrCoreLoadResponse.class, callback);
+        send(OP_READ, ID_CORELOAD, buildCoreLoadPayload(offset), McuMgrCoreLoadResponse.class, callback);
     }
 
     /**
@@ -346,9 +347,14 @@ public class ImageManager extends TransferManager {
      */
     @NotNull
     public McuMgrCoreLoadResponse coreLoad(int offset) throws McuMgrException {
+        return send(OP_READ, ID_CORELOAD, buildCoreLoadPayload(offset), McuMgrCoreLoadResponse.class);
+    }
+
+    @NotNull
+    private HashMap<String, Object> buildCoreLoadPayload(int offset) {
         HashMap<String, Object> payloadMap = new HashMap<>();
         payloadMap.put("off", offset);
-        return send(OP_READ, ID_CORELOAD, payloadMap, McuMgrCoreLoadResponse.class);
+        return payloadMap;
     }
 
     /**
@@ -403,7 +409,9 @@ public class ImageManager extends TransferManager {
 
         @Override
         public DownloadResponse read(int offset) throws McuMgrException {
-            return coreLoad(offset);
+            // The data will be copied directly from the response packet
+            return ImageManager.this.send(OP_READ, ID_CORELOAD, buildCoreLoadPayload(offset),
+                    DownloadChunkResponse.class);
         }
     }
 
@@ -652,33 +660,6 @@ public class ImageManager extends TransferManager {
                 }
             };
 
-    // TODO more precise overhead calculations
-    private int calculatePacketOverhead(@NotNull byte[] data, int offset) {
-        HashMap<String, Object> overheadTestMap = new HashMap<>();
-        overheadTestMap.put("data", new byte[0]);
-        overheadTestMap.put("off", offset);
-        if (offset == 0) {
-            overheadTestMap.put("len", data.length);
-            overheadTestMap.put("sha", new byte[TRUNCATED_HASH_LEN]);
-        }
-        try {
-            if (getScheme().isCoap()) {
-                byte[] header = {0, 0, 0, 0, 0, 0, 0, 0};
-                overheadTestMap.put("_h", header);
-                byte[] cborData = CBOR.toBytes(overheadTestMap);
-                // 20 byte estimate of CoAP Header; 5 bytes for good measure
-                return cborData.length + 20 + 5;
-            } else {
-                byte[] cborData = CBOR.toBytes(overheadTestMap);
-                // 8 bytes for McuMgr header; 2 bytes for data length
-                return cborData.length + 8 + 2;
-            }
-        } catch (IOException e) {
-            LOG.error("Error while calculating packet overhead", e);
-        }
-        return -1;
-    }
-
     /**
      * Callback for upload command.
      * @deprecated Use the new transfer implementation's UploadCallback
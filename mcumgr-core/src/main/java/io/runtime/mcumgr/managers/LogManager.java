@@ -24,6 +24,7 @@ import io.runtime.mcumgr.McuManager;
 import io.runtime.mcumgr.McuMgrCallback;
 import io.runtime.mcumgr.McuMgrTransport;
 import io.runtime.mcumgr.exception.McuMgrException;
+import io.runtime.mcumgr.request.LogReadRequest;
 import io.runtime.mcumgr.response.log.McuMgrLevelListResponse;
 import io.runtime.mcumgr.response.log.McuMgrLogListResponse;
 import io.runtime.mcumgr.response.log.McuMgrLogResponse;
@@ -78,17 +79,8 @@ public class LogManager extends McuManager {
                      @Nullable Long minIndex,
                      @Nullable Date minTimestamp,
                      @NotNull McuMgrCallback<McuMgrLogResponse> callback) {
-        HashMap<String, Object> payloadMap = new HashMap<>();
-        if (logName != null) {
-            payloadMap.put("log_name", logName);
-        }
-        if (minIndex != null) {
-            payloadMap.put("index", minIndex);
-            if (minTimestamp != null) {
-                payloadMap.put("ts", dateToString(minTimestamp, null));
-            }
-        }
-        send(OP_READ, ID_READ, payloadMap, McuMgrLogResponse.class, callback);
+        String timestamp = minTimestamp != null ? dateToString(minTimestamp, null) : null;
+        send(new LogReadRequest(logName, minIndex, timestamp), McuMgrLogResponse.class, callback);
     }
 
     /**
@@ -114,17 +106,8 @@ public class LogManager extends McuManager {
     public McuMgrLogResponse show(@Nullable String logName, @Nullable Long minIndex,
                                   @Nullable Date minTimestamp)
             throws McuMgrException {
-        HashMap<String, Object> payloadMap = new HashMap<>();
-        if (logName != null) {
-            payloadMap.put("log_name", logName);
-        }
-        if (minIndex != null) {
-            payloadMap.put("index", minIndex);
-            if (minTimestamp != null) {
-                payloadMap.put("ts", dateToString(minTimestamp, null));
-            }
-        }
-        return send(OP_READ, ID_READ, payloadMap, McuMgrLogResponse.class);
+        String timestamp = minTimestamp != null ? dateToString(minTimestamp, null) : null;
+        return send(new LogReadRequest(logName, minIndex, timestamp), McuMgrLogResponse.class);
     }
 
     /**
@@ -9,12 +9,11 @@ package io.runtime.mcumgr.managers;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.HashMap;
-
 import io.runtime.mcumgr.McuManager;
 import io.runtime.mcumgr.McuMgrCallback;
 import io.runtime.mcumgr.McuMgrTransport;
 import io.runtime.mcumgr.exception.McuMgrException;
+import io.runtime.mcumgr.request.StatReadRequest;
 import io.runtime.mcumgr.response.stat.McuMgrStatListResponse;
 import io.runtime.mcumgr.response.stat.McuMgrStatResponse;
 
@@ -44,9 +43,7 @@ public class StatsManager extends McuManager {
      * @param callback the asynchronous callback.
      */
     public void read(@Nullable String module, @NotNull McuMgrCallback<McuMgrStatResponse> callback) {
-        HashMap<String, Object> payloadMap = new HashMap<>();
-        payloadMap.put("name", module);
-        send(OP_READ, ID_READ, payloadMap, McuMgrStatResponse.class, callback);
+        send(new StatReadRequest(module), McuMgrStatResponse.class, callback);
     }
 
     /**
@@ -58,9 +55,7 @@ public class StatsManager extends McuManager {
      */
     @NotNull
     public McuMgrStatResponse read(@Nullable String module) throws McuMgrException {
-        HashMap<String, Object> payloadMap = new HashMap<>();
-        payloadMap.put("name", module);
-        return send(OP_READ, ID_READ, payloadMap, McuMgrStatResponse.class);
+        return send(new StatReadRequest(module), McuMgrStatResponse.class);
     }
 
     /**
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) Intellinium SAS, 2014-present
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.runtime.mcumgr.request;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import io.runtime.mcumgr.util.CborWriter;
+
+/**
+ * Reads a config variable.
+ */
+public final class ConfigReadRequest extends McuMgrRequest {
+    private final static int GROUP_CONFIG = 3;
+    private final static int ID_CONFIG = 0;
+
+    private final static byte[] KEY_NAME = CborWriter.encodeText("name");
+
+    @NotNull
+    private final byte[] mName;
+
+    /**
+     * @param name the name of the config variable.
+     */
+    public ConfigReadRequest(@Nullable String name) {
+        super(OP_READ, GROUP_CONFIG, ID_CONFIG);
+        mName = encodeText(name);
+    }
+
+    @Override
+    protected int getEntryCount() {
+        return 1;
+    }
+
+    @Override
+    protected int getEntriesLength() {
+        return KEY_NAME.length + mName.length;
+    }
+
+    @Override
+    protected int writeEntries(@NotNull byte[] out, int position) {
+        position = CborWriter.writeEncoded(out, position, KEY_NAME);
+        return CborWriter.writeEncoded(out, position, mName);
+    }
+}
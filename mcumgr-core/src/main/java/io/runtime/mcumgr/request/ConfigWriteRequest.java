@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) Intellinium SAS, 2014-present
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.runtime.mcumgr.request;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import io.runtime.mcumgr.util.CborWriter;
+
+/**
+ * Writes a value to a config variable.
+ */
+public final class ConfigWriteRequest extends McuMgrRequest {
+    private final static int GROUP_CONFIG = 3;
+    private final static int ID_CONFIG = 0;
+
+    private final static byte[] KEY_NAME = CborWriter.encodeText("name");
+    private final static byte[] KEY_VAL = CborWriter.encodeText("val");
+    private final static byte[] KEY_SAVE = CborWriter.encodeText("save");
+
+    @NotNull
+    private final byte[] mName;
+    @NotNull
+    private final byte[] mValue;
+    private final boolean mSave;
+
+    /**
+     * @param name  the name of the config variable.
+     * @param value the value to write.
+     * @param save  whether or not to save the value after it is set.
+     */
+    public ConfigWriteRequest(@Nullable String name, @Nullable String value, boolean save) {
+        super(OP_WRITE, GROUP_CONFIG, ID_CONFIG);
+        mName = encodeText(name);
+        mValue = encodeText(value);
+        mSave = save;
+    }
+
+    @Override
+    protected int getEntryCount() {
+        return 3;
+    }
+
+    @Override
+    protected int getEntriesLength() {
+        return KEY_NAME.length + mName.length + KEY_VAL.length + mValue.length +
+                KEY_SAVE.length + 1;
+    }
+
+    @Override
+    protected int writeEntries(@NotNull byte[] out, int position) {
+        position = CborWriter.writeEncoded(out, position, KEY_NAME);
+        position = CborWriter.writeEncoded(out, position, mName);
+        position = CborWriter.writeEncoded(out, position, KEY_VAL);
+        position = CborWriter.writeEncoded(out, position, mValue);
+        position = CborWriter.writeEncoded(out, position, KEY_SAVE);
+        return CborWriter.writeBoolean(out, position, mSave);
+    }
+}
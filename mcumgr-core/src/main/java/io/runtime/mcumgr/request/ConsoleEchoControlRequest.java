@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) Intellinium SAS, 2014-present
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.runtime.mcumgr.request;
+
+import org.jetbrains.annotations.NotNull;
+
+import io.runtime.mcumgr.util.CborWriter;
+
+/**
+ * Enables or disables the console echo.
+ */
+public final class ConsoleEchoControlRequest extends McuMgrRequest {
+    private final static int GROUP_DEFAULT = 0;
+    private final static int ID_CONS_ECHO_CTRL = 1;
+
+    private final static byte[] KEY_ECHO = CborWriter.encodeText("echo");
+
+    private final boolean mEcho;
+
+    /**
+     * @param echo whether or not to echo to the console.
+     */
+    public ConsoleEchoControlRequest(boolean echo) {
+        super(OP_WRITE, GROUP_DEFAULT, ID_CONS_ECHO_CTRL);
+        mEcho = echo;
+    }
+
+    @Override
+    protected int getEntryCount() {
+        return 1;
+    }
+
+    @Override
+    protected int getEntriesLength() {
+        return KEY_ECHO.length + 1;
+    }
+
+    @Override
+    protected int writeEntries(@NotNull byte[] out, int position) {
+        position = CborWriter.writeEncoded(out, position, KEY_ECHO);
+        return CborWriter.writeBoolean(out, position, mEcho);
+    }
+}
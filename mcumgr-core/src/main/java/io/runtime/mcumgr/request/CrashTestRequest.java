@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) Intellinium SAS, 2014-present
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.runtime.mcumgr.request;
+
+import org.jetbrains.annotations.NotNull;
+
+import io.runtime.mcumgr.util.CborWriter;
+
+/**
+ * Triggers a crash test.
+ */
+public final class CrashTestRequest extends McuMgrRequest {
+    private final static int GROUP_CRASH = 5;
+    private final static int ID_CRASH_TEST = 0;
+
+    private final static byte[] KEY_T = CborWriter.encodeText("t");
+
+    @NotNull
+    private final byte[] mTest;
+
+    /**
+     * @param test the type of the crash test.
+     */
+    public CrashTestRequest(@NotNull String test) {
+        super(OP_WRITE, GROUP_CRASH, ID_CRASH_TEST);
+        mTest = encodeText(test);
+    }
+
+    @Override
+    protected int getEntryCount() {
+        return 1;
+    }
+
+    @Override
+    protected int getEntriesLength() {
+        return KEY_T.length + mTest.length;
+    }
+
+    @Override
+    protected int writeEntries(@NotNull byte[] out, int position) {
+        position = CborWriter.writeEncoded(out, position, KEY_T);
+        return CborWriter.writeEncoded(out, position, mTest);
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) Intellinium SAS, 2014-present
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.runtime.mcumgr.request;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import io.runtime.mcumgr.util.CborWriter;
+
+/**
+ * Sets the date and time on the device.
+ */
+public final class DateTimeWriteRequest extends McuMgrRequest {
+    private final static int GROUP_DEFAULT = 0;
+    private final static int ID_DATETIME_STR = 4;
+
+    private final static byte[] KEY_DATETIME = CborWriter.encodeText("datetime");
+
+    @NotNull
+    private final byte[] mDateTime;
+
+    /**
+     * @param dateTime the date and time, formatted as expected by the device.
+     */
+    public DateTimeWriteRequest(@Nullable String dateTime) {
+        super(OP_WRITE, GROUP_DEFAULT, ID_DATETIME_STR);
+        mDateTime = encodeText(dateTime);
+    }
+
+    @Override
+    protected int getEntryCount() {
+        return 1;
+    }
+
+    @Override
+    protected int getEntriesLength() {
+        return KEY_DATETIME.length + mDateTime.length;
+    }
+
+    @Override
+    protected int writeEntries(@NotNull byte[] out, int position) {
+        position = CborWriter.writeEncoded(out, position, KEY_DATETIME);
+        return CborWriter.writeEncoded(out, position, mDateTime);
+    }
+}
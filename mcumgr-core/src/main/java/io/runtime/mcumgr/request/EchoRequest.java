@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) Intellinium SAS, 2014-present
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.runtime.mcumgr.request;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import io.runtime.mcumgr.util.CborWriter;
+
+/**
+ * Echoes a string.
+ */
+public final class EchoRequest extends McuMgrRequest {
+    private final static int GROUP_DEFAULT = 0;
+    private final static int ID_ECHO = 0;
+
+    private final static byte[] KEY_D = CborWriter.encodeText("d");
+
+    @NotNull
+    private final byte[] mEcho;
+
+    /**
+     * @param echo the string which the device will echo.
+     */
+    public EchoRequest(@Nullable String echo) {
+        super(OP_WRITE, GROUP_DEFAULT, ID_ECHO);
+        mEcho = encodeText(echo);
+    }
+
+    @Override
+    protected int getEntryCount() {
+        return 1;
+    }
+
+    @Override
+    protected int getEntriesLength() {
+        return KEY_D.length + mEcho.length;
+    }
+
+    @Override
+    protected int writeEntries(@NotNull byte[] out, int position) {
+        position = CborWriter.writeEncoded(out, position, KEY_D);
+        return CborWriter.writeEncoded(out, position, mEcho);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) Intellinium SAS, 2014-present
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.runtime.mcumgr.request;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import io.runtime.mcumgr.util.CborWriter;
+
+/**
+ * Reads logs from the device.
+ */
+public final class LogReadRequest extends McuMgrRequest {
+    private final static int GROUP_LOGS = 4;
+    private final static int ID_READ = 0;
+
+    private final static byte[] KEY_LOG_NAME = CborWriter.encodeText("log_name");
+    private final static byte[] KEY_INDEX = CborWriter.encodeText("index");
+    private final static byte[] KEY_TS = CborWriter.encodeText("ts");
+
+    @Nullable
+    private final byte[] mLogName;
+    private final boolean mHasIndex;
+    private final long mIndex;
+    @Nullable
+    private final byte[] mTimestamp;
+
+    /**
+     * @param logName      the name of the log to read, or null to read from all logs.
+     * @param minIndex     the minimum index to read logs from, or null.
+     * @param minTimestamp the minimum timestamp to read logs from, formatted as expected by the
+     *                     device. Only used if minIndex is not null.
+     */
+    public LogReadRequest(@Nullable String logName, @Nullable Long minIndex,
+                          @Nullable String minTimestamp) {
+        super(OP_READ, GROUP_LOGS, ID_READ);
+        mLogName = logName != null ? CborWriter.encodeText(logName) : null;
+        mHasIndex = minIndex != null;
+        mIndex = minIndex != null ? minIndex : 0;
+        mTimestamp = minIndex != null && minTimestamp != null ?
+                CborWriter.encodeText(minTimestamp) : null;
+    }
+
+    @Override
+    protected int getEntryCount() {
+        int entries = 0;
+        if (mLogName != null) {
+            entries++;
+        }
+        if (mHasIndex) {
+            entries++;
+        }
+        if (mTimestamp != null) {
+            entries++;
+        }
+        return entries;
+    }
+
+    @Override
+    protected int getEntriesLength() {
+        int length = 0;
+        if (mLogName != null) {
+            length += KEY_LOG_NAME.length + mLogName.length;
+        }
+        if (mHasIndex) {
+            length += KEY_INDEX.length + CborWriter.sizeOfInt(mIndex);
+        }
+        if (mTimestamp != null) {
+            length += KEY_TS.length + mTimestamp.length;
+        }
+        return length;
+    }
+
+    @Override
+    protected int writeEntries(@NotNull byte[] out, int position) {
+        if (mLogName != null) {
+            position = CborWriter.writeEncoded(out, position, KEY_LOG_NAME);
+            position = CborWriter.writeEncoded(out, position, mLogName);
+        }
+        if (mHasIndex) {
+            position = CborWriter.writeEncoded(out, position, KEY_INDEX);
+            position = CborWriter.writeInt(out, position, mIndex);
+        }
+        if (mTimestamp != null) {
+            position = CborWriter.writeEncoded(out, position, KEY_TS);
+            position = CborWriter.writeEncoded(out, position, mTimestamp);
+        }
+        return position;
+    }
+}
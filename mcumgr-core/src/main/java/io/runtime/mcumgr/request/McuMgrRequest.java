@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) Intellinium SAS, 2014-present
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.runtime.mcumgr.request;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import io.runtime.mcumgr.McuMgrHeader;
+import io.runtime.mcumgr.McuMgrScheme;
+import io.runtime.mcumgr.util.BufferPool;
+import io.runtime.mcumgr.util.CborWriter;
+
+/**
+ * An immutable Mcu Manager request.
+ * <p>
+ * A request knows its operation, group and command ID, and the entries of its CBOR payload.
+ * Values of the entries are encoded when the request is created, so the exact length of the
+ * packet is known without encoding it, and the packet is encoded in a single pass directly into
+ * a buffer of that length.
+ * <p>
+ * Subclasses must be immutable and return consistent values from {@link #getEntryCount()},
+ * {@link #getEntriesLength()} and {@link #writeEntries(byte[], int)}.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public abstract class McuMgrRequest {
+
+    // Operation codes
+    protected final static int OP_READ = 0;
+    protected final static int OP_WRITE = 2;
+
+    private final static byte[] KEY_HEADER = CborWriter.encodeText("_h");
+    private final static byte[] NULL = {(byte) 0xF6};
+
+    private final int mOp;
+    private final int mGroupId;
+    private final int mCommandId;
+
+    protected McuMgrRequest(int op, int groupId, int commandId) {
+        mOp = op;
+        mGroupId = groupId;
+        mCommandId = commandId;
+    }
+
+    public int getOp() {
+        return mOp;
+    }
+
+    public int getGroupId() {
+        return mGroupId;
+    }
+
+    public int getCommandId() {
+        return mCommandId;
+    }
+
+    /**
+     * Returns the number of entries in the payload map.
+     *
+     * @return The number of entries.
+     */
+    protected abstract int getEntryCount();
+
+    /**
+     * Returns the exact length of the encoded entries of the payload map, excluding the map
+     * header.
+     *
+     * @return The length in bytes.
+     */
+    protected abstract int getEntriesLength();
+
+    /**
+     * Writes the entries of the payload map.
+     *
+     * @param out      the output buffer.
+     * @param position the position in the output buffer.
+     * @return The position following the last entry.
+     */
+    protected abstract int writeEntries(@NotNull byte[] out, int position);
+
+    /**
+     * Returns the exact length of the packet encoding this request with the given scheme.
+     *
+     * @param scheme the transport scheme.
+     * @return The packet length in bytes.
+     */
+    public int getEncodedSize(@NotNull McuMgrScheme scheme) {
+        int entries = getEntryCount();
+        if (scheme.isCoap()) {
+            return CborWriter.sizeOfMapHeader(entries + 1) + getHeaderEntryLength() +
+                    getEntriesLength();
+        }
+        return McuMgrHeader.HEADER_LENGTH + CborWriter.sizeOfMapHeader(entries) +
+                getEntriesLength();
+    }
+
+    /**
+     * Encodes the request into a new packet.
+     *
+     * @param scheme      the transport scheme.
+     * @param flags       additional flags.
+     * @param sequenceNum sequence number.
+     * @return The packet.
+     */
+    @NotNull
+    public byte[] encode(@NotNull McuMgrScheme scheme, int flags, int sequenceNum) {
+        byte[] packet = new byte[getEncodedSize(scheme)];
+        encode(packet, 0, scheme, flags, sequenceNum);
+        return packet;
+    }
+
+    /**
+     * Encodes the request into a packet acquired from the given pool. The caller owns the packet,
+     * see {@link BufferPool}.
+     *
+     * @param pool        the pool to acquire the packet from.
+     * @param scheme      the transport scheme.
+     * @param flags       additional flags.
+     * @param sequenceNum sequence number.
+     * @return The packet.
+     */
+    @NotNull
+    public byte[] encode(@NotNull BufferPool pool, @NotNull McuMgrScheme scheme,
+                         int flags, int sequenceNum) {
+        byte[] packet = pool.acquire(getEncodedSize(scheme));
+        encode(packet, 0, scheme, flags, sequenceNum);
+        return packet;
+    }
+
+    /**
+     * Encodes the request into the given buffer. The buffer must have at least
+     * {@link #getEncodedSize(McuMgrScheme)} bytes available at the given position.
+     *
+     * @param out         the output buffer.
+     * @param position    the position in the output buffer.
+     * @param scheme      the transport scheme.
+     * @param flags       additional flags.
+     * @param sequenceNum sequence number.
+     * @return The number of bytes written.
+     */
+    public int encode(@NotNull byte[] out, int position, @NotNull McuMgrScheme scheme,
+                      int flags, int sequenceNum) {
+        int start = position;
+        int entries = getEntryCount();
+        if (scheme.isCoap()) {
+            // CoAP scheme puts the header as the first entry of the payload map. The length
+            // in the header is that of the payload map without the header entry.
+            int length = CborWriter.sizeOfMapHeader(entries) + getEntriesLength();
+            position = CborWriter.writeMapHeader(out, position, entries + 1);
+            position = CborWriter.writeEncoded(out, position, KEY_HEADER);
+            position = CborWriter.writeHead(out, position, CborWriter.MAJOR_TYPE_BYTES,
+                    McuMgrHeader.HEADER_LENGTH);
+            McuMgrHeader.write(out, position, mOp, flags, length, mGroupId, sequenceNum,
+                    mCommandId);
+            position += McuMgrHeader.HEADER_LENGTH;
+        } else {
+            int length = CborWriter.sizeOfMapHeader(entries) + getEntriesLength();
+            McuMgrHeader.write(out, position, mOp, flags, length, mGroupId, sequenceNum,
+                    mCommandId);
+            position += McuMgrHeader.HEADER_LENGTH;
+            position = CborWriter.writeMapHeader(out, position, entries);
+        }
+        position = writeEntries(out, position);
+        return position - start;
+    }
+
+    private static int getHeaderEntryLength() {
+        return KEY_HEADER.length + CborWriter.sizeOfBytes(McuMgrHeader.HEADER_LENGTH);
+    }
+
+    //******************************************************************
+    // Helpers
+    //******************************************************************
+
+    /**
+     * Encodes the given text into a standalone data item, or a null data item if the text is
+     * null.
+     *
+     * @param text the text, or null.
+     * @return The encoded data item.
+     */
+    @NotNull
+    protected static byte[] encodeText(@Nullable String text) {
+        return text != null ? CborWriter.encodeText(text) : NULL;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) Intellinium SAS, 2014-present
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.runtime.mcumgr.request;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import io.runtime.mcumgr.util.CborWriter;
+
+/**
+ * Reads a statistic module.
+ */
+public final class StatReadRequest extends McuMgrRequest {
+    private final static int GROUP_STATS = 2;
+    private final static int ID_READ = 0;
+
+    private final static byte[] KEY_NAME = CborWriter.encodeText("name");
+
+    @NotNull
+    private final byte[] mName;
+
+    /**
+     * @param module the name of the module to read.
+     */
+    public StatReadRequest(@Nullable String module) {
+        super(OP_READ, GROUP_STATS, ID_READ);
+        mName = encodeText(module);
+    }
+
+    @Override
+    protected int getEntryCount() {
+        return 1;
+    }
+
+    @Override
+    protected int getEntriesLength() {
+        return KEY_NAME.length + mName.length;
+    }
+
+    @Override
+    protected int writeEntries(@NotNull byte[] out, int position) {
+        position = CborWriter.writeEncoded(out, position, KEY_NAME);
+        return CborWriter.writeEncoded(out, position, mName);
+    }
+}
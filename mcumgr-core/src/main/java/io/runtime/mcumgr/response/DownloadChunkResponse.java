@@ -0,0 +1,20 @@
+/*
+ * Copyright (c) Intellinium SAS, 2014-present
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.runtime.mcumgr.response;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+/**
+ * A download response used by the download transfers. Unlike other download responses, the data
+ * are usually not copied out of the received packet into {@link #data}, which is then null.
+ * Instead, they are copied once, directly into the destination, using
+ * {@link #copyData(byte[], int)}.
+ */
+public class DownloadChunkResponse extends DownloadResponse {
+    @JsonCreator
+    public DownloadChunkResponse() {}
+}
@@ -1,8 +1,11 @@
 package io.runtime.mcumgr.response;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import org.jetbrains.annotations.NotNull;
+
 public class DownloadResponse extends McuMgrResponse {
     /** The offset of the {@link #data}. */
     @JsonProperty("off")
@@ -10,10 +13,67 @@ public class DownloadResponse extends McuMgrResponse {
     /** The total length of the data. Only sent in the initial packet. */
     @JsonProperty("len")
     public int len;
-    /** The data. */
+    /**
+     * The data. This is usually null for a {@link DownloadChunkResponse}, use
+     * {@link #copyData(byte[], int)} instead.
+     */
     @JsonProperty("data")
     public byte[] data;
 
+    /**
+     * The location of the data in the response packet, if they were not copied into
+     * {@link #data}.
+     */
+    private byte[] mDataSource;
+    private int mDataOffset;
+    private int mDataLength;
+
     @JsonCreator
     public DownloadResponse() {}
+
+    /**
+     * Sets the location of the data in the response packet, instead of copying them into
+     * {@link #data}.
+     */
+    void setData(@NotNull byte[] source, int offset, int length) {
+        mDataSource = source;
+        mDataOffset = offset;
+        mDataLength = length;
+    }
+
+    /**
+     * Returns true if the response contains data.
+     *
+     * @return True if the response contains data, false otherwise.
+     */
+    public boolean hasData() {
+        return data != null || mDataSource != null;
+    }
+
+    /**
+     * Returns the length of the data, or 0 if the response contains no data.
+     *
+     * @return The length of the data.
+     */
+    @JsonIgnore
+    public int getDataLength() {
+        if (data != null) {
+            return data.length;
+        }
+        return mDataSource != null ? mDataLength : 0;
+    }
+
+    /**
+     * Copies the data into the given buffer.
+     *
+     * @param dest       the destination buffer.
+     * @param destOffset the offset in the destination buffer.
+     */
+    public void copyData(@NotNull byte[] dest, int destOffset) {
+        if (data != null) {
+            System.arraycopy(data, 0, dest, destOffset, data.length);
+        } else if (mDataSource != null) {
+            System.arraycopy(mDataSource, mDataOffset, dest, destOffset, mDataLength);
+        }
+    }
 }
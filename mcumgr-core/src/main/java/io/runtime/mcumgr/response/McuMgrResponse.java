@@ -30,6 +30,11 @@ public class McuMgrResponse {
 
     private final static Logger LOG = LoggerFactory.getLogger(McuMgrResponse.class);
 
+    static {
+        // Decode the most common responses without reflection
+        ResponseDecoders.register();
+    }
+
     /**
      * The raw return code found in most McuMgr response payloads. If a rc value is not explicitly
      * stated, a value of 0 is assumed.
@@ -43,21 +48,32 @@ public class McuMgrResponse {
     private McuMgrScheme mScheme;
 
     /**
-     * The bytes of the response packet. This includes the McuMgrHeader for standard schemes and
-     * includes the CoAP header for CoAP schemes.
+     * The array containing the response packet. This includes the McuMgrHeader for standard
+     * schemes and includes the CoAP header for CoAP schemes. The packet may occupy only a part
+     * of the array, see {@link #mBytesOffset} and {@link #mBytesLength}.
      */
     private byte[] mBytes;
+    private int mBytesOffset;
+    private int mBytesLength;
+    private byte[] mBytesCopy;
 
     /**
-     * The McuMgrHeader for this response
+     * The McuMgrHeader for this response, created from {@link #mHeaderBytes} on first use.
      */
     private McuMgrHeader mHeader;
+    private byte[] mHeaderBytes;
+    private int mHeaderOffset;
 
     /**
-     * McuMgr payload for this response. This does not include the McuMgr header for standard
-     * schemes and does not include the CoAP header for CoAP schemes.
+     * The array containing the McuMgr payload for this response. This does not include the
+     * McuMgr header for standard schemes and does not include the CoAP header for CoAP schemes.
+     * The payload may be a part of the packet array, see {@link #mPayloadOffset} and
+     * {@link #mPayloadLength}.
      */
     private byte[] mPayload;
+    private int mPayloadOffset;
+    private int mPayloadLength;
+    private byte[] mPayloadCopy;
 
     /**
      * The CoAP Code used for CoAP schemes, formatted as ((class * 100) + detail).
@@ -77,7 +93,7 @@ public class McuMgrResponse {
     @Override
     public String toString() {
         try {
-            return CBOR.toString(mPayload);
+            return CBOR.toString(mPayload, mPayloadOffset, mPayloadLength);
         } catch (IOException e) {
             LOG.error("Failed to parse response", e);
             return "Failed to parse response";
@@ -91,6 +107,9 @@ public class McuMgrResponse {
      */
     @Nullable
     public McuMgrHeader getHeader() {
+        if (mHeader == null && mHeaderBytes != null) {
+            mHeader = McuMgrHeader.fromBytes(mHeaderBytes, mHeaderOffset);
+        }
         return mHeader;
     }
 
@@ -127,11 +146,20 @@ public class McuMgrResponse {
      * <p>
      * If using a CoAP scheme this method and {@link McuMgrResponse#getPayload()} will return the
      * same value.
+     * <p>
+     * If the response was built from a part of a larger array, the bytes are copied on the
+     * first call.
      *
      * @return The response bytes.
      */
     public byte[] getBytes() {
-        return mBytes;
+        if (mBytes == null || (mBytesOffset == 0 && mBytesLength == mBytes.length)) {
+            return mBytes;
+        }
+        if (mBytesCopy == null) {
+            mBytesCopy = Arrays.copyOfRange(mBytes, mBytesOffset, mBytesOffset + mBytesLength);
+        }
+        return mBytesCopy;
     }
 
     /**
@@ -139,12 +167,22 @@ public class McuMgrResponse {
      * <p>
      * If using a CoAP scheme this method and {@link McuMgrResponse#getBytes()} will return the
      * same value.
+     * <p>
+     * For standard schemes the payload is a part of the response bytes and is copied on the
+     * first call.
      *
      * @return The payload bytes.
      */
     @Nullable
     public byte[] getPayload() {
-        return mPayload;
+        if (mPayload == null || (mPayloadOffset == 0 && mPayloadLength == mPayload.length)) {
+            return mPayload;
+        }
+        if (mPayloadCopy == null) {
+            mPayloadCopy = Arrays.copyOfRange(mPayload, mPayloadOffset,
+                    mPayloadOffset + mPayloadLength);
+        }
+        return mPayloadCopy;
     }
 
     /**
@@ -182,15 +220,52 @@ public class McuMgrResponse {
      *
      * @param scheme  the scheme.
      * @param bytes   packet bytes.
-     * @param header  McuMgrHeader.
+     * @param header  the raw McuMgrHeader.
      * @param payload McuMgr CBOR payload.
      */
     void initFields(@NotNull McuMgrScheme scheme, @NotNull byte[] bytes,
-                    @NotNull McuMgrHeader header, @NotNull byte[] payload) {
+                    @NotNull byte[] header, @NotNull byte[] payload) {
+        initFields(scheme, bytes, 0, bytes.length, header, 0, payload, 0, payload.length);
+    }
+
+    /**
+     * Initialize the fields for this response, keeping references to the given arrays. The
+     * packet and the payload may be parts of the same array.
+     *
+     * @param scheme        the scheme.
+     * @param bytes         the array containing the packet.
+     * @param bytesOffset   the offset of the packet.
+     * @param bytesLength   the length of the packet.
+     * @param header        the array containing the raw McuMgrHeader, read on first use.
+     * @param headerOffset  the offset of the header.
+     * @param payload       the array containing the McuMgr CBOR payload.
+     * @param payloadOffset the offset of the payload.
+     * @param payloadLength the length of the payload.
+     */
+    void initFields(@NotNull McuMgrScheme scheme,
+                    @NotNull byte[] bytes, int bytesOffset, int bytesLength,
+                    @NotNull byte[] header, int headerOffset,
+                    @NotNull byte[] payload, int payloadOffset, int payloadLength) {
         mScheme = scheme;
         mBytes = bytes;
-        mHeader = header;
+        mBytesOffset = bytesOffset;
+        mBytesLength = bytesLength;
+        mHeader = null;
+        mHeaderBytes = header;
+        mHeaderOffset = headerOffset;
         mPayload = payload;
+        mPayloadOffset = payloadOffset;
+        mPayloadLength = payloadLength;
+    }
+
+    /**
+     * Resolves the Jackson databind readers of the common responses which have no precompiled
+     * decoder, so that the first response of each type is not slowed down by the introspection.
+     * This is optional. Apps may call it once at startup, preferably off the main thread, before
+     * sending the first request.
+     */
+    public static void preload() {
+        ResponseDecoders.preload();
     }
 
     /**
@@ -209,16 +284,44 @@ public class McuMgrResponse {
                                                              @NotNull byte[] bytes,
                                                              @NotNull Class<T> type)
             throws IOException {
+        return buildResponse(scheme, bytes, 0, bytes.length, type);
+    }
+
+    /**
+     * Build a McuMgrResponse from a part of the given array. The header and the payload are
+     * decoded in place; the array is kept by the response and must not be modified afterwards.
+     *
+     * @param scheme the transport scheme used.
+     * @param bytes  the array containing the response packet.
+     * @param offset the offset of the packet in the array.
+     * @param length the length of the packet.
+     * @param type   the type of response to build.
+     * @param <T>    the response type to build.
+     * @return The response.
+     * @throws IOException              Error parsing response.
+     * @throws IllegalArgumentException If the scheme is CoAP.
+     */
+    @NotNull
+    public static <T extends McuMgrResponse> T buildResponse(@NotNull McuMgrScheme scheme,
+                                                             @NotNull byte[] bytes,
+                                                             int offset, int length,
+                                                             @NotNull Class<T> type)
+            throws IOException {
         if (scheme.isCoap()) {
             throw new IllegalArgumentException("Cannot use this method with a CoAP scheme");
         }
+        if (offset < 0 || length < McuMgrHeader.HEADER_LENGTH || offset + length > bytes.length) {
+            throw new IOException("Invalid response packet: offset=" + offset +
+                    ", length=" + length + ", size=" + bytes.length);
+        }
 
-        byte[] payload = Arrays.copyOfRange(bytes, McuMgrHeader.HEADER_LENGTH, bytes.length);
-        McuMgrHeader header = McuMgrHeader.fromBytes(Arrays.copyOf(bytes, McuMgrHeader.HEADER_LENGTH));
+        int payloadOffset = offset + McuMgrHeader.HEADER_LENGTH;
+        int payloadLength = length - McuMgrHeader.HEADER_LENGTH;
 
         // Initialize response and set fields
-        T response = CBOR.toObject(payload, type);
-        response.initFields(scheme, bytes, header, payload);
+        T response = CBOR.toObject(bytes, payloadOffset, payloadLength, type);
+        response.initFields(scheme, bytes, offset, length, bytes, offset,
+                bytes, payloadOffset, payloadLength);
 
         return response;
     }
@@ -254,7 +357,10 @@ public class McuMgrResponse {
         }
 
         T response = CBOR.toObject(payload, type);
-        response.initFields(scheme, bytes, McuMgrHeader.fromBytes(header), payload);
+        if (header.length < McuMgrHeader.HEADER_LENGTH) {
+            throw new IOException("Invalid McuMgrHeader");
+        }
+        response.initFields(scheme, bytes, header, payload);
         int code = (codeClass * 100) + codeDetail;
         response.setCoapCode(code);
         return response;
@@ -280,9 +386,7 @@ public class McuMgrResponse {
             if (bytes.length < McuMgrHeader.HEADER_LENGTH) {
                 throw new IOException("Invalid McuMgrHeader");
             }
-            byte[] headerBytes = Arrays.copyOf(bytes, McuMgrHeader.HEADER_LENGTH);
-            McuMgrHeader header = McuMgrHeader.fromBytes(headerBytes);
-            return header.getLen() + McuMgrHeader.HEADER_LENGTH;
+            return McuMgrHeader.readLen(bytes, 0) + McuMgrHeader.HEADER_LENGTH;
         }
     }
 }
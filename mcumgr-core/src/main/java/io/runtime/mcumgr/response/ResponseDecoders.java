@@ -0,0 +1,443 @@
+/*
+ * Copyright (c) Intellinium SAS, 2014-present
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.runtime.mcumgr.response;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.runtime.mcumgr.response.config.McuMgrConfigReadResponse;
+import io.runtime.mcumgr.response.dflt.McuMgrEchoResponse;
+import io.runtime.mcumgr.response.dflt.McuMgrTaskStatResponse;
+import io.runtime.mcumgr.response.fs.McuMgrFsDownloadResponse;
+import io.runtime.mcumgr.response.fs.McuMgrFsUploadResponse;
+import io.runtime.mcumgr.response.img.McuMgrCoreLoadResponse;
+import io.runtime.mcumgr.response.img.McuMgrImageStateResponse;
+import io.runtime.mcumgr.response.img.McuMgrImageUploadResponse;
+import io.runtime.mcumgr.response.log.McuMgrLevelListResponse;
+import io.runtime.mcumgr.response.log.McuMgrLogListResponse;
+import io.runtime.mcumgr.response.log.McuMgrLogResponse;
+import io.runtime.mcumgr.response.log.McuMgrModuleListResponse;
+import io.runtime.mcumgr.response.stat.McuMgrStatListResponse;
+import io.runtime.mcumgr.response.stat.McuMgrStatResponse;
+import io.runtime.mcumgr.util.CBOR;
+import io.runtime.mcumgr.util.CborDecoder;
+
+/**
+ * Precompiled decoders for the most frequently received responses: uploads, downloads, image
+ * state, statistics and logs. They read the fields directly from the CBOR token stream, so
+ * these responses are decoded without reflection and are not affected by minification.
+ * <p>
+ * The decoders are registered when {@link McuMgrResponse} is initialized. Other responses,
+ * including custom subclasses of the types below, are decoded using Jackson databind; the
+ * readers of the common ones may be resolved ahead of time, see {@link #preload()}.
+ */
+final class ResponseDecoders {
+
+    private ResponseDecoders() {
+    }
+
+    static void register() {
+        CBOR.registerDecoder(UploadResponse.class, new UploadDecoder<UploadResponse>() {
+            @Override
+            UploadResponse create() {
+                return new UploadResponse();
+            }
+        });
+        CBOR.registerDecoder(McuMgrImageUploadResponse.class, new UploadDecoder<McuMgrImageUploadResponse>() {
+            @Override
+            McuMgrImageUploadResponse create() {
+                return new McuMgrImageUploadResponse();
+            }
+        });
+        CBOR.registerDecoder(McuMgrFsUploadResponse.class, new UploadDecoder<McuMgrFsUploadResponse>() {
+            @Override
+            McuMgrFsUploadResponse create() {
+                return new McuMgrFsUploadResponse();
+            }
+        });
+        CBOR.registerDecoder(DownloadChunkResponse.class, new DownloadDecoder<DownloadChunkResponse>(false) {
+            @Override
+            DownloadChunkResponse create() {
+                return new DownloadChunkResponse();
+            }
+        });
+        CBOR.registerDecoder(DownloadResponse.class, new DownloadDecoder<DownloadResponse>(true) {
+            @Override
+            DownloadResponse create() {
+                return new DownloadResponse();
+            }
+        });
+        CBOR.registerDecoder(McuMgrFsDownloadResponse.class, new DownloadDecoder<McuMgrFsDownloadResponse>(true) {
+            @Override
+            McuMgrFsDownloadResponse create() {
+                return new McuMgrFsDownloadResponse();
+            }
+        });
+        CBOR.registerDecoder(McuMgrCoreLoadResponse.class, new DownloadDecoder<McuMgrCoreLoadResponse>(true) {
+            @Override
+            McuMgrCoreLoadResponse create() {
+                return new McuMgrCoreLoadResponse();
+            }
+        });
+        CBOR.registerDecoder(McuMgrImageStateResponse.class, new ImageStateDecoder());
+        CBOR.registerDecoder(McuMgrStatResponse.class, new StatDecoder());
+        CBOR.registerDecoder(McuMgrLogResponse.class, new LogDecoder());
+    }
+
+    /*
+     * Resolves the databind readers of the common responses without a precompiled decoder, so
+     * that the first response of each type is not slowed down by the introspection. Called by
+     * McuMgrResponse.preload().
+     */
+    static void preload() {
+        CBOR.preload(McuMgrResponse.class,
+                McuMgrEchoResponse.class,
+                McuMgrTaskStatResponse.class,
+                McuMgrConfigReadResponse.class,
+                McuMgrStatListResponse.class,
+                McuMgrLogListResponse.class,
+                McuMgrModuleListResponse.class,
+                McuMgrLevelListResponse.class);
+    }
+
+    //******************************************************************
+    // Decoders
+    //******************************************************************
+
+    /**
+     * Base decoder of a response. Reads the return code and delegates other fields to
+     * {@link #decodeField(McuMgrResponse, String, JsonParser, byte[])}.
+     */
+    private static abstract class Decoder<T extends McuMgrResponse> extends CborDecoder<T> {
+
+        abstract T create();
+
+        /**
+         * Decodes the value of the given field.
+         *
+         * @param source the array the parser reads from, if known.
+         * @return False if the field is unknown and should be skipped.
+         */
+        abstract boolean decodeField(@NotNull T response, @NotNull String name,
+                                     @NotNull JsonParser parser, @Nullable byte[] source)
+                throws IOException;
+
+        @Override
+        public T decode(@NotNull JsonParser parser) throws IOException {
+            return decodeObject(parser, null);
+        }
+
+        @Override
+        public T decode(@NotNull JsonParser parser, @NotNull byte[] source) throws IOException {
+            return decodeObject(parser, source);
+        }
+
+        private T decodeObject(@NotNull JsonParser parser, @Nullable byte[] source)
+                throws IOException {
+            startObject(parser);
+            T response = create();
+            String name;
+            while ((name = nextField(parser)) != null) {
+                if (name.equals("rc")) {
+                    response.rc = readInt(parser);
+                } else if (!decodeField(response, name, parser, source)) {
+                    skip(parser);
+                }
+            }
+            return response;
+        }
+    }
+
+    private static abstract class UploadDecoder<T extends UploadResponse> extends Decoder<T> {
+        @Override
+        boolean decodeField(@NotNull T response, @NotNull String name,
+                            @NotNull JsonParser parser, @Nullable byte[] source)
+                throws IOException {
+            if (name.equals("off")) {
+                response.off = readInt(parser);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Decodes download responses. Unless the data should be copied into
+     * {@link DownloadResponse#data}, only their location in the packet is stored.
+     */
+    private static abstract class DownloadDecoder<T extends DownloadResponse> extends Decoder<T> {
+        private final boolean mCopyData;
+
+        DownloadDecoder(boolean copyData) {
+            mCopyData = copyData;
+        }
+
+        @Override
+        boolean decodeField(@NotNull T response, @NotNull String name,
+                            @NotNull JsonParser parser, @Nullable byte[] source)
+                throws IOException {
+            switch (name) {
+                case "off":
+                    response.off = readInt(parser);
+                    return true;
+                case "len":
+                    response.len = readInt(parser);
+                    return true;
+                case "data":
+                    if (!mCopyData && source != null) {
+                        int offset = getBytesOffset(parser, source);
+                        if (offset >= 0) {
+                            // The content is skipped when moving to the next token
+                            response.setData(source, offset, getBytesLength(parser, source));
+                            response.data = null;
+                            return true;
+                        }
+                    }
+                    response.data = readBytes(parser);
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    private static class ImageStateDecoder extends Decoder<McuMgrImageStateResponse> {
+        @Override
+        McuMgrImageStateResponse create() {
+            return new McuMgrImageStateResponse();
+        }
+
+        @Override
+        boolean decodeField(@NotNull McuMgrImageStateResponse response, @NotNull String name,
+                            @NotNull JsonParser parser, @Nullable byte[] source)
+                throws IOException {
+            switch (name) {
+                case "images":
+                    response.images = readImageSlots(parser);
+                    return true;
+                case "splitStatus":
+                    response.splitStatus = readInt(parser);
+                    return true;
+            }
+            return false;
+        }
+
+        @Nullable
+        private static McuMgrImageStateResponse.ImageSlot[] readImageSlots(@NotNull JsonParser parser)
+                throws IOException {
+            if (!startArray(parser)) {
+                return null;
+            }
+            List<McuMgrImageStateResponse.ImageSlot> slots = new ArrayList<>(2);
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                slots.add(readImageSlot(parser));
+            }
+            return slots.toArray(new McuMgrImageStateResponse.ImageSlot[0]);
+        }
+
+        @Nullable
+        private static McuMgrImageStateResponse.ImageSlot readImageSlot(@NotNull JsonParser parser)
+                throws IOException {
+            if (parser.currentToken() == JsonToken.VALUE_NULL) {
+                return null;
+            }
+            startObject(parser);
+            McuMgrImageStateResponse.ImageSlot slot = new McuMgrImageStateResponse.ImageSlot();
+            String name;
+            while ((name = nextField(parser)) != null) {
+                switch (name) {
+                    case "slot":
+                        slot.slot = readInt(parser);
+                        break;
+                    case "version":
+                        slot.version = readString(parser);
+                        break;
+                    case "hash":
+                        slot.hash = readBytes(parser);
+                        break;
+                    case "bootable":
+                        slot.bootable = readBoolean(parser);
+                        break;
+                    case "pending":
+                        slot.pending = readBoolean(parser);
+                        break;
+                    case "confirmed":
+                        slot.confirmed = readBoolean(parser);
+                        break;
+                    case "active":
+                        slot.active = readBoolean(parser);
+                        break;
+                    case "permanent":
+                        slot.permanent = readBoolean(parser);
+                        break;
+                    default:
+                        skip(parser);
+                }
+            }
+            return slot;
+        }
+    }
+
+    private static class StatDecoder extends Decoder<McuMgrStatResponse> {
+        @Override
+        McuMgrStatResponse create() {
+            return new McuMgrStatResponse();
+        }
+
+        @Override
+        boolean decodeField(@NotNull McuMgrStatResponse response, @NotNull String name,
+                            @NotNull JsonParser parser, @Nullable byte[] source)
+                throws IOException {
+            switch (name) {
+                case "name":
+                    response.name = readString(parser);
+                    return true;
+                case "fields":
+                    response.fields = readFields(parser);
+                    return true;
+            }
+            return false;
+        }
+
+        @Nullable
+        private static Map<String, Long> readFields(@NotNull JsonParser parser) throws IOException {
+            if (parser.currentToken() == JsonToken.VALUE_NULL) {
+                return null;
+            }
+            startObject(parser);
+            Map<String, Long> fields = new LinkedHashMap<>();
+            String name;
+            while ((name = nextField(parser)) != null) {
+                fields.put(name, readLongObject(parser));
+            }
+            return fields;
+        }
+    }
+
+    private static class LogDecoder extends Decoder<McuMgrLogResponse> {
+        @Override
+        McuMgrLogResponse create() {
+            return new McuMgrLogResponse();
+        }
+
+        @SuppressWarnings("deprecation")
+        @Override
+        boolean decodeField(@NotNull McuMgrLogResponse response, @NotNull String name,
+                            @NotNull JsonParser parser, @Nullable byte[] source)
+                throws IOException {
+            switch (name) {
+                case "next_index":
+                    response.next_index = readLong(parser);
+                    return true;
+                case "logs":
+                    response.logs = readLogs(parser);
+                    return true;
+            }
+            return false;
+        }
+
+        @Nullable
+        private static McuMgrLogResponse.LogResult[] readLogs(@NotNull JsonParser parser)
+                throws IOException {
+            if (!startArray(parser)) {
+                return null;
+            }
+            List<McuMgrLogResponse.LogResult> logs = new ArrayList<>();
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                logs.add(readLog(parser));
+            }
+            return logs.toArray(new McuMgrLogResponse.LogResult[0]);
+        }
+
+        @Nullable
+        private static McuMgrLogResponse.LogResult readLog(@NotNull JsonParser parser)
+                throws IOException {
+            if (parser.currentToken() == JsonToken.VALUE_NULL) {
+                return null;
+            }
+            startObject(parser);
+            McuMgrLogResponse.LogResult log = new McuMgrLogResponse.LogResult();
+            String name;
+            while ((name = nextField(parser)) != null) {
+                switch (name) {
+                    case "name":
+                        log.name = readString(parser);
+                        break;
+                    case "type":
+                        log.type = readInt(parser);
+                        break;
+                    case "entries":
+                        log.entries = readEntries(parser);
+                        break;
+                    default:
+                        skip(parser);
+                }
+            }
+            return log;
+        }
+
+        @Nullable
+        private static McuMgrLogResponse.Entry[] readEntries(@NotNull JsonParser parser)
+                throws IOException {
+            if (!startArray(parser)) {
+                return null;
+            }
+            List<McuMgrLogResponse.Entry> entries = new ArrayList<>();
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                entries.add(readEntry(parser));
+            }
+            return entries.toArray(new McuMgrLogResponse.Entry[0]);
+        }
+
+        @Nullable
+        private static McuMgrLogResponse.Entry readEntry(@NotNull JsonParser parser)
+                throws IOException {
+            if (parser.currentToken() == JsonToken.VALUE_NULL) {
+                return null;
+            }
+            startObject(parser);
+            McuMgrLogResponse.Entry entry = new McuMgrLogResponse.Entry();
+            String name;
+            while ((name = nextField(parser)) != null) {
+                switch (name) {
+                    case "msg":
+                        entry.msg = readBytes(parser);
+                        break;
+                    case "ts":
+                        entry.ts = readLong(parser);
+                        break;
+                    case "level":
+                        entry.level = readInt(parser);
+                        break;
+                    case "index":
+                        entry.index = readLong(parser);
+                        break;
+                    case "module":
+                        entry.module = readInt(parser);
+                        break;
+                    case "type":
+                        entry.type = readString(parser);
+                        break;
+                    case "imghash":
+                        entry.imghash = readBytes(parser);
+                        break;
+                    default:
+                        skip(parser);
+                }
+            }
+            return entry;
+        }
+    }
+}
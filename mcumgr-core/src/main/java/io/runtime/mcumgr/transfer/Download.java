@@ -26,6 +26,9 @@ public abstract class Download extends Transfer {
 
     /**
      * Sends read request from given offset.
+     * <p>
+     * Implementations should request a {@link io.runtime.mcumgr.response.DownloadChunkResponse},
+     * so that the data are copied only once, directly into the downloaded data buffer.
      *
      * @param offset the offset.
      * @return received response.
@@ -47,16 +50,21 @@ public abstract class Download extends Transfer {
         }
 
         // Validate response body
-        if (response.data == null) {
+        if (!response.hasData()) {
             throw new McuMgrException("Download response data is null.");
         }
         if (mData == null) {
             throw new McuMgrException("Download data is null.");
         }
+        int length = response.getDataLength();
+        if (response.off < 0 || response.off + length > mData.length) {
+            throw new McuMgrException("Download response data out of bounds.");
+        }
 
-        // Copy received mData to the buffer.
-        System.arraycopy(response.data, 0, mData, response.off, response.data.length);
-        mOffset = response.off + response.data.length;
+        // Copy received data to the buffer. For a DownloadChunkResponse this is the only copy
+        // of the data, made directly from the received packet.
+        response.copyData(mData, response.off);
+        mOffset = response.off + length;
 
         return response;
     }
@@ -5,6 +5,8 @@ import io.runtime.mcumgr.exception.InsufficientMtuException
 import io.runtime.mcumgr.exception.McuMgrException
 import io.runtime.mcumgr.managers.ImageManager
 import io.runtime.mcumgr.response.UploadResponse
+import io.runtime.mcumgr.util.BufferPool
+import io.runtime.mcumgr.util.CallbackExecutors
 import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CoroutineExceptionHandler
 import kotlinx.coroutines.GlobalScope
@@ -14,7 +16,7 @@ import kotlinx.coroutines.launch
 import org.slf4j.LoggerFactory
 import java.lang.IllegalStateException
 
-private const val OP_WRITE = 2
+private const val GROUP_IMAGE = 1
 private const val ID_UPLOAD = 1
 
 fun ImageManager.windowUpload(
@@ -25,16 +27,17 @@ fun ImageManager.windowUpload(
 
     val log = LoggerFactory.getLogger("ImageUploader")
     val uploader = ImageUploader(data, this, windowCapacity)
+    // Only the user callback is dispatched, the upload itself never waits for the executor
+    val executor = callbackExecutor ?: CallbackExecutors.direct()
 
     val job = GlobalScope.launch(CoroutineExceptionHandler { _, t ->
         log.error("window image upload failed", t)
     }) {
         val progress = uploader.progress.onEach { progress ->
-            callback.onUploadProgressChanged(
-                progress.offset,
-                progress.size,
-                System.currentTimeMillis()
-            )
+            val timestamp = System.currentTimeMillis()
+            executor.execute {
+                callback.onUploadProgressChanged(progress.offset, progress.size, timestamp)
+            }
         }.launchIn(this)
 
         uploader.uploadCatchMtu()
@@ -43,11 +46,13 @@ fun ImageManager.windowUpload(
 
     job.invokeOnCompletion { throwable ->
         throwable?.printStackTrace()
-        when (throwable) {
-            null -> callback.onUploadCompleted()
-            is CancellationException -> callback.onUploadCanceled()
-            is McuMgrException -> callback.onUploadFailed(throwable)
-            else -> callback.onUploadFailed(McuMgrException(throwable))
+        executor.execute {
+            when (throwable) {
+                null -> callback.onUploadCompleted()
+                is CancellationException -> callback.onUploadCanceled()
+                is McuMgrException -> callback.onUploadFailed(throwable)
+                else -> callback.onUploadFailed(McuMgrException(throwable))
+            }
         }
     }
 
@@ -78,31 +83,37 @@ internal class ImageUploader(
     imageData,
     windowCapacity,
     imageManager.mtu,
-    imageManager.scheme
+    PacketSizer(imageManager.scheme, null)
 ) {
 
-    override fun write(data: ByteArray, offset: Int, callback: (UploadResult) -> Unit) {
-        val requestMap: MutableMap<String, Any> = mutableMapOf(
-            "data" to data,
-            "off" to offset
-        )
-        if (offset == 0) {
-            requestMap["len"] = imageData.size
-        }
-        imageManager.uploadAsync(requestMap, callback)
+    private val encoder = UploadEncoder(imageManager.scheme, GROUP_IMAGE, ID_UPLOAD, null)
+
+    override fun write(
+        data: ByteArray,
+        offset: Int,
+        length: Int,
+        callback: (UploadResult) -> Unit
+    ) {
+        // The packet is returned to the pool by the manager once the response is received
+        val packet = encoder.encode(BufferPool.getDefault(), data, offset, length, null)
+        imageManager.uploadAsync(packet, callback)
     }
 }
 
+// Sent directly to the transporter, bypassing the callback executor of the manager, which is
+// meant for user callbacks only.
 private fun ImageManager.uploadAsync(
-    requestMap: Map<String, Any>,
+    packet: ByteArray,
     callback: (UploadResult) -> Unit
-) = send(OP_WRITE, ID_UPLOAD, requestMap, UploadResponse::class.java,
+) = transporter.send(packet, UploadResponse::class.java,
     object : McuMgrCallback<UploadResponse> {
         override fun onResponse(response: UploadResponse) {
+            BufferPool.getDefault().release(packet)
             callback(UploadResult.Response(response, response.returnCode))
         }
 
         override fun onError(error: McuMgrException) {
+            BufferPool.getDefault().discard(packet)
             callback(UploadResult.Failure(error))
         }
     }
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) Intellinium SAS, 2014-present
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.runtime.mcumgr.transfer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import io.runtime.mcumgr.McuMgrHeader;
+import io.runtime.mcumgr.McuMgrScheme;
+import io.runtime.mcumgr.util.CborWriter;
+
+/**
+ * Calculates the exact length of upload requests, as encoded by {@link UploadEncoder}, and the
+ * maximum length of data which fits into a request of a given length.
+ * <p>
+ * All calculations are done arithmetically, in constant time, without encoding anything.
+ * A sizer is immutable and may be shared between threads.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class PacketSizer {
+
+    /** Used as the hash length for requests without the "sha" entry. */
+    public final static int NO_SHA = -1;
+
+    private final static int KEY_DATA_LENGTH = CborWriter.sizeOfText(4);
+    private final static int KEY_OFF_LENGTH = CborWriter.sizeOfText(3);
+    private final static int KEY_LEN_LENGTH = CborWriter.sizeOfText(3);
+    private final static int KEY_NAME_LENGTH = CborWriter.sizeOfText(4);
+    private final static int KEY_SHA_LENGTH = CborWriter.sizeOfText(3);
+    private final static int[] HEAD_LENGTHS = {1, 2, 3, 5};
+    private final static int HEADER_ENTRY_LENGTH = CborWriter.sizeOfText(2) +
+            CborWriter.sizeOfBytes(McuMgrHeader.HEADER_LENGTH);
+
+    @NotNull
+    private final McuMgrScheme mScheme;
+    /** The length of the encoded name, or 0 if the requests have no name. */
+    private final int mNameLength;
+
+    /**
+     * Creates a packet sizer.
+     *
+     * @param scheme the scheme of the transport the packets will be sent with.
+     * @param name   the file name included in each request, or null.
+     */
+    public PacketSizer(@NotNull McuMgrScheme scheme, @Nullable String name) {
+        mScheme = scheme;
+        mNameLength = name != null ? CborWriter.encodeText(name).length : 0;
+    }
+
+    /**
+     * Returns the exact length of an upload request.
+     *
+     * @param totalLength the length of the whole data being uploaded.
+     * @param offset      the offset of the chunk.
+     * @param dataLength  the length of the chunk.
+     * @param shaLength   the length of the hash included in the request, or {@link #NO_SHA}.
+     * @return The packet length in bytes.
+     */
+    public int getPacketLength(int totalLength, int offset, int dataLength, int shaLength) {
+        int entries = getEntryCount(offset, shaLength);
+        int length = getEntriesLength(totalLength, offset, dataLength, shaLength);
+        if (mScheme.isCoap()) {
+            return CborWriter.sizeOfMapHeader(entries + 1) + HEADER_ENTRY_LENGTH + length;
+        }
+        return McuMgrHeader.HEADER_LENGTH + CborWriter.sizeOfMapHeader(entries) + length;
+    }
+
+    /**
+     * Returns the maximum length of data which can be sent in a single upload request, so that
+     * the packet length does not exceed the given MTU.
+     *
+     * @param mtu         the maximum packet length.
+     * @param totalLength the length of the whole data being uploaded.
+     * @param offset      the offset of the chunk.
+     * @param shaLength   the length of the hash included in the request, or {@link #NO_SHA}.
+     * @return The maximum chunk length, not greater than the remaining data length.
+     * @throws IllegalArgumentException if the MTU is too small to send any remaining data.
+     */
+    public int getMaxDataLength(int mtu, int totalLength, int offset, int shaLength) {
+        // The length of the packet with an empty data byte string, excluding its 1-byte head
+        int overhead = getPacketLength(totalLength, offset, 0, shaLength) - 1;
+        int available = mtu - overhead;
+
+        // Find the longest data, which fits together with its head. The head length grows
+        // with the data length, so the first matching head length gives the longest data.
+        int dataLength = 0;
+        for (int headLength : HEAD_LENGTHS) {
+            int length = available - headLength;
+            if (length >= 0 && CborWriter.sizeOfHead(length) <= headLength) {
+                dataLength = length;
+                break;
+            }
+        }
+        if (dataLength == 0 && offset < totalLength) {
+            throw new IllegalArgumentException("MTU " + mtu + " is too small to send data");
+        }
+        return Math.min(dataLength, totalLength - offset);
+    }
+
+    /*
+     * Returns the number of entries in the payload map, excluding the "_h" entry.
+     */
+    static int getEntryCount(int offset, int shaLength, boolean hasName) {
+        int entries = 2;
+        if (offset == 0) {
+            entries++;
+        }
+        if (hasName) {
+            entries++;
+        }
+        if (shaLength != NO_SHA) {
+            entries++;
+        }
+        return entries;
+    }
+
+    private int getEntryCount(int offset, int shaLength) {
+        return getEntryCount(offset, shaLength, mNameLength > 0);
+    }
+
+    /*
+     * Returns the length of the map entries, excluding the map header and the "_h" entry.
+     */
+    private int getEntriesLength(int totalLength, int offset, int dataLength, int shaLength) {
+        int length = KEY_DATA_LENGTH + CborWriter.sizeOfBytes(dataLength) +
+                KEY_OFF_LENGTH + CborWriter.sizeOfUInt(offset);
+        if (offset == 0) {
+            length += KEY_LEN_LENGTH + CborWriter.sizeOfUInt(totalLength);
+        }
+        if (mNameLength > 0) {
+            length += KEY_NAME_LENGTH + mNameLength;
+        }
+        if (shaLength != NO_SHA) {
+            length += KEY_SHA_LENGTH + CborWriter.sizeOfBytes(shaLength);
+        }
+        return length;
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) Intellinium SAS, 2014-present
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.runtime.mcumgr.transfer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import io.runtime.mcumgr.McuMgrHeader;
+import io.runtime.mcumgr.McuMgrScheme;
+import io.runtime.mcumgr.util.BufferPool;
+import io.runtime.mcumgr.util.CborWriter;
+
+/**
+ * Encodes upload requests (image and file uploads) directly into a packet, without building a
+ * payload map or copying the chunk of data into a temporary array.
+ * <p>
+ * The request payload is a definite length CBOR map containing:
+ * <ul>
+ * <li>"data" - the chunk of data, taken directly from the source array,</li>
+ * <li>"off" - the offset of the chunk,</li>
+ * <li>"len" - the total length of the source, only in the request with offset 0,</li>
+ * <li>"name" - the file name, if set,</li>
+ * <li>"sha" - the (truncated) hash of the source, if given.</li>
+ * </ul>
+ * The length of the packet is calculated exactly before encoding, using a {@link PacketSizer},
+ * so the packet array is allocated once and filled completely. An encoder is immutable and may
+ * be shared between threads.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class UploadEncoder {
+
+    private final static int OP_WRITE = 2;
+
+    private final static byte[] KEY_DATA = CborWriter.encodeText("data");
+    private final static byte[] KEY_OFF = CborWriter.encodeText("off");
+    private final static byte[] KEY_LEN = CborWriter.encodeText("len");
+    private final static byte[] KEY_NAME = CborWriter.encodeText("name");
+    private final static byte[] KEY_SHA = CborWriter.encodeText("sha");
+    private final static byte[] KEY_HEADER = CborWriter.encodeText("_h");
+
+    @NotNull
+    private final McuMgrScheme mScheme;
+    private final int mGroupId;
+    private final int mCommandId;
+    @Nullable
+    private final String mName;
+    @Nullable
+    private final byte[] mEncodedName;
+    @NotNull
+    private final PacketSizer mSizer;
+
+    /**
+     * Creates an upload encoder.
+     *
+     * @param scheme    the scheme of the transport the packets will be sent with.
+     * @param groupId   the command group ID, i.e. {@link io.runtime.mcumgr.McuManager#GROUP_IMAGE}.
+     * @param commandId the upload command ID.
+     * @param name      the file name to include in each request, or null.
+     */
+    public UploadEncoder(@NotNull McuMgrScheme scheme, int groupId, int commandId,
+                         @Nullable String name) {
+        mScheme = scheme;
+        mGroupId = groupId;
+        mCommandId = commandId;
+        mName = name;
+        mEncodedName = name != null ? CborWriter.encodeText(name) : null;
+        mSizer = new PacketSizer(scheme, name);
+    }
+
+    /**
+     * Returns the scheme of the transport the packets are encoded for.
+     *
+     * @return The scheme.
+     */
+    @NotNull
+    public McuMgrScheme getScheme() {
+        return mScheme;
+    }
+
+    /**
+     * Returns the file name included in each request.
+     *
+     * @return The file name, or null if not set.
+     */
+    @Nullable
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Returns the sizer calculating the length of packets encoded by this encoder.
+     *
+     * @return The packet sizer.
+     */
+    @NotNull
+    public PacketSizer getSizer() {
+        return mSizer;
+    }
+
+    /**
+     * Returns the exact length of the packet which would be encoded for the given chunk.
+     *
+     * @param source the whole data being uploaded.
+     * @param offset the offset of the chunk.
+     * @param length the length of the chunk.
+     * @param sha    the hash to include, or null.
+     * @return The packet length in bytes.
+     */
+    public int getPacketLength(@NotNull byte[] source, int offset, int length,
+                               @Nullable byte[] sha) {
+        return mSizer.getPacketLength(source.length, offset, length, getShaLength(sha));
+    }
+
+    /**
+     * Encodes the upload request for the given chunk into a new packet.
+     *
+     * @param source the whole data being uploaded.
+     * @param offset the offset of the chunk.
+     * @param length the length of the chunk.
+     * @param sha    the hash to include, or null.
+     * @return The packet.
+     */
+    @NotNull
+    public byte[] encode(@NotNull byte[] source, int offset, int length, @Nullable byte[] sha) {
+        byte[] packet = new byte[getPacketLength(source, offset, length, sha)];
+        encode(packet, 0, source, offset, length, sha);
+        return packet;
+    }
+
+    /**
+     * Encodes the upload request for the given chunk into a packet acquired from the given pool.
+     * The caller owns the packet, see {@link BufferPool}.
+     *
+     * @param pool   the pool to acquire the packet from.
+     * @param source the whole data being uploaded.
+     * @param offset the offset of the chunk.
+     * @param length the length of the chunk.
+     * @param sha    the hash to include, or null.
+     * @return The packet.
+     */
+    @NotNull
+    public byte[] encode(@NotNull BufferPool pool,
+                         @NotNull byte[] source, int offset, int length, @Nullable byte[] sha) {
+        byte[] packet = pool.acquire(getPacketLength(source, offset, length, sha));
+        encode(packet, 0, source, offset, length, sha);
+        return packet;
+    }
+
+    /**
+     * Encodes the upload request for the given chunk into the given buffer. The buffer must have
+     * at least {@link #getPacketLength(byte[], int, int, byte[])} bytes available at the
+     * given position.
+     *
+     * @param out      the output buffer.
+     * @param position the position in the output buffer.
+     * @param source   the whole data being uploaded.
+     * @param offset   the offset of the chunk.
+     * @param length   the length of the chunk.
+     * @param sha      the hash to include, or null.
+     * @return The number of bytes written.
+     */
+    public int encode(@NotNull byte[] out, int position,
+                      @NotNull byte[] source, int offset, int length, @Nullable byte[] sha) {
+        if (offset < 0 || length < 0 || offset + length > source.length) {
+            throw new IndexOutOfBoundsException("Invalid chunk: offset=" + offset +
+                    ", length=" + length + ", size=" + source.length);
+        }
+        int start = position;
+        int entries = PacketSizer.getEntryCount(offset, getShaLength(sha), mEncodedName != null);
+        int packetLength = getPacketLength(source, offset, length, sha);
+
+        // Header
+        if (mScheme.isCoap()) {
+            position = CborWriter.writeMapHeader(out, position, entries + 1);
+            position = CborWriter.writeEncoded(out, position, KEY_HEADER);
+            position = CborWriter.writeHead(out, position, CborWriter.MAJOR_TYPE_BYTES,
+                    McuMgrHeader.HEADER_LENGTH);
+            // The length in the header is that of the payload map without the "_h" entry
+            int entriesLength = packetLength - CborWriter.sizeOfMapHeader(entries + 1) -
+                    KEY_HEADER.length - CborWriter.sizeOfBytes(McuMgrHeader.HEADER_LENGTH);
+            writeHeader(out, position, CborWriter.sizeOfMapHeader(entries) + entriesLength);
+            position += McuMgrHeader.HEADER_LENGTH;
+        } else {
+            writeHeader(out, position, packetLength - McuMgrHeader.HEADER_LENGTH);
+            position += McuMgrHeader.HEADER_LENGTH;
+            position = CborWriter.writeMapHeader(out, position, entries);
+        }
+
+        // Payload
+        position = CborWriter.writeEncoded(out, position, KEY_DATA);
+        position = CborWriter.writeBytes(out, position, source, offset, length);
+        position = CborWriter.writeEncoded(out, position, KEY_OFF);
+        position = CborWriter.writeUInt(out, position, offset);
+        if (offset == 0) {
+            position = CborWriter.writeEncoded(out, position, KEY_LEN);
+            position = CborWriter.writeUInt(out, position, source.length);
+        }
+        if (mEncodedName != null) {
+            position = CborWriter.writeEncoded(out, position, KEY_NAME);
+            position = CborWriter.writeEncoded(out, position, mEncodedName);
+        }
+        if (sha != null) {
+            position = CborWriter.writeEncoded(out, position, KEY_SHA);
+            position = CborWriter.writeBytes(out, position, sha, 0, sha.length);
+        }
+        return position - start;
+    }
+
+    private void writeHeader(@NotNull byte[] out, int position, int payloadLength) {
+        McuMgrHeader.write(out, position, OP_WRITE, 0, payloadLength, mGroupId, 0, mCommandId);
+    }
+
+    private static int getShaLength(@Nullable byte[] sha) {
+        return sha != null ? sha.length : PacketSizer.NO_SHA;
+    }
+}
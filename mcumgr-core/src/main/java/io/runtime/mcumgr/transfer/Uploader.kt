@@ -1,12 +1,9 @@
 package io.runtime.mcumgr.transfer
 
-import io.runtime.mcumgr.McuMgrScheme
 import io.runtime.mcumgr.exception.InsufficientMtuException
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.channels.Channel.Factory.CONFLATED
-import java.lang.IllegalArgumentException
-import kotlin.math.min
 import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.MutableStateFlow
@@ -21,17 +18,17 @@ const val MAX_CHUNK_FAILURES = 5
 
 data class UploadProgress(val offset: Int, val size: Int)
 
-private data class Chunk(val data: ByteArray, val offset: Int) {
-    override fun toString(): String {
-        return "Chunk(offset=$offset, size=${data.size})"
-    }
-}
+/**
+ * A chunk of the upload data, referenced by its offset and size. The data is encoded directly
+ * from the upload data into the request, so chunks never copy it.
+ */
+private data class Chunk(val offset: Int, val size: Int)
 
 abstract class Uploader(
     private val data: ByteArray,
     private val windowCapacity: Int,
     internal var mtu: Int,
-    private val protocol: McuMgrScheme
+    private val sizer: PacketSizer
 ) {
 
     private val log = LoggerFactory.getLogger("Uploader")
@@ -45,6 +42,7 @@ abstract class Uploader(
     internal abstract fun write(
         data: ByteArray,
         offset: Int,
+        length: Int,
         callback: (UploadResult) -> Unit
     )
 
@@ -83,7 +81,7 @@ abstract class Uploader(
                 log.info("uploader result: chunk=$chunk, result=$result")
 
                 result.onSuccess { response ->
-                    if (!resend && response.off != chunk.offset + chunk.data.size) {
+                    if (!resend && response.off != chunk.offset + chunk.size) {
                         // An unexpected offset means that the message was
                         // somehow lost or the device could not accept the
                         // chunk. We need to resend the chunk at the offset
@@ -92,7 +90,7 @@ abstract class Uploader(
                         failures.send(newChunk(response.off))
                     } else {
                         // Success, update the progress
-                        val current = chunk.offset + chunk.data.size
+                        val current = chunk.offset + chunk.size
                         _progress.value = UploadProgress(current, data.size)
                         if (current == data.size) {
                             log.info("uploader complete!")
@@ -135,7 +133,7 @@ abstract class Uploader(
     ): Chunk {
 
         val resultChannel: Channel<UploadResult> = Channel(1)
-        write(chunk.data, chunk.offset) {
+        write(data, chunk.offset, chunk.size) {
             resultChannel.offer(it)
         }
 
@@ -169,82 +167,18 @@ abstract class Uploader(
     }
 
     private fun newChunk(offset: Int): Chunk {
-        val chunkSize = getChunkSize(data, offset)
-        val chunkData = data.copyOfRange(offset, offset + chunkSize)
-        return Chunk(chunkData, offset)
+        return Chunk(offset, getChunkSize(data, offset))
     }
 
     private fun nextChunk(chunk: Chunk): Chunk {
-        return newChunk(chunk.offset + chunk.data.size)
+        return newChunk(chunk.offset + chunk.size)
     }
 
-    // TODO interface this function for alternative implementations (e.g. sha for mynewt devices)
     /**
      * Returns the maximum amount of upload data which can fit into an upload request with the given
-     * data and offset.
-     *
-     * This calculation is optimal, and takes into account the transport scheme and size of data and
-     * offset since CBOR will make the integers as efficient as possible. In order to avoid an index
-     * out of bounds on the last chunk, if the calculated chunk size is greater than data.size -
-     * offset, then the latter value is returned.
+     * data and offset. The calculation is exact, see [PacketSizer]. In order to avoid an index out
+     * of bounds on the last chunk, the chunk size is never greater than data.size - offset.
      */
-    private fun getChunkSize(data: ByteArray, offset: Int): Int {
-
-        // The size of the header is based on the scheme. CoAP scheme is larger because there are
-        // 4 additional bytes of CBOR.
-        val headerSize = when (protocol) {
-            McuMgrScheme.BLE -> 8
-            else -> 8 + 4
-        }
-
-        // Size of the indefinite length map tokens (bf, ff)
-        val mapSize = 2
-
-        // Size of the string "off" plus the length of the offset integer
-        val offsetSize = cborStringLength("off") + cborUIntLength(offset)
-
-        val lengthSize = if (offset == 0) {
-            // Size of the string "len" plus the length of the data size integer
-            cborStringLength("len") + cborUIntLength(data.size)
-        } else {
-            0
-        }
-
-        // Size of the field name "data" utf8 string
-        val dataStringSize = cborStringLength("data")
-
-        val combinedSize = headerSize + mapSize + offsetSize + lengthSize + dataStringSize
-
-        // Now we calculate the max amount of data that we can fit given the MTU.
-        val maxDataLength = mtu - combinedSize
-        // We have to take into account the few bytes of CBOR which describe the length of the data.
-        // Even though we don't know the actual length at this point, the maxDataLength is guaranteed
-        // to be larger than what we will eventually send, making this calculation always correct.
-        val maxDataUIntTokenSize = cborUIntLength(maxDataLength)
-
-        // Final data chunk size
-        val maxChunkSize = mtu - combinedSize - maxDataUIntTokenSize
-        return min(maxChunkSize, data.size - offset)
-    }
-}
-
-/**
- * Calculates the size in bytes of a CBOR encoded string.
- */
-internal fun cborStringLength(s: String): Int {
-    val headerLength = cborUIntLength(s.length)
-    return headerLength + s.length
+    private fun getChunkSize(data: ByteArray, offset: Int): Int =
+        sizer.getMaxDataLength(mtu, data.size, offset, PacketSizer.NO_SHA)
 }
-
-/**
- * Calculates the size in bytes of a CBOR encoded unsigned integer.
- */
-internal fun cborUIntLength(n: Int): Int =
-    when {
-        n < 0 -> throw IllegalArgumentException("n must be >= 0")
-        n < 24 -> 1
-        n < 256 -> 2        // 2^8
-        n < 65536 -> 3      // 2^16
-        n < 4294967296 -> 5 // 2^32
-        else -> 9
-    }
@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) Intellinium SAS, 2014-present
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.runtime.mcumgr.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A small, bounded pool of packet buffers.
+ * <p>
+ * Buffers are handed out with the exact requested length, so they can be used as packets
+ * without copying. A buffer is reused only for a request of the same length, which is the
+ * common case during uploads, where all packets but the first and last have the same size.
+ * At most {@link #getMaxPooledBuffers()} free buffers are kept, and only buffers not longer than
+ * {@link #getMaxBufferSize()} (the largest supported MTU by default) are pooled at all.
+ * <p>
+ * Ownership rules:
+ * <ul>
+ * <li>A buffer returned by {@link #acquire(int)} is owned by the caller. Its content is
+ * undefined and must be overwritten completely.</li>
+ * <li>The owner may pass the ownership on, e.g. from a manager to the code sending the packet.
+ * Exactly one owner should end it, either by calling {@link #release(byte[])}, if the buffer is
+ * no longer referenced anywhere, or {@link #discard(byte[])}, if it still may be (for example by
+ * a pending write which failed or timed out), in which case it is left to the garbage
+ * collector.</li>
+ * <li>A buffer must not be used after it has been released.</li>
+ * </ul>
+ * When leak detection is enabled (meant for debug builds), every acquired buffer is tracked and
+ * an error, with the stack trace of the acquisition, is logged for each buffer which was garbage
+ * collected without being released or discarded.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class BufferPool {
+
+    private final static Logger LOG = LoggerFactory.getLogger(BufferPool.class);
+
+    /** The maximum MTU supported by the managers. */
+    public final static int DEFAULT_MAX_BUFFER_SIZE = 1024;
+    public final static int DEFAULT_MAX_POOLED_BUFFERS = 8;
+
+    private final static BufferPool sDefault =
+            new BufferPool(DEFAULT_MAX_POOLED_BUFFERS, DEFAULT_MAX_BUFFER_SIZE);
+
+    /**
+     * Returns the pool shared by all managers.
+     *
+     * @return The default pool.
+     */
+    @NotNull
+    public static BufferPool getDefault() {
+        return sDefault;
+    }
+
+    private final int mMaxBufferSize;
+    private final byte[][] mFree;
+    private int mFreeCount;
+
+    // Leak detection
+    private volatile boolean mLeakDetectionEnabled;
+    private final ReferenceQueue<byte[]> mQueue = new ReferenceQueue<>();
+    private final Map<Integer, List<TrackedBuffer>> mTracked = new HashMap<>();
+    private int mLeakCount;
+
+    /**
+     * Creates a buffer pool.
+     *
+     * @param maxPooledBuffers the maximum number of free buffers kept in the pool.
+     * @param maxBufferSize    the maximum length of a pooled buffer. Longer buffers are allocated
+     *                         and collected normally.
+     */
+    public BufferPool(int maxPooledBuffers, int maxBufferSize) {
+        mFree = new byte[maxPooledBuffers][];
+        mMaxBufferSize = maxBufferSize;
+    }
+
+    public int getMaxPooledBuffers() {
+        return mFree.length;
+    }
+
+    public int getMaxBufferSize() {
+        return mMaxBufferSize;
+    }
+
+    /**
+     * Enables or disables leak detection. Only buffers acquired while leak detection is enabled
+     * are tracked.
+     *
+     * @param enabled true to enable leak detection.
+     */
+    public void setLeakDetectionEnabled(boolean enabled) {
+        mLeakDetectionEnabled = enabled;
+    }
+
+    public boolean isLeakDetectionEnabled() {
+        return mLeakDetectionEnabled;
+    }
+
+    /**
+     * Returns the number of leaked buffers detected so far.
+     *
+     * @return The number of buffers collected without being released or discarded.
+     */
+    public synchronized int getLeakCount() {
+        pollLeaks();
+        return mLeakCount;
+    }
+
+    /**
+     * Returns a buffer of exactly the given length, reusing a free one if possible.
+     *
+     * @param length the buffer length.
+     * @return The buffer, owned by the caller. Its content is undefined.
+     */
+    @NotNull
+    public byte[] acquire(int length) {
+        byte[] buffer = null;
+        if (length > 0 && length <= mMaxBufferSize) {
+            synchronized (this) {
+                for (int i = 0; i < mFreeCount; i++) {
+                    if (mFree[i].length == length) {
+                        buffer = mFree[i];
+                        mFree[i] = mFree[--mFreeCount];
+                        mFree[mFreeCount] = null;
+                        break;
+                    }
+                }
+            }
+        }
+        if (buffer == null) {
+            buffer = new byte[length];
+        }
+        if (mLeakDetectionEnabled) {
+            track(buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns the buffer to the pool. The buffer must not be used afterwards.
+     *
+     * @param buffer the buffer to release.
+     */
+    public void release(@Nullable byte[] buffer) {
+        if (buffer == null) {
+            return;
+        }
+        synchronized (this) {
+            untrack(buffer);
+            if (buffer.length == 0 || buffer.length > mMaxBufferSize) {
+                return;
+            }
+            for (int i = 0; i < mFreeCount; i++) {
+                if (mFree[i] == buffer) {
+                    LOG.warn("Buffer released twice");
+                    return;
+                }
+            }
+            if (mFreeCount < mFree.length) {
+                mFree[mFreeCount++] = buffer;
+            } else {
+                // Replace the oldest free buffer, the new one is more likely to have the
+                // currently used length
+                System.arraycopy(mFree, 1, mFree, 0, mFree.length - 1);
+                mFree[mFree.length - 1] = buffer;
+            }
+        }
+    }
+
+    /**
+     * Ends the ownership of the buffer without returning it to the pool, e.g. because it may
+     * still be referenced elsewhere. The buffer will be garbage collected.
+     *
+     * @param buffer the buffer to discard.
+     */
+    public void discard(@Nullable byte[] buffer) {
+        if (buffer == null) {
+            return;
+        }
+        synchronized (this) {
+            untrack(buffer);
+        }
+    }
+
+    //******************************************************************
+    // Leak detection
+    //******************************************************************
+
+    private static class TrackedBuffer extends WeakReference<byte[]> {
+        private final int mHash;
+        private final Throwable mAcquiredAt;
+
+        TrackedBuffer(byte[] buffer, int hash, ReferenceQueue<byte[]> queue) {
+            super(buffer, queue);
+            mHash = hash;
+            mAcquiredAt = new Throwable("Buffer of " + buffer.length + " bytes acquired here");
+        }
+    }
+
+    private synchronized void track(@NotNull byte[] buffer) {
+        pollLeaks();
+        int hash = System.identityHashCode(buffer);
+        List<TrackedBuffer> bucket = mTracked.get(hash);
+        if (bucket == null) {
+            bucket = new ArrayList<>(1);
+            mTracked.put(hash, bucket);
+        }
+        bucket.add(new TrackedBuffer(buffer, hash, mQueue));
+    }
+
+    private void untrack(@NotNull byte[] buffer) {
+        pollLeaks();
+        int hash = System.identityHashCode(buffer);
+        List<TrackedBuffer> bucket = mTracked.get(hash);
+        if (bucket == null) {
+            return;
+        }
+        for (int i = 0; i < bucket.size(); i++) {
+            TrackedBuffer tracked = bucket.get(i);
+            if (tracked.get() == buffer) {
+                tracked.clear();
+                bucket.remove(i);
+                if (bucket.isEmpty()) {
+                    mTracked.remove(hash);
+                }
+                return;
+            }
+        }
+    }
+
+    private void pollLeaks() {
+        TrackedBuffer tracked;
+        while ((tracked = (TrackedBuffer) mQueue.poll()) != null) {
+            List<TrackedBuffer> bucket = mTracked.get(tracked.mHash);
+            if (bucket != null && bucket.remove(tracked)) {
+                if (bucket.isEmpty()) {
+                    mTracked.remove(tracked.mHash);
+                }
+                mLeakCount++;
+                LOG.error("Buffer was garbage collected without being released", tracked.mAcquiredAt);
+            }
+        }
+    }
+}
@@ -6,73 +6,186 @@
 
 package io.runtime.mcumgr.util;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
 
 import org.jetbrains.annotations.NotNull;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+/**
+ * CBOR codec used to encode requests and decode responses.
+ * <p>
+ * A single {@link ObjectMapper} is shared by all calls. {@link ObjectReader}s and
+ * {@link ObjectWriter}s are immutable and thread-safe, so one instance per type is created on
+ * first use and cached, together with the (de)serializers Jackson resolved for that type.
+ * Apps may resolve them at startup instead: the common response types using
+ * {@code McuMgrResponse.preload()}, other types, e.g. custom responses, using
+ * {@link #preload(Class[])}.
+ * <p>
+ * Frequently decoded types may have a precompiled {@link CborDecoder} registered using
+ * {@link #registerDecoder(Class, CborDecoder)}, in which case databind is only used as a
+ * fallback for values the decoder does not support.
+ */
 @SuppressWarnings("unused")
 public class CBOR {
     private final static CBORFactory sFactory = new CBORFactory();
+    private final static ObjectMapper sMapper = new ObjectMapper(sFactory);
+
+    private final static ConcurrentMap<Class<?>, ObjectReader> sReaders =
+            new ConcurrentHashMap<>();
+    private final static ConcurrentMap<Class<?>, ObjectWriter> sWriters =
+            new ConcurrentHashMap<>();
+
+    private final static ConcurrentMap<Class<?>, CborDecoder<?>> sDecoders =
+            new ConcurrentHashMap<>();
+
+    private final static ObjectReader sStringMapReader =
+            sMapper.readerFor(new TypeReference<HashMap<String, String>>() {});
+    private final static ObjectReader sObjectMapReader =
+            sMapper.readerFor(new TypeReference<HashMap<String, Object>>() {});
+
+    /**
+     * Resolves and caches the readers and writers for the given types, so that the first
+     * request or response of each type does not pay for the introspection.
+     *
+     * @param types the request and response types to prepare.
+     */
+    public static void preload(@NotNull Class<?>... types) {
+        for (Class<?> type : types) {
+            getReader(type);
+            getWriter(type);
+        }
+    }
+
+    /**
+     * Registers a precompiled decoder for the given type. The decoder will be used instead of
+     * Jackson databind to decode objects of exactly this type (not its subclasses).
+     *
+     * @param type    the decoded type.
+     * @param decoder the decoder.
+     * @param <T>     the decoded type.
+     */
+    public static <T> void registerDecoder(@NotNull Class<T> type,
+                                           @NotNull CborDecoder<? extends T> decoder) {
+        sDecoders.put(type, decoder);
+    }
+
+    /**
+     * Returns the shared, thread-safe reader for the given type.
+     *
+     * @param type the type to decode.
+     * @return The reader.
+     */
+    @NotNull
+    public static ObjectReader getReader(@NotNull Class<?> type) {
+        ObjectReader reader = sReaders.get(type);
+        if (reader == null) {
+            reader = sMapper.readerFor(type);
+            ObjectReader existing = sReaders.putIfAbsent(type, reader);
+            if (existing != null) {
+                reader = existing;
+            }
+        }
+        return reader;
+    }
+
+    /**
+     * Returns the shared, thread-safe writer for the given type.
+     *
+     * @param type the type to encode.
+     * @return The writer.
+     */
+    @NotNull
+    public static ObjectWriter getWriter(@NotNull Class<?> type) {
+        ObjectWriter writer = sWriters.get(type);
+        if (writer == null) {
+            writer = sMapper.writerFor(type)
+                    .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+            ObjectWriter existing = sWriters.putIfAbsent(type, writer);
+            if (existing != null) {
+                writer = existing;
+            }
+        }
+        return writer;
+    }
 
     public static byte[] toBytes(Object obj) throws IOException {
-        ObjectMapper mapper = new ObjectMapper(sFactory);
-        return mapper.writeValueAsBytes(obj);
+        if (obj == null) {
+            return sMapper.writeValueAsBytes(null);
+        }
+        return getWriter(obj.getClass()).writeValueAsBytes(obj);
     }
 
     public static <T> T toObject(byte[] data, Class<T> type) throws IOException {
-        ObjectMapper mapper = new ObjectMapper(sFactory);
-        return mapper.readValue(data, type);
+        return toObject(data, 0, data.length, type);
+    }
+
+    /**
+     * Decodes the object of the given type from a part of the given array, without copying it.
+     *
+     * @param data   the array containing the CBOR data.
+     * @param offset the offset of the CBOR data.
+     * @param length the length of the CBOR data.
+     * @param type   the type to decode.
+     * @param <T>    the type to decode.
+     * @return The decoded object.
+     * @throws IOException if the data could not be decoded.
+     */
+    public static <T> T toObject(byte[] data, int offset, int length, Class<T> type) throws IOException {
+        CborDecoder<?> decoder = sDecoders.get(type);
+        if (decoder != null) {
+            try (JsonParser parser = sFactory.createParser(data, offset, length)) {
+                parser.nextToken();
+                return type.cast(decoder.decode(parser, data));
+            } catch (CborDecoder.UnsupportedValueException e) {
+                // Fall back to databind
+            }
+        }
+        return getReader(type).readValue(data, offset, length);
     }
 
     public static String toString(byte[] data) throws IOException {
-        ObjectMapper mapper = new ObjectMapper(sFactory);
-        return mapper.readTree(data).toString();
+        return sMapper.readTree(data).toString();
     }
 
     public static String toString(byte[] data, int offset) throws IOException {
-        ObjectMapper mapper = new ObjectMapper(sFactory);
-        return mapper.readTree(data, offset, data.length - offset).toString();
+        return sMapper.readTree(data, offset, data.length - offset).toString();
+    }
+
+    public static String toString(byte[] data, int offset, int length) throws IOException {
+        return sMapper.readTree(data, offset, length).toString();
     }
 
     @SuppressWarnings("RedundantThrows")
     public static <T> String toString(T obj) throws IOException {
-        ObjectMapper mapper = new ObjectMapper(sFactory);
-        return mapper.valueToTree(obj).toString();
+        return sMapper.valueToTree(obj).toString();
     }
 
     public static Map<String, String> toStringMap(byte[] data) throws IOException {
-        ObjectMapper mapper = new ObjectMapper(sFactory);
-        TypeReference<HashMap<String, String>> typeRef =
-                new TypeReference<HashMap<String, String>>() {};
-        ByteArrayInputStream inputStream = new ByteArrayInputStream(data);
-        return mapper.readValue(inputStream, typeRef);
+        return sStringMapReader.readValue(data);
     }
 
     public static Map<String, Object> toObjectMap(byte[] data) throws IOException {
-        ObjectMapper mapper = new ObjectMapper(sFactory);
-        TypeReference<HashMap<String, Object>> typeRef =
-                new TypeReference<HashMap<String, Object>>() {
-                };
-        ByteArrayInputStream inputStream = new ByteArrayInputStream(data);
-        return mapper.readValue(inputStream, typeRef);
+        return sObjectMapReader.readValue(data);
     }
 
     public static <T> T getObject(@NotNull byte[] data, @NotNull String key, @NotNull Class<T> type) throws IOException {
-        ObjectMapper mapper = new ObjectMapper(sFactory);
-        return mapper.convertValue(mapper.readTree(data).get(key), type);
+        return sMapper.convertValue(sMapper.readTree(data).get(key), type);
     }
 
     @NotNull
     public static String getString(@NotNull byte[] data, @NotNull String key) throws IOException {
-        ObjectMapper mapper = new ObjectMapper(sFactory);
-        return mapper.readTree(data).get(key).asText();
+        return sMapper.readTree(data).get(key).asText();
     }
 
 }
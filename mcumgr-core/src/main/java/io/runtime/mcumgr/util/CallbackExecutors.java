@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) Intellinium SAS, 2014-present
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.runtime.mcumgr.util;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Executors commonly used to deliver callbacks.
+ * <p>
+ * The {@link #direct() direct} executor runs the callback on the thread which produced the event,
+ * without any dispatch overhead. It suits high-rate consumers, like loggers, which are thread
+ * safe and return quickly. The {@link #mainThread() main thread} executor posts each callback to
+ * the main looper, which is convenient for updating the UI, at the cost of a post per event.
+ */
+public final class CallbackExecutors {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(@NotNull Runnable command) {
+            command.run();
+        }
+    };
+
+    private static Executor sMainThread;
+
+    private CallbackExecutors() {
+    }
+
+    /**
+     * Returns the executor running callbacks on the calling thread.
+     *
+     * @return The direct executor.
+     */
+    @NotNull
+    public static Executor direct() {
+        return DIRECT;
+    }
+
+    /**
+     * Returns the executor posting callbacks to the main thread.
+     *
+     * @return The main thread executor.
+     */
+    @NotNull
+    public static synchronized Executor mainThread() {
+        if (sMainThread == null) {
+            sMainThread = new MainThreadExecutor();
+        }
+        return sMainThread;
+    }
+
+    private static class MainThreadExecutor implements Executor {
+        private final Handler mainThreadHandler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(@NotNull Runnable command) {
+            mainThreadHandler.post(command);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) Intellinium SAS, 2014-present
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.runtime.mcumgr.util;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+
+/**
+ * A precompiled decoder reading an object of a given type directly from the CBOR token stream,
+ * without the reflection used by Jackson databind.
+ * <p>
+ * Decoders are registered using {@link CBOR#registerDecoder(Class, CborDecoder)} and are used
+ * by {@link CBOR#toObject(byte[], Class)} for the exact registered type. A decoder must accept
+ * the same input as databind would. If it encounters a value it does not support, it should
+ * throw an {@link UnsupportedValueException}; the data are then decoded again using databind.
+ *
+ * @param <T> the decoded type.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public abstract class CborDecoder<T> {
+
+    /**
+     * Decodes the object. When called, the parser is positioned at the first token of the value.
+     * When this method returns, the parser should be positioned at the last token of the value.
+     *
+     * @param parser the parser.
+     * @return The decoded object.
+     * @throws IOException if the data could not be decoded.
+     */
+    @Nullable
+    public abstract T decode(@NotNull JsonParser parser) throws IOException;
+
+    /**
+     * Decodes the object from the given array. The array may be used to locate values instead
+     * of copying them, see {@link #getBytesOffset(JsonParser, byte[])}. By default, this method
+     * calls {@link #decode(JsonParser)}.
+     *
+     * @param parser the parser, reading from the source array.
+     * @param source the array the parser reads from.
+     * @return The decoded object.
+     * @throws IOException if the data could not be decoded.
+     */
+    @Nullable
+    public T decode(@NotNull JsonParser parser, @NotNull byte[] source) throws IOException {
+        return decode(parser);
+    }
+
+    /**
+     * Thrown by a decoder when the data contain a value the decoder does not handle, for example
+     * a value of an unexpected type which Jackson databind would coerce.
+     */
+    public static class UnsupportedValueException extends IOException {
+        public UnsupportedValueException(@NotNull JsonParser parser) {
+            super("Unsupported value: " + parser.currentToken());
+        }
+    }
+
+    //******************************************************************
+    // Helpers
+    //******************************************************************
+
+    /**
+     * Checks whether the current token starts an object.
+     *
+     * @param parser the parser.
+     * @throws UnsupportedValueException if the current token does not start an object.
+     */
+    protected static void startObject(@NotNull JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            throw new UnsupportedValueException(parser);
+        }
+    }
+
+    /**
+     * Moves to the next field of the current object and then to its value.
+     *
+     * @param parser the parser.
+     * @return The field name, or null if the end of the object has been reached.
+     */
+    @Nullable
+    protected static String nextField(@NotNull JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.FIELD_NAME) {
+            return null;
+        }
+        String name = parser.getCurrentName();
+        parser.nextToken();
+        return name;
+    }
+
+    /**
+     * Skips the current value, including all its children.
+     *
+     * @param parser the parser.
+     */
+    protected static void skip(@NotNull JsonParser parser) throws IOException {
+        parser.skipChildren();
+    }
+
+    /**
+     * Returns true if the current token starts an array, false if it is a null value.
+     *
+     * @param parser the parser.
+     * @return True if the current token starts an array, false if it is a null value.
+     * @throws UnsupportedValueException if the current token is neither.
+     */
+    protected static boolean startArray(@NotNull JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.START_ARRAY) {
+            return true;
+        }
+        if (token == JsonToken.VALUE_NULL) {
+            return false;
+        }
+        throw new UnsupportedValueException(parser);
+    }
+
+    /**
+     * Returns the offset of the content of the current byte string in the source array, without
+     * reading it. The content may be then skipped by moving to the next token.
+     *
+     * @param parser the parser, positioned at a byte string.
+     * @param source the array the parser reads from.
+     * @return The offset of the content, or -1 if the byte string can't be located, for example
+     * if it is an indefinite length (chunked) string.
+     */
+    protected static int getBytesOffset(@NotNull JsonParser parser, @NotNull byte[] source) {
+        long head = readBytesHead(parser, source);
+        return head < 0 ? -1 : (int) (head >>> 32);
+    }
+
+    /**
+     * Returns the length of the content of the current byte string.
+     *
+     * @param parser the parser, positioned at a byte string.
+     * @param source the array the parser reads from.
+     * @return The length of the content, or -1 if the byte string can't be located.
+     * @see #getBytesOffset(JsonParser, byte[])
+     */
+    protected static int getBytesLength(@NotNull JsonParser parser, @NotNull byte[] source) {
+        long head = readBytesHead(parser, source);
+        return head < 0 ? -1 : (int) head;
+    }
+
+    /*
+     * Reads the head of the byte string at the current token. Returns the content offset in the
+     * upper and the content length in the lower 32 bits, or -1.
+     */
+    private static long readBytesHead(@NotNull JsonParser parser, @NotNull byte[] source) {
+        if (parser.currentToken() != JsonToken.VALUE_EMBEDDED_OBJECT) {
+            return -1;
+        }
+        long position = parser.getTokenLocation().getByteOffset();
+        if (position < 0 || position >= source.length) {
+            return -1;
+        }
+        int offset = (int) position;
+        int initial = source[offset++] & 0xFF;
+        if (initial >>> 5 != CborWriter.MAJOR_TYPE_BYTES) {
+            return -1;
+        }
+        int info = initial & 0x1F;
+        long length;
+        if (info < 24) {
+            length = info;
+        } else if (info <= 26) {
+            int size = 1 << (info - 24);
+            if (offset + size > source.length) {
+                return -1;
+            }
+            length = 0;
+            for (int i = 0; i < size; i++) {
+                length = (length << 8) | (source[offset++] & 0xFF);
+            }
+        } else {
+            // 64-bit and indefinite lengths are not supported
+            return -1;
+        }
+        if (offset + length > source.length) {
+            return -1;
+        }
+        return ((long) offset << 32) | length;
+    }
+
+    protected static int readInt(@NotNull JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_NUMBER_INT) {
+            return parser.getIntValue();
+        }
+        if (token == JsonToken.VALUE_NULL) {
+            return 0;
+        }
+        throw new UnsupportedValueException(parser);
+    }
+
+    protected static long readLong(@NotNull JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_NUMBER_INT) {
+            return parser.getLongValue();
+        }
+        if (token == JsonToken.VALUE_NULL) {
+            return 0;
+        }
+        throw new UnsupportedValueException(parser);
+    }
+
+    @Nullable
+    protected static Long readLongObject(@NotNull JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_NUMBER_INT) {
+            return parser.getLongValue();
+        }
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        throw new UnsupportedValueException(parser);
+    }
+
+    protected static boolean readBoolean(@NotNull JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_TRUE) {
+            return true;
+        }
+        if (token == JsonToken.VALUE_FALSE || token == JsonToken.VALUE_NULL) {
+            return false;
+        }
+        throw new UnsupportedValueException(parser);
+    }
+
+    @Nullable
+    protected static String readString(@NotNull JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_STRING) {
+            return parser.getText();
+        }
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        throw new UnsupportedValueException(parser);
+    }
+
+    @Nullable
+    protected static byte[] readBytes(@NotNull JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_EMBEDDED_OBJECT || token == JsonToken.VALUE_STRING) {
+            return parser.getBinaryValue();
+        }
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        throw new UnsupportedValueException(parser);
+    }
+}
@@ -0,0 +1,377 @@
+/*
+ * Copyright (c) Intellinium SAS, 2014-present
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.runtime.mcumgr.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal, allocation-free CBOR (RFC 7049) encoder.
+ * <p>
+ * All write methods write a single data item into the given buffer at the given position and
+ * return the position following the written item. The buffer must be large enough; the
+ * matching size methods may be used to calculate the exact length of each item in advance.
+ * Integers are always encoded using the shortest possible form.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public final class CborWriter {
+
+    public final static int MAJOR_TYPE_UINT = 0;
+    public final static int MAJOR_TYPE_NEGATIVE_INT = 1;
+    public final static int MAJOR_TYPE_BYTES = 2;
+    public final static int MAJOR_TYPE_TEXT = 3;
+    public final static int MAJOR_TYPE_ARRAY = 4;
+    public final static int MAJOR_TYPE_MAP = 5;
+
+    private final static Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final static byte FALSE = (byte) 0xF4;
+    private final static byte TRUE = (byte) 0xF5;
+    private final static byte NULL = (byte) 0xF6;
+
+    private CborWriter() {
+    }
+
+    //******************************************************************
+    // Sizes
+    //******************************************************************
+
+    /**
+     * Returns the length of the head of a data item with the given argument (an unsigned
+     * integer value, or the length of a string, array or map).
+     *
+     * @param value the argument, interpreted as unsigned.
+     * @return The length of the head in bytes.
+     */
+    public static int sizeOfHead(long value) {
+        if (value >= 0 && value < 24) {
+            return 1;
+        } else if (value >= 0 && value < 0x100) {
+            return 2;
+        } else if (value >= 0 && value < 0x10000) {
+            return 3;
+        } else if (value >= 0 && value < 0x100000000L) {
+            return 5;
+        } else {
+            return 9;
+        }
+    }
+
+    public static int sizeOfUInt(long value) {
+        return sizeOfHead(value);
+    }
+
+    public static int sizeOfInt(long value) {
+        return value >= 0 ? sizeOfHead(value) : sizeOfHead(-1 - value);
+    }
+
+    public static int sizeOfBytes(int length) {
+        return sizeOfHead(length) + length;
+    }
+
+    public static int sizeOfText(int utf8Length) {
+        return sizeOfHead(utf8Length) + utf8Length;
+    }
+
+    public static int sizeOfMapHeader(int size) {
+        return sizeOfHead(size);
+    }
+
+    public static int sizeOfArrayHeader(int size) {
+        return sizeOfHead(size);
+    }
+
+    /**
+     * Returns the length of the given text encoded as a CBOR text string, without encoding it.
+     *
+     * @param text the text.
+     * @return The length in bytes.
+     */
+    public static int sizeOfText(@NotNull String text) {
+        return sizeOfText(utf8Length(text));
+    }
+
+    /**
+     * Returns the length of the given value encoded with {@link #writeValue(byte[], int, Object)},
+     * or -1 if the value, or any value contained in it, is not supported.
+     * <p>
+     * Supported values are null, {@link Boolean}, {@link Byte}, {@link Short}, {@link Integer},
+     * {@link Long}, {@link String}, byte arrays, and {@link Map}s with {@link String} keys and
+     * {@link List}s and object arrays of supported values.
+     *
+     * @param value the value.
+     * @return The length in bytes, or -1.
+     */
+    public static int sizeOfValue(@Nullable Object value) {
+        if (value == null || value instanceof Boolean) {
+            return 1;
+        } else if (value instanceof Integer || value instanceof Long ||
+                value instanceof Short || value instanceof Byte) {
+            return sizeOfInt(((Number) value).longValue());
+        } else if (value instanceof String) {
+            return sizeOfText((String) value);
+        } else if (value instanceof byte[]) {
+            return sizeOfBytes(((byte[]) value).length);
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            int size = sizeOfMapHeader(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                if (!(entry.getKey() instanceof String)) {
+                    return -1;
+                }
+                int valueSize = sizeOfValue(entry.getValue());
+                if (valueSize < 0) {
+                    return -1;
+                }
+                size += sizeOfText((String) entry.getKey()) + valueSize;
+            }
+            return size;
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            int size = sizeOfArrayHeader(list.size());
+            for (Object item : list) {
+                int itemSize = sizeOfValue(item);
+                if (itemSize < 0) {
+                    return -1;
+                }
+                size += itemSize;
+            }
+            return size;
+        } else if (value instanceof Object[]) {
+            return sizeOfValue(Arrays.asList((Object[]) value));
+        }
+        return -1;
+    }
+
+    //******************************************************************
+    // Writers
+    //******************************************************************
+
+    /**
+     * Writes the head of a data item.
+     *
+     * @param out       the output buffer.
+     * @param position  the position in the output buffer.
+     * @param majorType the major type, one of the MAJOR_TYPE_* constants.
+     * @param value     the argument, interpreted as unsigned.
+     * @return The position following the written head.
+     */
+    public static int writeHead(@NotNull byte[] out, int position, int majorType, long value) {
+        int type = majorType << 5;
+        if (value >= 0 && value < 24) {
+            out[position++] = (byte) (type | value);
+        } else if (value >= 0 && value < 0x100) {
+            out[position++] = (byte) (type | 24);
+            out[position++] = (byte) value;
+        } else if (value >= 0 && value < 0x10000) {
+            out[position++] = (byte) (type | 25);
+            out[position++] = (byte) (value >>> 8);
+            out[position++] = (byte) value;
+        } else if (value >= 0 && value < 0x100000000L) {
+            out[position++] = (byte) (type | 26);
+            out[position++] = (byte) (value >>> 24);
+            out[position++] = (byte) (value >>> 16);
+            out[position++] = (byte) (value >>> 8);
+            out[position++] = (byte) value;
+        } else {
+            out[position++] = (byte) (type | 27);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out[position++] = (byte) (value >>> shift);
+            }
+        }
+        return position;
+    }
+
+    public static int writeUInt(@NotNull byte[] out, int position, long value) {
+        return writeHead(out, position, MAJOR_TYPE_UINT, value);
+    }
+
+    public static int writeInt(@NotNull byte[] out, int position, long value) {
+        if (value >= 0) {
+            return writeHead(out, position, MAJOR_TYPE_UINT, value);
+        }
+        return writeHead(out, position, MAJOR_TYPE_NEGATIVE_INT, -1 - value);
+    }
+
+    public static int writeBytes(@NotNull byte[] out, int position,
+                                 @NotNull byte[] source, int offset, int length) {
+        position = writeHead(out, position, MAJOR_TYPE_BYTES, length);
+        System.arraycopy(source, offset, out, position, length);
+        return position + length;
+    }
+
+    /**
+     * Writes a text string.
+     *
+     * @param out      the output buffer.
+     * @param position the position in the output buffer.
+     * @param utf8     the UTF-8 encoded string.
+     * @return The position following the written string.
+     */
+    public static int writeText(@NotNull byte[] out, int position, @NotNull byte[] utf8) {
+        position = writeHead(out, position, MAJOR_TYPE_TEXT, utf8.length);
+        System.arraycopy(utf8, 0, out, position, utf8.length);
+        return position + utf8.length;
+    }
+
+    /**
+     * Writes a text string, encoding it to UTF-8 directly into the buffer.
+     *
+     * @param out      the output buffer.
+     * @param position the position in the output buffer.
+     * @param text     the text.
+     * @return The position following the written string.
+     */
+    public static int writeText(@NotNull byte[] out, int position, @NotNull String text) {
+        position = writeHead(out, position, MAJOR_TYPE_TEXT, utf8Length(text));
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                out[position++] = (byte) c;
+            } else if (c < 0x800) {
+                out[position++] = (byte) (0xC0 | (c >> 6));
+                out[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length &&
+                    Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                out[position++] = (byte) (0xF0 | (codePoint >> 18));
+                out[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                out[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                out[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogates are replaced, as String.getBytes() does
+                out[position++] = (byte) '?';
+            } else {
+                out[position++] = (byte) (0xE0 | (c >> 12));
+                out[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                out[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return position;
+    }
+
+    public static int writeMapHeader(@NotNull byte[] out, int position, int size) {
+        return writeHead(out, position, MAJOR_TYPE_MAP, size);
+    }
+
+    public static int writeArrayHeader(@NotNull byte[] out, int position, int size) {
+        return writeHead(out, position, MAJOR_TYPE_ARRAY, size);
+    }
+
+    public static int writeBoolean(@NotNull byte[] out, int position, boolean value) {
+        out[position] = value ? TRUE : FALSE;
+        return position + 1;
+    }
+
+    public static int writeNull(@NotNull byte[] out, int position) {
+        out[position] = NULL;
+        return position + 1;
+    }
+
+    /**
+     * Writes the given value. Maps and arrays are written with definite length, integers using
+     * the shortest possible form.
+     *
+     * @param out      the output buffer.
+     * @param position the position in the output buffer.
+     * @param value    the value, supported by {@link #sizeOfValue(Object)}.
+     * @return The position following the written value.
+     * @throws IllegalArgumentException if the value is not supported.
+     */
+    public static int writeValue(@NotNull byte[] out, int position, @Nullable Object value) {
+        if (value == null) {
+            return writeNull(out, position);
+        } else if (value instanceof Boolean) {
+            return writeBoolean(out, position, (Boolean) value);
+        } else if (value instanceof Integer || value instanceof Long ||
+                value instanceof Short || value instanceof Byte) {
+            return writeInt(out, position, ((Number) value).longValue());
+        } else if (value instanceof String) {
+            return writeText(out, position, (String) value);
+        } else if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            return writeBytes(out, position, bytes, 0, bytes.length);
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            position = writeMapHeader(out, position, map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                position = writeText(out, position, (String) entry.getKey());
+                position = writeValue(out, position, entry.getValue());
+            }
+            return position;
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            position = writeArrayHeader(out, position, list.size());
+            for (Object item : list) {
+                position = writeValue(out, position, item);
+            }
+            return position;
+        } else if (value instanceof Object[]) {
+            return writeValue(out, position, Arrays.asList((Object[]) value));
+        }
+        throw new IllegalArgumentException("Unsupported value: " + value.getClass());
+    }
+
+    /**
+     * Copies an already encoded data item, e.g. a constant map key.
+     *
+     * @param out      the output buffer.
+     * @param position the position in the output buffer.
+     * @param encoded  the encoded data item.
+     * @return The position following the copied item.
+     */
+    public static int writeEncoded(@NotNull byte[] out, int position, @NotNull byte[] encoded) {
+        System.arraycopy(encoded, 0, out, position, encoded.length);
+        return position + encoded.length;
+    }
+
+    /**
+     * Encodes a text string into a standalone data item, to be used with
+     * {@link #writeEncoded(byte[], int, byte[])}.
+     *
+     * @param text the text.
+     * @return The encoded text string.
+     */
+    @NotNull
+    public static byte[] encodeText(@NotNull String text) {
+        byte[] utf8 = text.getBytes(UTF_8);
+        byte[] encoded = new byte[sizeOfText(utf8.length)];
+        writeText(encoded, 0, utf8);
+        return encoded;
+    }
+
+    /*
+     * Returns the length of the text encoded to UTF-8, matching writeText(byte[], int, String).
+     */
+    private static int utf8Length(@NotNull String text) {
+        int length = text.length();
+        int utf8Length = length;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                continue;
+            }
+            if (c < 0x800) {
+                utf8Length += 1;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length &&
+                    Character.isLowSurrogate(text.charAt(i + 1))) {
+                // 4 bytes for 2 chars
+                utf8Length += 2;
+                i++;
+            } else if (!Character.isSurrogate(c)) {
+                utf8Length += 2;
+            }
+        }
+        return utf8Length;
+    }
+}
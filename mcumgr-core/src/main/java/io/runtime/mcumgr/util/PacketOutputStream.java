@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) Intellinium SAS, 2014-present
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.runtime.mcumgr.util;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * A {@link ByteArrayOutputStream} which gives access to its backing buffer, so that already
+ * written bytes (such as a header reserved in front of the payload) can be patched in place,
+ * and which hands out the buffer itself as the packet when it has been filled exactly.
+ */
+public class PacketOutputStream extends ByteArrayOutputStream {
+
+    /**
+     * Creates a stream with the given initial capacity. The capacity should be a good estimate
+     * of the final packet length, to avoid growing the buffer while encoding.
+     *
+     * @param size the initial capacity.
+     */
+    public PacketOutputStream(int size) {
+        super(size);
+    }
+
+    /**
+     * Returns the backing buffer. Only the first {@link #size()} bytes are valid.
+     *
+     * @return The backing buffer.
+     */
+    @NotNull
+    public byte[] getBuffer() {
+        return buf;
+    }
+
+    /**
+     * Writes the given number of zero bytes, reserving space to be written or patched in the
+     * {@link #getBuffer() buffer} directly. The buffer is replaced if it has to grow, so it
+     * must be obtained again after reserving.
+     *
+     * @param length the number of bytes to reserve.
+     * @return The offset of the reserved space.
+     */
+    public synchronized int reserve(int length) {
+        int offset = count;
+        int end = offset + length;
+        if (end > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length << 1, end));
+        } else {
+            Arrays.fill(buf, offset, end, (byte) 0);
+        }
+        count = end;
+        return offset;
+    }
+
+    /**
+     * Returns the written bytes. Unlike {@link #toByteArray()}, the backing buffer is returned
+     * without copying if it has been filled exactly.
+     *
+     * @return The packet.
+     */
+    @NotNull
+    public byte[] toPacket() {
+        if (count == buf.length) {
+            return buf;
+        }
+        return Arrays.copyOf(buf, count);
+    }
+}
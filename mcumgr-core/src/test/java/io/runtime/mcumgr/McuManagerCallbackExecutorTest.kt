@@ -0,0 +1,55 @@
+package io.runtime.mcumgr
+
+import io.runtime.mcumgr.exception.McuMgrException
+import io.runtime.mcumgr.managers.StatsManager
+import io.runtime.mcumgr.mock.MockMcuMgrTransport
+import io.runtime.mcumgr.mock.handlers.MockStatsHandler
+import io.runtime.mcumgr.response.stat.McuMgrStatListResponse
+import io.runtime.mcumgr.util.CallbackExecutors
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotEquals
+import org.junit.Test
+import java.util.concurrent.Executors
+
+class McuManagerCallbackExecutorTest {
+
+    private val statsManager = StatsManager(MockMcuMgrTransport(MockStatsHandler()))
+
+    private fun listOnThread(): String = runBlocking {
+        val thread = Channel<String>(1)
+        statsManager.list(object : McuMgrCallback<McuMgrStatListResponse> {
+            override fun onResponse(response: McuMgrStatListResponse) {
+                thread.offer(Thread.currentThread().name)
+            }
+
+            override fun onError(error: McuMgrException) {
+                thread.close(error)
+            }
+        })
+        thread.receive()
+    }
+
+    @Test
+    fun `callbacks run on the callback executor`() {
+        val executor = Executors.newSingleThreadExecutor { runnable ->
+            Thread(runnable, "callbacks")
+        }
+        statsManager.callbackExecutor = executor
+        try {
+            assertEquals("callbacks", listOnThread())
+        } finally {
+            executor.shutdown()
+        }
+    }
+
+    @Test
+    fun `callbacks run on the transport thread by default`() {
+        val transportThread = listOnThread()
+        assertNotEquals("callbacks", transportThread)
+
+        statsManager.callbackExecutor = CallbackExecutors.direct()
+        assertEquals(transportThread, listOnThread())
+    }
+}
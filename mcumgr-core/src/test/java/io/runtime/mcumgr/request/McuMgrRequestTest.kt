@@ -0,0 +1,75 @@
+package io.runtime.mcumgr.request
+
+import io.runtime.mcumgr.McuManager
+import io.runtime.mcumgr.McuMgrHeader
+import io.runtime.mcumgr.McuMgrScheme
+import io.runtime.mcumgr.util.CBOR
+import org.junit.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+
+class McuMgrRequestTest {
+
+    @Test
+    fun `encode matches payload map ble success`() {
+        val request = ConfigWriteRequest("name", "välue", true)
+        val packet = request.encode(McuMgrScheme.BLE, 0, 7)
+        assertEquals(request.getEncodedSize(McuMgrScheme.BLE), packet.size)
+
+        val expected = McuManager.buildPacket(McuMgrScheme.BLE, 2, 0, 3, 7, 0,
+                mapOf<String, Any>("name" to "name", "val" to "välue", "save" to true))
+        // Both use definite length maps, so the packets are identical
+        assertEquals(expected.toList(), packet.toList())
+    }
+
+    @Test
+    fun `encode null value success`() {
+        val request = StatReadRequest(null)
+        val packet = request.encode(McuMgrScheme.BLE, 0, 0)
+        assertEquals(request.getEncodedSize(McuMgrScheme.BLE), packet.size)
+
+        val payload = CBOR.toObjectMap(packet.copyOfRange(8, packet.size))
+        assertEquals(1, payload.size)
+        assertNull(payload["name"])
+    }
+
+    @Test
+    fun `encode optional entries coap success`() {
+        val request = LogReadRequest(null, 70_000L, "2020-01-01T00:00:00")
+        val packet = request.encode(McuMgrScheme.COAP_BLE, 0, 1)
+        assertEquals(request.getEncodedSize(McuMgrScheme.COAP_BLE), packet.size)
+
+        val payload = CBOR.toObjectMap(packet)
+        assertEquals(3, payload.size)
+        assertEquals(70_000, payload["index"])
+        assertEquals("2020-01-01T00:00:00", payload["ts"])
+
+        // The length in the header excludes the "_h" entry
+        val header = McuMgrHeader.fromBytes(payload["_h"] as ByteArray)
+        assertEquals(4, header.groupId)
+        assertEquals(0, header.commandId)
+        assertEquals(1, header.sequenceNum)
+        assertEquals(packet.size - 12, header.len)
+    }
+
+    @Test
+    fun `coap header length excludes header entry`() {
+        // With 23 entries the map head grows by a byte when the "_h" entry is added
+        val payload = (1..23).associate { "k$it" to it as Any }
+        val coap = McuManager.buildPacket(McuMgrScheme.COAP_BLE, 0, 0, 1, 0, 0, payload)
+        val ble = McuManager.buildPacket(McuMgrScheme.BLE, 0, 0, 1, 0, 0, payload)
+
+        val header = McuMgrHeader.fromBytes(CBOR.toObjectMap(coap)["_h"] as ByteArray)
+        assertEquals(ble.size - McuMgrHeader.HEADER_LENGTH, header.len)
+    }
+
+    @Test
+    fun `encode into buffer at position success`() {
+        val request = EchoRequest("Hello")
+        val length = request.getEncodedSize(McuMgrScheme.BLE)
+        val buffer = ByteArray(length + 10)
+        assertEquals(length, request.encode(buffer, 5, McuMgrScheme.BLE, 0, 0))
+        assertEquals(request.encode(McuMgrScheme.BLE, 0, 0).toList(),
+                buffer.copyOfRange(5, 5 + length).toList())
+    }
+}
@@ -3,6 +3,7 @@ package io.runtime.mcumgr.response;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import io.runtime.mcumgr.McuMgrScheme;
 import io.runtime.mcumgr.response.img.McuMgrImageStateResponse;
@@ -254,6 +255,26 @@ public class McuMgrResponseTest {
         assertEquals(0, response.splitStatus);
     }
 
+    @Test
+    public void buildResponse_offset() throws IOException {
+        final byte[] data = {(byte) 0xEE, (byte) 0xEE, (byte) 0xEE, // preceding bytes
+                (byte) 0x03, (byte) 0x00, (byte) 0x00, (byte) 0x0B, (byte) 0x00, (byte) 0x01, (byte) 0x05, (byte) 0x01,
+                (byte) 0xA2, (byte) 0x62, (byte) 0x72, (byte) 0x63, (byte) 0x00, (byte) 0x63, (byte) 0x6F, (byte) 0x66,
+                (byte) 0x66, (byte) 0x18, (byte) 0x64,
+                (byte) 0xEE, (byte) 0xEE}; // following bytes
+
+        UploadResponse response = McuMgrResponse.buildResponse(McuMgrScheme.BLE, data, 3, 19, UploadResponse.class);
+        assertNotNull(response);
+        assertTrue(response.isSuccess());
+        assertEquals(100, response.off);
+
+        assertNotNull(response.getHeader());
+        assertEquals(11, response.getHeader().getLen());
+        assertEquals(5, response.getHeader().getSequenceNum());
+        assertArrayEquals(Arrays.copyOfRange(data, 3, 22), response.getBytes());
+        assertArrayEquals(Arrays.copyOfRange(data, 11, 22), response.getPayload());
+    }
+
     @Test
     public void getExpectedLength_full() throws IOException {
         final byte[] data = {(byte) 0x01, (byte) 0x00, (byte) 0x00, (byte) 0x79, (byte) 0x00, (byte) 0x01, (byte) 0x00, (byte) 0x00,
@@ -0,0 +1,181 @@
+package io.runtime.mcumgr.response;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.runtime.mcumgr.McuMgrHeader;
+import io.runtime.mcumgr.McuMgrScheme;
+import io.runtime.mcumgr.response.img.McuMgrImageStateResponse;
+import io.runtime.mcumgr.response.img.McuMgrImageUploadResponse;
+import io.runtime.mcumgr.response.log.McuMgrLogResponse;
+import io.runtime.mcumgr.response.stat.McuMgrStatResponse;
+import io.runtime.mcumgr.util.CBOR;
+
+import static org.junit.Assert.*;
+
+public class ResponseDecodersTest {
+
+    static {
+        // Registers the decoders
+        new McuMgrResponse();
+    }
+
+    @Test
+    public void decode_upload() throws IOException {
+        Map<String, Object> map = new HashMap<>();
+        map.put("rc", 0);
+        map.put("off", 1024);
+        map.put("unknown", new int[]{1, 2, 3});
+        byte[] bytes = CBOR.toBytes(map);
+
+        McuMgrImageUploadResponse response = CBOR.toObject(bytes, McuMgrImageUploadResponse.class);
+        assertEquals(0, response.rc);
+        assertEquals(1024, response.off);
+    }
+
+    @Test
+    public void decode_download() throws IOException {
+        Map<String, Object> map = new HashMap<>();
+        map.put("off", 0);
+        map.put("len", 70000);
+        map.put("data", new byte[]{1, 2, 3, 4});
+        byte[] bytes = CBOR.toBytes(map);
+
+        DownloadResponse response = CBOR.toObject(bytes, DownloadResponse.class);
+        DownloadResponse expected = CBOR.getReader(DownloadResponse.class).readValue(bytes);
+        assertEquals(expected.off, response.off);
+        assertEquals(expected.len, response.len);
+        assertArrayEquals(expected.data, response.data);
+    }
+
+    @Test
+    public void decode_download_chunk_in_place() throws IOException {
+        byte[] data = new byte[300];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("data", data);
+        map.put("off", 600);
+        byte[] payload = CBOR.toBytes(map);
+
+        // Place the packet in the middle of a larger array
+        byte[] packet = new byte[5 + 8 + payload.length + 5];
+        McuMgrHeader.write(packet, 5, 1, 0, payload.length, 9, 0, 4);
+        System.arraycopy(payload, 0, packet, 13, payload.length);
+
+        DownloadChunkResponse response = McuMgrResponse.buildResponse(McuMgrScheme.BLE,
+                packet, 5, 8 + payload.length, DownloadChunkResponse.class);
+        assertNull(response.data);
+        assertTrue(response.hasData());
+        assertEquals(600, response.off);
+        assertEquals(300, response.getDataLength());
+
+        byte[] dest = new byte[1000];
+        response.copyData(dest, response.off);
+        assertArrayEquals(data, Arrays.copyOfRange(dest, 600, 900));
+    }
+
+    @Test
+    public void decode_image_state() throws IOException {
+        Map<String, Object> slot = new LinkedHashMap<>();
+        slot.put("slot", 1);
+        slot.put("version", "1.2.3");
+        slot.put("hash", new byte[32]);
+        slot.put("bootable", true);
+        slot.put("pending", true);
+        slot.put("confirmed", false);
+        slot.put("active", false);
+        slot.put("permanent", true);
+        List<Object> images = new ArrayList<>();
+        images.add(slot);
+        Map<String, Object> map = new HashMap<>();
+        map.put("images", images);
+        map.put("splitStatus", 2);
+        byte[] bytes = CBOR.toBytes(map);
+
+        McuMgrImageStateResponse response = CBOR.toObject(bytes, McuMgrImageStateResponse.class);
+        assertEquals(2, response.splitStatus);
+        assertEquals(1, response.images.length);
+        assertEquals(1, response.images[0].slot);
+        assertEquals("1.2.3", response.images[0].version);
+        assertArrayEquals(new byte[32], response.images[0].hash);
+        assertTrue(response.images[0].bootable);
+        assertTrue(response.images[0].pending);
+        assertFalse(response.images[0].confirmed);
+        assertFalse(response.images[0].active);
+        assertTrue(response.images[0].permanent);
+    }
+
+    @Test
+    public void decode_stat() throws IOException {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("a", 1);
+        fields.put("b", 5000000000L);
+        Map<String, Object> map = new HashMap<>();
+        map.put("name", "ble_ll");
+        map.put("fields", fields);
+        byte[] bytes = CBOR.toBytes(map);
+
+        McuMgrStatResponse response = CBOR.toObject(bytes, McuMgrStatResponse.class);
+        McuMgrStatResponse expected = CBOR.getReader(McuMgrStatResponse.class).readValue(bytes);
+        assertEquals("ble_ll", response.name);
+        assertEquals(expected.fields, response.fields);
+    }
+
+    @Test
+    public void decode_log() throws IOException {
+        Map<String, Object> entry = new HashMap<>();
+        entry.put("msg", "hello".getBytes());
+        entry.put("ts", 123456789012L);
+        entry.put("level", 1);
+        entry.put("index", 7);
+        entry.put("module", 3);
+        entry.put("type", "str");
+        List<Object> entries = new ArrayList<>();
+        entries.add(entry);
+        Map<String, Object> log = new HashMap<>();
+        log.put("name", "reboot_log");
+        log.put("type", 2);
+        log.put("entries", entries);
+        List<Object> logs = new ArrayList<>();
+        logs.add(log);
+        Map<String, Object> map = new HashMap<>();
+        map.put("next_index", 8);
+        map.put("logs", logs);
+        byte[] bytes = CBOR.toBytes(map);
+
+        McuMgrLogResponse response = CBOR.toObject(bytes, McuMgrLogResponse.class);
+        assertEquals(1, response.logs.length);
+        assertEquals("reboot_log", response.logs[0].name);
+        assertEquals(2, response.logs[0].type);
+        assertEquals(1, response.logs[0].entries.length);
+        McuMgrLogResponse.Entry decoded = response.logs[0].entries[0];
+        assertEquals("hello", decoded.getMessageString());
+        assertEquals(123456789012L, decoded.ts);
+        assertEquals(1, decoded.level);
+        assertEquals(7, decoded.index);
+        assertEquals(3, decoded.module);
+        assertNull(decoded.imghash);
+    }
+
+    @Test
+    public void decode_unsupported_value_falls_back() throws IOException {
+        // Databind coerces a textual number into an int, the decoder does not
+        Map<String, Object> map = new HashMap<>();
+        map.put("rc", "5");
+        map.put("off", 100);
+        byte[] bytes = CBOR.toBytes(map);
+
+        UploadResponse response = CBOR.toObject(bytes, UploadResponse.class);
+        assertEquals(5, response.rc);
+        assertEquals(100, response.off);
+    }
+}
@@ -0,0 +1,46 @@
+package io.runtime.mcumgr.transfer
+
+import io.runtime.mcumgr.McuMgrScheme
+import org.junit.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+
+class PacketSizerTest {
+
+    private val data = ByteArray(70_000)
+
+    @Test
+    fun `max data length fills mtu exactly`() {
+        val schemes = listOf(McuMgrScheme.BLE, McuMgrScheme.COAP_BLE)
+        val names = listOf(null, "/lfs/file.bin")
+        val hashes = listOf(null, byteArrayOf(1, 2, 3))
+        for (scheme in schemes) for (name in names) for (sha in hashes) {
+            val encoder = UploadEncoder(scheme, 1, 1, name)
+            for (mtu in 100..1024) for (offset in listOf(0, 23, 24, 255, 256, 65_536)) {
+                val length = encoder.sizer.getMaxDataLength(mtu, data.size, offset,
+                    sha?.size ?: PacketSizer.NO_SHA)
+                val packetLength = encoder.encode(data, offset, length, sha).size
+                assertEquals(encoder.getPacketLength(data, offset, length, sha), packetLength)
+                // Either the packet fills the MTU, or one more byte of data would not fit
+                if (packetLength < mtu) {
+                    assert(encoder.getPacketLength(data, offset, length + 1, sha) > mtu)
+                }
+                assert(packetLength <= mtu)
+            }
+        }
+    }
+
+    @Test
+    fun `max data length limited by remaining data`() {
+        val sizer = PacketSizer(McuMgrScheme.BLE, null)
+        assertEquals(10, sizer.getMaxDataLength(515, data.size, data.size - 10, PacketSizer.NO_SHA))
+    }
+
+    @Test
+    fun `max data length mtu too small failure`() {
+        val sizer = PacketSizer(McuMgrScheme.BLE, "/lfs/file.bin")
+        assertFailsWith<IllegalArgumentException> {
+            sizer.getMaxDataLength(20, data.size, 0, PacketSizer.NO_SHA)
+        }
+    }
+}
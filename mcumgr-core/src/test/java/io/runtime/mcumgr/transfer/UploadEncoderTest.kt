@@ -0,0 +1,65 @@
+package io.runtime.mcumgr.transfer
+
+import io.runtime.mcumgr.McuMgrHeader
+import io.runtime.mcumgr.McuMgrScheme
+import io.runtime.mcumgr.util.CBOR
+import org.junit.Test
+import kotlin.random.Random
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class UploadEncoderTest {
+
+    private val image = Random(0).nextBytes(70_000)
+
+    @Test
+    fun `encode first chunk ble success`() {
+        val sha = byteArrayOf(1, 2, 3)
+        val encoder = UploadEncoder(McuMgrScheme.BLE, 1, 1, null)
+        val packet = encoder.encode(image, 0, 300, sha)
+        assertEquals(encoder.getPacketLength(image, 0, 300, sha), packet.size)
+
+        val header = McuMgrHeader.fromBytes(packet)
+        assertEquals(2, header.op)
+        assertEquals(1, header.groupId)
+        assertEquals(1, header.commandId)
+        assertEquals(packet.size - 8, header.len)
+
+        val payload = CBOR.toObjectMap(packet.copyOfRange(8, packet.size))
+        assertEquals(4, payload.size)
+        assertTrue(image.copyOfRange(0, 300).contentEquals(payload["data"] as ByteArray))
+        assertEquals(0, payload["off"])
+        assertEquals(image.size, payload["len"])
+        assertTrue(sha.contentEquals(payload["sha"] as ByteArray))
+    }
+
+    @Test
+    fun `encode chunk with name coap success`() {
+        val encoder = UploadEncoder(McuMgrScheme.COAP_BLE, 8, 0, "/lfs/file.bin")
+        val packet = encoder.encode(image, 65_536, 24, null)
+        assertEquals(encoder.getPacketLength(image, 65_536, 24, null), packet.size)
+
+        val payload = CBOR.toObjectMap(packet)
+        assertEquals(4, payload.size)
+        assertTrue(image.copyOfRange(65_536, 65_560).contentEquals(payload["data"] as ByteArray))
+        assertEquals(65_536, payload["off"])
+        assertEquals("/lfs/file.bin", payload["name"])
+        assertFalse(payload.containsKey("len"))
+
+        // The length in the header excludes the "_h" entry
+        val header = McuMgrHeader.fromBytes(payload["_h"] as ByteArray)
+        assertEquals(8, header.groupId)
+        assertEquals(packet.size - 12, header.len)
+    }
+
+    @Test
+    fun `encode into buffer at position success`() {
+        val encoder = UploadEncoder(McuMgrScheme.BLE, 1, 1, null)
+        val length = encoder.getPacketLength(image, 1000, 100, null)
+        val buffer = ByteArray(length + 10)
+        assertEquals(length, encoder.encode(buffer, 10, image, 1000, 100, null))
+        assertTrue(encoder.encode(image, 1000, 100, null)
+            .contentEquals(buffer.copyOfRange(10, buffer.size)))
+    }
+}
@@ -0,0 +1,73 @@
+package io.runtime.mcumgr.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolTest {
+
+    @Test
+    public void acquire_reusesReleasedBufferOfSameLength() {
+        BufferPool pool = new BufferPool(4, 1024);
+        byte[] buffer = pool.acquire(100);
+        assertEquals(100, buffer.length);
+        pool.release(buffer);
+
+        assertNotSame(buffer, pool.acquire(99));
+        assertSame(buffer, pool.acquire(100));
+        assertNotSame(buffer, pool.acquire(100));
+    }
+
+    @Test
+    public void release_keepsAtMostMaxBuffers() {
+        BufferPool pool = new BufferPool(2, 1024);
+        byte[] a = pool.acquire(10);
+        byte[] b = pool.acquire(10);
+        byte[] c = pool.acquire(10);
+        pool.release(a);
+        pool.release(b);
+        pool.release(c);
+
+        // The oldest buffer has been evicted
+        byte[] first = pool.acquire(10);
+        byte[] second = pool.acquire(10);
+        assertTrue(first == b || first == c);
+        assertTrue(second == b || second == c);
+        assertNotSame(first, second);
+        byte[] third = pool.acquire(10);
+        assertNotSame(a, third);
+    }
+
+    @Test
+    public void release_doesNotPoolOversizedBuffers() {
+        BufferPool pool = new BufferPool(2, 1024);
+        byte[] buffer = pool.acquire(2048);
+        assertEquals(2048, buffer.length);
+        pool.release(buffer);
+        assertNotSame(buffer, pool.acquire(2048));
+    }
+
+    @Test
+    public void discard_doesNotPoolBuffer() {
+        BufferPool pool = new BufferPool(2, 1024);
+        byte[] buffer = pool.acquire(10);
+        pool.discard(buffer);
+        assertNotSame(buffer, pool.acquire(10));
+    }
+
+    @Test
+    public void leakDetection_reportsUnreleasedBuffers() throws InterruptedException {
+        BufferPool pool = new BufferPool(2, 1024);
+        pool.setLeakDetectionEnabled(true);
+        pool.release(pool.acquire(10));
+        pool.discard(pool.acquire(10));
+        assertEquals(0, pool.getLeakCount());
+
+        pool.acquire(10);
+        for (int i = 0; i < 50 && pool.getLeakCount() == 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(1, pool.getLeakCount());
+    }
+}
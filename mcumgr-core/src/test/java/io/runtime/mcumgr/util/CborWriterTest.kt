@@ -0,0 +1,48 @@
+package io.runtime.mcumgr.util
+
+import io.runtime.mcumgr.McuManager
+import io.runtime.mcumgr.McuMgrHeader
+import io.runtime.mcumgr.McuMgrScheme
+import org.junit.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class CborWriterTest {
+
+    @Test
+    fun `write value matches jackson success`() {
+        val values = listOf(
+            null, true, 0, 23, 24, -1, -25, 65_536, Long.MAX_VALUE, Long.MIN_VALUE,
+            "", "ascii", "ünïcødé", "\uD83D\uDE00 emoji",
+            byteArrayOf(1, 2, 3),
+            listOf(1, "two", null), arrayOf<Any>(1, 2)
+        )
+        for (value in values) {
+            val size = CborWriter.sizeOfValue(value)
+            val out = ByteArray(size)
+            assertEquals(size, CborWriter.writeValue(out, 0, value))
+            // Jackson writes arrays with indefinite length, compare decoded values instead
+            assertEquals(CBOR.toString(CBOR.toBytes(value)), CBOR.toString(out))
+        }
+    }
+
+    @Test
+    fun `unsupported value returns minus one`() {
+        assertEquals(-1, CborWriter.sizeOfValue(1.5))
+        assertEquals(-1, CborWriter.sizeOfValue(mapOf("a" to listOf(Any()))))
+    }
+
+    @Test
+    fun `build packet uses definite length map success`() {
+        val payload = linkedMapOf<String, Any?>(
+            "name" to "file", "off" to 100, "nested" to mapOf("a" to 1), "pi" to 3.14
+        )
+        val packet = McuManager.buildPacket(McuMgrScheme.BLE, 2, 0, 8, 0, 0, payload)
+        val header = McuMgrHeader.fromBytes(packet)
+        assertEquals(packet.size - 8, header.len)
+        // map(4), definite length
+        assertEquals(0xA4.toByte(), packet[8])
+        assertTrue(packet.none { it == 0xBF.toByte() })
+        assertEquals(CBOR.toString(CBOR.toBytes(payload)), CBOR.toString(packet, 8))
+    }
+}
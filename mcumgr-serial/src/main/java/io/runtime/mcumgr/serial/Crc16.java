@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) Intellinium SAS, 2014-present
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.runtime.mcumgr.serial;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * CRC-16/XMODEM (polynomial 0x1021, initial value 0, no reflection), the checksum of SMP serial
+ * frames. The CRC is table driven and may be updated incrementally.
+ * <p>
+ * Appending the CRC to the data, most significant byte first, gives data whose CRC is 0.
+ */
+final class Crc16 {
+
+    private final static int[] TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+            TABLE[i] = crc & 0xFFFF;
+        }
+    }
+
+    private Crc16() {
+    }
+
+    static int update(int crc, int b) {
+        return ((crc << 8) ^ TABLE[((crc >> 8) ^ b) & 0xFF]) & 0xFFFF;
+    }
+
+    static int update(int crc, @NotNull byte[] data, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            crc = ((crc << 8) ^ TABLE[((crc >> 8) ^ data[i]) & 0xFF]) & 0xFFFF;
+        }
+        return crc;
+    }
+}
@@ -0,0 +1,567 @@
+/*
+ * Copyright (c) Intellinium SAS, 2014-present
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.runtime.mcumgr.serial;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import io.runtime.mcumgr.McuMgrCallback;
+import io.runtime.mcumgr.McuMgrHeader;
+import io.runtime.mcumgr.McuMgrScheme;
+import io.runtime.mcumgr.McuMgrTransport;
+import io.runtime.mcumgr.exception.McuMgrException;
+import io.runtime.mcumgr.exception.McuMgrTimeoutException;
+import io.runtime.mcumgr.response.McuMgrResponse;
+import io.runtime.mcumgr.util.CallbackExecutors;
+
+/**
+ * The McuMgrSerialTransport is an implementation for the {@link McuMgrScheme#SERIAL} transport
+ * scheme, using the SMP console framing of Zephyr and Mynewt: each packet is sent as base64
+ * encoded lines with a CRC16, see {@link SmpSerialEncoder}. Console output of the device received
+ * between frames is ignored.
+ * <p>
+ * The transport runs over any pair of streams, or a serial device file, for example of a USB-CDC
+ * or pty device. The streams are opened by the caller, or by the transport for a device file, and
+ * closed by {@link #release()}, after which the transport may not be used anymore.
+ * <p>
+ * The SMP server on the device handles one request at a time, so requests are queued and written
+ * one after another by a single writer thread. The transport sets the sequence number of each
+ * request in the frame it writes, the packets passed to {@code send} are not modified. A reader
+ * thread decodes the frames as they are
+ * received, without copying. Responses are decoded on the decode executor and the
+ * {@link McuMgrCallback}s are called on the callback executor, which by default is the decode
+ * executor itself.
+ * <p>
+ * The transport uses no Android APIs and may be used on any JVM.
+ */
+@SuppressWarnings("unused")
+public class McuMgrSerialTransport implements McuMgrTransport,
+        McuMgrTransport.CallbackExecutorSupport {
+
+    private final static Logger LOG = LoggerFactory.getLogger(McuMgrSerialTransport.class);
+
+    /** The default time to wait for a response. */
+    public final static int DEFAULT_TIMEOUT = 5000;
+
+    /**
+     * The executor decoding responses by default, a single daemon thread shared by all
+     * transports.
+     */
+    private final static ExecutorService DEFAULT_DECODE_EXECUTOR =
+            Executors.newSingleThreadExecutor(new DaemonThreadFactory("McuMgrSerialDecoder"));
+
+    private final static class DaemonThreadFactory implements ThreadFactory {
+        @NotNull
+        private final String mName;
+
+        DaemonThreadFactory(@NotNull String name) {
+            mName = name;
+        }
+
+        @Override
+        public Thread newThread(@NotNull Runnable runnable) {
+            Thread thread = new Thread(runnable, mName);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * A request waiting for, or being sent and waiting for its response.
+     */
+    private final static class Request {
+        @NotNull
+        final byte[] packet;
+        @NotNull
+        final Transaction transaction;
+        int sequenceNumber;
+        @Nullable
+        ScheduledFuture<?> timeout;
+
+        Request(@NotNull byte[] packet, @NotNull Transaction transaction) {
+            this.packet = packet;
+            this.transaction = transaction;
+        }
+    }
+
+    private interface Transaction {
+        void onResponse(@NotNull byte[] packet);
+
+        void onFailure(@NotNull McuMgrException e);
+    }
+
+    @NotNull
+    private final InputStream mInput;
+    @NotNull
+    private final OutputStream mOutput;
+    @NotNull
+    private final Executor mDecodeExecutor;
+    @NotNull
+    private volatile Executor mCallbackExecutor;
+
+    private volatile int mTimeout = DEFAULT_TIMEOUT;
+
+    /** Writes the requests and handles the timeouts, accessing the request state below. */
+    @NotNull
+    private final ScheduledExecutorService mWriter =
+            Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("McuMgrSerialWriter"));
+    @NotNull
+    private final SmpSerialEncoder mEncoder = new SmpSerialEncoder();
+    @NotNull
+    private final ArrayDeque<Request> mQueue = new ArrayDeque<>();
+    @Nullable
+    private Request mCurrent;
+    private int mSequenceNumber;
+
+    @Nullable
+    private Thread mReader;
+    private volatile boolean mReleased;
+
+    private final List<ConnectionObserver> mConnectionObservers = new CopyOnWriteArrayList<>();
+
+    /**
+     * Construct a McuMgrSerialTransport object running over the given streams.
+     *
+     * @param input  the stream to read responses from.
+     * @param output the stream to write requests to.
+     */
+    public McuMgrSerialTransport(@NotNull InputStream input, @NotNull OutputStream output) {
+        this(input, output, DEFAULT_DECODE_EXECUTOR, CallbackExecutors.direct());
+    }
+
+    /**
+     * Construct a McuMgrSerialTransport object running over the given serial device, for example
+     * a USB-CDC or pty device, whose line settings have been configured by the caller.
+     * <p>
+     * The device is opened twice, for reading and for writing, so that the pending read of the
+     * reader thread never blocks a write. A single channel can't be used for both, as its reads
+     * and writes hold the same lock.
+     *
+     * @param device the serial device.
+     * @throws FileNotFoundException if the device could not be opened.
+     */
+    public McuMgrSerialTransport(@NotNull File device) throws FileNotFoundException {
+        this(new FileInputStream(device).getChannel(), device);
+    }
+
+    /*
+     * Reads through the channel, which, unlike the stream, may be closed while a read is
+     * pending, releasing the reader thread.
+     */
+    private McuMgrSerialTransport(@NotNull FileChannel input, @NotNull File device)
+            throws FileNotFoundException {
+        this(Channels.newInputStream(input), openOutput(device, input));
+    }
+
+    /**
+     * Construct a McuMgrSerialTransport object with an executor decoding the responses and an
+     * executor to run the asynchronous callbacks. The decode executor should run tasks in order,
+     * one at a time, so that responses are delivered in order.
+     *
+     * @param input            the stream to read responses from.
+     * @param output           the stream to write requests to.
+     * @param decodeExecutor   the executor decoding responses.
+     * @param callbackExecutor the executor to run the {@link McuMgrCallback}s.
+     */
+    public McuMgrSerialTransport(@NotNull InputStream input, @NotNull OutputStream output,
+                                 @NotNull Executor decodeExecutor,
+                                 @NotNull Executor callbackExecutor) {
+        mInput = input;
+        mOutput = output;
+        mDecodeExecutor = decodeExecutor;
+        mCallbackExecutor = callbackExecutor;
+    }
+
+    @NotNull
+    private static OutputStream openOutput(@NotNull File device, @NotNull FileChannel input)
+            throws FileNotFoundException {
+        try {
+            return new FileOutputStream(device);
+        } catch (FileNotFoundException e) {
+            try {
+                input.close();
+            } catch (IOException closeError) {
+                LOG.warn("Closing input failed", closeError);
+            }
+            throw e;
+        }
+    }
+
+    @NotNull
+    @Override
+    public McuMgrScheme getScheme() {
+        return McuMgrScheme.SERIAL;
+    }
+
+    /**
+     * Sets the time to wait for the response to a request, counted from when it has been written.
+     *
+     * @param timeout the timeout, in milliseconds.
+     */
+    public void setTimeout(int timeout) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Invalid timeout");
+        }
+        mTimeout = timeout;
+    }
+
+    @Override
+    public void setCallbackExecutor(@NotNull Executor executor) {
+        mCallbackExecutor = executor;
+    }
+
+    //*******************************************************************************************
+    // Requests
+    //*******************************************************************************************
+
+    @NotNull
+    @Override
+    public <T extends McuMgrResponse> T send(@NotNull byte[] payload,
+                                            @NotNull Class<T> responseType)
+            throws McuMgrException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Object[] result = new Object[1];
+        send(payload, responseType, new McuMgrCallback<T>() {
+            @Override
+            public void onResponse(@NotNull T response) {
+                result[0] = response;
+                latch.countDown();
+            }
+
+            @Override
+            public void onError(@NotNull McuMgrException error) {
+                result[0] = error;
+                latch.countDown();
+            }
+        });
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new McuMgrException(e);
+        }
+        if (result[0] instanceof McuMgrException) {
+            throw (McuMgrException) result[0];
+        }
+        return responseType.cast(result[0]);
+    }
+
+    @Override
+    public <T extends McuMgrResponse> void send(@NotNull final byte[] payload,
+                                                @NotNull final Class<T> responseType,
+                                                @NotNull final McuMgrCallback<T> callback) {
+        if (payload.length < McuMgrHeader.HEADER_LENGTH) {
+            onError(new McuMgrException("Invalid packet"), callback);
+            return;
+        }
+        if (!open()) {
+            onError(new McuMgrException("Transport released"), callback);
+            return;
+        }
+
+        final Request request = new Request(payload, new Transaction() {
+            @Override
+            public void onResponse(@NotNull final byte[] packet) {
+                // Decoded off the reader thread
+                mDecodeExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        final T response;
+                        try {
+                            response = McuMgrResponse.buildResponse(McuMgrScheme.SERIAL,
+                                    packet, responseType);
+                        } catch (Exception e) {
+                            deliverError(new McuMgrException(e), callback);
+                            return;
+                        }
+                        mCallbackExecutor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                callback.onResponse(response);
+                            }
+                        });
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(@NotNull McuMgrException e) {
+                onError(e, callback);
+            }
+        });
+        try {
+            mWriter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (mReleased) {
+                        request.transaction.onFailure(new McuMgrException("Transport released"));
+                        return;
+                    }
+                    mQueue.add(request);
+                    if (mCurrent == null) {
+                        writeNext();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The transport has been released after the check above
+            onError(new McuMgrException("Transport released"), callback);
+        }
+    }
+
+    /*
+     * Writes the next queued request. Called on the writer thread when no request is in flight.
+     * Once the transport has been released, the queued requests are failed by the release task.
+     */
+    private void writeNext() {
+        if (mReleased) {
+            return;
+        }
+        final Request request = mQueue.poll();
+        if (request == null) {
+            return;
+        }
+        mCurrent = request;
+        request.sequenceNumber = mSequenceNumber;
+        mSequenceNumber = (mSequenceNumber + 1) & 0xFF;
+        try {
+            mEncoder.encode(request.packet, request.sequenceNumber, mOutput);
+        } catch (IOException e) {
+            LOG.error("Writing request failed", e);
+            complete(request).transaction.onFailure(new McuMgrException(e));
+            return;
+        }
+        try {
+            request.timeout = mWriter.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (mCurrent == request) {
+                        LOG.warn("Request timed out");
+                        complete(request).transaction.onFailure(new McuMgrTimeoutException());
+                    }
+                }
+            }, mTimeout, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Released while writing, the release task fails the request
+        }
+    }
+
+    /*
+     * Completes the request in flight and writes the next one. Called on the writer thread.
+     */
+    @NotNull
+    private Request complete(@NotNull Request request) {
+        if (request.timeout != null) {
+            request.timeout.cancel(false);
+        }
+        mCurrent = null;
+        writeNext();
+        return request;
+    }
+
+    /*
+     * Called on the reader thread with each received packet.
+     */
+    private void onPacket(@NotNull final byte[] packet) {
+        if (mReleased) {
+            return;
+        }
+        try {
+            mWriter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Request request = mCurrent;
+                    if (request == null || packet.length < McuMgrHeader.HEADER_LENGTH
+                            || McuMgrHeader.readSequenceNum(packet, 0) != request.sequenceNumber) {
+                        LOG.warn("Unexpected response dropped");
+                        return;
+                    }
+                    complete(request).transaction.onResponse(packet);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Released in the meantime, the request in flight has been failed
+        }
+    }
+
+    /*
+     * Delivers the error through the decode executor, keeping the writer thread free and the
+     * order of results.
+     */
+    private void onError(@NotNull final McuMgrException error,
+                         @NotNull final McuMgrCallback<?> callback) {
+        mDecodeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                deliverError(error, callback);
+            }
+        });
+    }
+
+    private void deliverError(@NotNull final McuMgrException error,
+                              @NotNull final McuMgrCallback<?> callback) {
+        mCallbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onError(error);
+            }
+        });
+    }
+
+    //*******************************************************************************************
+    // Connection
+    //*******************************************************************************************
+
+    @Override
+    public void connect(@Nullable ConnectionCallback callback) {
+        if (open()) {
+            if (callback != null) {
+                callback.onConnected();
+            }
+        } else if (callback != null) {
+            callback.onError(new IOException("Transport released"));
+        }
+    }
+
+    @Override
+    public void release() {
+        synchronized (this) {
+            if (mReleased) {
+                return;
+            }
+            mReleased = true;
+        }
+        try {
+            mInput.close();
+        } catch (IOException e) {
+            LOG.warn("Closing input failed", e);
+        }
+        try {
+            mOutput.close();
+        } catch (IOException e) {
+            LOG.warn("Closing output failed", e);
+        }
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                McuMgrException error = new McuMgrException("Transport released");
+                Request request = mCurrent;
+                mCurrent = null;
+                if (request != null) {
+                    if (request.timeout != null) {
+                        request.timeout.cancel(false);
+                    }
+                    request.transaction.onFailure(error);
+                }
+                while ((request = mQueue.poll()) != null) {
+                    request.transaction.onFailure(error);
+                }
+            }
+        });
+        mWriter.shutdown();
+        notifyDisconnected();
+    }
+
+    /*
+     * Starts the reader thread, if needed. Returns false if the transport has been released.
+     */
+    private boolean open() {
+        synchronized (this) {
+            if (mReleased) {
+                return false;
+            }
+            if (mReader != null) {
+                return true;
+            }
+            mReader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    read();
+                }
+            }, "McuMgrSerialReader");
+            mReader.setDaemon(true);
+            mReader.start();
+        }
+        notifyConnected();
+        return true;
+    }
+
+    /*
+     * Reads from the input stream until it is closed.
+     */
+    private void read() {
+        SmpSerialDecoder decoder = new SmpSerialDecoder(new SmpSerialDecoder.PacketListener() {
+            @Override
+            public void onPacket(@NotNull byte[] packet) {
+                McuMgrSerialTransport.this.onPacket(packet);
+            }
+        });
+        byte[] buffer = new byte[SmpSerialEncoder.MAX_LINE_LENGTH * 4];
+        try {
+            int length;
+            while ((length = mInput.read(buffer)) != -1) {
+                decoder.accept(buffer, 0, length);
+            }
+            LOG.info("Serial input closed");
+        } catch (IOException e) {
+            if (!mReleased) {
+                LOG.error("Reading from serial input failed", e);
+            }
+        }
+        release();
+    }
+
+    //*******************************************************************************************
+    // Manager Connection Observers
+    //*******************************************************************************************
+
+    @Override
+    public void addObserver(@NotNull ConnectionObserver observer) {
+        mConnectionObservers.add(observer);
+    }
+
+    @Override
+    public void removeObserver(@NotNull ConnectionObserver observer) {
+        mConnectionObservers.remove(observer);
+    }
+
+    private void notifyConnected() {
+        for (ConnectionObserver o : mConnectionObservers) {
+            o.onConnected();
+        }
+    }
+
+    private void notifyDisconnected() {
+        for (ConnectionObserver o : mConnectionObservers) {
+            o.onDisconnected();
+        }
+    }
+}
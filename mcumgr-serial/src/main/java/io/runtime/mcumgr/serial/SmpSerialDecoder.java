@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) Intellinium SAS, 2014-present
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.runtime.mcumgr.serial;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.runtime.mcumgr.McuMgrHeader;
+
+/**
+ * Decodes SMP packets from serial frames, see {@link SmpSerialEncoder}.
+ * <p>
+ * The decoder is a streaming state machine: bytes may be passed in chunks of any size, base64 is
+ * decoded one quantum at a time and the CRC is updated as the packet is filled in place. The
+ * packet array is allocated once, with the length from the frame. Lines which are not SMP frames,
+ * like console output, are skipped. Frames with an invalid length, base64 encoding or CRC are
+ * dropped. This class is not thread safe.
+ */
+class SmpSerialDecoder {
+    private final static Logger LOG = LoggerFactory.getLogger(SmpSerialDecoder.class);
+
+    /** The maximum length of the packet and CRC, limited by the 16-bit length field. */
+    private final static int MAX_LENGTH = 0xFFFF;
+
+    interface PacketListener {
+        /**
+         * Called with each received packet, without the CRC. The packet is owned by the listener.
+         */
+        void onPacket(@NotNull byte[] packet);
+    }
+
+    // Line states
+    private final static int LINE_START = 0;
+    private final static int FIRST_MARKER = 1;
+    private final static int NEXT_MARKER = 2;
+    private final static int DATA = 3;
+    private final static int SKIP = 4;
+
+    private final static byte[] DECODE = new byte[128];
+
+    static {
+        for (int i = 0; i < DECODE.length; i++) {
+            DECODE[i] = -1;
+        }
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            DECODE[alphabet.charAt(i)] = (byte) i;
+        }
+    }
+
+    @NotNull
+    private final PacketListener mListener;
+
+    private int mState = LINE_START;
+
+    // Base64 quantum
+    private int mQuantum;
+    private int mQuantumLength;
+    private int mPadding;
+
+    // Frame
+    private boolean mInFrame;
+    private int mLength = -1;
+    private int mLengthBytes;
+    @Nullable
+    private byte[] mPacket;
+    private int mPosition;
+    private int mCrcBytes;
+    private int mCrc;
+
+    SmpSerialDecoder(@NotNull PacketListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Drops the frame being decoded.
+     */
+    void reset() {
+        mState = LINE_START;
+        resetFrame();
+    }
+
+    /**
+     * Decodes the received bytes.
+     */
+    void accept(@NotNull byte[] data, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            accept(data[i]);
+        }
+    }
+
+    private void accept(byte b) {
+        if (b == '\n') {
+            if (mState == DATA && mQuantumLength != 0) {
+                LOG.warn("Incomplete base64 line, dropping frame");
+                resetFrame();
+            }
+            mState = LINE_START;
+            return;
+        }
+        switch (mState) {
+            case LINE_START:
+                if (b == SmpSerialEncoder.FIRST_LINE_1) {
+                    mState = FIRST_MARKER;
+                } else if (b == SmpSerialEncoder.NEXT_LINE_1 && mInFrame) {
+                    mState = NEXT_MARKER;
+                } else {
+                    mState = SKIP;
+                }
+                break;
+            case FIRST_MARKER:
+                if (b == SmpSerialEncoder.FIRST_LINE_2) {
+                    // A new frame starts, dropping an incomplete one
+                    if (mInFrame) {
+                        LOG.warn("Incomplete frame dropped");
+                    }
+                    resetFrame();
+                    mInFrame = true;
+                    mState = DATA;
+                } else {
+                    mState = SKIP;
+                }
+                break;
+            case NEXT_MARKER:
+                mState = b == SmpSerialEncoder.NEXT_LINE_2 ? DATA : SKIP;
+                break;
+            case DATA:
+                decode(b);
+                break;
+            default:
+                // Skip the rest of the line
+                break;
+        }
+    }
+
+    private void decode(byte b) {
+        if (b == '\r') {
+            return;
+        }
+        int value;
+        if (b == '=') {
+            value = 0;
+            mPadding++;
+        } else {
+            value = b >= 0 ? DECODE[b] : -1;
+            if (value < 0 || mPadding > 0) {
+                LOG.warn("Invalid base64 character, dropping frame");
+                dropFrame();
+                return;
+            }
+        }
+        mQuantum = (mQuantum << 6) | value;
+        if (++mQuantumLength < 4) {
+            return;
+        }
+        int quantum = mQuantum;
+        int bytes = 3 - mPadding;
+        mQuantum = 0;
+        mQuantumLength = 0;
+        mPadding = 0;
+        for (int i = 0; i < bytes && mInFrame; i++) {
+            onByte((quantum >> (16 - 8 * i)) & 0xFF);
+        }
+    }
+
+    private void onByte(int b) {
+        // The length of the packet and CRC
+        if (mLengthBytes < 2) {
+            mLength = (mLength << 8 | b) & 0xFFFF;
+            if (++mLengthBytes == 2) {
+                if (mLength < McuMgrHeader.HEADER_LENGTH + 2 || mLength > MAX_LENGTH) {
+                    LOG.warn("Invalid frame length {}, dropping frame", mLength);
+                    dropFrame();
+                    return;
+                }
+                mPacket = new byte[mLength - 2];
+            }
+            return;
+        }
+
+        mCrc = Crc16.update(mCrc, b);
+        byte[] packet = mPacket;
+        if (mPosition < packet.length) {
+            packet[mPosition++] = (byte) b;
+            return;
+        }
+        if (++mCrcBytes < 2) {
+            return;
+        }
+        int crc = mCrc;
+        resetFrame();
+        if (crc != 0) {
+            LOG.warn("Invalid frame CRC, dropping frame");
+            return;
+        }
+        mListener.onPacket(packet);
+    }
+
+    private void dropFrame() {
+        resetFrame();
+        mState = SKIP;
+    }
+
+    private void resetFrame() {
+        mInFrame = false;
+        mQuantum = 0;
+        mQuantumLength = 0;
+        mPadding = 0;
+        mLength = 0;
+        mLengthBytes = 0;
+        mPacket = null;
+        mPosition = 0;
+        mCrcBytes = 0;
+        mCrc = 0;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) Intellinium SAS, 2014-present
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.runtime.mcumgr.serial;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes SMP packets into serial frames.
+ * <p>
+ * A frame consists of the 2-byte length of the packet and CRC, the packet and its CRC16, all
+ * big-endian, encoded in base64 and split into lines of at most 127 bytes. The first line starts
+ * with 0x06 0x09, the following ones with 0x04 0x14, and each line ends with a newline.
+ * <p>
+ * The frame is encoded in a single pass: the base64 characters are written directly into a
+ * reused line buffer while the CRC is calculated, so no intermediate arrays are allocated. This
+ * class is not thread safe.
+ */
+class SmpSerialEncoder {
+
+    /** The maximum length of a line, including the start marker and the newline. */
+    final static int MAX_LINE_LENGTH = 127;
+
+    final static byte FIRST_LINE_1 = 0x06;
+    final static byte FIRST_LINE_2 = 0x09;
+    final static byte NEXT_LINE_1 = 0x04;
+    final static byte NEXT_LINE_2 = 0x14;
+
+    /**
+     * The base64 characters in a line, a multiple of 4, so that each line contains whole
+     * base64 quanta.
+     */
+    private final static int LINE_DATA_LENGTH = (MAX_LINE_LENGTH - 3) / 4 * 4;
+
+    /** The offset of the sequence number in the SMP header. */
+    private final static int SEQUENCE_NUMBER_OFFSET = 6;
+    /** Keeps the sequence number of the packet. */
+    private final static int KEEP_SEQUENCE_NUMBER = -1;
+
+    private final static byte[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes();
+
+    private final byte[] mLine = new byte[MAX_LINE_LENGTH];
+
+    /**
+     * Encodes the packet and writes the frame to the stream, one line at a time.
+     *
+     * @param packet the SMP packet.
+     * @param out    the stream to write the frame to.
+     * @throws IOException if writing to the stream failed.
+     */
+    void encode(@NotNull byte[] packet, @NotNull OutputStream out) throws IOException {
+        encode(packet, KEEP_SEQUENCE_NUMBER, out);
+    }
+
+    /**
+     * Encodes the packet with the given sequence number in its header, instead of the one in the
+     * packet, and writes the frame to the stream. The packet is not modified.
+     *
+     * @param packet         the SMP packet, including the header.
+     * @param sequenceNumber the sequence number, 0-255.
+     * @param out            the stream to write the frame to.
+     * @throws IOException if writing to the stream failed.
+     */
+    void encode(@NotNull byte[] packet, int sequenceNumber, @NotNull OutputStream out)
+            throws IOException {
+        int crc;
+        if (sequenceNumber == KEEP_SEQUENCE_NUMBER) {
+            crc = Crc16.update(0, packet, 0, packet.length);
+        } else {
+            crc = Crc16.update(0, packet, 0, SEQUENCE_NUMBER_OFFSET);
+            crc = Crc16.update(crc, sequenceNumber);
+            crc = Crc16.update(crc, packet, SEQUENCE_NUMBER_OFFSET + 1,
+                    packet.length - SEQUENCE_NUMBER_OFFSET - 1);
+        }
+        int length = packet.length + 2;
+        // The length field, the packet and the CRC
+        int total = packet.length + 4;
+
+        mLine[0] = FIRST_LINE_1;
+        mLine[1] = FIRST_LINE_2;
+        int position = 2;
+        for (int i = 0; i < total; i += 3) {
+            if (position == LINE_DATA_LENGTH + 2) {
+                mLine[position++] = '\n';
+                out.write(mLine, 0, position);
+                mLine[0] = NEXT_LINE_1;
+                mLine[1] = NEXT_LINE_2;
+                position = 2;
+            }
+            int n = Math.min(3, total - i);
+            int b0 = byteAt(packet, sequenceNumber, length, crc, i);
+            int b1 = n > 1 ? byteAt(packet, sequenceNumber, length, crc, i + 1) : 0;
+            int b2 = n > 2 ? byteAt(packet, sequenceNumber, length, crc, i + 2) : 0;
+            mLine[position++] = ALPHABET[b0 >> 2];
+            mLine[position++] = ALPHABET[((b0 & 0x03) << 4) | (b1 >> 4)];
+            mLine[position++] = n > 1 ? ALPHABET[((b1 & 0x0F) << 2) | (b2 >> 6)] : (byte) '=';
+            mLine[position++] = n > 2 ? ALPHABET[b2 & 0x3F] : (byte) '=';
+        }
+        mLine[position++] = '\n';
+        out.write(mLine, 0, position);
+        out.flush();
+    }
+
+    /*
+     * Returns the byte of the frame at the given index, before base64 encoding.
+     */
+    private static int byteAt(@NotNull byte[] packet, int sequenceNumber, int length, int crc,
+                              int index) {
+        if (index == 0) {
+            return (length >> 8) & 0xFF;
+        }
+        if (index == 1) {
+            return length & 0xFF;
+        }
+        index -= 2;
+        if (index == SEQUENCE_NUMBER_OFFSET && sequenceNumber != KEEP_SEQUENCE_NUMBER) {
+            return sequenceNumber;
+        }
+        if (index < packet.length) {
+            return packet[index] & 0xFF;
+        }
+        return index == packet.length ? (crc >> 8) & 0xFF : crc & 0xFF;
+    }
+}
@@ -0,0 +1,191 @@
+package io.runtime.mcumgr.serial
+
+import io.runtime.mcumgr.McuManager
+import io.runtime.mcumgr.McuMgrCallback
+import io.runtime.mcumgr.McuMgrHeader
+import io.runtime.mcumgr.McuMgrScheme
+import io.runtime.mcumgr.exception.McuMgrException
+import io.runtime.mcumgr.exception.McuMgrTimeoutException
+import io.runtime.mcumgr.response.McuMgrResponse
+import io.runtime.mcumgr.response.dflt.McuMgrEchoResponse
+import io.runtime.mcumgr.util.CBOR
+import org.junit.After
+import org.junit.Assume.assumeTrue
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.io.PipedInputStream
+import java.io.PipedOutputStream
+import java.io.RandomAccessFile
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.concurrent.thread
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertTrue
+
+class McuMgrSerialTransportTest {
+
+    /**
+     * A device echoing the "d" value of requests as "r", with console output between frames.
+     */
+    private class EchoDevice(val input: PipedInputStream, val output: PipedOutputStream) {
+        /** The number of requests to ignore. */
+        val drop = AtomicInteger()
+
+        init {
+            val encoder = SmpSerialEncoder()
+            val decoder = SmpSerialDecoder(SmpSerialDecoder.PacketListener { request ->
+                if (drop.getAndDecrement() > 0) {
+                    return@PacketListener
+                }
+                val header = McuMgrHeader.fromBytes(request)
+                val echo = CBOR.getString(request.copyOfRange(8, request.size), "d")
+                val response = McuManager.buildPacket(
+                    McuMgrScheme.SERIAL, 3, 0, header.groupId, header.sequenceNum,
+                    header.commandId, mapOf("r" to echo)
+                )
+                output.write("<inf> smp: request handled\r\n".toByteArray())
+                encoder.encode(response, output)
+            })
+            thread(isDaemon = true) {
+                val buffer = ByteArray(64)
+                try {
+                    while (true) {
+                        val length = input.read(buffer)
+                        if (length == -1) break
+                        decoder.accept(buffer, 0, length)
+                    }
+                } catch (e: Exception) {
+                    // Closed
+                }
+            }
+        }
+    }
+
+    private lateinit var device: EchoDevice
+    private lateinit var transport: McuMgrSerialTransport
+
+    @Before
+    fun setUp() {
+        val toDevice = PipedOutputStream()
+        val fromDevice = PipedInputStream(4096)
+        device = EchoDevice(PipedInputStream(toDevice, 4096), PipedOutputStream(fromDevice))
+        transport = McuMgrSerialTransport(fromDevice, toDevice)
+    }
+
+    @After
+    fun tearDown() {
+        transport.release()
+    }
+
+    private fun echoRequest(echo: String) =
+        McuManager.buildPacket(McuMgrScheme.SERIAL, 2, 0, 0, 0, 0, mapOf("d" to echo))
+
+    @Test
+    fun `send and receive`() {
+        val response = transport.send(echoRequest("Hello!"), McuMgrEchoResponse::class.java)
+        assertEquals("Hello!", response.r)
+    }
+
+    @Test
+    fun `long packet spanning many lines`() {
+        val echo = "x".repeat(2000)
+        val response = transport.send(echoRequest(echo), McuMgrEchoResponse::class.java)
+        assertEquals(echo, response.r)
+    }
+
+    @Test
+    fun `request packet is not modified`() {
+        val request = echoRequest("Hello!")
+        val original = request.copyOf()
+        repeat(2) {
+            assertEquals("Hello!", transport.send(request, McuMgrEchoResponse::class.java).r)
+        }
+        assertEquals(original.toList(), request.toList())
+    }
+
+    @Test
+    fun `queued requests are answered in order`() {
+        val count = 300
+        val latch = CountDownLatch(count)
+        val failures = AtomicInteger()
+        repeat(count) { i ->
+            transport.send(echoRequest("echo $i"), McuMgrEchoResponse::class.java,
+                object : McuMgrCallback<McuMgrEchoResponse> {
+                    override fun onResponse(response: McuMgrEchoResponse) {
+                        if (response.r != "echo $i") failures.incrementAndGet()
+                        latch.countDown()
+                    }
+
+                    override fun onError(error: McuMgrException) {
+                        failures.incrementAndGet()
+                        latch.countDown()
+                    }
+                })
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS))
+        assertEquals(0, failures.get())
+    }
+
+    @Test
+    fun `request times out and the next one is sent`() {
+        transport.setTimeout(100)
+        device.drop.set(1)
+        assertFailsWith<McuMgrTimeoutException> {
+            transport.send(echoRequest("lost"), McuMgrEchoResponse::class.java)
+        }
+        val response = transport.send(echoRequest("Hello!"), McuMgrEchoResponse::class.java)
+        assertEquals("Hello!", response.r)
+    }
+
+    @Test
+    fun `release fails pending requests`() {
+        device.drop.set(Int.MAX_VALUE)
+        val failure = arrayOfNulls<McuMgrException>(1)
+        val latch = CountDownLatch(1)
+        transport.send(echoRequest("Hello!"), McuMgrEchoResponse::class.java,
+            object : McuMgrCallback<McuMgrEchoResponse> {
+                override fun onResponse(response: McuMgrEchoResponse) = latch.countDown()
+
+                override fun onError(error: McuMgrException) {
+                    failure[0] = error
+                    latch.countDown()
+                }
+            })
+        transport.release()
+        assertTrue(latch.await(5, TimeUnit.SECONDS))
+        assertEquals("Transport released", failure[0]?.message)
+    }
+
+    @Test
+    fun `device file, pending read does not block writes`() {
+        val fifo = File.createTempFile("smp", ".fifo")
+        fifo.delete()
+        val created = try {
+            ProcessBuilder("mkfifo", fifo.path).start().waitFor() == 0
+        } catch (e: Exception) {
+            false
+        }
+        assumeTrue("mkfifo is not available", created)
+        // Keeps both ends of the FIFO open, so that opening one end doesn't block
+        val keeper = RandomAccessFile(fifo, "rw")
+        try {
+            // The FIFO loops requests back, each one is received as its own response. Every
+            // request is written while the reader thread waits for data.
+            val loopback = McuMgrSerialTransport(fifo)
+            try {
+                repeat(3) { i ->
+                    val response = loopback.send(echoRequest("Hello!"), McuMgrResponse::class.java)
+                    assertEquals(i, response.header?.sequenceNum)
+                }
+            } finally {
+                loopback.release()
+            }
+        } finally {
+            keeper.close()
+            fifo.delete()
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package io.runtime.mcumgr.serial
+
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+import java.util.Base64
+import kotlin.random.Random
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class SmpSerialFramingTest {
+
+    private fun encode(packet: ByteArray): ByteArray {
+        val out = ByteArrayOutputStream()
+        SmpSerialEncoder().encode(packet, out)
+        return out.toByteArray()
+    }
+
+    private fun decode(data: ByteArray, chunk: Int = data.size): List<ByteArray> {
+        val packets = mutableListOf<ByteArray>()
+        val decoder = SmpSerialDecoder(SmpSerialDecoder.PacketListener { packets.add(it) })
+        var offset = 0
+        while (offset < data.size) {
+            val length = minOf(chunk, data.size - offset)
+            decoder.accept(data, offset, length)
+            offset += length
+        }
+        return packets
+    }
+
+    private fun lines(frame: ByteArray): List<ByteArray> {
+        val lines = mutableListOf<ByteArray>()
+        var start = 0
+        frame.forEachIndexed { i, b ->
+            if (b == '\n'.toByte()) {
+                lines.add(frame.copyOfRange(start, i + 1))
+                start = i + 1
+            }
+        }
+        return lines
+    }
+
+    @Test
+    fun `crc check value`() {
+        val data = "123456789".toByteArray()
+        assertEquals(0x31C3, Crc16.update(0, data, 0, data.size))
+    }
+
+    @Test
+    fun `frame matches reference encoding`() {
+        val packet = Random(1).nextBytes(40)
+        val crc = Crc16.update(0, packet, 0, packet.size)
+        val content = byteArrayOf(0, 42) + packet + byteArrayOf((crc shr 8).toByte(), crc.toByte())
+        val expected = byteArrayOf(6, 9) + Base64.getEncoder().encode(content) + '\n'.toByte()
+        assertEquals(expected.toList(), encode(packet).toList())
+    }
+
+    @Test
+    fun `sequence number is set in the frame, not in the packet`() {
+        val packet = Random(3).nextBytes(300)
+        val original = packet.copyOf()
+        val out = ByteArrayOutputStream()
+        SmpSerialEncoder().encode(packet, 42, out)
+        val expected = packet.copyOf().also { it[6] = 42 }
+        assertEquals(encode(expected).toList(), out.toByteArray().toList())
+        assertEquals(original.toList(), packet.toList())
+    }
+
+    @Test
+    fun `long frame is split into lines`() {
+        val packet = Random(2).nextBytes(1000)
+        val lines = lines(encode(packet))
+        assertTrue(lines.size > 1)
+        lines.forEachIndexed { i, line ->
+            assertTrue(line.size <= SmpSerialEncoder.MAX_LINE_LENGTH)
+            assertEquals(if (i == 0) 6 else 4, line[0].toInt())
+            assertEquals(if (i == 0) 9 else 0x14, line[1].toInt())
+        }
+        assertEquals(listOf(packet.toList()), decode(encode(packet), chunk = 7).map { it.toList() })
+    }
+
+    @Test
+    fun `console output and corrupted frames are ignored`() {
+        val first = Random(3).nextBytes(300)
+        val second = Random(4).nextBytes(20)
+        val corrupted = encode(Random(5).nextBytes(20))
+        corrupted[10] = if (corrupted[10] == 'A'.toByte()) 'B'.toByte() else 'A'.toByte()
+        val data = "uart:~$ boot\r\n".toByteArray() + encode(first) +
+            "[00:00:01] <inf> log\n".toByteArray() + corrupted + encode(second)
+        val packets = decode(data, chunk = 13)
+        assertEquals(listOf(first.toList(), second.toList()), packets.map { it.toList() })
+    }
+}
@@ -0,0 +1,387 @@
+/*
+ * Copyright (c) Intellinium SAS, 2014-present
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.runtime.mcumgr.udp;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.runtime.mcumgr.exception.McuMgrException;
+
+/**
+ * Exchanges a request and its response with CoAP block-wise transfers (RFC 7959).
+ * <p>
+ * Requests larger than the block size are sent in blocks with the Block1 option. The first block
+ * is sent alone, so that the device may ask for smaller blocks in its 2.31 Continue response.
+ * The following blocks are then pipelined, up to the given number in flight, each one a separate
+ * confirmable message. The last block is sent once all the others have been continued, so that the
+ * device has received the whole request when it handles it.
+ * <p>
+ * Responses sent in blocks with the Block2 option are reassembled: the following blocks are
+ * requested with the Block2 option, pipelined if the device announces the total size with the
+ * Size2 option, one at a time otherwise. If the block size is smaller than the largest one, it is
+ * proposed to the device in the last block of the request.
+ * <p>
+ * Requests and responses which fit in a block are exchanged in a single message. The result is
+ * passed to the transaction as a single response datagram, see
+ * {@link CoapFraming#reassemble(byte[], byte[])}.
+ * <p>
+ * All blocks are sent to the same resource, without a Request-Tag, and the device keeps the
+ * state of one block-wise transfer only. Exchanges which are block-wise are therefore run one at a
+ * time in each session, see {@link UdpSession#startTransfer(Runnable)}: a request larger than the
+ * block size waits before its first block, and a request whose response comes in blocks waits
+ * before requesting the following blocks. Exchanges in a single message in each direction don't
+ * wait and may be in flight together. The blocks of a transfer are still pipelined. All methods
+ * but {@link #start()} are called on the I/O thread of the session, or on the thread finishing
+ * the previous transfer.
+ */
+class CoapBlockTransfer {
+    private final static Logger LOG = LoggerFactory.getLogger(CoapBlockTransfer.class);
+
+    /** The largest block size, 1024 bytes. */
+    final static int MAX_BLOCK_SIZE = 1024;
+
+    private final static int MAX_SZX = 6;
+    private final static int MORE = 0x08;
+
+    @NotNull
+    private final UdpSession mSession;
+    @NotNull
+    private final CoapFraming mFraming;
+    @NotNull
+    private final byte[] mPacket;
+    @NotNull
+    private final UdpSession.Transaction mTransaction;
+    private final int mMaxInFlight;
+    /** The block size exponent proposed for the response, or NO_BLOCK. */
+    private final int mPreferredSzx;
+    private boolean mDone;
+    /** Whether the transfer has been started by the session, and must finish it. */
+    private boolean mTransferStarted;
+
+    // Request blocks
+    private int mBlock1Szx;
+    private int mNextOffset;
+    private int mBlock1InFlight;
+
+    // Response blocks
+    private byte[] mFirstBlock;
+    private int mBlock2Szx;
+    private final List<byte[]> mBlocks = new ArrayList<>();
+    private int mReceived;
+    /** The number of the last block of the response, or NO_BLOCK if not known yet. */
+    private int mLastBlock2 = CoapFraming.NO_BLOCK;
+    private int mNextBlock2;
+    private int mBlock2InFlight;
+
+    /**
+     * @param session     the session.
+     * @param framing     the framing of the blocks.
+     * @param packet      the Mcu Manager packet.
+     * @param blockSize   the block size, a power of two from 16 to 1024, or 0 to send the request
+     *                    in a single message.
+     * @param maxInFlight the maximum number of blocks in flight.
+     * @param transaction the transaction receiving the response.
+     */
+    CoapBlockTransfer(@NotNull UdpSession session, @NotNull CoapFraming framing,
+                      @NotNull byte[] packet, int blockSize, int maxInFlight,
+                      @NotNull UdpSession.Transaction transaction) {
+        mSession = session;
+        mFraming = framing;
+        mPacket = packet;
+        mTransaction = transaction;
+        mMaxInFlight = maxInFlight;
+        if (blockSize > 0) {
+            mBlock1Szx = szx(blockSize);
+            mPreferredSzx = mBlock1Szx < MAX_SZX ? mBlock1Szx : CoapFraming.NO_BLOCK;
+        } else {
+            mBlock1Szx = CoapFraming.NO_BLOCK;
+            mPreferredSzx = CoapFraming.NO_BLOCK;
+        }
+    }
+
+    /**
+     * Returns the block size exponent of the Block1 and Block2 options.
+     *
+     * @throws IllegalArgumentException if the size is not a power of two from 16 to 1024.
+     */
+    static int szx(int blockSize) {
+        for (int szx = 0; szx <= MAX_SZX; szx++) {
+            if (16 << szx == blockSize) {
+                return szx;
+            }
+        }
+        throw new IllegalArgumentException("Invalid block size: " + blockSize);
+    }
+
+    /**
+     * Sends the request. A request sent in blocks is started when the previous block-wise
+     * transfers of the session have finished.
+     */
+    void start() {
+        // A request sent in a single message doesn't wait for other transfers
+        if (mBlock1Szx == CoapFraming.NO_BLOCK || mPacket.length <= 16 << mBlock1Szx) {
+            mNextOffset = mPacket.length;
+            UdpSession.Transaction transaction = new UdpSession.Transaction() {
+                @Override
+                public void onResponse(@NotNull byte[] datagram) {
+                    onFinalResponse(datagram);
+                }
+
+                @Override
+                public void onFailure(@NotNull McuMgrException e) {
+                    fail(e);
+                }
+            };
+            if (mPreferredSzx == CoapFraming.NO_BLOCK) {
+                mSession.send(mPacket, transaction);
+            } else {
+                mSession.send(mFraming, mPacket, 0, mPacket.length, CoapFraming.NO_BLOCK,
+                        mPreferredSzx, transaction);
+            }
+            return;
+        }
+        mTransferStarted = true;
+        mSession.startTransfer(new Runnable() {
+            @Override
+            public void run() {
+                // The first block is sent alone, the device may ask for a smaller block size
+                sendBlock1();
+            }
+        });
+    }
+
+    //******************************************************************
+    // Request
+    //******************************************************************
+
+    private void sendBlock1() {
+        int size = 16 << mBlock1Szx;
+        final int offset = mNextOffset;
+        final int length = Math.min(size, mPacket.length - offset);
+        final boolean last = offset + length == mPacket.length;
+        int block1 = (offset / size) << 4 | (last ? 0 : MORE) | mBlock1Szx;
+        int block2 = last ? mPreferredSzx : CoapFraming.NO_BLOCK;
+        mNextOffset += length;
+        mBlock1InFlight++;
+        mSession.send(mFraming, mPacket, offset, length, block1, block2,
+                new UdpSession.Transaction() {
+                    @Override
+                    public void onResponse(@NotNull byte[] datagram) {
+                        onBlock1Response(offset, last, datagram);
+                    }
+
+                    @Override
+                    public void onFailure(@NotNull McuMgrException e) {
+                        fail(e);
+                    }
+                });
+    }
+
+    private void onBlock1Response(int offset, boolean last, @NotNull byte[] datagram) {
+        if (mDone) {
+            return;
+        }
+        mBlock1InFlight--;
+        if (last || CoapFraming.getCode(datagram) != CoapFraming.CODE_CONTINUE) {
+            // The response, or an error
+            onFinalResponse(datagram);
+            return;
+        }
+        if (offset == 0) {
+            int block1;
+            try {
+                block1 = CoapFraming.getOption(datagram, CoapFraming.OPTION_BLOCK1);
+            } catch (IOException e) {
+                fail(new McuMgrException(e));
+                return;
+            }
+            if (block1 != CoapFraming.NO_BLOCK && (block1 & 0x07) < mBlock1Szx) {
+                LOG.debug("Block size reduced to {} by the device", 16 << (block1 & 0x07));
+                mBlock1Szx = block1 & 0x07;
+            }
+        }
+        int size = 16 << mBlock1Szx;
+        while (mBlock1InFlight < mMaxInFlight && mNextOffset < mPacket.length) {
+            // The last block waits for all the others
+            if (mNextOffset + size >= mPacket.length && mBlock1InFlight > 0) {
+                break;
+            }
+            sendBlock1();
+        }
+    }
+
+    //******************************************************************
+    // Response
+    //******************************************************************
+
+    private void onFinalResponse(@NotNull byte[] datagram) {
+        int block2;
+        int size2;
+        try {
+            block2 = CoapFraming.getOption(datagram, CoapFraming.OPTION_BLOCK2);
+            size2 = CoapFraming.getOption(datagram, CoapFraming.OPTION_SIZE2);
+        } catch (IOException e) {
+            fail(new McuMgrException(e));
+            return;
+        }
+        if (block2 == CoapFraming.NO_BLOCK || (block2 & MORE) == 0 && block2 >> 4 == 0) {
+            complete(datagram);
+            return;
+        }
+        if (block2 >> 4 != 0) {
+            fail(new McuMgrException("Unexpected CoAP response block " + (block2 >> 4)));
+            return;
+        }
+        mFirstBlock = datagram;
+        mBlock2Szx = block2 & 0x07;
+        if (size2 != CoapFraming.NO_BLOCK) {
+            mLastBlock2 = Math.max(0, size2 - 1) >> (4 + mBlock2Szx);
+        }
+        mNextBlock2 = 1;
+        if (!store(0, datagram)) {
+            return;
+        }
+        if (mTransferStarted) {
+            requestBlocks2();
+            return;
+        }
+        // The following blocks are requested when no other transfer is running
+        mTransferStarted = true;
+        mSession.startTransfer(new Runnable() {
+            @Override
+            public void run() {
+                requestBlocks2();
+            }
+        });
+    }
+
+    private void requestBlocks2() {
+        // Without the total size, the blocks are requested one at a time
+        int maxInFlight = mLastBlock2 == CoapFraming.NO_BLOCK ? 1 : mMaxInFlight;
+        while (mBlock2InFlight < maxInFlight
+                && (mLastBlock2 == CoapFraming.NO_BLOCK || mNextBlock2 <= mLastBlock2)) {
+            final int num = mNextBlock2++;
+            mBlock2InFlight++;
+            mSession.send(mFraming, mPacket, 0, 0, CoapFraming.NO_BLOCK, num << 4 | mBlock2Szx,
+                    new UdpSession.Transaction() {
+                        @Override
+                        public void onResponse(@NotNull byte[] datagram) {
+                            onBlock2Response(num, datagram);
+                        }
+
+                        @Override
+                        public void onFailure(@NotNull McuMgrException e) {
+                            fail(e);
+                        }
+                    });
+        }
+    }
+
+    private void onBlock2Response(int num, @NotNull byte[] datagram) {
+        if (mDone) {
+            return;
+        }
+        mBlock2InFlight--;
+        if (CoapFraming.getCode(datagram) >> 5 != 2) {
+            // An error, decoded as such
+            complete(datagram);
+            return;
+        }
+        int block2;
+        try {
+            block2 = CoapFraming.getOption(datagram, CoapFraming.OPTION_BLOCK2);
+        } catch (IOException e) {
+            fail(new McuMgrException(e));
+            return;
+        }
+        if (block2 == CoapFraming.NO_BLOCK || block2 >> 4 != num
+                || (block2 & 0x07) != mBlock2Szx) {
+            fail(new McuMgrException("Unexpected CoAP response block"));
+            return;
+        }
+        if ((block2 & MORE) == 0) {
+            mLastBlock2 = num;
+        }
+        if (!store(num, datagram)) {
+            return;
+        }
+        if (mReceived == mLastBlock2 + 1) {
+            byte[] payload = new byte[payloadLength()];
+            int position = 0;
+            for (int i = 0; i <= mLastBlock2; i++) {
+                byte[] block = mBlocks.get(i);
+                System.arraycopy(block, 0, payload, position, block.length);
+                position += block.length;
+            }
+            complete(CoapFraming.reassemble(mFirstBlock, payload));
+            return;
+        }
+        requestBlocks2();
+    }
+
+    /*
+     * Stores the payload of the block. Returns false if the transfer has failed.
+     */
+    private boolean store(int num, @NotNull byte[] datagram) {
+        int offset;
+        try {
+            offset = CoapFraming.findPayload(datagram);
+        } catch (IOException e) {
+            fail(new McuMgrException(e));
+            return false;
+        }
+        byte[] block = new byte[offset < 0 ? 0 : datagram.length - offset];
+        if (offset >= 0) {
+            System.arraycopy(datagram, offset, block, 0, block.length);
+        }
+        while (mBlocks.size() <= num) {
+            mBlocks.add(null);
+        }
+        if (mBlocks.get(num) == null) {
+            mReceived++;
+        }
+        mBlocks.set(num, block);
+        return true;
+    }
+
+    private int payloadLength() {
+        int length = 0;
+        for (int i = 0; i <= mLastBlock2; i++) {
+            length += mBlocks.get(i).length;
+        }
+        return length;
+    }
+
+    //******************************************************************
+    // Result
+    //******************************************************************
+
+    private void complete(@NotNull byte[] datagram) {
+        if (!mDone) {
+            mDone = true;
+            mTransaction.onResponse(datagram);
+            if (mTransferStarted) {
+                mSession.finishTransfer();
+            }
+        }
+    }
+
+    private void fail(@NotNull McuMgrException e) {
+        if (!mDone) {
+            mDone = true;
+            mTransaction.onFailure(e);
+            if (mTransferStarted) {
+                mSession.finishTransfer();
+            }
+        }
+    }
+}
@@ -0,0 +1,422 @@
+/*
+ * Copyright (c) Intellinium SAS, 2014-present
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.runtime.mcumgr.udp;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+
+import io.runtime.mcumgr.McuMgrHeader;
+import io.runtime.mcumgr.McuMgrScheme;
+import io.runtime.mcumgr.exception.McuMgrCoapException;
+import io.runtime.mcumgr.exception.McuMgrException;
+import io.runtime.mcumgr.response.McuMgrResponse;
+import io.runtime.mcumgr.util.CBOR;
+
+/**
+ * CoAP framing (RFC 7252): each packet is sent as the payload of a confirmable request to the
+ * "/omgr" resource. Read operations use GET, write operations PUT. The sequence number is used as
+ * a one byte token, which the device echoes in the response.
+ * <p>
+ * Responses are either piggybacked on the acknowledgement, or sent separately after an empty
+ * acknowledgement, in which case they are acknowledged if confirmable.
+ * <p>
+ * Blocks of block-wise transfers (RFC 7959) are sent with the Block1 and Block2 options, see
+ * {@link CoapBlockTransfer}.
+ */
+class CoapFraming extends UdpFraming {
+
+    private final static int VERSION = 1;
+
+    // Mcu Manager operations
+    private final static int OP_READ = 0;
+    private final static int OP_WRITE = 2;
+
+    // Message types
+    private final static int TYPE_CON = 0;
+    private final static int TYPE_ACK = 2;
+    private final static int TYPE_RST = 3;
+
+    // Method codes
+    private final static int CODE_GET = 1;
+    private final static int CODE_PUT = 3;
+
+    /** No block option, see {@link #frameBlock}. */
+    final static int NO_BLOCK = -1;
+
+    /** The response code 2.31 Continue, acknowledging a block of a request. */
+    final static int CODE_CONTINUE = (2 << 5) | 31;
+
+    // Option numbers
+    private final static int OPTION_URI_PATH = 11;
+    private final static int OPTION_CONTENT_FORMAT = 12;
+    final static int OPTION_BLOCK2 = 23;
+    final static int OPTION_BLOCK1 = 27;
+    final static int OPTION_SIZE2 = 28;
+    private final static int OPTION_SIZE1 = 60;
+
+    private final static int TOKEN_LENGTH = 1;
+    private final static int PAYLOAD_MARKER = 0xFF;
+    /** Passed to {@link #scan} instead of an option number to find the payload. */
+    private final static int PAYLOAD = -1;
+
+    /**
+     * The options of every request with a payload: Uri-Path "omgr" (option 11) and
+     * Content-Format application/cbor (option 12, value 60).
+     */
+    private final static byte[] OPTIONS = {
+            (byte) 0xB4, 'o', 'm', 'g', 'r',
+            0x11, 60
+    };
+    /** The Uri-Path option alone, for requests of a block of the response. */
+    private final static int URI_PATH_LENGTH = 5;
+
+    private final static int HEADER_LENGTH = 4;
+    private final static int REQUEST_OVERHEAD =
+            HEADER_LENGTH + TOKEN_LENGTH + OPTIONS.length + 1;
+
+    /** The encoded "_h" key followed by the head of an 8-byte byte string. */
+    private final static byte[] HEADER_ENTRY = {0x62, '_', 'h', 0x48};
+
+    @NotNull
+    @Override
+    byte[] frame(@NotNull byte[] packet, int sequenceNumber, int messageId) {
+        byte[] datagram = new byte[REQUEST_OVERHEAD + packet.length];
+        writeHeader(datagram, packet, sequenceNumber, messageId);
+        System.arraycopy(OPTIONS, 0, datagram, HEADER_LENGTH + TOKEN_LENGTH, OPTIONS.length);
+        datagram[REQUEST_OVERHEAD - 1] = (byte) PAYLOAD_MARKER;
+        System.arraycopy(packet, 0, datagram, REQUEST_OVERHEAD, packet.length);
+        return datagram;
+    }
+
+    /**
+     * Returns the datagram sending a block of the packet, in a block-wise transfer.
+     *
+     * @param packet         the whole Mcu Manager packet, not modified.
+     * @param offset         the offset of the block in the packet.
+     * @param length         the length of the block, 0 to request a block of the response.
+     * @param block1         the value of the option describing the block of the request, or
+     *                       {@link #NO_BLOCK}.
+     * @param block2         the value of the option requesting a block of the response, or
+     *                       {@link #NO_BLOCK}.
+     * @param sequenceNumber the sequence number, 0-255, identifying the request.
+     * @param messageId      the 16-bit id of the datagram.
+     * @return The datagram.
+     */
+    @NotNull
+    byte[] frameBlock(@NotNull byte[] packet, int offset, int length, int block1, int block2,
+                      int sequenceNumber, int messageId) {
+        // The total size is announced with the first block of the request
+        int size1 = block1 != NO_BLOCK && block1 >> 4 == 0 ? packet.length : NO_BLOCK;
+        int optionsLength = length > 0 ? OPTIONS.length : URI_PATH_LENGTH;
+        int last = length > 0 ? OPTION_CONTENT_FORMAT : OPTION_URI_PATH;
+        if (block2 != NO_BLOCK) {
+            optionsLength += optionLength(OPTION_BLOCK2 - last, block2);
+            last = OPTION_BLOCK2;
+        }
+        if (block1 != NO_BLOCK) {
+            optionsLength += optionLength(OPTION_BLOCK1 - last, block1);
+            last = OPTION_BLOCK1;
+        }
+        if (size1 != NO_BLOCK) {
+            optionsLength += optionLength(OPTION_SIZE1 - last, size1);
+        }
+        int overhead = HEADER_LENGTH + TOKEN_LENGTH + optionsLength + (length > 0 ? 1 : 0);
+
+        byte[] datagram = new byte[overhead + length];
+        writeHeader(datagram, packet, sequenceNumber, messageId);
+        int position = HEADER_LENGTH + TOKEN_LENGTH;
+        int count = length > 0 ? OPTIONS.length : URI_PATH_LENGTH;
+        System.arraycopy(OPTIONS, 0, datagram, position, count);
+        position += count;
+        last = length > 0 ? OPTION_CONTENT_FORMAT : OPTION_URI_PATH;
+        if (block2 != NO_BLOCK) {
+            position = writeOption(datagram, position, OPTION_BLOCK2 - last, block2);
+            last = OPTION_BLOCK2;
+        }
+        if (block1 != NO_BLOCK) {
+            position = writeOption(datagram, position, OPTION_BLOCK1 - last, block1);
+            last = OPTION_BLOCK1;
+        }
+        if (size1 != NO_BLOCK) {
+            position = writeOption(datagram, position, OPTION_SIZE1 - last, size1);
+        }
+        if (length > 0) {
+            datagram[position++] = (byte) PAYLOAD_MARKER;
+            System.arraycopy(packet, offset, datagram, position, length);
+        }
+        return datagram;
+    }
+
+    private static void writeHeader(@NotNull byte[] datagram, @NotNull byte[] packet,
+                                    int sequenceNumber, int messageId) {
+        int op = readOp(packet);
+        int code = op == OP_READ ? CODE_GET : CODE_PUT;
+        datagram[0] = (byte) ((VERSION << 6) | (TYPE_CON << 4) | TOKEN_LENGTH);
+        datagram[1] = (byte) code;
+        datagram[2] = (byte) (messageId >> 8);
+        datagram[3] = (byte) messageId;
+        datagram[4] = (byte) sequenceNumber;
+    }
+
+    /*
+     * Returns the length of an option with an unsigned integer value, deltas up to 268 only.
+     */
+    private static int optionLength(int delta, int value) {
+        return 1 + (delta >= 13 ? 1 : 0) + uintLength(value);
+    }
+
+    private static int writeOption(@NotNull byte[] datagram, int position, int delta, int value) {
+        int length = uintLength(value);
+        if (delta >= 13) {
+            datagram[position++] = (byte) ((13 << 4) | length);
+            datagram[position++] = (byte) (delta - 13);
+        } else {
+            datagram[position++] = (byte) ((delta << 4) | length);
+        }
+        for (int i = length - 1; i >= 0; i--) {
+            datagram[position++] = (byte) (value >> (8 * i));
+        }
+        return position;
+    }
+
+    private static int uintLength(int value) {
+        if (value == 0) {
+            return 0;
+        }
+        if (value < 0x100) {
+            return 1;
+        }
+        return value < 0x10000 ? 2 : value < 0x1000000 ? 3 : 4;
+    }
+
+    @Override
+    int classify(@NotNull byte[] datagram) {
+        if (datagram.length < HEADER_LENGTH || (datagram[0] & 0xFF) >> 6 != VERSION) {
+            return IGNORE;
+        }
+        int type = (datagram[0] >> 4) & 0x03;
+        int code = datagram[1] & 0xFF;
+        if (type == TYPE_RST) {
+            return RESET;
+        }
+        if (code == 0) {
+            return type == TYPE_ACK ? ACKNOWLEDGEMENT : IGNORE;
+        }
+        // Responses have code class 2 to 5, and carry the token of the request
+        int tokenLength = datagram[0] & 0x0F;
+        if (code >> 5 < 2 || tokenLength != TOKEN_LENGTH
+                || datagram.length < HEADER_LENGTH + TOKEN_LENGTH) {
+            return IGNORE;
+        }
+        return RESPONSE;
+    }
+
+    @Override
+    int getSequenceNumber(@NotNull byte[] datagram) {
+        return datagram[HEADER_LENGTH] & 0xFF;
+    }
+
+    @Override
+    int getMessageId(@NotNull byte[] datagram) {
+        return ((datagram[2] & 0xFF) << 8) | (datagram[3] & 0xFF);
+    }
+
+    @Nullable
+    @Override
+    byte[] acknowledge(@NotNull byte[] datagram) {
+        int type = (datagram[0] >> 4) & 0x03;
+        if (type != TYPE_CON) {
+            return null;
+        }
+        return new byte[]{
+                (byte) ((VERSION << 6) | (TYPE_ACK << 4)), 0, datagram[2], datagram[3]
+        };
+    }
+
+    @NotNull
+    @Override
+    <T extends McuMgrResponse> T decode(@NotNull byte[] datagram, @NotNull Class<T> type)
+            throws IOException, McuMgrException {
+        int codeClass = (datagram[1] & 0xFF) >> 5;
+        int codeDetail = datagram[1] & 0x1F;
+        if (codeClass == 4 || codeClass == 5) {
+            throw new McuMgrCoapException(datagram, codeClass, codeDetail);
+        }
+
+        int payloadOffset = findPayload(datagram);
+        if (payloadOffset < 0) {
+            throw new IOException("CoAP response has no payload");
+        }
+        byte[] payload = new byte[datagram.length - payloadOffset];
+        System.arraycopy(datagram, payloadOffset, payload, 0, payload.length);
+        byte[] header = CBOR.getObject(payload, "_h", byte[].class);
+        if (header == null) {
+            throw new IOException("CoAP response has no Mcu Manager header");
+        }
+        return McuMgrResponse.buildCoapResponse(McuMgrScheme.COAP_UDP, datagram, header, payload,
+                codeClass, codeDetail, type);
+    }
+
+    /**
+     * Returns the datagram of a response reassembled from blocks: the header and token of the
+     * given block, without options, followed by the whole payload.
+     */
+    @NotNull
+    static byte[] reassemble(@NotNull byte[] block, @NotNull byte[] payload) {
+        int headerLength = HEADER_LENGTH + (block[0] & 0x0F);
+        byte[] datagram = new byte[headerLength + 1 + payload.length];
+        System.arraycopy(block, 0, datagram, 0, headerLength);
+        datagram[headerLength] = (byte) PAYLOAD_MARKER;
+        System.arraycopy(payload, 0, datagram, headerLength + 1, payload.length);
+        return datagram;
+    }
+
+    static int getCode(@NotNull byte[] datagram) {
+        return datagram[1] & 0xFF;
+    }
+
+    /**
+     * Returns the offset of the payload, or -1 if there's none.
+     *
+     * @throws IOException if the options are malformed.
+     */
+    static int findPayload(@NotNull byte[] datagram) throws IOException {
+        return scan(datagram, PAYLOAD);
+    }
+
+    /**
+     * Returns the value of an unsigned integer option, like Block1, Block2 or Size2, or
+     * {@link #NO_BLOCK} if the option is not present.
+     *
+     * @throws IOException if the options are malformed.
+     */
+    static int getOption(@NotNull byte[] datagram, int number) throws IOException {
+        return scan(datagram, number);
+    }
+
+    /*
+     * Skips the token and walks the options. Returns the value of the given option, or the
+     * offset of the payload for PAYLOAD, or -1 if not found.
+     */
+    private static int scan(@NotNull byte[] datagram, int number) throws IOException {
+        int position = HEADER_LENGTH + (datagram[0] & 0x0F);
+        int option = 0;
+        while (position < datagram.length) {
+            int b = datagram[position++] & 0xFF;
+            if (b == PAYLOAD_MARKER) {
+                return number == PAYLOAD ? position : -1;
+            }
+            int delta = b >> 4;
+            int length = b & 0x0F;
+            option += delta + extended(datagram, position, delta);
+            position += extendedLength(delta);
+            length += extended(datagram, position, length);
+            position += extendedLength(b & 0x0F);
+            if (position + length > datagram.length) {
+                throw new IOException("Invalid CoAP option");
+            }
+            if (option == number) {
+                int value = 0;
+                for (int i = 0; i < length; i++) {
+                    value = (value << 8) | (datagram[position + i] & 0xFF);
+                }
+                if (length > 4 || value < 0) {
+                    throw new IOException("Invalid CoAP option value");
+                }
+                return value;
+            }
+            position += length;
+        }
+        return -1;
+    }
+
+    /*
+     * Returns the value to add to an option delta or length nibble from its extended bytes.
+     */
+    private static int extended(@NotNull byte[] datagram, int position, int nibble)
+            throws IOException {
+        if (position + extendedLength(nibble) > datagram.length) {
+            throw new IOException("Invalid CoAP option");
+        }
+        switch (nibble) {
+            case 13:
+                return datagram[position] & 0xFF;
+            case 14:
+                return ((datagram[position] & 0xFF) << 8 | (datagram[position + 1] & 0xFF))
+                        + 255;
+            default:
+                return 0;
+        }
+    }
+
+    private static int extendedLength(int nibble) throws IOException {
+        switch (nibble) {
+            case 13:
+                return 1;
+            case 14:
+                return 2;
+            case 15:
+                throw new IOException("Invalid CoAP option");
+            default:
+                return 0;
+        }
+    }
+
+    /*
+     * Reads the operation from the Mcu Manager header, which is the first entry of the CBOR map
+     * in packets built by the managers. Otherwise, the whole payload is parsed.
+     */
+    private static int readOp(@NotNull byte[] packet) {
+        int position = mapHeaderLength(packet);
+        if (position > 0 && position + HEADER_ENTRY.length + McuMgrHeader.HEADER_LENGTH
+                <= packet.length) {
+            boolean match = true;
+            for (int i = 0; i < HEADER_ENTRY.length; i++) {
+                if (packet[position + i] != HEADER_ENTRY[i]) {
+                    match = false;
+                    break;
+                }
+            }
+            if (match) {
+                return McuMgrHeader.readOp(packet, position + HEADER_ENTRY.length);
+            }
+        }
+        try {
+            byte[] header = CBOR.getObject(packet, "_h", byte[].class);
+            if (header != null && header.length >= McuMgrHeader.HEADER_LENGTH) {
+                return McuMgrHeader.readOp(header, 0);
+            }
+        } catch (IOException e) {
+            // Fall through
+        }
+        return OP_WRITE;
+    }
+
+    private static int mapHeaderLength(@NotNull byte[] packet) {
+        if (packet.length == 0 || (packet[0] & 0xFF) >> 5 != 5) {
+            return -1;
+        }
+        int info = packet[0] & 0x1F;
+        if (info < 24 || info == 31) {
+            return 1;
+        }
+        switch (info) {
+            case 24:
+                return 2;
+            case 25:
+                return 3;
+            case 26:
+                return 5;
+            case 27:
+                return 9;
+            default:
+                return -1;
+        }
+    }
+}
@@ -0,0 +1,425 @@
+/*
+ * Copyright (c) Intellinium SAS, 2014-present
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.runtime.mcumgr.udp;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import io.runtime.mcumgr.McuMgrCallback;
+import io.runtime.mcumgr.McuMgrScheme;
+import io.runtime.mcumgr.McuMgrTransport;
+import io.runtime.mcumgr.exception.InsufficientMtuException;
+import io.runtime.mcumgr.exception.McuMgrException;
+import io.runtime.mcumgr.response.McuMgrResponse;
+import io.runtime.mcumgr.util.CallbackExecutors;
+
+/**
+ * The McuMgrUdpTransport is an implementation for the {@link McuMgrScheme#UDP} and
+ * {@link McuMgrScheme#COAP_UDP} transport schemes, sending one packet per datagram.
+ * <p>
+ * Requests are written by a single I/O thread using a non-blocking datagram channel, and many may
+ * be in flight at the same time, matched to the responses by sequence number. Requests which are
+ * not answered in time are retransmitted, see {@link #setRetransmission(int, int)}. Responses are
+ * decoded on the decode executor and the {@link McuMgrCallback}s are called on the callback
+ * executor, which by default is the decode executor itself.
+ * <p>
+ * With CoAP framing, requests larger than the block size are sent, and large responses received,
+ * with block-wise transfers (RFC 7959), see {@link #setBlockwiseTransfer(int, int)}. As the
+ * device can't tell the blocks of concurrent transfers apart, CoAP requests are exchanged one at
+ * a time.
+ * <p>
+ * UDP is connectionless: "connecting" opens the channel, which is closed by {@link #release()}.
+ * The channel is opened automatically when a request is sent.
+ * <p>
+ * The transport uses no Android APIs and may be used on any JVM.
+ */
+@SuppressWarnings("unused")
+public class McuMgrUdpTransport implements McuMgrTransport, McuMgrTransport.PacketLengthLimit,
+        McuMgrTransport.CallbackExecutorSupport {
+
+    private final static Logger LOG = LoggerFactory.getLogger(McuMgrUdpTransport.class);
+
+    /** The default UDP port of the SMP server on Zephyr. */
+    public final static int DEFAULT_PORT = 1337;
+
+    /** The default maximum packet length. */
+    public final static int DEFAULT_MAX_PACKET_LENGTH = 1024;
+
+    /** The default time to wait for a response before the first retransmission. */
+    public final static int DEFAULT_INITIAL_TIMEOUT = 2000;
+
+    /** The default number of retransmissions before a request fails. */
+    public final static int DEFAULT_MAX_RETRANSMISSIONS = 4;
+
+    /** The default block size of CoAP block-wise transfers, the largest one. */
+    public final static int DEFAULT_BLOCK_SIZE = CoapBlockTransfer.MAX_BLOCK_SIZE;
+
+    /** The default number of blocks in flight in CoAP block-wise transfers. */
+    public final static int DEFAULT_MAX_BLOCKS_IN_FLIGHT = 4;
+
+    /**
+     * The executor decoding responses by default, a single daemon thread shared by all
+     * transports.
+     */
+    private final static ExecutorService DEFAULT_DECODE_EXECUTOR =
+            Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(@NotNull Runnable runnable) {
+                    Thread thread = new Thread(runnable, "McuMgrUdpDecoder");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    @NotNull
+    private final InetSocketAddress mAddress;
+    @NotNull
+    private final McuMgrScheme mScheme;
+    @NotNull
+    private final UdpFraming mFraming;
+    @NotNull
+    private final Executor mDecodeExecutor;
+    @NotNull
+    private volatile Executor mCallbackExecutor;
+
+    private volatile int mMaxPacketLength = DEFAULT_MAX_PACKET_LENGTH;
+    private volatile int mInitialTimeout = DEFAULT_INITIAL_TIMEOUT;
+    private volatile int mMaxRetransmissions = DEFAULT_MAX_RETRANSMISSIONS;
+    private volatile int mBlockSize = DEFAULT_BLOCK_SIZE;
+    private volatile int mMaxBlocksInFlight = DEFAULT_MAX_BLOCKS_IN_FLIGHT;
+
+    /**
+     * The current session, or null if the channel is closed.
+     */
+    @Nullable
+    private UdpSession mSession;
+
+    private final List<ConnectionObserver> mConnectionObservers = new CopyOnWriteArrayList<>();
+
+    /**
+     * Construct a McuMgrUdpTransport object using plain SMP framing.
+     *
+     * @param address the address of the device.
+     */
+    public McuMgrUdpTransport(@NotNull InetSocketAddress address) {
+        this(address, McuMgrScheme.UDP);
+    }
+
+    /**
+     * Construct a McuMgrUdpTransport object.
+     *
+     * @param address the address of the device.
+     * @param scheme  {@link McuMgrScheme#UDP} for plain SMP or {@link McuMgrScheme#COAP_UDP}
+     *                for CoAP framing.
+     */
+    public McuMgrUdpTransport(@NotNull InetSocketAddress address, @NotNull McuMgrScheme scheme) {
+        this(address, scheme, DEFAULT_DECODE_EXECUTOR, CallbackExecutors.direct());
+    }
+
+    /**
+     * Construct a McuMgrUdpTransport object with an executor decoding the responses and an
+     * executor to run the asynchronous callbacks. The decode executor should run tasks in order,
+     * one at a time, so that responses are delivered in order.
+     *
+     * @param address          the address of the device.
+     * @param scheme           {@link McuMgrScheme#UDP} for plain SMP or
+     *                         {@link McuMgrScheme#COAP_UDP} for CoAP framing.
+     * @param decodeExecutor   the executor decoding responses.
+     * @param callbackExecutor the executor to run the {@link McuMgrCallback}s.
+     */
+    public McuMgrUdpTransport(@NotNull InetSocketAddress address, @NotNull McuMgrScheme scheme,
+                              @NotNull Executor decodeExecutor,
+                              @NotNull Executor callbackExecutor) {
+        mAddress = address;
+        mScheme = scheme;
+        mFraming = UdpFraming.forScheme(scheme);
+        mDecodeExecutor = decodeExecutor;
+        mCallbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Returns the address of the device.
+     *
+     * @return The device address.
+     */
+    @NotNull
+    public InetSocketAddress getAddress() {
+        return mAddress;
+    }
+
+    @NotNull
+    @Override
+    public McuMgrScheme getScheme() {
+        return mScheme;
+    }
+
+    /**
+     * Sets the maximum length of a packet, which is limited by the buffers of the device. With
+     * CoAP framing, packets larger than the block size are sent in blocks, so the maximum length
+     * is not limited by the size of a datagram.
+     *
+     * @param maxLength the maximum packet length.
+     */
+    public void setMaxPacketLength(int maxLength) {
+        mMaxPacketLength = maxLength;
+    }
+
+    @Override
+    public int getMaxPacketLength() {
+        return mMaxPacketLength;
+    }
+
+    /**
+     * Sets the retransmission parameters. A request is retransmitted if no response has been
+     * received within the initial timeout, and again each time the doubled timeout expires,
+     * until the given number of retransmissions has been sent. Takes effect when the channel
+     * is opened.
+     *
+     * @param initialTimeout     the initial timeout, in milliseconds.
+     * @param maxRetransmissions the number of retransmissions, 0 to disable them.
+     */
+    public void setRetransmission(int initialTimeout, int maxRetransmissions) {
+        if (initialTimeout <= 0 || maxRetransmissions < 0) {
+            throw new IllegalArgumentException("Invalid retransmission parameters");
+        }
+        mInitialTimeout = initialTimeout;
+        mMaxRetransmissions = maxRetransmissions;
+    }
+
+    /**
+     * Sets the parameters of CoAP block-wise transfers (RFC 7959). Requests larger than the block
+     * size are sent in blocks, and a block size smaller than the largest one is proposed to the
+     * device for large responses. Up to the given number of blocks are sent or requested at the
+     * same time. Only used with {@link McuMgrScheme#COAP_UDP}.
+     *
+     * @param blockSize         the block size, a power of two from 16 to 1024, or 0 to send
+     *                          requests in a single datagram.
+     * @param maxBlocksInFlight the maximum number of blocks in flight, 1 to disable pipelining.
+     */
+    public void setBlockwiseTransfer(int blockSize, int maxBlocksInFlight) {
+        if (blockSize != 0) {
+            // Throws if the size is invalid
+            CoapBlockTransfer.szx(blockSize);
+        }
+        if (maxBlocksInFlight < 1) {
+            throw new IllegalArgumentException("Invalid number of blocks in flight");
+        }
+        mBlockSize = blockSize;
+        mMaxBlocksInFlight = maxBlocksInFlight;
+    }
+
+    @Override
+    public void setCallbackExecutor(@NotNull Executor executor) {
+        mCallbackExecutor = executor;
+    }
+
+    //*******************************************************************************************
+    // Requests
+    //*******************************************************************************************
+
+    @NotNull
+    @Override
+    public <T extends McuMgrResponse> T send(@NotNull byte[] payload,
+                                            @NotNull Class<T> responseType)
+            throws McuMgrException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Object[] result = new Object[1];
+        send(payload, responseType, new McuMgrCallback<T>() {
+            @Override
+            public void onResponse(@NotNull T response) {
+                result[0] = response;
+                latch.countDown();
+            }
+
+            @Override
+            public void onError(@NotNull McuMgrException error) {
+                result[0] = error;
+                latch.countDown();
+            }
+        });
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new McuMgrException(e);
+        }
+        if (result[0] instanceof McuMgrException) {
+            throw (McuMgrException) result[0];
+        }
+        return responseType.cast(result[0]);
+    }
+
+    @Override
+    public <T extends McuMgrResponse> void send(@NotNull final byte[] payload,
+                                                @NotNull final Class<T> responseType,
+                                                @NotNull final McuMgrCallback<T> callback) {
+        if (payload.length > mMaxPacketLength) {
+            onError(new InsufficientMtuException(payload.length, mMaxPacketLength), callback);
+            return;
+        }
+
+        final UdpSession session;
+        try {
+            session = open();
+        } catch (IOException e) {
+            onError(new McuMgrException(e), callback);
+            return;
+        }
+
+        UdpSession.Transaction transaction = new UdpSession.Transaction() {
+            @Override
+            public void onResponse(@NotNull final byte[] datagram) {
+                // Decoded off the I/O thread
+                mDecodeExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        final T response;
+                        try {
+                            response = mFraming.decode(datagram, responseType);
+                        } catch (McuMgrException e) {
+                            deliverError(e, callback);
+                            return;
+                        } catch (Exception e) {
+                            deliverError(new McuMgrException(e), callback);
+                            return;
+                        }
+                        mCallbackExecutor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                callback.onResponse(response);
+                            }
+                        });
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(@NotNull McuMgrException e) {
+                onError(e, callback);
+            }
+        };
+        if (mFraming instanceof CoapFraming) {
+            new CoapBlockTransfer(session, (CoapFraming) mFraming, payload, mBlockSize,
+                    mMaxBlocksInFlight, transaction).start();
+        } else {
+            session.send(payload, transaction);
+        }
+    }
+
+    /*
+     * Delivers the error through the decode executor, keeping the I/O thread free and the
+     * order of results.
+     */
+    private void onError(@NotNull final McuMgrException error,
+                         @NotNull final McuMgrCallback<?> callback) {
+        mDecodeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                deliverError(error, callback);
+            }
+        });
+    }
+
+    private void deliverError(@NotNull final McuMgrException error,
+                              @NotNull final McuMgrCallback<?> callback) {
+        mCallbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onError(error);
+            }
+        });
+    }
+
+    //*******************************************************************************************
+    // Connection
+    //*******************************************************************************************
+
+    @Override
+    public void connect(@Nullable ConnectionCallback callback) {
+        try {
+            open();
+        } catch (IOException e) {
+            if (callback != null) {
+                callback.onError(e);
+            }
+            return;
+        }
+        if (callback != null) {
+            callback.onConnected();
+        }
+    }
+
+    @Override
+    public void release() {
+        UdpSession session;
+        synchronized (this) {
+            session = mSession;
+            mSession = null;
+        }
+        if (session != null) {
+            session.close(new McuMgrException("Transport released"));
+            notifyDisconnected();
+        }
+    }
+
+    /*
+     * Returns the open session, opening the channel if needed.
+     */
+    @NotNull
+    private UdpSession open() throws IOException {
+        UdpSession session;
+        synchronized (this) {
+            session = mSession;
+            if (session != null && !session.isClosed()) {
+                return session;
+            }
+            LOG.debug("Opening UDP channel to {}", mAddress);
+            session = new UdpSession(mAddress, mFraming, mInitialTimeout, mMaxRetransmissions);
+            mSession = session;
+        }
+        notifyConnected();
+        return session;
+    }
+
+    //*******************************************************************************************
+    // Manager Connection Observers
+    //*******************************************************************************************
+
+    @Override
+    public void addObserver(@NotNull ConnectionObserver observer) {
+        mConnectionObservers.add(observer);
+    }
+
+    @Override
+    public void removeObserver(@NotNull ConnectionObserver observer) {
+        mConnectionObservers.remove(observer);
+    }
+
+    private void notifyConnected() {
+        for (ConnectionObserver o : mConnectionObservers) {
+            o.onConnected();
+        }
+    }
+
+    private void notifyDisconnected() {
+        for (ConnectionObserver o : mConnectionObservers) {
+            o.onDisconnected();
+        }
+    }
+}
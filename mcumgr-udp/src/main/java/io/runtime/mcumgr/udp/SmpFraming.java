@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) Intellinium SAS, 2014-present
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.runtime.mcumgr.udp;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+import io.runtime.mcumgr.McuMgrHeader;
+import io.runtime.mcumgr.McuMgrScheme;
+import io.runtime.mcumgr.response.McuMgrResponse;
+
+/**
+ * Plain SMP framing: each datagram contains one packet, the 8-byte header followed by the CBOR
+ * payload. The sequence number of the header identifies the request.
+ */
+class SmpFraming extends UdpFraming {
+
+    private final static int OP_READ_RSP = 1;
+    private final static int OP_WRITE_RSP = 3;
+
+    @NotNull
+    @Override
+    byte[] frame(@NotNull byte[] packet, int sequenceNumber, int messageId) {
+        // The packet is sent as is, with the sequence number set in a copy, as the packet
+        // belongs to the caller
+        byte[] datagram = packet.clone();
+        datagram[6] = (byte) sequenceNumber;
+        return datagram;
+    }
+
+    @Override
+    int classify(@NotNull byte[] datagram) {
+        if (datagram.length < McuMgrHeader.HEADER_LENGTH) {
+            return IGNORE;
+        }
+        int op = McuMgrHeader.readOp(datagram, 0) & 0x07;
+        return op == OP_READ_RSP || op == OP_WRITE_RSP ? RESPONSE : IGNORE;
+    }
+
+    @Override
+    int getSequenceNumber(@NotNull byte[] datagram) {
+        return McuMgrHeader.readSequenceNum(datagram, 0);
+    }
+
+    @NotNull
+    @Override
+    <T extends McuMgrResponse> T decode(@NotNull byte[] datagram, @NotNull Class<T> type)
+            throws IOException {
+        return McuMgrResponse.buildResponse(McuMgrScheme.UDP, datagram, type);
+    }
+}
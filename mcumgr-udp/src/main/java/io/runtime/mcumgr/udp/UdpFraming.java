@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) Intellinium SAS, 2014-present
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.runtime.mcumgr.udp;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+
+import io.runtime.mcumgr.McuMgrScheme;
+import io.runtime.mcumgr.exception.McuMgrException;
+import io.runtime.mcumgr.response.McuMgrResponse;
+
+/**
+ * Maps Mcu Manager packets to and from datagrams.
+ * <p>
+ * Each request is identified by a sequence number, which the framing puts in the datagram in a
+ * way the device echoes in the response. Framings are used from the I/O thread only, except for
+ * {@link #decode}, which must be thread safe.
+ */
+abstract class UdpFraming {
+
+    /** The datagram is not a response to a request and should be ignored. */
+    final static int IGNORE = 0;
+    /** The datagram is a response, see {@link #getSequenceNumber(byte[])}. */
+    final static int RESPONSE = 1;
+    /**
+     * The datagram acknowledges the receipt of a request, which should not be retransmitted
+     * anymore. See {@link #getMessageId(byte[])}.
+     */
+    final static int ACKNOWLEDGEMENT = 2;
+    /** The device has rejected a request, see {@link #getMessageId(byte[])}. */
+    final static int RESET = 3;
+
+    @NotNull
+    static UdpFraming forScheme(@NotNull McuMgrScheme scheme) {
+        switch (scheme) {
+            case UDP:
+                return new SmpFraming();
+            case COAP_UDP:
+                return new CoapFraming();
+            default:
+                throw new IllegalArgumentException("Scheme not supported over UDP: " + scheme);
+        }
+    }
+
+    /**
+     * Returns the datagram sending the packet.
+     *
+     * @param packet         the Mcu Manager packet, not modified.
+     * @param sequenceNumber the sequence number, 0-255, identifying the request.
+     * @param messageId      the 16-bit id of the datagram, used by framings which acknowledge
+     *                       datagrams.
+     * @return The datagram.
+     */
+    @NotNull
+    abstract byte[] frame(@NotNull byte[] packet, int sequenceNumber, int messageId);
+
+    /**
+     * Returns the kind of the received datagram: {@link #IGNORE}, {@link #RESPONSE},
+     * {@link #ACKNOWLEDGEMENT} or {@link #RESET}.
+     */
+    abstract int classify(@NotNull byte[] datagram);
+
+    /**
+     * Returns the sequence number of the request the response datagram answers.
+     */
+    abstract int getSequenceNumber(@NotNull byte[] datagram);
+
+    /**
+     * Returns the message id of the acknowledged or rejected datagram.
+     */
+    int getMessageId(@NotNull byte[] datagram) {
+        return -1;
+    }
+
+    /**
+     * Returns the datagram acknowledging the response datagram, if the device expects one.
+     */
+    @Nullable
+    byte[] acknowledge(@NotNull byte[] datagram) {
+        return null;
+    }
+
+    /**
+     * Decodes the response datagram.
+     *
+     * @throws IOException     if the response could not be parsed.
+     * @throws McuMgrException if the datagram reports an error.
+     */
+    @NotNull
+    abstract <T extends McuMgrResponse> T decode(@NotNull byte[] datagram, @NotNull Class<T> type)
+            throws IOException, McuMgrException;
+}
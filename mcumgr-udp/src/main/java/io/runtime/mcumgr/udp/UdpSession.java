@@ -0,0 +1,511 @@
+/*
+ * Copyright (c) Intellinium SAS, 2014-present
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.runtime.mcumgr.udp;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.PortUnreachableException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import io.runtime.mcumgr.exception.McuMgrException;
+import io.runtime.mcumgr.exception.McuMgrTimeoutException;
+
+/**
+ * Exchanges requests and responses with a device over a connected, non-blocking
+ * {@link DatagramChannel}.
+ * <p>
+ * A single I/O thread owns the channel and all the session state: it writes requests, reads
+ * responses and retransmits requests which have not been answered in time, waiting on a
+ * {@link Selector} in between. Other threads only hand requests over through a lock-free queue.
+ * <p>
+ * Up to 256 requests may be in flight, each identified by a sequence number which is not used by
+ * another request in flight. Further requests wait for a free sequence number. A request is
+ * retransmitted after the initial timeout, doubling the timeout with every retransmission, and
+ * fails with {@link McuMgrTimeoutException} when no response arrives after the last one.
+ * <p>
+ * Block-wise transfers, exchanging a request or its response in many requests, are run one at a
+ * time, see {@link #startTransfer(Runnable)}. Other requests don't wait for them.
+ * <p>
+ * Transaction callbacks are called on the I/O thread and must return quickly.
+ */
+class UdpSession implements Runnable {
+    private final static Logger LOG = LoggerFactory.getLogger(UdpSession.class);
+
+    private final static int SEQUENCE_NUMBERS = 256;
+    private final static int MAX_DATAGRAM_LENGTH = 65507;
+    private final static long NO_DEADLINE = Long.MAX_VALUE;
+
+    interface Transaction {
+        /**
+         * Called with the response datagram. The datagram is owned by the transaction.
+         */
+        void onResponse(@NotNull byte[] datagram);
+
+        void onFailure(@NotNull McuMgrException e);
+    }
+
+    private static class Request {
+        @NotNull
+        final byte[] packet;
+        @NotNull
+        final Transaction transaction;
+        // The framing and block of the packet, for block-wise transfers
+        @Nullable
+        CoapFraming blockFraming;
+        int offset;
+        int length;
+        int block1 = CoapFraming.NO_BLOCK;
+        int block2 = CoapFraming.NO_BLOCK;
+        byte[] datagram;
+        int sequenceNumber;
+        int messageId;
+        int retransmissions;
+        long timeout;
+        long deadline;
+        boolean acknowledged;
+        boolean done;
+
+        Request(@NotNull byte[] packet, @NotNull Transaction transaction) {
+            this.packet = packet;
+            this.transaction = transaction;
+        }
+    }
+
+    private static class Outgoing {
+        /** The request sending the datagram, or null for an acknowledgement. */
+        @Nullable
+        final Request request;
+        @NotNull
+        final ByteBuffer datagram;
+
+        Outgoing(@Nullable Request request, @NotNull byte[] datagram) {
+            this.request = request;
+            this.datagram = ByteBuffer.wrap(datagram);
+        }
+    }
+
+    @NotNull
+    private final UdpFraming mFraming;
+    private final long mInitialTimeout;
+    private final int mMaxRetransmissions;
+
+    @NotNull
+    private final DatagramChannel mChannel;
+    @NotNull
+    private final Selector mSelector;
+    @NotNull
+    private final SelectionKey mKey;
+
+    /** Requests handed over to the I/O thread. */
+    private final ConcurrentLinkedQueue<Request> mIncoming = new ConcurrentLinkedQueue<>();
+    @Nullable
+    private volatile McuMgrException mCloseCause;
+
+    /** Transfers waiting for the running one to finish, guarded by itself. */
+    private final ArrayDeque<Runnable> mTransfers = new ArrayDeque<>();
+    private boolean mTransferRunning;
+    private boolean mStartingTransfers;
+
+    //******************************************************************
+    // I/O thread state
+    //******************************************************************
+
+    private final Request[] mInFlight = new Request[SEQUENCE_NUMBERS];
+    private int mInFlightCount;
+    private int mNextSequenceNumber;
+    private int mNextMessageId = new Random().nextInt(0x10000);
+    /** Requests waiting for a free sequence number. */
+    private final ArrayDeque<Request> mWaiting = new ArrayDeque<>();
+    /** Datagrams waiting for space in the socket send buffer. */
+    private final ArrayDeque<Outgoing> mOutgoing = new ArrayDeque<>();
+    private final ByteBuffer mReceiveBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_LENGTH);
+
+    /**
+     * Opens the channel and starts the I/O thread.
+     *
+     * @param remote             the address of the device.
+     * @param framing            the framing of the packets.
+     * @param initialTimeout     the time to wait for a response before the first retransmission,
+     *                           in milliseconds.
+     * @param maxRetransmissions the number of retransmissions before a request fails.
+     * @throws IOException if the channel could not be opened.
+     */
+    UdpSession(@NotNull SocketAddress remote, @NotNull UdpFraming framing,
+               long initialTimeout, int maxRetransmissions) throws IOException {
+        mFraming = framing;
+        mInitialTimeout = initialTimeout;
+        mMaxRetransmissions = maxRetransmissions;
+        mChannel = DatagramChannel.open();
+        try {
+            mChannel.configureBlocking(false);
+            mChannel.connect(remote);
+            mSelector = Selector.open();
+            mKey = mChannel.register(mSelector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            mChannel.close();
+            throw e;
+        }
+        Thread thread = new Thread(this, "McuMgrUdp");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queues the request. This method may be called from any thread.
+     */
+    void send(@NotNull byte[] packet, @NotNull Transaction transaction) {
+        queue(new Request(packet, transaction));
+    }
+
+    /**
+     * Queues the request for a block of a block-wise transfer, framed with
+     * {@link CoapFraming#frameBlock}. This method may be called from any thread.
+     */
+    void send(@NotNull CoapFraming framing, @NotNull byte[] packet, int offset, int length,
+              int block1, int block2, @NotNull Transaction transaction) {
+        Request request = new Request(packet, transaction);
+        request.blockFraming = framing;
+        request.offset = offset;
+        request.length = length;
+        request.block1 = block1;
+        request.block2 = block2;
+        queue(request);
+    }
+
+    private void queue(@NotNull Request request) {
+        mIncoming.add(request);
+        if (mCloseCause != null) {
+            // The I/O thread may have finished already
+            failIncoming();
+            return;
+        }
+        mSelector.wakeup();
+    }
+
+    /**
+     * Closes the session, failing all requests with the given cause.
+     */
+    void close(@NotNull McuMgrException cause) {
+        mCloseCause = cause;
+        mSelector.wakeup();
+    }
+
+    boolean isClosed() {
+        return mCloseCause != null;
+    }
+
+    /**
+     * Starts the transfer now if no other one is running, or when the previous ones have
+     * finished. The device can't tell the blocks of concurrent block-wise transfers to the same
+     * resource apart, so they are run one at a time. The transfer must call
+     * {@link #finishTransfer()} when it has completed or failed. This method may be called from
+     * any thread.
+     */
+    void startTransfer(@NotNull Runnable transfer) {
+        synchronized (mTransfers) {
+            if (mTransferRunning || !mTransfers.isEmpty()) {
+                mTransfers.add(transfer);
+                return;
+            }
+            mTransferRunning = true;
+        }
+        transfer.run();
+    }
+
+    /**
+     * Finishes the running transfer and starts the next one, if any.
+     */
+    void finishTransfer() {
+        synchronized (mTransfers) {
+            mTransferRunning = false;
+            // Transfers which finish while being started, e.g. when the session is closed,
+            // are followed by the next one in the loop below, not recursively
+            if (mStartingTransfers) {
+                return;
+            }
+            mStartingTransfers = true;
+        }
+        while (true) {
+            Runnable next;
+            synchronized (mTransfers) {
+                next = mTransferRunning ? null : mTransfers.poll();
+                if (next == null) {
+                    mStartingTransfers = false;
+                    return;
+                }
+                mTransferRunning = true;
+            }
+            next.run();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (mCloseCause == null) {
+                Request request;
+                while ((request = mIncoming.poll()) != null) {
+                    start(request);
+                }
+
+                long next = checkTimeouts(now());
+                if (next == NO_DEADLINE) {
+                    mSelector.select();
+                } else {
+                    mSelector.select(Math.max(1, next - now()));
+                }
+                mSelector.selectedKeys().clear();
+
+                if (mKey.isValid() && mKey.isReadable()) {
+                    receive();
+                }
+                if (mKey.isValid() && mKey.isWritable()) {
+                    flush();
+                }
+            }
+        } catch (IOException e) {
+            LOG.error("UDP session failed", e);
+            if (mCloseCause == null) {
+                mCloseCause = new McuMgrException(e);
+            }
+        } finally {
+            try {
+                mSelector.close();
+                mChannel.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+            failAll();
+        }
+    }
+
+    //******************************************************************
+    // Requests
+    //******************************************************************
+
+    private void start(@NotNull Request request) {
+        if (mInFlightCount == SEQUENCE_NUMBERS) {
+            mWaiting.add(request);
+            return;
+        }
+
+        // Use the next sequence number which is not in flight
+        int sequenceNumber = mNextSequenceNumber;
+        while (mInFlight[sequenceNumber] != null) {
+            sequenceNumber = (sequenceNumber + 1) % SEQUENCE_NUMBERS;
+        }
+        mNextSequenceNumber = (sequenceNumber + 1) % SEQUENCE_NUMBERS;
+        mInFlight[sequenceNumber] = request;
+        mInFlightCount++;
+
+        request.sequenceNumber = sequenceNumber;
+        request.messageId = mNextMessageId;
+        mNextMessageId = (mNextMessageId + 1) & 0xFFFF;
+        if (request.blockFraming == null) {
+            request.datagram = mFraming.frame(request.packet, sequenceNumber, request.messageId);
+        } else {
+            request.datagram = request.blockFraming.frameBlock(request.packet, request.offset,
+                    request.length, request.block1, request.block2, sequenceNumber,
+                    request.messageId);
+        }
+        request.timeout = mInitialTimeout;
+        request.deadline = now() + request.timeout;
+        write(request, request.datagram);
+    }
+
+    private void complete(@NotNull Request request) {
+        mInFlight[request.sequenceNumber] = null;
+        mInFlightCount--;
+        request.done = true;
+
+        Request waiting = mWaiting.poll();
+        if (waiting != null) {
+            start(waiting);
+        }
+    }
+
+    @Nullable
+    private Request findByMessageId(int messageId) {
+        for (Request request : mInFlight) {
+            if (request != null && request.messageId == messageId) {
+                return request;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Retransmits or fails the requests whose deadline has passed.
+     *
+     * @return The next deadline.
+     */
+    private long checkTimeouts(long now) {
+        for (Request request : mInFlight) {
+            if (request == null || request.deadline > now) {
+                continue;
+            }
+            if (!request.acknowledged && request.retransmissions < mMaxRetransmissions) {
+                request.retransmissions++;
+                request.timeout *= 2;
+                request.deadline = now + request.timeout;
+                LOG.debug("Retransmitting request {}", request.sequenceNumber);
+                write(request, request.datagram);
+            } else {
+                complete(request);
+                request.transaction.onFailure(new McuMgrTimeoutException());
+            }
+        }
+        // Requests started in the loop may have taken slots which were already checked
+        long next = NO_DEADLINE;
+        for (Request request : mInFlight) {
+            if (request != null && request.deadline < next) {
+                next = request.deadline;
+            }
+        }
+        return next;
+    }
+
+    private void failIncoming() {
+        McuMgrException cause = mCloseCause;
+        Request request;
+        while ((request = mIncoming.poll()) != null) {
+            request.transaction.onFailure(cause);
+        }
+    }
+
+    private void failAll() {
+        McuMgrException cause = mCloseCause;
+        for (Request request : mInFlight) {
+            if (request != null) {
+                request.done = true;
+                request.transaction.onFailure(cause);
+            }
+        }
+        for (Request request : mWaiting) {
+            request.transaction.onFailure(cause);
+        }
+        mWaiting.clear();
+        failIncoming();
+    }
+
+    //******************************************************************
+    // I/O
+    //******************************************************************
+
+    private void write(@Nullable Request request, @NotNull byte[] datagram) {
+        Outgoing outgoing = new Outgoing(request, datagram);
+        if (mOutgoing.isEmpty() && writeNow(outgoing)) {
+            return;
+        }
+        // The socket send buffer is full, wait until it's writable
+        mOutgoing.add(outgoing);
+        mKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    private void flush() {
+        Outgoing outgoing;
+        while ((outgoing = mOutgoing.peek()) != null) {
+            // Skip retransmissions of requests completed in the meantime
+            if (outgoing.request == null || !outgoing.request.done) {
+                if (!writeNow(outgoing)) {
+                    return;
+                }
+            }
+            mOutgoing.poll();
+        }
+        mKey.interestOps(SelectionKey.OP_READ);
+    }
+
+    /**
+     * Writes the datagram, returning false if there's no space in the socket send buffer.
+     * Datagrams which fail to be sent are dropped, retransmission takes care of them.
+     */
+    private boolean writeNow(@NotNull Outgoing outgoing) {
+        try {
+            outgoing.datagram.rewind();
+            return mChannel.write(outgoing.datagram) > 0;
+        } catch (IOException e) {
+            LOG.warn("Sending datagram failed: {}", e.toString());
+            return true;
+        }
+    }
+
+    private void receive() throws IOException {
+        while (true) {
+            mReceiveBuffer.clear();
+            int length;
+            try {
+                length = mChannel.read(mReceiveBuffer);
+            } catch (PortUnreachableException e) {
+                // Reported for an earlier datagram, the requests will be retransmitted
+                LOG.debug("Device port unreachable");
+                continue;
+            }
+            if (length <= 0) {
+                return;
+            }
+            byte[] datagram = new byte[length];
+            mReceiveBuffer.flip();
+            mReceiveBuffer.get(datagram);
+            handle(datagram);
+        }
+    }
+
+    private void handle(@NotNull byte[] datagram) {
+        Request request;
+        switch (mFraming.classify(datagram)) {
+            case UdpFraming.RESPONSE:
+                byte[] ack = mFraming.acknowledge(datagram);
+                if (ack != null) {
+                    write(null, ack);
+                }
+                request = mInFlight[mFraming.getSequenceNumber(datagram)];
+                if (request == null) {
+                    // A response to a retransmission, or to a request which has timed out
+                    LOG.debug("Unexpected response dropped");
+                    return;
+                }
+                complete(request);
+                request.transaction.onResponse(datagram);
+                break;
+            case UdpFraming.ACKNOWLEDGEMENT:
+                // The response will be sent separately, stop retransmitting and wait for it
+                request = findByMessageId(mFraming.getMessageId(datagram));
+                if (request != null && !request.acknowledged) {
+                    request.acknowledged = true;
+                    request.deadline = now() + (mInitialTimeout << mMaxRetransmissions);
+                }
+                break;
+            case UdpFraming.RESET:
+                request = findByMessageId(mFraming.getMessageId(datagram));
+                if (request != null) {
+                    complete(request);
+                    request.transaction.onFailure(
+                            new McuMgrException("Request rejected by the device"));
+                }
+                break;
+            default:
+                LOG.debug("Unexpected datagram dropped");
+                break;
+        }
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1_000_000;
+    }
+}
@@ -0,0 +1,428 @@
+package io.runtime.mcumgr.udp
+
+import io.runtime.mcumgr.McuManager
+import io.runtime.mcumgr.McuMgrCallback
+import io.runtime.mcumgr.McuMgrHeader
+import io.runtime.mcumgr.McuMgrScheme
+import io.runtime.mcumgr.exception.McuMgrCoapException
+import io.runtime.mcumgr.exception.McuMgrException
+import io.runtime.mcumgr.exception.McuMgrTimeoutException
+import io.runtime.mcumgr.response.dflt.McuMgrEchoResponse
+import io.runtime.mcumgr.util.CBOR
+import org.junit.After
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+import java.net.DatagramPacket
+import java.net.DatagramSocket
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.concurrent.thread
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertTrue
+
+class McuMgrUdpTransportTest {
+
+    /**
+     * A local SMP server echoing the "d" value of requests as "r".
+     */
+    private class EchoServer(private val scheme: McuMgrScheme) {
+        val socket = DatagramSocket(0, InetAddress.getLoopbackAddress())
+        val address = InetSocketAddress(InetAddress.getLoopbackAddress(), socket.localPort)
+
+        /** The number of datagrams to drop before responding. */
+        val drop = AtomicInteger()
+        /** The CoAP response code, 2.05 Content by default. */
+        @Volatile
+        var coapCode = 0x45
+        @Volatile
+        var separateResponse = false
+        /** The largest block size of block-wise transfers. */
+        @Volatile
+        var maxBlockSize = 1024
+        /** Whether the first block of a response announces its size. */
+        @Volatile
+        var sendSize2 = true
+        /** The number of requests received before the responses to them are sent together. */
+        @Volatile
+        var batch = 1
+
+        // Responses held until the batch is complete, accessed by the server thread only
+        private val held = mutableListOf<DatagramPacket>()
+
+        // Block-wise transfer state, accessed by the server thread only
+        private val requestBlocks = sortedMapOf<Int, ByteArray>()
+        private var responseBody = ByteArray(0)
+
+        init {
+            thread(isDaemon = true) {
+                val buffer = ByteArray(2048)
+                while (!socket.isClosed) {
+                    val packet = DatagramPacket(buffer, buffer.size)
+                    try {
+                        socket.receive(packet)
+                    } catch (e: Exception) {
+                        break
+                    }
+                    if (drop.getAndDecrement() > 0) {
+                        continue
+                    }
+                    val datagram = buffer.copyOf(packet.length)
+                    val responses = if (scheme.isCoap) coapRespond(datagram) else respond(datagram)
+                    responses.forEach {
+                        held.add(DatagramPacket(it, it.size, packet.socketAddress))
+                    }
+                    if (held.size >= batch) {
+                        held.forEach { socket.send(it) }
+                        held.clear()
+                    }
+                }
+            }
+        }
+
+        private fun respond(request: ByteArray): List<ByteArray> {
+            val header = McuMgrHeader.fromBytes(request)
+            val echo = CBOR.getString(request.copyOfRange(8, request.size), "d")
+            return listOf(McuManager.buildPacket(
+                McuMgrScheme.UDP, 3, 0, header.groupId, header.sequenceNum, header.commandId,
+                mapOf("r" to echo)
+            ))
+        }
+
+        private fun coapRespond(request: ByteArray): List<ByteArray> {
+            // Ignore acknowledgements of separate responses
+            if (request.size <= 4) {
+                return emptyList()
+            }
+            val messageId = request.copyOfRange(2, 4)
+            val token = request[4]
+            val options = coapOptions(request)
+            var payload = request.copyOfRange(options.getValue(PAYLOAD), request.size)
+            val block1 = options[BLOCK1]
+            val block2 = options[BLOCK2]
+            val serverSzx = szx(maxBlockSize)
+
+            // A following block of the response
+            if (block2 != null && block2 shr 4 > 0) {
+                return listOf(coapBlock(messageId, token, block2 shr 4, block2 and 7))
+            }
+            // A block of the request
+            if (block1 != null) {
+                requestBlocks[(block1 shr 4) * (16 shl (block1 and 7))] = payload
+                if (block1 and 8 != 0) {
+                    val echo = (block1 and 0x0F.inv()) or 8 or minOf(block1 and 7, serverSzx)
+                    return listOf(byteArrayOf(0x61, CONTINUE) + messageId + token +
+                        coapOptions(BLOCK1 to echo))
+                }
+                payload = requestBlocks.values.reduce { a, b -> a + b }
+                requestBlocks.clear()
+            }
+
+            val header =
+                McuMgrHeader.fromBytes(CBOR.getObject(payload, "_h", ByteArray::class.java))
+            val echo = CBOR.getString(payload, "d")
+            val body = McuManager.buildPacket(
+                McuMgrScheme.COAP_UDP, 3, 0, header.groupId, header.sequenceNum, header.commandId,
+                mapOf("r" to echo)
+            )
+            val szx = minOf(block2?.and(7) ?: serverSzx, serverSzx)
+            if (body.size > 16 shl szx) {
+                responseBody = body
+                return listOf(coapBlock(messageId, token, 0, szx))
+            }
+            val code = coapCode.toByte()
+            if (separateResponse) {
+                val ack = byteArrayOf(0x60, 0) + messageId
+                val response = byteArrayOf(0x41, code, 0x12, 0x34, token, 0xFF.toByte()) + body
+                return listOf(ack, response)
+            }
+            return listOf(byteArrayOf(0x61, code) + messageId + token + 0xFF.toByte() + body)
+        }
+
+        private fun coapBlock(messageId: ByteArray, token: Byte, num: Int, szx: Int): ByteArray {
+            val size = 16 shl szx
+            val start = num * size
+            val end = minOf(start + size, responseBody.size)
+            val more = if (end < responseBody.size) 8 else 0
+            val options = if (num == 0 && sendSize2) {
+                coapOptions(BLOCK2 to (num shl 4 or more or szx), SIZE2 to responseBody.size)
+            } else {
+                coapOptions(BLOCK2 to (num shl 4 or more or szx))
+            }
+            return byteArrayOf(0x61, 0x45) + messageId + token + options + 0xFF.toByte() +
+                responseBody.copyOfRange(start, end)
+        }
+
+        fun close() = socket.close()
+    }
+
+    private companion object {
+        const val BLOCK2 = 23
+        const val BLOCK1 = 27
+        const val SIZE2 = 28
+        /** The key of the payload offset in the parsed options. */
+        const val PAYLOAD = -1
+        const val CONTINUE = 0x5F.toByte()
+
+        fun szx(blockSize: Int) = Integer.numberOfTrailingZeros(blockSize) - 4
+
+        /**
+         * Returns the unsigned integer options of the CoAP message, and the payload offset.
+         */
+        fun coapOptions(message: ByteArray): Map<Int, Int> {
+            val options = mutableMapOf(PAYLOAD to message.size)
+            var position = 4 + (message[0].toInt() and 0x0F)
+            var number = 0
+            while (position < message.size) {
+                val b = message[position++].toInt() and 0xFF
+                if (b == 0xFF) {
+                    options[PAYLOAD] = position
+                    break
+                }
+                var delta = b shr 4
+                var length = b and 0x0F
+                if (delta == 13) delta += message[position++].toInt() and 0xFF
+                if (length == 13) length += message[position++].toInt() and 0xFF
+                number += delta
+                var value = 0
+                repeat(length) { value = value shl 8 or (message[position + it].toInt() and 0xFF) }
+                options[number] = value
+                position += length
+            }
+            return options
+        }
+
+        fun coapOptions(vararg options: Pair<Int, Int>): ByteArray {
+            val out = ByteArrayOutputStream()
+            var last = 0
+            for ((number, value) in options) {
+                val bytes = (3 downTo 0).map { (value shr (8 * it)).toByte() }
+                    .dropWhile { it == 0.toByte() }
+                val delta = number - last
+                last = number
+                if (delta >= 13) {
+                    out.write(0xD0 or bytes.size)
+                    out.write(delta - 13)
+                } else {
+                    out.write(delta shl 4 or bytes.size)
+                }
+                out.write(bytes.toByteArray())
+            }
+            return out.toByteArray()
+        }
+    }
+
+    private lateinit var server: EchoServer
+    private lateinit var transport: McuMgrUdpTransport
+
+    private fun start(scheme: McuMgrScheme) {
+        server = EchoServer(scheme)
+        transport = McuMgrUdpTransport(server.address, scheme)
+    }
+
+    @After
+    fun tearDown() {
+        transport.release()
+        server.close()
+    }
+
+    private fun echoRequest(scheme: McuMgrScheme, echo: String) =
+        McuManager.buildPacket(scheme, 2, 0, 0, 0, 0, mapOf("d" to echo))
+
+    @Test
+    fun `send and receive, plain SMP`() {
+        start(McuMgrScheme.UDP)
+        val response = transport.send(echoRequest(McuMgrScheme.UDP, "Hello!"),
+            McuMgrEchoResponse::class.java)
+        assertEquals("Hello!", response.r)
+    }
+
+    @Test
+    fun `request packet is not modified, plain SMP`() {
+        start(McuMgrScheme.UDP)
+        val request = echoRequest(McuMgrScheme.UDP, "Hello!")
+        val original = request.copyOf()
+        repeat(2) {
+            assertEquals("Hello!", transport.send(request, McuMgrEchoResponse::class.java).r)
+        }
+        assertEquals(original.toList(), request.toList())
+    }
+
+    @Test
+    fun `many requests in flight are matched by sequence number`() {
+        start(McuMgrScheme.UDP)
+        val count = 600
+        val latch = CountDownLatch(count)
+        val failures = AtomicInteger()
+        repeat(count) { i ->
+            transport.send(echoRequest(McuMgrScheme.UDP, "echo $i"),
+                McuMgrEchoResponse::class.java,
+                object : McuMgrCallback<McuMgrEchoResponse> {
+                    override fun onResponse(response: McuMgrEchoResponse) {
+                        if (response.r != "echo $i") failures.incrementAndGet()
+                        latch.countDown()
+                    }
+
+                    override fun onError(error: McuMgrException) {
+                        failures.incrementAndGet()
+                        latch.countDown()
+                    }
+                })
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS))
+        assertEquals(0, failures.get())
+    }
+
+    @Test
+    fun `lost request is retransmitted`() {
+        start(McuMgrScheme.UDP)
+        transport.setRetransmission(50, 2)
+        server.drop.set(2)
+        val response = transport.send(echoRequest(McuMgrScheme.UDP, "Hello!"),
+            McuMgrEchoResponse::class.java)
+        assertEquals("Hello!", response.r)
+    }
+
+    @Test
+    fun `request times out after last retransmission`() {
+        start(McuMgrScheme.UDP)
+        transport.setRetransmission(20, 2)
+        server.drop.set(Int.MAX_VALUE)
+        assertFailsWith<McuMgrTimeoutException> {
+            transport.send(echoRequest(McuMgrScheme.UDP, "Hello!"),
+                McuMgrEchoResponse::class.java)
+        }
+    }
+
+    @Test
+    fun `release fails requests in flight`() {
+        start(McuMgrScheme.UDP)
+        server.drop.set(Int.MAX_VALUE)
+        val failure = arrayOfNulls<McuMgrException>(1)
+        val latch = CountDownLatch(1)
+        transport.send(echoRequest(McuMgrScheme.UDP, "Hello!"), McuMgrEchoResponse::class.java,
+            object : McuMgrCallback<McuMgrEchoResponse> {
+                override fun onResponse(response: McuMgrEchoResponse) = latch.countDown()
+
+                override fun onError(error: McuMgrException) {
+                    failure[0] = error
+                    latch.countDown()
+                }
+            })
+        transport.release()
+        assertTrue(latch.await(5, TimeUnit.SECONDS))
+        assertEquals("Transport released", failure[0]?.message)
+    }
+
+    @Test
+    fun `send and receive, CoAP piggybacked response`() {
+        start(McuMgrScheme.COAP_UDP)
+        val response = transport.send(echoRequest(McuMgrScheme.COAP_UDP, "Hello!"),
+            McuMgrEchoResponse::class.java)
+        assertEquals("Hello!", response.r)
+        assertEquals(205, response.coapCode)
+    }
+
+    @Test
+    fun `send and receive, CoAP separate response`() {
+        start(McuMgrScheme.COAP_UDP)
+        server.separateResponse = true
+        val response = transport.send(echoRequest(McuMgrScheme.COAP_UDP, "Hello!"),
+            McuMgrEchoResponse::class.java)
+        assertEquals("Hello!", response.r)
+    }
+
+    @Test
+    fun `CoAP error response`() {
+        start(McuMgrScheme.COAP_UDP)
+        server.coapCode = 0x84 // 4.04 Not Found
+        val error = assertFailsWith<McuMgrCoapException> {
+            transport.send(echoRequest(McuMgrScheme.COAP_UDP, "Hello!"),
+                McuMgrEchoResponse::class.java)
+        }
+        assertEquals(4, error.codeClass)
+    }
+
+    @Test
+    fun `CoAP block-wise request and response, pipelined`() {
+        start(McuMgrScheme.COAP_UDP)
+        transport.setMaxPacketLength(16384)
+        transport.setBlockwiseTransfer(256, 4)
+        val echo = "x".repeat(5000)
+        val response = transport.send(echoRequest(McuMgrScheme.COAP_UDP, echo),
+            McuMgrEchoResponse::class.java)
+        assertEquals(echo, response.r)
+    }
+
+    @Test
+    fun `CoAP concurrent block-wise requests are not mixed`() {
+        start(McuMgrScheme.COAP_UDP)
+        transport.setMaxPacketLength(16384)
+        transport.setBlockwiseTransfer(256, 4)
+        val count = 8
+        val latch = CountDownLatch(count)
+        val failures = AtomicInteger()
+        repeat(count) { i ->
+            // Each request and response spans many blocks, of different contents and lengths
+            val echo = ('a' + i).toString().repeat(2000 + i * 300)
+            transport.send(echoRequest(McuMgrScheme.COAP_UDP, echo),
+                McuMgrEchoResponse::class.java,
+                object : McuMgrCallback<McuMgrEchoResponse> {
+                    override fun onResponse(response: McuMgrEchoResponse) {
+                        if (response.r != echo) failures.incrementAndGet()
+                        latch.countDown()
+                    }
+
+                    override fun onError(error: McuMgrException) {
+                        failures.incrementAndGet()
+                        latch.countDown()
+                    }
+                })
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS))
+        assertEquals(0, failures.get())
+    }
+
+    @Test
+    fun `CoAP concurrent single block requests are in flight together`() {
+        start(McuMgrScheme.COAP_UDP)
+        transport.setBlockwiseTransfer(256, 4)
+        // Responds only when all the requests have been received
+        val count = 8
+        server.batch = count
+        val latch = CountDownLatch(count)
+        val failures = AtomicInteger()
+        repeat(count) { i ->
+            transport.send(echoRequest(McuMgrScheme.COAP_UDP, "echo $i"),
+                McuMgrEchoResponse::class.java,
+                object : McuMgrCallback<McuMgrEchoResponse> {
+                    override fun onResponse(response: McuMgrEchoResponse) {
+                        if (response.r != "echo $i") failures.incrementAndGet()
+                        latch.countDown()
+                    }
+
+                    override fun onError(error: McuMgrException) {
+                        failures.incrementAndGet()
+                        latch.countDown()
+                    }
+                })
+        }
+        assertTrue(latch.await(1, TimeUnit.SECONDS))
+        assertEquals(0, failures.get())
+    }
+
+    @Test
+    fun `CoAP block size reduced by the device`() {
+        start(McuMgrScheme.COAP_UDP)
+        server.maxBlockSize = 128
+        server.sendSize2 = false
+        transport.setMaxPacketLength(16384)
+        val echo = "x".repeat(3000)
+        val response = transport.send(echoRequest(McuMgrScheme.COAP_UDP, echo),
+            McuMgrEchoResponse::class.java)
+        assertEquals(echo, response.r)
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) Intellinium SAS, 2014-present
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.runtime.mcumgr.virtual;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import io.runtime.mcumgr.McuMgrErrorCode;
+
+/**
+ * The config group: reads and writes string variables. Saving makes no difference, the
+ * variables are kept until the device is released.
+ */
+class ConfigGroup extends VirtualGroup {
+
+    private final static int ID_CONFIG = 0;
+
+    private final Map<String, String> mValues = new HashMap<>();
+
+    ConfigGroup(@NotNull VirtualDevice device) {
+        super(device);
+    }
+
+    @Nullable
+    String get(@NotNull String name) {
+        return mValues.get(name);
+    }
+
+    void set(@NotNull String name, @NotNull String value) {
+        mValues.put(name, value);
+    }
+
+    @NotNull
+    @Override
+    McuMgrErrorCode handle(boolean write, int commandId, @NotNull Map<String, Object> request,
+                           @NotNull Map<String, Object> response) {
+        if (commandId != ID_CONFIG) {
+            return McuMgrErrorCode.NOT_SUPPORTED;
+        }
+        String name = getString(request, "name");
+        if (name == null) {
+            return McuMgrErrorCode.IN_VALUE;
+        }
+        if (write) {
+            String value = getString(request, "val");
+            if (value == null) {
+                return McuMgrErrorCode.IN_VALUE;
+            }
+            mValues.put(name, value);
+            return McuMgrErrorCode.OK;
+        }
+        String value = mValues.get(name);
+        if (value == null) {
+            return McuMgrErrorCode.NO_ENTRY;
+        }
+        response.put("val", value);
+        return McuMgrErrorCode.OK;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) Intellinium SAS, 2014-present
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.runtime.mcumgr.virtual;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.runtime.mcumgr.McuMgrErrorCode;
+
+/**
+ * The default group: echo, task statistics and reset. The device reboots once the response to
+ * the reset command has been sent.
+ */
+class DefaultGroup extends VirtualGroup {
+
+    private final static int ID_ECHO = 0;
+    private final static int ID_TASKSTATS = 2;
+    private final static int ID_RESET = 5;
+
+    private final static String[] TASKS = {"idle", "main", "smp"};
+
+    DefaultGroup(@NotNull VirtualDevice device) {
+        super(device);
+    }
+
+    @NotNull
+    @Override
+    McuMgrErrorCode handle(boolean write, int commandId, @NotNull Map<String, Object> request,
+                           @NotNull Map<String, Object> response) {
+        switch (commandId) {
+            case ID_ECHO:
+                String echo = getString(request, "d");
+                if (echo == null) {
+                    return McuMgrErrorCode.IN_VALUE;
+                }
+                response.put("r", echo);
+                return McuMgrErrorCode.OK;
+            case ID_TASKSTATS:
+                response.put("tasks", taskStats());
+                return McuMgrErrorCode.OK;
+            case ID_RESET:
+                if (!write) {
+                    return McuMgrErrorCode.NOT_SUPPORTED;
+                }
+                mDevice.requestReset();
+                return McuMgrErrorCode.OK;
+            default:
+                return McuMgrErrorCode.NOT_SUPPORTED;
+        }
+    }
+
+    /*
+     * Returns fixed statistics of the tasks, but the context switch count of the SMP task,
+     * which is the number of requests handled.
+     */
+    @NotNull
+    private Map<String, Object> taskStats() {
+        Map<String, Object> tasks = new LinkedHashMap<>();
+        for (int i = 0; i < TASKS.length; i++) {
+            Map<String, Object> task = new LinkedHashMap<>();
+            task.put("prio", i == 0 ? 15 : 5 + i);
+            task.put("tid", i);
+            task.put("state", 1);
+            task.put("stkuse", 128 * (i + 1));
+            task.put("stksiz", 1024 * (i + 1));
+            task.put("cswcnt", i == 2 ? mDevice.getRequestCount() : 0);
+            task.put("runtime", 0);
+            task.put("last_checkin", 0);
+            task.put("next_checkin", 0);
+            tasks.put(TASKS[i], task);
+        }
+        return tasks;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) Intellinium SAS, 2014-present
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.runtime.mcumgr.virtual;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.runtime.mcumgr.McuMgrErrorCode;
+
+/**
+ * The file system group: a flat map of file names to contents. An uploaded file replaces the
+ * previous one once all of its data has been received. Downloads return chunks sized to fit in
+ * the buffer of the device.
+ */
+class FsGroup extends VirtualGroup {
+
+    private final static int ID_FILE = 0;
+
+    /** The space left in the buffer for the other entries of a download response. */
+    private final static int RESPONSE_OVERHEAD = 64;
+
+    private final Map<String, byte[]> mFiles = new HashMap<>();
+
+    /** The name, data and offset of the upload in progress, if any. */
+    @Nullable
+    private String mUploadName;
+    @Nullable
+    private byte[] mUploadData;
+    private int mUploadOffset;
+
+    FsGroup(@NotNull VirtualDevice device) {
+        super(device);
+    }
+
+    @Nullable
+    byte[] getFile(@NotNull String name) {
+        byte[] data = mFiles.get(name);
+        return data != null ? data.clone() : null;
+    }
+
+    void putFile(@NotNull String name, @NotNull byte[] data) {
+        mFiles.put(name, data.clone());
+    }
+
+    @NotNull
+    @Override
+    McuMgrErrorCode handle(boolean write, int commandId, @NotNull Map<String, Object> request,
+                           @NotNull Map<String, Object> response) {
+        if (commandId != ID_FILE) {
+            return McuMgrErrorCode.NOT_SUPPORTED;
+        }
+        String name = getString(request, "name");
+        long offset = getLong(request, "off", -1);
+        if (name == null || offset < 0) {
+            return McuMgrErrorCode.IN_VALUE;
+        }
+        return write ? upload(name, offset, request, response) : download(name, offset, response);
+    }
+
+    @NotNull
+    private McuMgrErrorCode upload(@NotNull String name, long offset,
+                                   @NotNull Map<String, Object> request,
+                                   @NotNull Map<String, Object> response) {
+        byte[] data = getBytes(request, "data");
+        if (data == null) {
+            return McuMgrErrorCode.IN_VALUE;
+        }
+        if (offset == 0) {
+            long length = getLong(request, "len", -1);
+            if (length < 0 || length > Integer.MAX_VALUE) {
+                return McuMgrErrorCode.IN_VALUE;
+            }
+            mUploadName = name;
+            mUploadData = new byte[(int) length];
+            mUploadOffset = 0;
+        } else if (mUploadData == null || !name.equals(mUploadName)) {
+            return McuMgrErrorCode.BAD_STATE;
+        }
+
+        if (offset != mUploadOffset) {
+            // The client resends from the offset returned
+            response.put("off", mUploadOffset);
+            return McuMgrErrorCode.OK;
+        }
+        if (offset + data.length > mUploadData.length) {
+            return McuMgrErrorCode.IN_VALUE;
+        }
+        System.arraycopy(data, 0, mUploadData, mUploadOffset, data.length);
+        mUploadOffset += data.length;
+        response.put("off", mUploadOffset);
+
+        if (mUploadOffset == mUploadData.length) {
+            mFiles.put(name, mUploadData);
+            mDevice.logEvent(LogGroup.MODULE_FS, "Uploaded file " + name);
+            mUploadName = null;
+            mUploadData = null;
+            mUploadOffset = 0;
+        }
+        return McuMgrErrorCode.OK;
+    }
+
+    @NotNull
+    private McuMgrErrorCode download(@NotNull String name, long offset,
+                                     @NotNull Map<String, Object> response) {
+        byte[] file = mFiles.get(name);
+        if (file == null) {
+            return McuMgrErrorCode.NO_ENTRY;
+        }
+        if (offset > file.length) {
+            return McuMgrErrorCode.IN_VALUE;
+        }
+        int chunk = Math.min(file.length - (int) offset,
+                mDevice.getBufferSize() - RESPONSE_OVERHEAD);
+        response.put("off", offset);
+        response.put("data", Arrays.copyOfRange(file, (int) offset, (int) offset + chunk));
+        if (offset == 0) {
+            response.put("len", file.length);
+        }
+        return McuMgrErrorCode.OK;
+    }
+}
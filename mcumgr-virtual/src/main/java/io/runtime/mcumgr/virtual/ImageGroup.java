@@ -0,0 +1,338 @@
+/*
+ * Copyright (c) Intellinium SAS, 2014-present
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.runtime.mcumgr.virtual;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.runtime.mcumgr.McuMgrErrorCode;
+import io.runtime.mcumgr.exception.McuMgrException;
+import io.runtime.mcumgr.image.McuMgrImage;
+import io.runtime.mcumgr.image.McuMgrImageVersion;
+
+/**
+ * The image group: two image slots in memory, following the MCUboot swap semantics. Images are
+ * always uploaded to the secondary slot. A pending image is swapped into the primary slot on
+ * reboot, and swapped back on the following reboot unless it has been confirmed.
+ */
+class ImageGroup extends VirtualGroup {
+
+    private final static int ID_STATE = 0;
+    private final static int ID_UPLOAD = 1;
+    private final static int ID_ERASE = 5;
+
+    private final static int PRIMARY = 0;
+    private final static int SECONDARY = 1;
+
+    private final static int SPLIT_STATUS_INVALID = 0;
+
+    /**
+     * An image slot. The flash is erased to 0xFF, the image fields are only valid when the slot
+     * is not empty.
+     */
+    final static class Slot {
+        @NotNull
+        final byte[] flash;
+        int length;
+        @Nullable
+        byte[] hash;
+        @NotNull
+        String version = "0.0.0";
+        boolean bootable;
+        boolean pending;
+        boolean confirmed;
+        boolean active;
+        boolean permanent;
+
+        Slot(int size) {
+            flash = new byte[size];
+            erase();
+        }
+
+        boolean isEmpty() {
+            return hash == null;
+        }
+
+        void erase() {
+            Arrays.fill(flash, (byte) 0xFF);
+            length = 0;
+            hash = null;
+            version = "0.0.0";
+            bootable = pending = confirmed = active = permanent = false;
+        }
+
+        @NotNull
+        byte[] getImage() {
+            return Arrays.copyOf(flash, length);
+        }
+
+        /*
+         * Fills in the image fields from the given length of the flash.
+         */
+        void load(int length) {
+            this.length = length;
+            byte[] data = getImage();
+            try {
+                McuMgrImage image = McuMgrImage.fromBytes(data);
+                McuMgrImageVersion v = image.getHeader().getVersion();
+                hash = image.getHash();
+                version = (v.getMajor() & 0xFF) + "." + (v.getMinor() & 0xFF) + "." +
+                        (v.getRevision() & 0xFFFF);
+                if (v.getBuildNum() != 0) {
+                    version += "." + (v.getBuildNum() & 0xFFFFFFFFL);
+                }
+                bootable = true;
+            } catch (McuMgrException e) {
+                // Not an MCUboot image, which the device keeps but will not boot
+                hash = sha256(data);
+                version = "0.0.0";
+                bootable = false;
+            }
+        }
+    }
+
+    @NotNull
+    private final Slot[] mSlots = new Slot[2];
+
+    /** The total length and the truncated hash of the upload in progress, if any. */
+    private int mUploadLength = -1;
+    @Nullable
+    private byte[] mUploadSha;
+    private int mUploadOffset;
+
+    ImageGroup(@NotNull VirtualDevice device, @NotNull byte[] primaryImage, int slotSize) {
+        super(device);
+        if (primaryImage.length > slotSize) {
+            throw new IllegalArgumentException("Image larger than the slot size");
+        }
+        mSlots[PRIMARY] = new Slot(slotSize);
+        mSlots[SECONDARY] = new Slot(slotSize);
+
+        Slot primary = mSlots[PRIMARY];
+        System.arraycopy(primaryImage, 0, primary.flash, 0, primaryImage.length);
+        primary.load(primaryImage.length);
+        primary.active = primary.confirmed = true;
+    }
+
+    @NotNull
+    Slot getSlot(int slot) {
+        return mSlots[slot];
+    }
+
+    @NotNull
+    @Override
+    McuMgrErrorCode handle(boolean write, int commandId, @NotNull Map<String, Object> request,
+                           @NotNull Map<String, Object> response) {
+        switch (commandId) {
+            case ID_STATE:
+                if (write) {
+                    McuMgrErrorCode rc = writeState(request);
+                    if (rc != McuMgrErrorCode.OK) {
+                        return rc;
+                    }
+                }
+                readState(response);
+                return McuMgrErrorCode.OK;
+            case ID_UPLOAD:
+                return write ? upload(request, response) : McuMgrErrorCode.NOT_SUPPORTED;
+            case ID_ERASE:
+                return write ? erase() : McuMgrErrorCode.NOT_SUPPORTED;
+            default:
+                return McuMgrErrorCode.NOT_SUPPORTED;
+        }
+    }
+
+    @Override
+    void onReboot() {
+        Slot primary = mSlots[PRIMARY];
+        Slot secondary = mSlots[SECONDARY];
+        if (secondary.pending && secondary.bootable) {
+            // Swap into the pending image, which stays unconfirmed unless it was made permanent
+            boolean permanent = secondary.permanent;
+            swap();
+            primary.active = true;
+            primary.confirmed = permanent;
+            mDevice.logEvent(LogGroup.MODULE_IMAGE, "Swapped to image " + primary.version);
+        } else if (!primary.confirmed && !secondary.isEmpty()) {
+            // Revert to the previous image
+            swap();
+            primary.active = primary.confirmed = true;
+            mDevice.logEvent(LogGroup.MODULE_IMAGE, "Reverted to image " + primary.version);
+        } else {
+            primary.active = true;
+        }
+    }
+
+    //*******************************************************************************************
+    // State
+    //*******************************************************************************************
+
+    private void readState(@NotNull Map<String, Object> response) {
+        List<Object> images = new ArrayList<>();
+        for (int i = 0; i < mSlots.length; i++) {
+            Slot slot = mSlots[i];
+            if (slot.isEmpty()) {
+                continue;
+            }
+            Map<String, Object> image = new LinkedHashMap<>();
+            image.put("slot", i);
+            image.put("version", slot.version);
+            image.put("hash", slot.hash);
+            image.put("bootable", slot.bootable);
+            image.put("pending", slot.pending);
+            image.put("confirmed", slot.confirmed);
+            image.put("active", slot.active);
+            image.put("permanent", slot.permanent);
+            images.add(image);
+        }
+        response.put("images", images);
+        response.put("splitStatus", SPLIT_STATUS_INVALID);
+    }
+
+    @NotNull
+    private McuMgrErrorCode writeState(@NotNull Map<String, Object> request) {
+        byte[] hash = getBytes(request, "hash");
+        boolean confirm = getBoolean(request, "confirm", false);
+        Slot primary = mSlots[PRIMARY];
+        Slot secondary = mSlots[SECONDARY];
+
+        if (confirm && (hash == null || Arrays.equals(hash, primary.hash))) {
+            primary.confirmed = true;
+            return McuMgrErrorCode.OK;
+        }
+        if (hash == null) {
+            return McuMgrErrorCode.IN_VALUE;
+        }
+        if (Arrays.equals(hash, primary.hash)) {
+            // The running image can't be tested
+            return McuMgrErrorCode.BAD_STATE;
+        }
+        if (secondary.isEmpty() || !Arrays.equals(hash, secondary.hash)) {
+            return McuMgrErrorCode.NO_ENTRY;
+        }
+        if (!secondary.bootable) {
+            return McuMgrErrorCode.BAD_STATE;
+        }
+        secondary.pending = true;
+        secondary.permanent = confirm;
+        return McuMgrErrorCode.OK;
+    }
+
+    //*******************************************************************************************
+    // Upload
+    //*******************************************************************************************
+
+    @NotNull
+    private McuMgrErrorCode upload(@NotNull Map<String, Object> request,
+                                   @NotNull Map<String, Object> response) {
+        byte[] data = getBytes(request, "data");
+        long offset = getLong(request, "off", -1);
+        if (data == null || offset < 0) {
+            return McuMgrErrorCode.IN_VALUE;
+        }
+        Slot primary = mSlots[PRIMARY];
+        Slot secondary = mSlots[SECONDARY];
+        if (secondary.pending || !primary.confirmed) {
+            return McuMgrErrorCode.BAD_STATE;
+        }
+
+        if (offset == 0) {
+            long length = getLong(request, "len", -1);
+            byte[] sha = getBytes(request, "sha");
+            if (length < 0) {
+                return McuMgrErrorCode.IN_VALUE;
+            }
+            if (length > secondary.flash.length) {
+                return McuMgrErrorCode.TOO_LARGE;
+            }
+            if (sha != null && length == mUploadLength && Arrays.equals(sha, mUploadSha)) {
+                // Resume the upload in progress
+                response.put("off", mUploadOffset);
+                return McuMgrErrorCode.OK;
+            }
+            secondary.erase();
+            mUploadLength = (int) length;
+            mUploadSha = sha;
+            mUploadOffset = 0;
+        } else if (mUploadLength < 0) {
+            return McuMgrErrorCode.BAD_STATE;
+        }
+
+        if (offset != mUploadOffset) {
+            // The client resends from the offset returned
+            response.put("off", mUploadOffset);
+            return McuMgrErrorCode.OK;
+        }
+        if (offset + data.length > mUploadLength) {
+            return McuMgrErrorCode.IN_VALUE;
+        }
+        System.arraycopy(data, 0, secondary.flash, mUploadOffset, data.length);
+        mUploadOffset += data.length;
+        response.put("off", mUploadOffset);
+
+        if (mUploadOffset == mUploadLength) {
+            secondary.load(mUploadLength);
+            cancelUpload();
+            mDevice.logEvent(LogGroup.MODULE_IMAGE, "Uploaded image " + secondary.version);
+        }
+        return McuMgrErrorCode.OK;
+    }
+
+    @NotNull
+    private McuMgrErrorCode erase() {
+        Slot secondary = mSlots[SECONDARY];
+        if (secondary.pending) {
+            return McuMgrErrorCode.BAD_STATE;
+        }
+        secondary.erase();
+        cancelUpload();
+        return McuMgrErrorCode.OK;
+    }
+
+    private void cancelUpload() {
+        mUploadLength = -1;
+        mUploadSha = null;
+        mUploadOffset = 0;
+    }
+
+    //*******************************************************************************************
+    // Helpers
+    //*******************************************************************************************
+
+    /*
+     * Swaps the contents of the slots, as MCUboot does when booting.
+     */
+    private void swap() {
+        Slot primary = mSlots[PRIMARY];
+        Slot secondary = mSlots[SECONDARY];
+        byte[] image = primary.getImage();
+        byte[] pending = secondary.getImage();
+        primary.erase();
+        secondary.erase();
+        System.arraycopy(pending, 0, primary.flash, 0, pending.length);
+        System.arraycopy(image, 0, secondary.flash, 0, image.length);
+        primary.load(pending.length);
+        secondary.load(image.length);
+    }
+
+    @NotNull
+    static byte[] sha256(@NotNull byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
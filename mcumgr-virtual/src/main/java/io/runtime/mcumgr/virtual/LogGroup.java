@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) Intellinium SAS, 2014-present
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.runtime.mcumgr.virtual;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.runtime.mcumgr.McuMgrErrorCode;
+
+/**
+ * The log group: a single memory log, to which the device writes its own events. Entries are
+ * timestamped with their index, so that the log is deterministic. Reading returns as many
+ * entries as fit in the buffer of the device.
+ */
+class LogGroup extends VirtualGroup {
+
+    private final static int ID_READ = 0;
+    private final static int ID_CLEAR = 1;
+    private final static int ID_MODULE_LIST = 3;
+    private final static int ID_LEVEL_LIST = 4;
+    private final static int ID_LOGS_LIST = 5;
+
+    final static String LOG_NAME = "log";
+    private final static int LOG_TYPE_MEMORY = 1;
+
+    /** The modules of the entries. */
+    final static int MODULE_DEFAULT = 0;
+    final static int MODULE_IMAGE = 1;
+    final static int MODULE_FS = 2;
+
+    private final static String[] MODULES = {"DEFAULT", "IMG", "FS"};
+    private final static String[] LEVELS = {"DEBUG", "INFO", "WARN", "ERROR", "CRITICAL"};
+
+    /** The estimated encoded length of an entry, without the message. */
+    private final static int ENTRY_OVERHEAD = 64;
+    private final static Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final static class Entry {
+        final long index;
+        final int level;
+        final int module;
+        @NotNull
+        final byte[] message;
+
+        Entry(long index, int level, int module, @NotNull byte[] message) {
+            this.index = index;
+            this.level = level;
+            this.module = module;
+            this.message = message;
+        }
+    }
+
+    private final List<Entry> mEntries = new ArrayList<>();
+    private long mNextIndex;
+
+    LogGroup(@NotNull VirtualDevice device) {
+        super(device);
+    }
+
+    void append(int level, int module, @NotNull String message) {
+        mEntries.add(new Entry(mNextIndex++, level, module, message.getBytes(UTF_8)));
+    }
+
+    @NotNull
+    @Override
+    McuMgrErrorCode handle(boolean write, int commandId, @NotNull Map<String, Object> request,
+                           @NotNull Map<String, Object> response) {
+        switch (commandId) {
+            case ID_READ:
+                return read(request, response);
+            case ID_CLEAR:
+                mEntries.clear();
+                return McuMgrErrorCode.OK;
+            case ID_MODULE_LIST:
+                Map<String, Object> modules = new LinkedHashMap<>();
+                for (int i = 0; i < MODULES.length; i++) {
+                    modules.put(MODULES[i], i);
+                }
+                response.put("module_map", modules);
+                return McuMgrErrorCode.OK;
+            case ID_LEVEL_LIST:
+                response.put("level_map", LEVELS);
+                return McuMgrErrorCode.OK;
+            case ID_LOGS_LIST:
+                response.put("log_list", Collections.singletonList(LOG_NAME));
+                return McuMgrErrorCode.OK;
+            default:
+                return McuMgrErrorCode.NOT_SUPPORTED;
+        }
+    }
+
+    @NotNull
+    private McuMgrErrorCode read(@NotNull Map<String, Object> request,
+                                 @NotNull Map<String, Object> response) {
+        String name = getString(request, "log_name");
+        if (name != null && !name.equals(LOG_NAME)) {
+            return McuMgrErrorCode.NO_ENTRY;
+        }
+        long minIndex = getLong(request, "index", 0);
+
+        List<Object> entries = new ArrayList<>();
+        int budget = mDevice.getBufferSize() - ENTRY_OVERHEAD;
+        for (Entry entry : mEntries) {
+            if (entry.index < minIndex) {
+                continue;
+            }
+            budget -= ENTRY_OVERHEAD + entry.message.length;
+            // At least one entry is returned
+            if (budget < 0 && !entries.isEmpty()) {
+                break;
+            }
+            Map<String, Object> e = new LinkedHashMap<>();
+            e.put("msg", entry.message);
+            e.put("ts", entry.index);
+            e.put("level", entry.level);
+            e.put("index", entry.index);
+            e.put("module", entry.module);
+            e.put("type", "str");
+            entries.add(e);
+        }
+
+        Map<String, Object> log = new LinkedHashMap<>();
+        log.put("name", LOG_NAME);
+        log.put("type", LOG_TYPE_MEMORY);
+        log.put("entries", entries);
+        response.put("next_index", mNextIndex);
+        response.put("logs", Collections.singletonList(log));
+        return McuMgrErrorCode.OK;
+    }
+}
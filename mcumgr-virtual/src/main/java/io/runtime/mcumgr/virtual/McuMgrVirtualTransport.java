@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) Intellinium SAS, 2014-present
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.runtime.mcumgr.virtual;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import io.runtime.mcumgr.McuManager;
+import io.runtime.mcumgr.McuMgrCallback;
+import io.runtime.mcumgr.McuMgrHeader;
+import io.runtime.mcumgr.McuMgrScheme;
+import io.runtime.mcumgr.McuMgrTransport;
+import io.runtime.mcumgr.exception.InsufficientMtuException;
+import io.runtime.mcumgr.exception.McuMgrException;
+import io.runtime.mcumgr.response.McuMgrResponse;
+import io.runtime.mcumgr.util.CBOR;
+import io.runtime.mcumgr.util.CallbackExecutors;
+
+/**
+ * The McuMgrVirtualTransport connects managers to a {@link VirtualDevice} in the same process.
+ * Packets are encoded and decoded exactly as by the other transports, so the managers, the
+ * request encoders and the response decoders may be tested without a device.
+ * <p>
+ * The transport accepts any scheme: the CoAP schemes embed the header in the CBOR payload, all
+ * others send it in front of the payload. Packets longer than the buffer of the device, or than
+ * the length set with {@link #setMaxPacketLength(int)}, are rejected with an
+ * {@link InsufficientMtuException}, as a device would reject them.
+ * <p>
+ * Asynchronous requests are handled in order on a single thread shared by all transports,
+ * synchronous requests on the calling thread. The {@link McuMgrCallback}s are called on the
+ * callback executor, which by default is the thread which handled the request. After the
+ * response to a reset command, the device reboots and the transport disconnects, notifying the
+ * {@link ConnectionObserver}s. It reconnects on the next request or on {@link #connect}.
+ * <p>
+ * The transport uses no Android APIs and may be used on any JVM.
+ */
+@SuppressWarnings("unused")
+public class McuMgrVirtualTransport implements McuMgrTransport,
+        McuMgrTransport.PacketLengthLimit, McuMgrTransport.CallbackExecutorSupport {
+
+    private final static Logger LOG = LoggerFactory.getLogger(McuMgrVirtualTransport.class);
+
+    /** The executor handling asynchronous requests, a single daemon thread. */
+    private final static ExecutorService EXECUTOR =
+            Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(@NotNull Runnable runnable) {
+                    Thread thread = new Thread(runnable, "McuMgrVirtualDevice");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final static String HEADER_KEY = "_h";
+
+    /** The CoAP response code 2.05 Content. */
+    private final static int COAP_CODE_CLASS = 2;
+    private final static int COAP_CODE_DETAIL = 5;
+
+    @NotNull
+    private final VirtualDevice mDevice;
+    @NotNull
+    private final McuMgrScheme mScheme;
+    @NotNull
+    private volatile Executor mCallbackExecutor = CallbackExecutors.direct();
+    private volatile int mMaxPacketLength;
+
+    private boolean mConnected;
+
+    private final List<ConnectionObserver> mConnectionObservers = new CopyOnWriteArrayList<>();
+
+    /**
+     * Construct a McuMgrVirtualTransport object connected to the given device.
+     *
+     * @param device the device.
+     * @param scheme the scheme, which determines the format of the packets.
+     */
+    public McuMgrVirtualTransport(@NotNull VirtualDevice device, @NotNull McuMgrScheme scheme) {
+        mDevice = device;
+        mScheme = scheme;
+        mMaxPacketLength = device.getBufferSize();
+    }
+
+    @NotNull
+    @Override
+    public McuMgrScheme getScheme() {
+        return mScheme;
+    }
+
+    @NotNull
+    public VirtualDevice getDevice() {
+        return mDevice;
+    }
+
+    /**
+     * Sets the maximum length of a packet, for example to emulate the MTU of a BLE connection.
+     * The length may not exceed the buffer size of the device.
+     *
+     * @param maxPacketLength the maximum packet length.
+     */
+    public void setMaxPacketLength(int maxPacketLength) {
+        if (maxPacketLength < McuMgrHeader.HEADER_LENGTH
+                || maxPacketLength > mDevice.getBufferSize()) {
+            throw new IllegalArgumentException("Invalid packet length: " + maxPacketLength);
+        }
+        mMaxPacketLength = maxPacketLength;
+    }
+
+    @Override
+    public int getMaxPacketLength() {
+        return mMaxPacketLength;
+    }
+
+    @Override
+    public void setCallbackExecutor(@NotNull Executor executor) {
+        mCallbackExecutor = executor;
+    }
+
+    //*******************************************************************************************
+    // Requests
+    //*******************************************************************************************
+
+    @NotNull
+    @Override
+    public <T extends McuMgrResponse> T send(@NotNull byte[] payload,
+                                            @NotNull Class<T> responseType)
+            throws McuMgrException {
+        T response = handle(payload, responseType);
+        rebootIfRequested();
+        return response;
+    }
+
+    @Override
+    public <T extends McuMgrResponse> void send(@NotNull final byte[] payload,
+                                                @NotNull final Class<T> responseType,
+                                                @NotNull final McuMgrCallback<T> callback) {
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final T response;
+                try {
+                    response = handle(payload, responseType);
+                } catch (final McuMgrException e) {
+                    mCallbackExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onError(e);
+                        }
+                    });
+                    return;
+                }
+                mCallbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onResponse(response);
+                    }
+                });
+                // As a device, reboot after the response has been sent
+                rebootIfRequested();
+            }
+        });
+    }
+
+    /*
+     * Passes the request to the device and decodes the response. The device is done with the
+     * packet when this method returns.
+     */
+    @NotNull
+    private <T extends McuMgrResponse> T handle(@NotNull byte[] packet,
+                                                @NotNull Class<T> responseType)
+            throws McuMgrException {
+        int maxPacketLength = mMaxPacketLength;
+        if (packet.length > maxPacketLength) {
+            throw new InsufficientMtuException(packet.length, maxPacketLength);
+        }
+        connectIfNeeded();
+
+        McuMgrHeader header;
+        Map<String, Object> request;
+        try {
+            if (mScheme.isCoap()) {
+                request = CBOR.toObjectMap(packet);
+                Object h = request.remove(HEADER_KEY);
+                if (!(h instanceof byte[]) || ((byte[]) h).length < McuMgrHeader.HEADER_LENGTH) {
+                    throw new McuMgrException("Invalid packet: missing header");
+                }
+                header = McuMgrHeader.fromBytes((byte[]) h);
+            } else {
+                if (packet.length < McuMgrHeader.HEADER_LENGTH) {
+                    throw new McuMgrException("Invalid packet");
+                }
+                header = McuMgrHeader.fromBytes(packet);
+                int end = McuMgrHeader.HEADER_LENGTH + header.getLen();
+                if (end > packet.length) {
+                    throw new McuMgrException("Invalid packet: truncated payload");
+                }
+                request = header.getLen() == 0 ? new HashMap<String, Object>() :
+                        CBOR.toObjectMap(Arrays.copyOfRange(packet,
+                                McuMgrHeader.HEADER_LENGTH, end));
+            }
+        } catch (McuMgrException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new McuMgrException(e);
+        }
+
+        Map<String, Object> result = mDevice.handle(header.getOp(), header.getGroupId(),
+                header.getCommandId(), request);
+
+        byte[] response = McuManager.buildPacket(mScheme, header.getOp() + 1, header.getFlags(),
+                header.getGroupId(), header.getSequenceNum(), header.getCommandId(), result);
+        if (response.length > mDevice.getBufferSize()) {
+            LOG.warn("Response of {} bytes exceeds the buffer of the device", response.length);
+        }
+        try {
+            if (mScheme.isCoap()) {
+                byte[] responseHeader = McuMgrHeader.build(header.getOp() + 1, header.getFlags(),
+                        response.length, header.getGroupId(), header.getSequenceNum(),
+                        header.getCommandId());
+                return McuMgrResponse.buildCoapResponse(mScheme, response, responseHeader,
+                        response, COAP_CODE_CLASS, COAP_CODE_DETAIL, responseType);
+            }
+            return McuMgrResponse.buildResponse(mScheme, response, responseType);
+        } catch (McuMgrException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new McuMgrException(e);
+        }
+    }
+
+    /*
+     * Reboots the device if the request was a reset, disconnecting the transport.
+     */
+    private void rebootIfRequested() {
+        if (mDevice.rebootIfRequested()) {
+            LOG.info("Virtual device rebooted");
+            disconnect();
+        }
+    }
+
+    //*******************************************************************************************
+    // Connection
+    //*******************************************************************************************
+
+    @Override
+    public void connect(@Nullable ConnectionCallback callback) {
+        connectIfNeeded();
+        if (callback != null) {
+            callback.onConnected();
+        }
+    }
+
+    @Override
+    public void release() {
+        disconnect();
+    }
+
+    private void connectIfNeeded() {
+        synchronized (this) {
+            if (mConnected) {
+                return;
+            }
+            mConnected = true;
+        }
+        for (ConnectionObserver o : mConnectionObservers) {
+            o.onConnected();
+        }
+    }
+
+    private void disconnect() {
+        synchronized (this) {
+            if (!mConnected) {
+                return;
+            }
+            mConnected = false;
+        }
+        for (ConnectionObserver o : mConnectionObservers) {
+            o.onDisconnected();
+        }
+    }
+
+    //*******************************************************************************************
+    // Manager Connection Observers
+    //*******************************************************************************************
+
+    @Override
+    public void addObserver(@NotNull ConnectionObserver observer) {
+        mConnectionObservers.add(observer);
+    }
+
+    @Override
+    public void removeObserver(@NotNull ConnectionObserver observer) {
+        mConnectionObservers.remove(observer);
+    }
+}
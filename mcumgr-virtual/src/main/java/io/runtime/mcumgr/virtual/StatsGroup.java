@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) Intellinium SAS, 2014-present
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.runtime.mcumgr.virtual;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.runtime.mcumgr.McuMgrErrorCode;
+
+/**
+ * The stats group: lists and reads groups of statistics. The "smp" group counts the requests,
+ * responses and errors of the device, other groups are set by the user of the device.
+ */
+class StatsGroup extends VirtualGroup {
+
+    private final static int ID_READ = 0;
+    private final static int ID_LIST = 1;
+
+    final static String SMP = "smp";
+
+    private final Map<String, Map<String, Long>> mGroups = new LinkedHashMap<>();
+
+    StatsGroup(@NotNull VirtualDevice device) {
+        super(device);
+        set(SMP, "requests", 0);
+        set(SMP, "responses", 0);
+        set(SMP, "errors", 0);
+    }
+
+    void set(@NotNull String group, @NotNull String name, long value) {
+        Map<String, Long> fields = mGroups.get(group);
+        if (fields == null) {
+            fields = new LinkedHashMap<>();
+            mGroups.put(group, fields);
+        }
+        fields.put(name, value);
+    }
+
+    void increment(@NotNull String group, @NotNull String name) {
+        Map<String, Long> fields = mGroups.get(group);
+        Long value = fields != null ? fields.get(name) : null;
+        set(group, name, value != null ? value + 1 : 1);
+    }
+
+    @NotNull
+    @Override
+    McuMgrErrorCode handle(boolean write, int commandId, @NotNull Map<String, Object> request,
+                           @NotNull Map<String, Object> response) {
+        switch (commandId) {
+            case ID_READ:
+                String name = getString(request, "name");
+                Map<String, Long> fields = name != null ? mGroups.get(name) : null;
+                if (fields == null) {
+                    return McuMgrErrorCode.IN_VALUE;
+                }
+                response.put("name", name);
+                response.put("fields", new LinkedHashMap<>(fields));
+                return McuMgrErrorCode.OK;
+            case ID_LIST:
+                response.put("stat_list", new ArrayList<>(mGroups.keySet()));
+                return McuMgrErrorCode.OK;
+            default:
+                return McuMgrErrorCode.NOT_SUPPORTED;
+        }
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright (c) Intellinium SAS, 2014-present
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.runtime.mcumgr.virtual;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.runtime.mcumgr.McuMgrErrorCode;
+
+/**
+ * An in-process SMP server, emulating a device running MCUboot with the default, image, stats,
+ * config, log and file system command groups. Flash and files are kept in memory and all state
+ * is lost when the device is garbage collected. Log timestamps and task statistics are
+ * deterministic, so the device may be used to test apps and managers without hardware.
+ * <p>
+ * The device is connected to the managers through a {@link McuMgrVirtualTransport}. Requests are
+ * handled one at a time, as on a real device, and the state of the device may be inspected and
+ * modified between requests using the public methods of this class.
+ */
+@SuppressWarnings({"unused", "WeakerAccess"})
+public class VirtualDevice {
+
+    private final static Logger LOG = LoggerFactory.getLogger(VirtualDevice.class);
+
+    /** The default size of each image slot. */
+    public final static int DEFAULT_SLOT_SIZE = 256 * 1024;
+    /** The default size of the SMP buffer of the device, limiting requests and responses. */
+    public final static int DEFAULT_BUFFER_SIZE = 1024;
+
+    /** Log levels, as in the "level_map" of the log group. */
+    public final static int LOG_LEVEL_DEBUG = 0;
+    public final static int LOG_LEVEL_INFO = 1;
+    public final static int LOG_LEVEL_WARN = 2;
+    public final static int LOG_LEVEL_ERROR = 3;
+    public final static int LOG_LEVEL_CRITICAL = 4;
+
+    private final static int OP_WRITE = 2;
+
+    private final static int GROUP_DEFAULT = 0;
+    private final static int GROUP_IMAGE = 1;
+    private final static int GROUP_STATS = 2;
+    private final static int GROUP_CONFIG = 3;
+    private final static int GROUP_LOGS = 4;
+    private final static int GROUP_FS = 8;
+
+    private final static int IMAGE_HEADER_SIZE = 32;
+    private final static int IMAGE_MAGIC = 0x96f3b83d;
+    private final static int TLV_INFO_MAGIC = 0x6907;
+    private final static int TLV_INFO_SIZE = 4;
+    private final static int TLV_SHA256 = 0x10;
+    private final static int TLV_SHA256_SIZE = 4 + 32;
+
+    private final int mBufferSize;
+    @NotNull
+    private final ImageGroup mImageGroup;
+    @NotNull
+    private final StatsGroup mStatsGroup = new StatsGroup(this);
+    @NotNull
+    private final ConfigGroup mConfigGroup = new ConfigGroup(this);
+    @NotNull
+    private final LogGroup mLogGroup = new LogGroup(this);
+    @NotNull
+    private final FsGroup mFsGroup = new FsGroup(this);
+    @NotNull
+    private final Map<Integer, VirtualGroup> mGroups = new HashMap<>();
+
+    private long mRequestCount;
+    private boolean mResetRequested;
+
+    /**
+     * Construct a VirtualDevice running a generated image version 1.0.0, with the default slot
+     * and buffer sizes.
+     */
+    public VirtualDevice() {
+        this(createImage(1, 0, 0, 0, 1024), DEFAULT_SLOT_SIZE, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Construct a VirtualDevice running the given image.
+     *
+     * @param primaryImage the confirmed image in the primary slot, see
+     *                     {@link #createImage(int, int, int, int, int)}.
+     * @param slotSize     the size of each image slot, limiting the size of the uploaded images.
+     * @param bufferSize   the size of the SMP buffer, limiting the size of the packets.
+     */
+    public VirtualDevice(@NotNull byte[] primaryImage, int slotSize, int bufferSize) {
+        if (bufferSize < 128) {
+            throw new IllegalArgumentException("Buffer size must be at least 128 bytes");
+        }
+        mBufferSize = bufferSize;
+        mImageGroup = new ImageGroup(this, primaryImage, slotSize);
+        mGroups.put(GROUP_DEFAULT, new DefaultGroup(this));
+        mGroups.put(GROUP_IMAGE, mImageGroup);
+        mGroups.put(GROUP_STATS, mStatsGroup);
+        mGroups.put(GROUP_CONFIG, mConfigGroup);
+        mGroups.put(GROUP_LOGS, mLogGroup);
+        mGroups.put(GROUP_FS, mFsGroup);
+    }
+
+    /**
+     * Returns the size of the SMP buffer of the device. Packets longer than this are rejected.
+     *
+     * @return The buffer size, in bytes.
+     */
+    public int getBufferSize() {
+        return mBufferSize;
+    }
+
+    //*******************************************************************************************
+    // Requests
+    //*******************************************************************************************
+
+    /**
+     * Handles a request.
+     *
+     * @param op        the operation of the request.
+     * @param groupId   the command group ID.
+     * @param commandId the command ID.
+     * @param request   the decoded payload of the request.
+     * @return The payload of the response, always including the return code "rc".
+     */
+    @NotNull
+    synchronized Map<String, Object> handle(int op, int groupId, int commandId,
+                                            @NotNull Map<String, Object> request) {
+        mRequestCount++;
+        mStatsGroup.increment(StatsGroup.SMP, "requests");
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        VirtualGroup group = mGroups.get(groupId);
+        McuMgrErrorCode rc;
+        if (group == null) {
+            rc = McuMgrErrorCode.NOT_SUPPORTED;
+        } else {
+            try {
+                rc = group.handle(op == OP_WRITE, commandId, request, response);
+            } catch (RuntimeException e) {
+                // Entries of the wrong type
+                LOG.warn("Invalid request to group {}, command {}", groupId, commandId, e);
+                rc = McuMgrErrorCode.IN_VALUE;
+            }
+        }
+        if (rc != McuMgrErrorCode.OK) {
+            response.clear();
+            mStatsGroup.increment(StatsGroup.SMP, "errors");
+        }
+        response.put("rc", rc.value());
+        mStatsGroup.increment(StatsGroup.SMP, "responses");
+        return response;
+    }
+
+    synchronized long getRequestCount() {
+        return mRequestCount;
+    }
+
+    /*
+     * Called by the reset command. The device reboots after the response has been sent.
+     */
+    void requestReset() {
+        mResetRequested = true;
+    }
+
+    /*
+     * Reboots the device, if a reset has been requested. Returns true if it rebooted.
+     */
+    synchronized boolean rebootIfRequested() {
+        if (!mResetRequested) {
+            return false;
+        }
+        reboot();
+        return true;
+    }
+
+    /**
+     * Reboots the device. A pending image is swapped into the primary slot, an unconfirmed image
+     * is reverted. Uploads in progress are kept, files, config and logs are persistent.
+     * <p>
+     * The transport is not notified, use the reset command to disconnect the transport.
+     */
+    public synchronized void reboot() {
+        mResetRequested = false;
+        for (VirtualGroup group : mGroups.values()) {
+            group.onReboot();
+        }
+        logEvent(LogGroup.MODULE_DEFAULT, "Rebooted");
+    }
+
+    //*******************************************************************************************
+    // State
+    //*******************************************************************************************
+
+    /**
+     * Returns the image in the given slot.
+     *
+     * @param slot the slot, 0 for primary or 1 for secondary.
+     * @return The image, or null if the slot is empty.
+     */
+    @Nullable
+    public synchronized byte[] getImage(int slot) {
+        ImageGroup.Slot s = mImageGroup.getSlot(slot);
+        return s.isEmpty() ? null : s.getImage();
+    }
+
+    /**
+     * Returns the hash of the image in the given slot, as reported by the image state command.
+     *
+     * @param slot the slot, 0 for primary or 1 for secondary.
+     * @return The hash, or null if the slot is empty.
+     */
+    @Nullable
+    public synchronized byte[] getImageHash(int slot) {
+        byte[] hash = mImageGroup.getSlot(slot).hash;
+        return hash != null ? hash.clone() : null;
+    }
+
+    @Nullable
+    public synchronized byte[] getFile(@NotNull String name) {
+        return mFsGroup.getFile(name);
+    }
+
+    public synchronized void putFile(@NotNull String name, @NotNull byte[] data) {
+        mFsGroup.putFile(name, data);
+    }
+
+    @Nullable
+    public synchronized String getConfig(@NotNull String name) {
+        return mConfigGroup.get(name);
+    }
+
+    public synchronized void setConfig(@NotNull String name, @NotNull String value) {
+        mConfigGroup.set(name, value);
+    }
+
+    /**
+     * Sets a statistic, adding the group or the field if needed.
+     *
+     * @param group the name of the stats group.
+     * @param name  the name of the field.
+     * @param value the value.
+     */
+    public synchronized void setStat(@NotNull String group, @NotNull String name, long value) {
+        mStatsGroup.set(group, name, value);
+    }
+
+    /**
+     * Appends an entry to the log of the device.
+     *
+     * @param level   the level, one of the LOG_LEVEL constants.
+     * @param message the message.
+     */
+    public synchronized void log(int level, @NotNull String message) {
+        mLogGroup.append(level, LogGroup.MODULE_DEFAULT, message);
+    }
+
+    /*
+     * Logs an event of the device, with the lock held.
+     */
+    void logEvent(int module, @NotNull String message) {
+        mLogGroup.append(LOG_LEVEL_INFO, module, message);
+    }
+
+    //*******************************************************************************************
+    // Images
+    //*******************************************************************************************
+
+    /**
+     * Creates a valid MCUboot image with the given version and a body of generated data. The image
+     * has a 32 byte header and a TLV trailer with the SHA-256 hash of the header and body.
+     *
+     * @param major      the major version.
+     * @param minor      the minor version.
+     * @param revision   the revision.
+     * @param buildNum   the build number.
+     * @param bodyLength the length of the body.
+     * @return The image.
+     */
+    @NotNull
+    public static byte[] createImage(int major, int minor, int revision, int buildNum,
+                                     int bodyLength) {
+        ByteBuffer image = ByteBuffer
+                .allocate(IMAGE_HEADER_SIZE + bodyLength + TLV_INFO_SIZE + TLV_SHA256_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        image.putInt(IMAGE_MAGIC);
+        image.putInt(0); // load address
+        image.putShort((short) IMAGE_HEADER_SIZE);
+        image.putShort((short) 0); // protected TLV size
+        image.putInt(bodyLength);
+        image.putInt(0); // flags
+        image.put((byte) major);
+        image.put((byte) minor);
+        image.putShort((short) revision);
+        image.putInt(buildNum);
+        image.position(IMAGE_HEADER_SIZE);
+        // The body depends on the version, so that images of different versions differ
+        for (int i = 0; i < bodyLength; i++) {
+            image.put((byte) (i + major * 31 + minor * 17 + revision * 7 + buildNum));
+        }
+        byte[] hash = ImageGroup.sha256(Arrays.copyOf(image.array(), image.position()));
+
+        image.putShort((short) TLV_INFO_MAGIC);
+        image.putShort((short) (TLV_INFO_SIZE + TLV_SHA256_SIZE));
+        image.put((byte) TLV_SHA256);
+        image.put((byte) 0);
+        image.putShort((short) hash.length);
+        image.put(hash);
+        return image.array();
+    }
+}
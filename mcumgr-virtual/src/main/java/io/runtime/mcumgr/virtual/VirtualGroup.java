@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) Intellinium SAS, 2014-present
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package io.runtime.mcumgr.virtual;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+
+import io.runtime.mcumgr.McuMgrErrorCode;
+
+/**
+ * A command group of the {@link VirtualDevice}. Groups are called with the device lock held, one
+ * request at a time.
+ */
+abstract class VirtualGroup {
+
+    @NotNull
+    final VirtualDevice mDevice;
+
+    VirtualGroup(@NotNull VirtualDevice device) {
+        mDevice = device;
+    }
+
+    /**
+     * Handles a request.
+     *
+     * @param write     true for a write request, false for a read request.
+     * @param commandId the ID of the command in the group.
+     * @param request   the entries of the request.
+     * @param response  the entries of the response, to be filled in. Ignored if an error is
+     *                  returned.
+     * @return The return code of the response.
+     */
+    @NotNull
+    abstract McuMgrErrorCode handle(boolean write, int commandId,
+                                    @NotNull Map<String, Object> request,
+                                    @NotNull Map<String, Object> response);
+
+    /**
+     * Called when the device reboots.
+     */
+    void onReboot() {
+    }
+
+    //*******************************************************************************************
+    // Request entries
+    //*******************************************************************************************
+
+    /*
+     * The getters throw ClassCastException for entries of the wrong type, which the device turns
+     * into an IN_VALUE error.
+     */
+
+    @Nullable
+    static String getString(@NotNull Map<String, Object> request, @NotNull String key) {
+        return (String) request.get(key);
+    }
+
+    @Nullable
+    static byte[] getBytes(@NotNull Map<String, Object> request, @NotNull String key) {
+        return (byte[]) request.get(key);
+    }
+
+    static long getLong(@NotNull Map<String, Object> request, @NotNull String key,
+                        long defaultValue) {
+        Number value = (Number) request.get(key);
+        return value != null ? value.longValue() : defaultValue;
+    }
+
+    static boolean getBoolean(@NotNull Map<String, Object> request, @NotNull String key,
+                              boolean defaultValue) {
+        Boolean value = (Boolean) request.get(key);
+        return value != null ? value : defaultValue;
+    }
+}
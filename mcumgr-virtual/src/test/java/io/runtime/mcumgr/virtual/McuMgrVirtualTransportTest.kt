@@ -0,0 +1,176 @@
+package io.runtime.mcumgr.virtual
+
+import io.runtime.mcumgr.McuMgrErrorCode
+import io.runtime.mcumgr.McuMgrScheme
+import io.runtime.mcumgr.McuMgrTransport
+import io.runtime.mcumgr.exception.McuMgrException
+import io.runtime.mcumgr.managers.ConfigManager
+import io.runtime.mcumgr.managers.DefaultManager
+import io.runtime.mcumgr.managers.FsManager
+import io.runtime.mcumgr.managers.ImageManager
+import io.runtime.mcumgr.managers.LogManager
+import io.runtime.mcumgr.managers.StatsManager
+import io.runtime.mcumgr.transfer.UploadCallback
+import io.runtime.mcumgr.transfer.windowUpload
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import kotlin.test.assertEquals
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class McuMgrVirtualTransportTest {
+
+    private class Upload : UploadCallback {
+        val done = CountDownLatch(1)
+        var error: McuMgrException? = null
+
+        override fun onUploadProgressChanged(current: Int, total: Int, timestamp: Long) {}
+
+        override fun onUploadFailed(error: McuMgrException) {
+            this.error = error
+            done.countDown()
+        }
+
+        override fun onUploadCanceled() = done.countDown()
+
+        override fun onUploadCompleted() = done.countDown()
+
+        fun await() {
+            assertTrue(done.await(10, TimeUnit.SECONDS))
+            assertNull(error)
+        }
+    }
+
+    @Test
+    fun `echo with the standard and the CoAP packet formats`() {
+        val device = VirtualDevice()
+        for (scheme in listOf(McuMgrScheme.BLE, McuMgrScheme.COAP_BLE, McuMgrScheme.SERIAL)) {
+            val manager = DefaultManager(McuMgrVirtualTransport(device, scheme))
+            val response = manager.echo("Hello $scheme")
+            assertEquals("Hello $scheme", response.r)
+            assertTrue(response.isSuccess)
+        }
+        val tasks = DefaultManager(McuMgrVirtualTransport(device, McuMgrScheme.BLE)).taskstats()
+        assertEquals(3, tasks.tasks.size)
+    }
+
+    @Test
+    fun `image upload, test, reset and confirm`() {
+        val device = VirtualDevice()
+        val transport = McuMgrVirtualTransport(device, McuMgrScheme.BLE)
+        val image = VirtualDevice.createImage(1, 1, 0, 42, 20000)
+        val manager = ImageManager(transport)
+
+        val upload = Upload()
+        manager.windowUpload(image, 4, upload)
+        upload.await()
+        assertTrue(image.contentEquals(device.getImage(1)!!))
+
+        val state = manager.test(device.getImageHash(1)!!)
+        assertEquals("1.1.0.42", state.images[1].version)
+        assertTrue(state.images[1].pending)
+
+        val disconnected = CountDownLatch(1)
+        transport.addObserver(object : McuMgrTransport.ConnectionObserver {
+            override fun onConnected() {}
+            override fun onDisconnected() = disconnected.countDown()
+        })
+        DefaultManager(transport).reset()
+        assertTrue(disconnected.await(1, TimeUnit.SECONDS))
+
+        var images = manager.list().images
+        assertEquals("1.1.0.42", images[0].version)
+        assertTrue(images[0].active)
+        assertTrue(!images[0].confirmed)
+
+        // An unconfirmed image can't be replaced
+        assertEquals(McuMgrErrorCode.BAD_STATE, manager.upload(image, 0).returnCode)
+
+        manager.confirm(null)
+        device.reboot()
+        images = manager.list().images
+        assertEquals("1.1.0.42", images[0].version)
+        assertTrue(images[0].confirmed)
+        assertEquals("1.0.0", images[1].version)
+    }
+
+    @Test
+    fun `image reverts when not confirmed`() {
+        val device = VirtualDevice()
+        val original = device.getImage(0)!!
+        val transport = McuMgrVirtualTransport(device, McuMgrScheme.COAP_BLE)
+        transport.setMaxPacketLength(256)
+        val manager = ImageManager(transport)
+
+        val upload = Upload()
+        manager.windowUpload(VirtualDevice.createImage(2, 0, 0, 0, 3000), 1, upload)
+        upload.await()
+        manager.test(device.getImageHash(1)!!)
+        device.reboot()
+        assertEquals("2.0.0", manager.list().images[0].version)
+        device.reboot()
+        assertTrue(original.contentEquals(device.getImage(0)!!))
+    }
+
+    @Test
+    fun `file upload and download`() {
+        val device = VirtualDevice()
+        val manager = FsManager(McuMgrVirtualTransport(device, McuMgrScheme.BLE))
+        val data = ByteArray(5000) { it.toByte() }
+
+        val uploaded = CountDownLatch(1)
+        manager.upload("/lfs/data.bin", data, object : FsManager.FileUploadCallback {
+            override fun onProgressChanged(bytesSent: Int, imageSize: Int, timestamp: Long) {}
+            override fun onUploadFailed(error: McuMgrException) {}
+            override fun onUploadCanceled() {}
+            override fun onUploadFinished() = uploaded.countDown()
+        })
+        assertTrue(uploaded.await(10, TimeUnit.SECONDS))
+        assertTrue(data.contentEquals(device.getFile("/lfs/data.bin")!!))
+
+        val downloaded = CountDownLatch(1)
+        var result: ByteArray? = null
+        manager.download("/lfs/data.bin", object : FsManager.FileDownloadCallback {
+            override fun onProgressChanged(bytesDownloaded: Int, imageSize: Int, timestamp: Long) {}
+            override fun onDownloadFailed(error: McuMgrException) {}
+            override fun onDownloadCanceled() {}
+            override fun onDownloadFinished(name: String, data: ByteArray) {
+                result = data
+                downloaded.countDown()
+            }
+        })
+        assertTrue(downloaded.await(10, TimeUnit.SECONDS))
+        assertTrue(data.contentEquals(result!!))
+
+        assertEquals(McuMgrErrorCode.NO_ENTRY, manager.download("/lfs/none", 0).returnCode)
+    }
+
+    @Test
+    fun `config, stats and logs`() {
+        val device = VirtualDevice(VirtualDevice.createImage(1, 0, 0, 0, 100), 4096, 256)
+        val transport = McuMgrVirtualTransport(device, McuMgrScheme.BLE)
+
+        val config = ConfigManager(transport)
+        assertEquals(McuMgrErrorCode.NO_ENTRY, config.read("app/name").returnCode)
+        assertTrue(config.write("app/name", "virtual", true).isSuccess)
+        assertEquals("virtual", config.read("app/name").`val`)
+        assertEquals("virtual", device.getConfig("app/name"))
+
+        device.setStat("ble", "connections", 7)
+        val stats = StatsManager(transport)
+        assertEquals(listOf("smp", "ble"), stats.list().stat_list.toList())
+        assertEquals(7L, stats.read("ble").fields["connections"])
+        assertNotNull(stats.read("smp").fields["requests"])
+
+        // More entries than fit in one response
+        for (i in 0 until 20) {
+            device.log(VirtualDevice.LOG_LEVEL_WARN, "Entry $i")
+        }
+        val state = LogManager(transport).getAll()["log"]!!
+        assertEquals(20, state.entries.size)
+        assertEquals("Entry 19", state.entries[19].messageString)
+        assertEquals(19L, state.entries[19].ts)
+    }
+}